@@ -16,38 +16,40 @@ package com.kdgregory.app.s3util;
 
 import javax.swing.SwingUtilities;
 
-import net.sf.kdgcommons.lang.StringUtil;
-
+import com.kdgregory.app.s3util.cli.CommandLine;
 import com.kdgregory.app.s3util.dialogs.BucketDialogController;
 import com.kdgregory.app.s3util.main.Concierge;
 import com.kdgregory.app.s3util.main.ConfigBean;
 import com.kdgregory.app.s3util.main.MainFrameController;
-import com.kdgregory.app.s3util.s3ops.S3InitialLoadOp;
 
 
 /**
- *  Entry point for the <em>S3Util</em> GUI.
+ *  Entry point for <em>S3Util</em>. With no arguments, runs the GUI; with
+ *  arguments, runs the command-line interface.
  */
 public class Main
 {
     public static void main(String[] argv)
     throws Exception
     {
+        if (argv.length > 0)
+        {
+            CommandLine.main(argv);
+            return;
+        }
+
         final Concierge concierge = new Concierge(new ConfigBean());
         SwingUtilities.invokeAndWait(new Runnable()
         {
             @Override
             public void run()
             {
-                new MainFrameController(concierge).buildAndShow();
-                if (StringUtil.isEmpty(concierge.getConfig().getAmazonBucketName()))
+                MainFrameController mainFrame = new MainFrameController(concierge);
+                mainFrame.buildAndShow();
+                if (!mainFrame.restoreBuckets())
                 {
                     new BucketDialogController(concierge).show();
                 }
-                else
-                {
-                    new S3InitialLoadOp(concierge).start();
-                }
             }
         });
     }
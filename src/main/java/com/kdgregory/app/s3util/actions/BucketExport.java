@@ -0,0 +1,75 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.actions;
+
+import java.awt.event.ActionEvent;
+import java.io.File;
+
+import javax.swing.AbstractAction;
+import javax.swing.JFileChooser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.report.ListingExporter;
+import com.kdgregory.app.s3util.s3ops.S3ExportOp;
+
+
+/**
+ *  Exports the current bucket's listing, after asking the user where to save
+ *  it. The format is chosen by the file's extension: <code>.jsonl</code> for
+ *  JSON Lines, otherwise CSV.
+ */
+public class BucketExport
+extends AbstractAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Concierge concierge;
+    private JFileChooser chooser;
+
+
+    public BucketExport(Concierge concierge)
+    {
+        super("Export Listing...");
+        this.concierge = concierge;
+    }
+
+//----------------------------------------------------------------------------
+//  ActionListener
+//----------------------------------------------------------------------------
+
+    @Override
+    public void actionPerformed(ActionEvent evt)
+    {
+        logger.info("invoked");
+
+        // created lazily, and retained so that it remembers the last directory
+        if (chooser == null)
+            chooser = new JFileChooser();
+
+        String bucketName = concierge.getConfig().getAmazonBucketName();
+        chooser.setDialogTitle("Export Listing for " + bucketName);
+        chooser.setSelectedFile(new File(chooser.getCurrentDirectory(), bucketName + ".csv"));
+        if (chooser.showSaveDialog(concierge.getDialogOwner()) != JFileChooser.APPROVE_OPTION)
+            return;
+
+        File file = chooser.getSelectedFile();
+        new S3ExportOp(concierge, null, ListingExporter.Format.forFile(file), file).start();
+    }
+}
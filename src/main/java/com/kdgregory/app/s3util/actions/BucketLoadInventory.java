@@ -0,0 +1,75 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.actions;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.AbstractAction;
+import javax.swing.JFileChooser;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.s3ops.S3RefreshOp;
+
+
+/**
+ *  Populates the current bucket's file list from a local copy of its S3
+ *  Inventory, rather than listing the bucket.
+ */
+public class BucketLoadInventory
+extends AbstractAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Concierge concierge;
+    private JFileChooser chooser;
+
+
+    public BucketLoadInventory(Concierge concierge)
+    {
+        super("Load Inventory...");
+        this.concierge = concierge;
+    }
+
+//----------------------------------------------------------------------------
+//  ActionListener
+//----------------------------------------------------------------------------
+
+    @Override
+    public void actionPerformed(ActionEvent evt)
+    {
+        logger.info("invoked");
+
+        // created lazily, and retained so that it remembers the last directory
+        if (chooser == null)
+        {
+            chooser = new JFileChooser();
+            chooser.setFileFilter(new FileNameExtensionFilter("Inventory manifest (manifest.json)", "json"));
+        }
+
+        chooser.setDialogTitle("Select Inventory Manifest for " + concierge.getConfig().getAmazonBucketName());
+        if (chooser.showOpenDialog(concierge.getDialogOwner()) != JFileChooser.APPROVE_OPTION)
+            return;
+
+        new S3RefreshOp(concierge)
+            .setInventory(chooser.getSelectedFile())
+            .start();
+    }
+}
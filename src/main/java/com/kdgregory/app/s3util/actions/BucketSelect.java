@@ -26,7 +26,7 @@ import com.kdgregory.app.s3util.main.Concierge;
 
 
 /**
- *  Displays the "Select Bucket" dialog.
+ *  Displays the "Select Bucket" dialog, to open a bucket in a new tab.
  */
 public class BucketSelect
 extends AbstractAction
@@ -40,7 +40,7 @@ extends AbstractAction
 
     public BucketSelect(Concierge concierge)
     {
-        super("Select...");
+        super("Open...");
         this.dialog = new BucketDialogController(concierge);
     }
 
@@ -0,0 +1,101 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.actions;
+
+import java.awt.event.ActionEvent;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.JOptionPane;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.s3ops.S3CopyOp;
+
+
+/**
+ *  Prompts for a destination, then copies the selected files there. The
+ *  destination may be a prefix in the current bucket, or an S3 URI naming
+ *  another bucket. Files keep their paths relative to the longest prefix
+ *  that they share.
+ */
+public class FileCopy
+extends AbstractAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Concierge concierge;
+    private boolean move;
+
+
+    public FileCopy(Concierge concierge)
+    {
+        this(concierge, "Copy Selected...", 'C', false);
+    }
+
+
+    protected FileCopy(Concierge concierge, String name, char mnemonic, boolean move)
+    {
+        super(name);
+        putValue(MNEMONIC_KEY, Integer.valueOf(mnemonic));
+        setEnabled(false);
+
+        this.concierge = concierge;
+        this.move = move;
+    }
+
+//----------------------------------------------------------------------------
+//  ActionListener
+//----------------------------------------------------------------------------
+
+    @Override
+    public void actionPerformed(ActionEvent evt)
+    {
+        logger.info("invoked");
+
+        List<S3File> files = concierge.getMainFrame().getSelectedFiles();
+        String srcPrefix = S3CopyOp.commonPrefix(files);
+        String dest = (String)JOptionPane.showInputDialog(
+                            concierge.getDialogOwner(),
+                            "Destination prefix, or s3://bucket/prefix for another bucket:",
+                            move ? "Move Files" : "Copy Files",
+                            JOptionPane.QUESTION_MESSAGE,
+                            null, null, srcPrefix);
+        logger.debug("selected destination: {}", dest);
+        if ((dest == null) || dest.trim().isEmpty())
+            return;
+
+        String destBucket = null;
+        String destPrefix = dest.trim();
+        if (destPrefix.startsWith("s3://"))
+        {
+            String remainder = destPrefix.substring(5);
+            int slashIdx = remainder.indexOf('/');
+            destBucket = (slashIdx < 0) ? remainder : remainder.substring(0, slashIdx);
+            destPrefix = (slashIdx < 0) ? "" : remainder.substring(slashIdx + 1);
+        }
+        if (destPrefix.startsWith("/"))
+            destPrefix = destPrefix.substring(1);
+        if (!destPrefix.isEmpty() && !destPrefix.endsWith("/"))
+            destPrefix += "/";
+
+        new S3CopyOp(concierge, files, srcPrefix, destBucket, destPrefix, move).start();
+    }
+}
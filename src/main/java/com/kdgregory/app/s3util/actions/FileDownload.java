@@ -28,11 +28,13 @@ import org.slf4j.LoggerFactory;
 import com.kdgregory.app.s3util.dialogs.DownloadDialogController;
 import com.kdgregory.app.s3util.main.Concierge;
 import com.kdgregory.app.s3util.s3ops.S3DownloadOp;
+import com.kdgregory.app.s3util.s3ops.S3ZipDownloadOp;
 
 
 /**
  *  Initiates the download process, displaying a file chooser and handling
- *  its response.
+ *  its response. When downloading to an archive, it's named after the bucket,
+ *  with a numeric suffix if that name is already taken.
  */
 public class FileDownload
 extends AbstractAction
@@ -67,7 +69,15 @@ extends AbstractAction
         logger.info("invoked");
         File selected = dialogController.show();
         logger.debug("selected directory: " + selected);
-        if (selected != null)
+        if ((selected != null) && dialogController.getZip())
+        {
+            new S3ZipDownloadOp(
+                    concierge,
+                    concierge.getMainFrame().getSelectedFiles(),
+                    archiveFile(selected))
+            .start();
+        }
+        else if (selected != null)
         {
             new S3DownloadOp(
                     concierge,
@@ -77,4 +87,17 @@ extends AbstractAction
             .start();
         }
     }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private File archiveFile(File dir)
+    {
+        String baseName = concierge.getConfig().getAmazonBucketName();
+        File file = new File(dir, baseName + ".zip");
+        for (int ii = 1 ; file.exists() ; ii++)
+            file = new File(dir, baseName + "-" + ii + ".zip");
+        return file;
+    }
 }
@@ -0,0 +1,34 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.actions;
+
+import com.kdgregory.app.s3util.main.Concierge;
+
+
+/**
+ *  Prompts for a destination, then moves the selected files there. This is
+ *  a server-side copy followed by a delete of the original.
+ */
+public class FileMove
+extends FileCopy
+{
+    private static final long serialVersionUID = 1L;
+
+
+    public FileMove(Concierge concierge)
+    {
+        super(concierge, "Move Selected...", 'M', true);
+    }
+}
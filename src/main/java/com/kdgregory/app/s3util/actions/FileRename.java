@@ -0,0 +1,87 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.actions;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.AbstractAction;
+import javax.swing.JOptionPane;
+import javax.swing.KeyStroke;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.s3ops.S3CopyOp;
+
+
+/**
+ *  Prompts for a new key, then moves the selected file to it; should only be
+ *  enabled when there's a single selected file.
+ */
+public class FileRename
+extends AbstractAction
+{
+    private static final long serialVersionUID = 1L;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Concierge concierge;
+
+
+    public FileRename(Concierge concierge)
+    {
+        super("Rename...");
+        putValue(MNEMONIC_KEY, Integer.valueOf('R'));
+        putValue(ACCELERATOR_KEY, KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0));
+        setEnabled(false);
+
+        this.concierge = concierge;
+    }
+
+//----------------------------------------------------------------------------
+//  ActionListener
+//----------------------------------------------------------------------------
+
+    @Override
+    public void actionPerformed(ActionEvent evt)
+    {
+        logger.info("invoked");
+
+        List<S3File> selection = concierge.getMainFrame().getSelectedFiles();
+        if (selection.size() != 1)
+        {
+            logger.debug("{} files selected; ignored", selection.size());
+            return;
+        }
+
+        S3File file = selection.get(0);
+        String newKey = (String)JOptionPane.showInputDialog(
+                            concierge.getDialogOwner(),
+                            "New name:",
+                            "Rename File",
+                            JOptionPane.QUESTION_MESSAGE,
+                            null, null, file.getKey());
+        logger.debug("new key: {}", newKey);
+        if ((newKey == null) || newKey.trim().isEmpty() || newKey.equals(file.getKey()))
+            return;
+
+        new S3CopyOp(concierge, Arrays.asList(file), file.getKey(), null, newKey.trim(), true).start();
+    }
+}
@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 
 import com.kdgregory.app.s3util.dialogs.UploadDialogController;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.s3ops.S3ArchiveUploadOp;
 import com.kdgregory.app.s3util.s3ops.S3UploadOp;
 
 
@@ -67,11 +68,24 @@ extends AbstractAction
             return;
         }
 
+        if (dialogController.getExtract())
+        {
+            new S3ArchiveUploadOp(
+                    concierge,
+                    dialogController.getSelectedFiles(),
+                    dialogController.getDestination(),
+                    dialogController.getMakePublic())
+            .start();
+            return;
+        }
+
         new S3UploadOp(
                 concierge,
                 dialogController.getSelectedFiles(),
                 dialogController.getDestination(),
-                dialogController.getMakePublic())
+                dialogController.getMakePublic(),
+                dialogController.getCompress(),
+                dialogController.getPack())
         .start();
     }
 }
@@ -0,0 +1,586 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.cli;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.main.ConfigBean;
+import com.kdgregory.app.s3util.report.ListingExporter;
+import com.kdgregory.app.s3util.s3ops.S3ArchiveUploadOp;
+import com.kdgregory.app.s3util.s3ops.S3BucketListOp;
+import com.kdgregory.app.s3util.s3ops.S3CopyOp;
+import com.kdgregory.app.s3util.s3ops.S3DeleteOp;
+import com.kdgregory.app.s3util.s3ops.S3DownloadOp;
+import com.kdgregory.app.s3util.s3ops.S3ExportOp;
+import com.kdgregory.app.s3util.s3ops.S3ListOp;
+import com.kdgregory.app.s3util.s3ops.S3ReportOp;
+import com.kdgregory.app.s3util.s3ops.S3SyncOp;
+import com.kdgregory.app.s3util.s3ops.S3UploadOp;
+import com.kdgregory.app.s3util.s3ops.S3ZipDownloadOp;
+import com.kdgregory.app.s3util.transfer.ArchiveReader;
+
+
+/**
+ *  Entry point for the command-line interface, invoked by {@link com.kdgregory.app.s3util.Main}
+ *  when there are arguments. Each command runs one or more operations headless,
+ *  on the calling thread. Output is written as it's produced, so listings of any
+ *  size run in constant memory. Logging goes to stderr, and is limited to warnings
+ *  unless <code>-v</code> is given.
+ */
+public class CommandLine
+{
+    private final static String USAGE
+        = "usage: s3util COMMAND [OPTIONS] ARGS\n"
+        + "\n"
+        + "    ls                               list buckets\n"
+        + "    ls [-l] [-r] s3://BUCKET[/PREFIX]  list objects; -r lists without rolling up \"directories\"\n"
+        + "    get [-r] [--flatten] s3://BUCKET/KEY... DIR\n"
+        + "                                     download; -r treats KEY as a prefix and keeps the\n"
+        + "                                     full key path unless --flatten is given\n"
+        + "    get --zip [-r] s3://BUCKET/KEY... ARCHIVE\n"
+        + "                                     download into a single zip archive\n"
+        + "    put [-r] [--public] [--gzip] [--pack] FILE... s3://BUCKET[/PREFIX]\n"
+        + "                                     upload; -r is required for directories, --gzip\n"
+        + "                                     compresses text files as they're uploaded, --pack\n"
+        + "                                     combines small files into pack objects\n"
+        + "    put --extract [--public] ARCHIVE... s3://BUCKET[/PREFIX]\n"
+        + "                                     upload the files inside zip or tar archives as\n"
+        + "                                     separate objects, without extracting them\n"
+        + "    rm [-r] s3://BUCKET/KEY...       delete; -r treats KEY as a prefix\n"
+        + "    cp [-r] SRC DEST                 copy; at least one of SRC/DEST must be an s3:// URI,\n"
+        + "                                     S3-to-S3 copies are performed by S3\n"
+        + "    sync [--delete] [--dry-run] SRC DEST\n"
+        + "                                     make DEST match SRC, where one is a local directory\n"
+        + "                                     and the other is s3://BUCKET[/PREFIX]; --delete removes\n"
+        + "                                     files that aren't in SRC\n"
+        + "    report s3://BUCKET[/PREFIX] [FILE]\n"
+        + "                                     size and age distributions, with the largest and\n"
+        + "                                     newest objects, as CSV to FILE or stdout\n"
+        + "    report --inventory MANIFEST [FILE]\n"
+        + "                                     the same, from a local copy of an S3 Inventory\n"
+        + "                                     report (CSV format), rather than listing the bucket\n"
+        + "    export [--jsonl] s3://BUCKET[/PREFIX] [FILE]\n"
+        + "    export [--jsonl] --inventory MANIFEST [FILE]\n"
+        + "                                     write key, size, lastModified, ETag, and storage class\n"
+        + "                                     as CSV (or JSON Lines) to FILE or stdout\n"
+        + "\n"
+        + "    -v                               verbose logging (to stderr)\n";
+
+    private final static int EXIT_SUCCESS = 0;
+    private final static int EXIT_FAILURE = 1;
+    private final static int EXIT_USAGE = 2;
+
+
+    public static void main(String[] argv)
+    throws Exception
+    {
+        // these must be set before anything touches logging or AWT
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("s3util.log.target", "System.err");
+        System.setProperty("s3util.log.level", Arrays.asList(argv).contains("-v") ? "debug" : "warn");
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 65536), false, "UTF-8");
+        int status = new CommandLine(new Concierge(new ConfigBean()), out, System.err).run(argv);
+        out.flush();
+        System.exit(status);
+    }
+
+//----------------------------------------------------------------------------
+//  Instance data and constructor
+//----------------------------------------------------------------------------
+
+    private Concierge concierge;
+    private PrintStream out;
+    private PrintStream err;
+
+    private Set<String> flags = new HashSet<>();
+    private List<String> args = new ArrayList<>();
+
+
+    public CommandLine(Concierge concierge, PrintStream out, PrintStream err)
+    {
+        this.concierge = concierge;
+        this.out = out;
+        this.err = err;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Executes the command described by the passed arguments, returning a
+     *  process exit code.
+     */
+    public int run(String[] argv)
+    {
+        if (argv.length == 0)
+            return usage(null);
+
+        String command = argv[0];
+        for (String arg : Arrays.asList(argv).subList(1, argv.length))
+        {
+            if (arg.startsWith("-"))
+                flags.add(arg);
+            else
+                args.add(arg);
+        }
+        flags.remove("-v");
+
+        try
+        {
+            switch (command)
+            {
+                case "ls" :
+                    return ls();
+                case "get" :
+                    return get();
+                case "put" :
+                    return put();
+                case "rm" :
+                    return rm();
+                case "cp" :
+                    return cp();
+                case "sync" :
+                    return sync();
+                case "report" :
+                    return report();
+                case "export" :
+                    return export();
+                case "help" :
+                case "-h" :
+                case "--help" :
+                    return usage(null);
+                default :
+                    return usage("unknown command: " + command);
+            }
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return usage(ex.getMessage());
+        }
+        catch (Exception ex)
+        {
+            out.flush();
+            err.println("error: " + ex.getMessage());
+            return EXIT_FAILURE;
+        }
+        finally
+        {
+            out.flush();
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Commands
+//----------------------------------------------------------------------------
+
+    private int ls()
+    throws Exception
+    {
+        checkFlags("-l", "-r");
+        if (args.isEmpty())
+        {
+            for (String bucket : new S3BucketListOp(concierge, null).runHeadless(null))
+                out.println(bucket);
+            return EXIT_SUCCESS;
+        }
+
+        final boolean longFormat = flags.contains("-l");
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        for (String arg : args)
+        {
+            S3Uri uri = S3Uri.parse(arg);
+            String delimiter = flags.contains("-r") ? null : "/";
+            new S3ListOp(concierge, uri.key, delimiter, (objects, prefixes) ->
+            {
+                for (String prefix : prefixes)
+                {
+                    out.println(longFormat ? String.format("%12s %19s %s", "PRE", "", prefix) : prefix);
+                }
+                for (S3ObjectSummary obj : objects)
+                {
+                    if (longFormat)
+                        out.println(String.format("%12d %19s %s", obj.getSize(), dateFormat.format(obj.getLastModified()), obj.getKey()));
+                    else
+                        out.println(obj.getKey());
+                }
+            })
+            .setBucketName(uri.bucket)
+            .runHeadless(null);
+        }
+        return EXIT_SUCCESS;
+    }
+
+
+    private int get()
+    throws Exception
+    {
+        checkFlags("-r", "--flatten", "--zip");
+        if (args.size() < 2)
+            throw new IllegalArgumentException("get requires at least one source and a destination");
+        if (flags.contains("--zip"))
+            return getZip();
+
+        final File dest = new File(args.get(args.size() - 1));
+        if (!dest.isDirectory())
+            throw new IllegalArgumentException("destination must be an existing directory: " + dest);
+
+        for (String arg : args.subList(0, args.size() - 1))
+        {
+            final S3Uri uri = S3Uri.parse(arg);
+            if (flags.contains("-r"))
+            {
+                final boolean flatten = flags.contains("--flatten");
+                forEachPage(uri, (files) ->
+                    new S3DownloadOp(concierge, files, dest, flatten)
+                    .setBucketName(uri.bucket)
+                    .runHeadless(out));
+            }
+            else
+            {
+                new S3DownloadOp(concierge, Arrays.asList(uri.toS3File()), dest, true)
+                .setBucketName(uri.bucket)
+                .runHeadless(out);
+            }
+        }
+        return EXIT_SUCCESS;
+    }
+
+
+    /**
+     *  Downloads into an archive. Since the archive is written by a single
+     *  operation, a recursive download holds the listing in memory.
+     */
+    private int getZip()
+    throws Exception
+    {
+        if (flags.contains("--flatten"))
+            throw new IllegalArgumentException("--flatten can't be used with --zip");
+
+        File archive = new File(args.get(args.size() - 1));
+        String bucket = null;
+        final List<S3File> files = new ArrayList<>();
+        for (String arg : args.subList(0, args.size() - 1))
+        {
+            S3Uri uri = S3Uri.parse(arg);
+            if ((bucket != null) && !bucket.equals(uri.bucket))
+                throw new IllegalArgumentException("all sources must be in the same bucket");
+            bucket = uri.bucket;
+
+            if (flags.contains("-r"))
+                forEachPage(uri, (page) -> files.addAll(page));
+            else
+                files.add(uri.toS3File());
+        }
+
+        new S3ZipDownloadOp(concierge, files, archive)
+        .setBucketName(bucket)
+        .runHeadless(out);
+        return EXIT_SUCCESS;
+    }
+
+
+    private int put()
+    throws Exception
+    {
+        checkFlags("-r", "--public", "--gzip", "--pack", "--extract");
+        if (args.size() < 2)
+            throw new IllegalArgumentException("put requires at least one source and a destination");
+
+        S3Uri dest = S3Uri.parse(args.get(args.size() - 1));
+        if (flags.contains("--extract"))
+            return putExtract(dest);
+
+        List<File> files = new ArrayList<>();
+        for (String arg : args.subList(0, args.size() - 1))
+        {
+            File file = new File(arg);
+            if (!file.exists())
+                throw new IllegalArgumentException("file does not exist: " + arg);
+            if (file.isDirectory() && !flags.contains("-r"))
+                throw new IllegalArgumentException("use -r to upload directories: " + arg);
+            files.add(file);
+        }
+
+        new S3UploadOp(concierge, files.toArray(new File[files.size()]), dest.key,
+                       flags.contains("--public"), flags.contains("--gzip"), flags.contains("--pack"))
+        .setBucketName(dest.bucket)
+        .runHeadless(out);
+        return EXIT_SUCCESS;
+    }
+
+
+    private int putExtract(S3Uri dest)
+    throws Exception
+    {
+        checkFlags("--public", "--extract");
+        List<File> archives = new ArrayList<>();
+        for (String arg : args.subList(0, args.size() - 1))
+        {
+            File file = new File(arg);
+            if (!file.isFile())
+                throw new IllegalArgumentException("file does not exist: " + arg);
+            if (!ArchiveReader.isArchive(file))
+                throw new IllegalArgumentException("not a zip or tar archive: " + arg);
+            archives.add(file);
+        }
+
+        new S3ArchiveUploadOp(concierge, archives.toArray(new File[archives.size()]), dest.key,
+                              flags.contains("--public"))
+        .setBucketName(dest.bucket)
+        .runHeadless(out);
+        return EXIT_SUCCESS;
+    }
+
+
+    private int rm()
+    throws Exception
+    {
+        checkFlags("-r");
+        if (args.isEmpty())
+            throw new IllegalArgumentException("rm requires at least one S3 URI");
+
+        for (String arg : args)
+        {
+            final S3Uri uri = S3Uri.parse(arg);
+            if (flags.contains("-r"))
+            {
+                forEachPage(uri, (files) ->
+                    new S3DeleteOp(concierge, files)
+                    .setBucketName(uri.bucket)
+                    .runHeadless(out));
+            }
+            else
+            {
+                new S3DeleteOp(concierge, Arrays.asList(uri.toS3File()))
+                .setBucketName(uri.bucket)
+                .runHeadless(out);
+            }
+        }
+        return EXIT_SUCCESS;
+    }
+
+
+    private int cp()
+    throws Exception
+    {
+        checkFlags("-r", "--public", "--gzip", "--pack", "--flatten");
+        if (args.size() != 2)
+            throw new IllegalArgumentException("cp requires a source and a destination");
+
+        String src = args.get(0);
+        String dst = args.get(1);
+        boolean srcIsS3 = S3Uri.isS3(src);
+        boolean dstIsS3 = S3Uri.isS3(dst);
+
+        if (!srcIsS3 && dstIsS3)
+            return put();
+        if (srcIsS3 && !dstIsS3)
+            return get();
+        if (!srcIsS3 && !dstIsS3)
+            throw new IllegalArgumentException("at least one of source and destination must be an s3:// URI");
+
+        final S3Uri srcUri = S3Uri.parse(src);
+        final S3Uri dstUri = S3Uri.parse(dst);
+        if (flags.contains("-r"))
+        {
+            final String dstPrefix = dstUri.key.isEmpty() || dstUri.key.endsWith("/")
+                                   ? dstUri.key
+                                   : dstUri.key + "/";
+            forEachPage(srcUri, (files) ->
+                new S3CopyOp(concierge, files, srcUri.key, dstUri.bucket, dstPrefix, false)
+                .setBucketName(srcUri.bucket)
+                .runHeadless(out));
+        }
+        else
+        {
+            // copying to a "directory" keeps the source filename; otherwise DEST is the new key
+            S3File srcFile = srcUri.toS3File();
+            String dstKey = (dstUri.key.isEmpty() || dstUri.key.endsWith("/"))
+                          ? dstUri.key + srcFile.getFile().getName()
+                          : dstUri.key;
+            new S3CopyOp(concierge, Arrays.asList(srcFile), srcFile.getKey(), dstUri.bucket, dstKey, false)
+            .setBucketName(srcUri.bucket)
+            .runHeadless(out);
+        }
+        return EXIT_SUCCESS;
+    }
+
+
+    private int sync()
+    throws Exception
+    {
+        checkFlags("--delete", "--dry-run");
+        if (args.size() != 2)
+            throw new IllegalArgumentException("sync requires a source and a destination");
+
+        String src = args.get(0);
+        String dst = args.get(1);
+        if (S3Uri.isS3(src) == S3Uri.isS3(dst))
+            throw new IllegalArgumentException("sync requires one local directory and one s3:// URI");
+
+        S3SyncOp.Direction direction = S3Uri.isS3(dst) ? S3SyncOp.Direction.UPLOAD : S3SyncOp.Direction.DOWNLOAD;
+        S3Uri uri = S3Uri.parse(S3Uri.isS3(dst) ? dst : src);
+        File localDir = new File(S3Uri.isS3(dst) ? src : dst);
+
+        S3SyncOp.Summary summary = new S3SyncOp(concierge, localDir, uri.key, direction,
+                                                flags.contains("--delete"), flags.contains("--dry-run"))
+                                   .setBucketName(uri.bucket)
+                                   .runHeadless(out);
+        out.println((flags.contains("--dry-run") ? "(dry run) " : "") + summary);
+        return EXIT_SUCCESS;
+    }
+
+
+    private int report()
+    throws Exception
+    {
+        checkFlags("--inventory");
+        if ((args.size() < 1) || (args.size() > 2))
+            throw new IllegalArgumentException("report requires a source and an optional output file");
+
+        S3ReportOp op;
+        if (flags.contains("--inventory"))
+        {
+            File manifest = new File(args.get(0));
+            if (!manifest.isFile())
+                throw new IllegalArgumentException("inventory manifest does not exist: " + manifest);
+            op = new S3ReportOp(concierge, null, S3ReportOp.DEFAULT_TOP_K).setInventory(manifest);
+        }
+        else
+        {
+            S3Uri uri = S3Uri.parse(args.get(0));
+            op = new S3ReportOp(concierge, uri.key, S3ReportOp.DEFAULT_TOP_K);
+            op.setBucketName(uri.bucket);
+        }
+        if (args.size() == 2)
+        {
+            op.setOutputFile(new File(args.get(1)));
+            op.runHeadless(null);
+        }
+        else
+        {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            op.runHeadless(null).writeCsv(writer);
+        }
+        return EXIT_SUCCESS;
+    }
+
+
+    private int export()
+    throws Exception
+    {
+        checkFlags("--jsonl", "--inventory");
+        if ((args.size() < 1) || (args.size() > 2))
+            throw new IllegalArgumentException("export requires a source and an optional output file");
+
+        ListingExporter.Format format = flags.contains("--jsonl") ? ListingExporter.Format.JSONL
+                                                                  : ListingExporter.Format.CSV;
+        File outputFile = (args.size() == 2) ? new File(args.get(1)) : null;
+
+        S3ExportOp op;
+        if (flags.contains("--inventory"))
+        {
+            File manifest = new File(args.get(0));
+            if (!manifest.isFile())
+                throw new IllegalArgumentException("inventory manifest does not exist: " + manifest);
+            op = (outputFile != null) ? new S3ExportOp(concierge, null, format, outputFile)
+                                      : new S3ExportOp(concierge, null, format, out);
+            op.setInventory(manifest);
+        }
+        else
+        {
+            S3Uri uri = S3Uri.parse(args.get(0));
+            op = (outputFile != null) ? new S3ExportOp(concierge, uri.key, format, outputFile)
+                                      : new S3ExportOp(concierge, uri.key, format, out);
+            op.setBucketName(uri.bucket);
+        }
+        op.runHeadless(null);
+        return EXIT_SUCCESS;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private int usage(String message)
+    {
+        if (message != null)
+            err.println("error: " + message);
+        err.print(USAGE);
+        return (message == null) ? EXIT_SUCCESS : EXIT_USAGE;
+    }
+
+
+    private void checkFlags(String... allowed)
+    {
+        Set<String> unknown = new HashSet<>(flags);
+        unknown.removeAll(Arrays.asList(allowed));
+        if (!unknown.isEmpty())
+            throw new IllegalArgumentException("unsupported option(s): " + unknown);
+    }
+
+
+    /**
+     *  Lists everything under the URI's key (treated as a prefix), invoking
+     *  the handler with each page of files. This is how the recursive commands
+     *  stay within constant memory.
+     */
+    private void forEachPage(S3Uri uri, final FilePageHandler handler)
+    throws Exception
+    {
+        new S3ListOp(concierge, uri.key, null, (objects, prefixes) ->
+        {
+            List<S3File> files = new ArrayList<>(objects.size());
+            for (S3ObjectSummary obj : objects)
+            {
+                // skip "folder" objects, as the GUI does
+                if (obj.getSize() > 0)
+                    files.add(new S3File(obj.getKey(), obj.getSize(), obj.getLastModified()));
+            }
+            if (!files.isEmpty())
+                handler.handle(files);
+        })
+        .setBucketName(uri.bucket)
+        .runHeadless(null);
+    }
+
+
+    private interface FilePageHandler
+    {
+        void handle(List<S3File> files) throws Exception;
+    }
+}
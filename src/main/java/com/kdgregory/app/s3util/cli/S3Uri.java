@@ -0,0 +1,77 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.cli;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+
+
+/**
+ *  A parsed <code>s3://bucket/key</code> URI, as used by {@link CommandLine}.
+ *  The key may be empty (refers to the entire bucket), or end with a slash
+ *  (refers to a "directory").
+ */
+class S3Uri
+{
+    public final String bucket;
+    public final String key;
+
+
+    private S3Uri(String bucket, String key)
+    {
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+
+    /**
+     *  Determines whether the passed argument is an S3 URI (as opposed to a
+     *  local file).
+     */
+    public static boolean isS3(String value)
+    {
+        return value.startsWith("s3://");
+    }
+
+
+    /**
+     *  Parses the passed argument, throwing <code>IllegalArgumentException</code>
+     *  if it isn't an S3 URI or doesn't have a bucket name.
+     */
+    public static S3Uri parse(String value)
+    {
+        if (!isS3(value))
+            throw new IllegalArgumentException("not an S3 URI: " + value);
+
+        String remainder = value.substring(5);
+        int slashIdx = remainder.indexOf('/');
+        String bucket = (slashIdx < 0) ? remainder : remainder.substring(0, slashIdx);
+        String key = (slashIdx < 0) ? "" : remainder.substring(slashIdx + 1);
+        if (bucket.isEmpty())
+            throw new IllegalArgumentException("missing bucket name: " + value);
+        return new S3Uri(bucket, key);
+    }
+
+
+    /**
+     *  Returns the file identified by this URI, throwing if it doesn't
+     *  identify a single object.
+     */
+    public S3File toS3File()
+    {
+        if (key.isEmpty() || key.endsWith("/"))
+            throw new IllegalArgumentException("not an object key (use -r for prefixes): s3://" + bucket + "/" + key);
+        return new S3File(key);
+    }
+}
@@ -34,7 +34,6 @@ import net.sf.kdgcommons.lang.StringUtil;
 
 import com.kdgregory.app.s3util.main.Concierge;
 import com.kdgregory.app.s3util.s3ops.S3BucketListOp;
-import com.kdgregory.app.s3util.s3ops.S3InitialLoadOp;
 import com.kdgregory.swinglib.SwingUtil;
 import com.kdgregory.swinglib.UIHelper;
 import com.kdgregory.swinglib.actions.DialogCloseAction;
@@ -43,8 +42,8 @@ import com.kdgregory.swinglib.field.FieldWatcher;
 
 /**
  *  Manages a modal dialog that allows the user to select/create a bucket.
- *  Once a bucket has been selected, the prefs are updated with that bucket's
- *  name and a request is sent to refresh the main window.
+ *  Once a bucket has been selected, it's opened in the main window (or its
+ *  tab is selected, if it's already open).
  */
 public class BucketDialogController
 implements S3BucketListOp.Callback
@@ -88,13 +87,20 @@ implements S3BucketListOp.Callback
 //----------------------------------------------------------------------------
 
     /**
-     *  Resets the current list contents to "Loading" and kicks of a request
-     *  for new contents.
+     *  Shows the cached bucket list, if there is one, and kicks off a request
+     *  for new contents if the cache is stale. If there's no cached list, the
+     *  list shows "Loading" until the request completes.
      */
     private void refreshList()
     {
-        fBucketList.setListData(new String[] { "Loading..." });
-        new S3BucketListOp(concierge, this).start();
+        List<String> cached = concierge.getBucketCache().getBucketList();
+        if (cached != null)
+            setBucketList(cached);
+        else
+            fBucketList.setListData(new String[] { "Loading..." });
+
+        if (concierge.getBucketCache().isBucketListStale())
+            new S3BucketListOp(concierge, this).start();
     }
 
 
@@ -104,10 +110,16 @@ implements S3BucketListOp.Callback
     @Override
     public void setBucketList(List<String> list)
     {
+        // a background refresh may replace the list while the user is looking
+        // at it; if so, we want to keep their selection
+        String previous = fBucketList.getSelectedValue();
+
         String[] list2 = list.toArray(new String[list.size()]);
         fBucketList.setListData(list2);
 
-        String current = concierge.getConfig().getAmazonBucketName();
+        String current = list.contains(previous)
+                       ? previous
+                       : concierge.getConfig().getAmazonBucketName();
         if (! StringUtil.isEmpty(current))
         {
             fBucketList.setSelectedValue(current, true);
@@ -189,11 +201,8 @@ implements S3BucketListOp.Callback
         {
             theDialog.setVisible(false);
             String selected = fBucketName.getText();
-            concierge.getConfig().setAmazonBucketName(selected);
-            concierge.getMainFrame().resetBucket();
-
             if (! StringUtil.isBlank(selected))
-                new S3InitialLoadOp(concierge).start();
+                concierge.getMainFrame().openBucket(selected.trim());
         }
     }
 }
@@ -41,6 +41,7 @@ public class DownloadDialogController
     private JDialog theDialog;
     private JFileChooser fChooser;
     private JCheckBox fFlatten;
+    private JCheckBox fZip;
 
 
     public DownloadDialogController(Concierge concierge)
@@ -94,6 +95,16 @@ public class DownloadDialogController
     }
 
 
+    /**
+     *  Retrieves the "zip" checkbox value: if set, the files should be written
+     *  to a single archive in the selected directory.
+     */
+    public boolean getZip()
+    {
+        return fZip.isSelected();
+    }
+
+
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
@@ -118,11 +129,16 @@ public class DownloadDialogController
         fChooser.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         fFlatten = new JCheckBox("Flatten directories");
+        fZip = new JCheckBox("Download as a single zip archive");
+
+        // an archive always retains the full key
+        fZip.addItemListener((evt) -> fFlatten.setEnabled(!fZip.isSelected()));
 
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
         panel.add(fChooser);
         panel.add(fFlatten);
+        panel.add(fZip);
         return panel;
     }
 
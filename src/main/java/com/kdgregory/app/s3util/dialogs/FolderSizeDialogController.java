@@ -0,0 +1,254 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.dialogs;
+
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.Timer;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreePath;
+
+import com.kdgregory.app.s3util.filelist.PrefixAggregator;
+import com.kdgregory.app.s3util.filelist.PrefixTreeModel;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.swinglib.SwingUtil;
+
+
+/**
+ *  Manages a non-modal dialog that shows the number of files and total size
+ *  under each prefix of the current bucket, as a tree.
+ *  <p>
+ *  The totals are maintained by the current tab's file list (see
+ *  {@link PrefixAggregator}), so there's no need to re-list the bucket. While
+ *  the dialog is visible, it periodically checks for changes (including a
+ *  switch to a different tab), and refreshes the tree if needed, keeping the
+ *  user's expanded nodes.
+ */
+public class FolderSizeDialogController
+{
+    // how often we check for updates, in milliseconds
+    private final static int REFRESH_INTERVAL = 1000;
+
+    private Concierge concierge;
+
+    // the dialog is lazily constructed by show()
+    private JDialog theDialog;
+    private JTree fTree;
+    private JComboBox<PrefixTreeModel.SortOrder> fSortOrder;
+    private Timer refreshTimer;
+
+    private PrefixTreeModel treeModel;
+
+
+    public FolderSizeDialogController(Concierge concierge)
+    {
+        this.concierge = concierge;
+    }
+
+//----------------------------------------------------------------------------
+//  Public Methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Displays the dialog, or brings it to the front if already displayed.
+     */
+    public void show()
+    {
+        if (theDialog == null)
+            constructDialog();
+
+        checkForUpdates();
+        if (!theDialog.isVisible())
+        {
+            SwingUtil.center(theDialog, concierge.getDialogOwner());
+            theDialog.setVisible(true);
+        }
+        theDialog.toFront();
+        refreshTimer.start();
+    }
+
+//----------------------------------------------------------------------------
+//  Updates
+//----------------------------------------------------------------------------
+
+    /**
+     *  Called by the timer: replaces the tree model if the current bucket has
+     *  changed, and refreshes it if the aggregator has been updated.
+     */
+    private void checkForUpdates()
+    {
+        String bucketName = concierge.getMainFrame().getCurrentBucket();
+        PrefixAggregator aggregator = concierge.getMainFrame().getCurrentPrefixSizes();
+        if (aggregator == null)
+        {
+            aggregator = new PrefixAggregator();
+        }
+
+        theDialog.setTitle("Folder Sizes" + ((bucketName != null) ? " - " + bucketName : ""));
+        if ((treeModel == null) || (treeModel.getAggregator() != aggregator))
+        {
+            treeModel = new PrefixTreeModel(aggregator, (PrefixTreeModel.SortOrder)fSortOrder.getSelectedItem());
+            fTree.setModel(treeModel);
+        }
+        else if (treeModel.isStale())
+        {
+            List<TreePath> expanded = getExpandedPaths();
+            treeModel.refresh();
+            restoreExpandedPaths(expanded);
+        }
+    }
+
+
+    private List<TreePath> getExpandedPaths()
+    {
+        List<TreePath> result = new ArrayList<TreePath>();
+        Enumeration<TreePath> expanded = fTree.getExpandedDescendants(new TreePath(treeModel.getRoot()));
+        if (expanded != null)
+        {
+            while (expanded.hasMoreElements())
+                result.add(expanded.nextElement());
+        }
+        return result;
+    }
+
+
+    /**
+     *  Re-expands paths after a refresh, skipping any that no longer exist
+     *  because their files have been deleted.
+     */
+    private void restoreExpandedPaths(List<TreePath> paths)
+    {
+        PrefixAggregator aggregator = treeModel.getAggregator();
+        for (TreePath path : paths)
+        {
+            PrefixAggregator.Node node = (PrefixAggregator.Node)path.getLastPathComponent();
+            if (aggregator.getNode(node.getPrefix()) == node)
+                fTree.expandPath(path);
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  GUI construction / behavior
+//----------------------------------------------------------------------------
+
+    private void constructDialog()
+    {
+        fSortOrder = new JComboBox<PrefixTreeModel.SortOrder>(PrefixTreeModel.SortOrder.values());
+        fSortOrder.setSelectedItem(PrefixTreeModel.SortOrder.SIZE);
+        fSortOrder.addActionListener(new SortOrderListener());
+
+        JPanel pSortOrder = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        pSortOrder.add(new JLabel("Sort by:"));
+        pSortOrder.add(fSortOrder);
+
+        fTree = new JTree(new PrefixTreeModel(new PrefixAggregator(), PrefixTreeModel.SortOrder.SIZE));
+        fTree.setRootVisible(true);
+        fTree.setShowsRootHandles(true);
+        fTree.setCellRenderer(new NodeRenderer());
+        JScrollPane pTree = new JScrollPane(fTree);
+        pTree.setPreferredSize(new Dimension(500, 400));
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(pSortOrder, BorderLayout.NORTH);
+        panel.add(pTree, BorderLayout.CENTER);
+
+        theDialog = new JDialog(concierge.getDialogOwner(), "Folder Sizes", false);
+        theDialog.setContentPane(panel);
+        theDialog.pack();
+
+        refreshTimer = new Timer(REFRESH_INTERVAL, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent evt)
+            {
+                checkForUpdates();
+            }
+        });
+        theDialog.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosed(WindowEvent evt)
+            {
+                refreshTimer.stop();
+            }
+
+            @Override
+            public void windowClosing(WindowEvent evt)
+            {
+                refreshTimer.stop();
+            }
+        });
+    }
+
+
+    private class SortOrderListener
+    implements ActionListener
+    {
+        @Override
+        public void actionPerformed(ActionEvent evt)
+        {
+            if (treeModel == null)
+                return;
+
+            List<TreePath> expanded = getExpandedPaths();
+            treeModel.setSortOrder((PrefixTreeModel.SortOrder)fSortOrder.getSelectedItem());
+            restoreExpandedPaths(expanded);
+        }
+    }
+
+
+    /**
+     *  Shows each prefix with its totals.
+     */
+    private static class NodeRenderer
+    extends DefaultTreeCellRenderer
+    {
+        private static final long serialVersionUID = 1L;
+
+        private DecimalFormat format = new DecimalFormat("#,##0");
+
+        @Override
+        public Component getTreeCellRendererComponent(
+                JTree tree, Object value, boolean selected, boolean expanded,
+                boolean leaf, int row, boolean hasFocus)
+        {
+            super.getTreeCellRendererComponent(tree, value, selected, expanded, leaf, row, hasFocus);
+            if (value instanceof PrefixAggregator.Node)
+            {
+                PrefixAggregator.Node node = (PrefixAggregator.Node)value;
+                setText(node + "  (" + format.format(node.getCount()) + " files, "
+                        + format.format(node.getBytes()) + " bytes)");
+            }
+            return this;
+        }
+    }
+}
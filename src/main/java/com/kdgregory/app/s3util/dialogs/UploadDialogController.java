@@ -34,6 +34,7 @@ import javax.swing.JTextField;
 import com.kdgregory.swinglib.UIHelper;
 
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.transfer.ArchiveReader;
 
 
 /**
@@ -50,6 +51,9 @@ public class UploadDialogController
     private JTextField fSaveTo;
     private JCheckBox fIsRecursive;
     private JCheckBox fIsPublic;
+    private JCheckBox fCompress;
+    private JCheckBox fPack;
+    private JCheckBox fExtract;
     private Action okAction;
     private Action cancelAction;
 
@@ -113,6 +117,35 @@ public class UploadDialogController
     }
 
 
+    /**
+     *  Returns the "compress text files" indicator.
+     */
+    public boolean getCompress()
+    {
+        return fCompress.isSelected();
+    }
+
+
+    /**
+     *  Returns the "pack small files" indicator.
+     */
+    public boolean getPack()
+    {
+        return fPack.isSelected();
+    }
+
+
+    /**
+     *  Returns the "upload archive contents" indicator. When set, the selected
+     *  files are all archives, and the other options (other than public) don't
+     *  apply.
+     */
+    public boolean getExtract()
+    {
+        return fExtract.isSelected();
+    }
+
+
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
@@ -154,12 +187,25 @@ public class UploadDialogController
         fIsPublic = new JCheckBox("Make Files Public");
         fIsPublic.setEnabled(true);
 
+        fCompress = new JCheckBox("Compress text files (gzip)");
+        fCompress.setEnabled(true);
+
+        fPack = new JCheckBox("Pack small files into archive objects");
+        fPack.setEnabled(true);
+
+        fExtract = new JCheckBox("Upload archive contents (zip or tar) as separate files");
+        fExtract.setEnabled(true);
+        fExtract.addActionListener(new IsRecursiveListener());
+
         JPanel panel = new JPanel();
         panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
         panel.add(fChooser);
         panel.add(pSaveTo);
         panel.add(fIsRecursive);
         panel.add(fIsPublic);
+        panel.add(fCompress);
+        panel.add(fPack);
+        panel.add(fExtract);
         return panel;
     }
 
@@ -177,6 +223,20 @@ public class UploadDialogController
             return;
         }
 
+        // when uploading archive contents, every selection must be an archive
+        if (fExtract.isSelected())
+        {
+            boolean allArchives = true;
+            for (File file : fChooser.getSelectedFiles())
+                allArchives &= file.isFile() && ArchiveReader.isArchive(file);
+            okAction.setEnabled(allArchives);
+            fCompress.setEnabled(false);
+            fPack.setEnabled(false);
+            return;
+        }
+        fCompress.setEnabled(true);
+        fPack.setEnabled(true);
+
         // don't allow directory selection unless doing recursive op
         if (selected.isDirectory())
         {
@@ -215,7 +275,8 @@ public class UploadDialogController
 
 
     // the OK button should not be enabled for directories unless the user
-    // has checked this field; this listener is invoked on any change, so
+    // has checked this field (or for non-archives if the user has checked
+    // "upload archive contents"); this listener is invoked on any change, so
     // that the button state can be re-evaluated
     private class IsRecursiveListener
     implements ActionListener
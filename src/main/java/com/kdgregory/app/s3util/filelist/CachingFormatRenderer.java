@@ -0,0 +1,144 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.text.DecimalFormat;
+import java.text.Format;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.swing.SwingConstants;
+import javax.swing.table.DefaultTableCellRenderer;
+
+
+/**
+ *  A table cell renderer that formats numeric or date values, and caches the
+ *  formatted strings so that repainting a row doesn't format it again.
+ *  <p>
+ *  The cache is direct-mapped: a fixed-size pair of arrays indexed by a hash
+ *  of the value, where a new value simply replaces whatever was in its slot.
+ *  There's no per-entry allocation, and lookups don't box or synchronize, so
+ *  it's as cheap as possible to check; it's sized well beyond the number of
+ *  rows that can be visible, so scrolling formats each row at most once.
+ *  <p>
+ *  Renderers are only used on the event dispatch thread, so neither the cache
+ *  nor the formatter is synchronized. Each table needs its own instance.
+ */
+public class CachingFormatRenderer
+extends DefaultTableCellRenderer
+{
+    private static final long serialVersionUID = 1L;
+
+    /** The default number of cached strings; must be a power of 2. */
+    public final static int DEFAULT_CACHE_SIZE = 4096;
+
+    private Format format;
+    private long[] keys;
+    private String[] values;
+    private int mask;
+
+
+    /**
+     *  Creates a renderer for <code>Long</code> (or other numeric) values, which
+     *  are displayed right-aligned with thousands separators.
+     */
+    public static CachingFormatRenderer forSize()
+    {
+        CachingFormatRenderer renderer = new CachingFormatRenderer(new DecimalFormat("#,##0"), DEFAULT_CACHE_SIZE);
+        renderer.setHorizontalAlignment(SwingConstants.RIGHT);
+        return renderer;
+    }
+
+
+    /**
+     *  Creates a renderer for <code>Date</code> values, using the specified
+     *  <code>SimpleDateFormat</code> pattern.
+     */
+    public static CachingFormatRenderer forDate(String pattern)
+    {
+        return new CachingFormatRenderer(new SimpleDateFormat(pattern), DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     *  @param  format      Formats the values. Must accept <code>Number</code>
+     *                      or <code>Date</code>, as appropriate.
+     *  @param  cacheSize   The number of cached strings; must be a power of 2.
+     */
+    public CachingFormatRenderer(Format format, int cacheSize)
+    {
+        if ((cacheSize <= 0) || (Integer.bitCount(cacheSize) != 1))
+            throw new IllegalArgumentException("cache size must be a power of 2: " + cacheSize);
+
+        this.format = format;
+        this.keys = new long[cacheSize];
+        this.values = new String[cacheSize];
+        this.mask = cacheSize - 1;
+    }
+
+//----------------------------------------------------------------------------
+//  DefaultTableCellRenderer
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setValue(Object value)
+    {
+        setText(getFormatted(value));
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the formatted value, from the cache if possible. Values that
+     *  aren't numbers or dates are converted with <code>toString()</code>,
+     *  and null is an empty string.
+     */
+    public String getFormatted(Object value)
+    {
+        long key;
+        if (value instanceof Date)
+            key = ((Date)value).getTime();
+        else if ((value instanceof Long) || (value instanceof Integer))
+            key = ((Number)value).longValue();
+        else
+            return (value == null) ? "" : value.toString();
+
+        int slot = hash(key) & mask;
+        String cached = values[slot];
+        if ((cached != null) && (keys[slot] == key))
+            return cached;
+
+        String formatted = format.format(value);
+        keys[slot] = key;
+        values[slot] = formatted;
+        return formatted;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Spreads the bits of the key, so that values that differ only in their
+     *  high bits (such as timestamps) don't collide.
+     */
+    private static int hash(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32));
+    }
+}
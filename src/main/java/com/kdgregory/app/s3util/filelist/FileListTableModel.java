@@ -15,8 +15,11 @@
 package com.kdgregory.app.s3util.filelist;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.SortedSet;
 
 import javax.swing.table.AbstractTableModel;
@@ -24,13 +27,26 @@ import javax.swing.table.AbstractTableModel;
 
 /**
  *  Manages the list of files.
+ *  <p>
+ *  The model also maintains per-prefix totals (see {@link PrefixAggregator}),
+ *  which are updated along with the list.
+ *  <p>
+ *  The list is copy-on-write once a snapshot has been taken: the snapshot is
+ *  never changed, so it may be used on a background thread while the model
+ *  continues to be updated on the event thread.
  */
 public class FileListTableModel
 extends AbstractTableModel
 {
     private static final long serialVersionUID = 1L;
 
+    // a delete that leaves more separate ranges than this fires a single event;
+    // each range event costs the table a pass over its selection
+    final static int MAX_DELETE_EVENTS = 64;
+
     private ArrayList<S3File> files;
+    private boolean isShared;
+    private PrefixAggregator aggregator;
 
 
     /**
@@ -39,6 +55,7 @@ extends AbstractTableModel
     public FileListTableModel()
     {
         files = new ArrayList<S3File>();
+        aggregator = new PrefixAggregator();
     }
 
 
@@ -47,7 +64,19 @@ extends AbstractTableModel
      */
     public FileListTableModel(SortedSet<S3File> files)
     {
-        this.files = new ArrayList<S3File>(files);
+        this(new ArrayList<S3File>(files), new PrefixAggregator(files));
+    }
+
+
+    /**
+     *  Constructs an instance that takes ownership of an existing list, along
+     *  with its per-prefix totals. The list must be sorted, without duplicates;
+     *  it isn't copied, so the caller must not retain it.
+     */
+    public FileListTableModel(ArrayList<S3File> files, PrefixAggregator aggregator)
+    {
+        this.files = files;
+        this.aggregator = aggregator;
     }
 
 //----------------------------------------------------------------------------
@@ -97,7 +126,7 @@ extends AbstractTableModel
             case 1 :
                 return String.class;
             case 2 :
-                return Integer.class;
+                return Long.class;
             case 3 :
                 return Date.class;
             default :
@@ -149,6 +178,27 @@ extends AbstractTableModel
     }
 
 
+    /**
+     *  Returns the per-prefix totals for the files in this model. These are
+     *  updated as files are added and removed.
+     */
+    public PrefixAggregator getAggregator()
+    {
+        return aggregator;
+    }
+
+
+    /**
+     *  Returns an unmodifiable snapshot of the current list of files. This takes
+     *  constant time; the next change to the model copies the list.
+     */
+    public List<S3File> snapshot()
+    {
+        isShared = true;
+        return Collections.unmodifiableList(files);
+    }
+
+
     /**
      *  Returns the file at the specified index.
      */
@@ -165,10 +215,12 @@ extends AbstractTableModel
      */
     public void addFile(S3File file)
     {
+        unshare();
         int idx = files.size();
         if ((idx == 0) || (file.compareTo(files.get(idx - 1)) > 0))
         {
             files.add(file);
+            aggregator.add(file);
             fireTableRowsInserted(idx, idx);
             return;
         }
@@ -176,6 +228,7 @@ extends AbstractTableModel
         idx = Collections.binarySearch(files, file);
         if (idx >= 0)
         {
+            aggregator.replace(files.get(idx), file);
             files.set(idx, file);
             fireTableRowsUpdated(idx, idx);
         }
@@ -185,11 +238,133 @@ extends AbstractTableModel
             // index will be the element > file
             idx = -(idx + 1);
             files.add(idx, file);
+            aggregator.add(file);
             fireTableRowsInserted(idx, idx);
         }
     }
 
 
+    /**
+     *  Adds multiple files to the model, replacing any that already exist. This
+     *  is a single merge pass, rather than one insert per file, and fires a
+     *  single event (which clears any selection).
+     */
+    public void addFiles(Collection<S3File> toAdd)
+    {
+        if (toAdd.isEmpty())
+            return;
+
+        List<S3File> sorted = new ArrayList<S3File>(toAdd);
+        Collections.sort(sorted);
+
+        ArrayList<S3File> merged = new ArrayList<S3File>(files.size() + sorted.size());
+        int ii = 0;
+        int jj = 0;
+        while ((ii < files.size()) || (jj < sorted.size()))
+        {
+            int cmp = (ii == files.size()) ? 1
+                    : (jj == sorted.size()) ? -1
+                    : files.get(ii).compareTo(sorted.get(jj));
+            if (cmp < 0)
+            {
+                merged.add(files.get(ii++));
+            }
+            else
+            {
+                // on a tie, the new file replaces the old; duplicates in the batch collapse to the last
+                S3File replaced = (cmp == 0) ? files.get(ii++) : null;
+                S3File file = sorted.get(jj++);
+                while ((jj < sorted.size()) && (file.compareTo(sorted.get(jj)) == 0))
+                    file = sorted.get(jj++);
+                merged.add(file);
+                if (replaced != null)
+                    aggregator.replace(replaced, file);
+                else
+                    aggregator.add(file);
+            }
+        }
+
+        files = merged;
+        isShared = false;
+        fireTableDataChanged();
+    }
+
+
+    /**
+     *  Removes multiple files from the model. The files are located by binary
+     *  search, so the cost depends on the number of files removed rather than
+     *  the size of the list (other than copying the remaining entries). Fires
+     *  one event per contiguous range of removed rows, so that the selection
+     *  of remaining rows is preserved; unless there are many ranges, in which
+     *  case it fires a single data-changed event (which clears the selection).
+     */
+    public void deleteFiles(Collection<S3File> toDelete)
+    {
+        if (toDelete.isEmpty())
+            return;
+
+        int[] indexes = new int[toDelete.size()];
+        int count = 0;
+        for (S3File file : toDelete)
+        {
+            int idx = Collections.binarySearch(files, file);
+            if (idx >= 0)
+                indexes[count++] = idx;
+        }
+        if (count == 0)
+            return;
+        Arrays.sort(indexes, 0, count);
+
+        // the passed collection may contain duplicates
+        int unique = 0;
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            if ((unique == 0) || (indexes[ii] != indexes[unique - 1]))
+                indexes[unique++] = indexes[ii];
+        }
+        count = unique;
+
+        for (int ii = 0 ; ii < count ; ii++)
+            aggregator.remove(files.get(indexes[ii]));
+
+        List<int[]> ranges = new ArrayList<int[]>();
+        for (int ii = 0 ; ii < count ; ii++)
+        {
+            int idx = indexes[ii];
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if ((last != null) && (idx == last[1] + 1))
+                last[1] = idx;
+            else
+                ranges.add(new int[] { idx, idx });
+        }
+
+        ArrayList<S3File> remaining = new ArrayList<S3File>(files.size() - count);
+        int start = 0;
+        for (int[] range : ranges)
+        {
+            remaining.addAll(files.subList(start, range[0]));
+            start = range[1] + 1;
+        }
+        remaining.addAll(files.subList(start, files.size()));
+
+        files = remaining;
+        isShared = false;
+
+        if (ranges.size() > MAX_DELETE_EVENTS)
+        {
+            fireTableDataChanged();
+            return;
+        }
+
+        // events are fired from the end, so the indexes of earlier ranges remain valid
+        for (int ii = ranges.size() - 1 ; ii >= 0 ; ii--)
+        {
+            int[] range = ranges.get(ii);
+            fireTableRowsDeleted(range[0], range[1]);
+        }
+    }
+
+
     /**
      *  Removes a file from the model.
      */
@@ -199,7 +374,8 @@ extends AbstractTableModel
         if (idx < 0)
             return;
 
-        files.remove(idx);
+        unshare();
+        aggregator.remove(files.remove(idx));
         fireTableRowsDeleted(idx, idx);
     }
 
@@ -208,4 +384,15 @@ extends AbstractTableModel
 //  Internals
 //----------------------------------------------------------------------------
 
+    /**
+     *  Called before an in-place change, to copy the list if it's been shared.
+     */
+    private void unshare()
+    {
+        if (isShared)
+        {
+            files = new ArrayList<S3File>(files);
+            isShared = false;
+        }
+    }
 }
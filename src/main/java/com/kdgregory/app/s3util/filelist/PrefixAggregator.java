@@ -0,0 +1,260 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  Maintains the number of files and total bytes under each prefix ("folder")
+ *  of a bucket, including all of its descendants: the S3 equivalent of
+ *  <code>du</code>. Prefixes are the components of {@link S3File#getS3Path};
+ *  the root node represents the entire bucket.
+ *  <p>
+ *  Updates are incremental: adding or removing a file touches only the nodes
+ *  on its path, so costs time proportional to the depth of the file. Nodes are
+ *  created as needed, and removed when they no longer hold any files.
+ *  <p>
+ *  Instances are not thread-safe. A listing may build an instance on its own
+ *  thread, and hand it off to the event thread when done; after that it must
+ *  only be updated on the event thread (normally by {@link FileListTableModel}).
+ */
+public class PrefixAggregator
+{
+    private Node root = new Node(null, "");
+    private long modCount;
+
+
+    public PrefixAggregator()
+    {
+        // nothing to do
+    }
+
+
+    /**
+     *  Creates an instance that aggregates the passed files.
+     */
+    public PrefixAggregator(Collection<S3File> files)
+    {
+        for (S3File file : files)
+            add(file);
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the root node, which holds the totals for the entire bucket.
+     */
+    public Node getRoot()
+    {
+        return root;
+    }
+
+
+    /**
+     *  Returns a counter that's incremented on every change; used by views to
+     *  determine whether they need to be refreshed.
+     */
+    public long getModCount()
+    {
+        return modCount;
+    }
+
+
+    /**
+     *  Returns the node for the specified prefix, null if there are no files
+     *  under that prefix. An empty prefix is the root.
+     */
+    public Node getNode(String prefix)
+    {
+        Node node = root;
+        for (String component : split(prefix))
+        {
+            node = node.children.get(component);
+            if (node == null)
+                return null;
+        }
+        return node;
+    }
+
+
+    /**
+     *  Adds a file to its prefix and all ancestors.
+     */
+    public void add(S3File file)
+    {
+        long size = sizeOf(file);
+        Node node = root;
+        node.update(1, size);
+        for (String component : split(file.getS3Path()))
+        {
+            Node child = node.children.get(component);
+            if (child == null)
+            {
+                child = new Node(node, component);
+                node.children.put(component, child);
+            }
+            child.update(1, size);
+            node = child;
+        }
+        modCount++;
+    }
+
+
+    /**
+     *  Removes a file from its prefix and all ancestors. This relies on the
+     *  file having the same size as when it was added. Prefixes that no longer
+     *  hold any files are removed.
+     */
+    public void remove(S3File file)
+    {
+        Node node = getNode(file.getS3Path());
+        if (node == null)
+            return;
+
+        long size = sizeOf(file);
+        while (node != null)
+        {
+            node.update(-1, -size);
+            if ((node.count == 0) && (node.parent != null))
+                node.parent.children.remove(node.name);
+            node = node.parent;
+        }
+        modCount++;
+    }
+
+
+    /**
+     *  Replaces one version of a file with another (for example, when a file
+     *  is re-uploaded with a different size).
+     */
+    public void replace(S3File oldFile, S3File newFile)
+    {
+        remove(oldFile);
+        add(newFile);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static long sizeOf(S3File file)
+    {
+        Long size = file.getContentLength();
+        return (size != null) ? size.longValue() : 0;
+    }
+
+
+    private static String[] split(String path)
+    {
+        return ((path == null) || path.isEmpty())
+             ? new String[0]
+             : path.split("/");
+    }
+
+//----------------------------------------------------------------------------
+//  Node
+//----------------------------------------------------------------------------
+
+    /**
+     *  A single prefix. The counts include all descendants.
+     */
+    public static class Node
+    {
+        private Node parent;
+        private String name;
+        private Map<String,Node> children = new HashMap<String,Node>();
+        private long count;
+        private long bytes;
+
+        private Node(Node parent, String name)
+        {
+            this.parent = parent;
+            this.name = name;
+        }
+
+        private void update(long countDelta, long bytesDelta)
+        {
+            count += countDelta;
+            bytes += bytesDelta;
+        }
+
+        /**
+         *  Returns the parent node, null for the root.
+         */
+        public Node getParent()
+        {
+            return parent;
+        }
+
+        /**
+         *  Returns the last component of this node's prefix; empty for the root.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         *  Returns the full prefix represented by this node, without a trailing
+         *  slash; empty for the root.
+         */
+        public String getPrefix()
+        {
+            if ((parent == null) || (parent.parent == null))
+                return name;
+            return parent.getPrefix() + "/" + name;
+        }
+
+        /**
+         *  Returns the number of files under this prefix.
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         *  Returns the total size of the files under this prefix.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        /**
+         *  Returns the child prefixes, in no particular order.
+         */
+        public List<Node> getChildren()
+        {
+            return children.isEmpty()
+                 ? Collections.<Node>emptyList()
+                 : new ArrayList<Node>(children.values());
+        }
+
+        @Override
+        public String toString()
+        {
+            return (parent == null) ? "/" : name;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+
+/**
+ *  Presents a {@link PrefixAggregator} as a tree, with each node's children
+ *  sorted by name, total size, or file count.
+ *  <p>
+ *  The aggregator doesn't notify of changes; instead, the owner of this model
+ *  calls {@link #refresh} (normally when it sees a changed mod count), which
+ *  discards the cached sort order and tells the tree that its structure has
+ *  changed. Nodes are retained by the aggregator as long as they hold files,
+ *  so the tree's expanded paths remain valid across a refresh.
+ */
+public class PrefixTreeModel
+implements TreeModel
+{
+    /**
+     *  The available sort orders. Size and count are descending, so that the
+     *  largest prefixes are first.
+     */
+    public enum SortOrder
+    {
+        NAME("Name", new Comparator<PrefixAggregator.Node>()
+        {
+            @Override
+            public int compare(PrefixAggregator.Node n1, PrefixAggregator.Node n2)
+            {
+                return n1.getName().compareTo(n2.getName());
+            }
+        }),
+        SIZE("Size", new Comparator<PrefixAggregator.Node>()
+        {
+            @Override
+            public int compare(PrefixAggregator.Node n1, PrefixAggregator.Node n2)
+            {
+                int cmp = Long.compare(n2.getBytes(), n1.getBytes());
+                return (cmp != 0) ? cmp : n1.getName().compareTo(n2.getName());
+            }
+        }),
+        COUNT("File Count", new Comparator<PrefixAggregator.Node>()
+        {
+            @Override
+            public int compare(PrefixAggregator.Node n1, PrefixAggregator.Node n2)
+            {
+                int cmp = Long.compare(n2.getCount(), n1.getCount());
+                return (cmp != 0) ? cmp : n1.getName().compareTo(n2.getName());
+            }
+        });
+
+        private String label;
+        private Comparator<PrefixAggregator.Node> comparator;
+
+        private SortOrder(String label, Comparator<PrefixAggregator.Node> comparator)
+        {
+            this.label = label;
+            this.comparator = comparator;
+        }
+
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+
+
+    private EventListenerList listeners = new EventListenerList();
+
+    private PrefixAggregator aggregator;
+    private SortOrder sortOrder;
+    private long modCount;
+
+    // JTree asks for children one at a time, so we sort each node's children once
+    private Map<PrefixAggregator.Node,List<PrefixAggregator.Node>> sortedChildren
+        = new HashMap<PrefixAggregator.Node,List<PrefixAggregator.Node>>();
+
+
+    public PrefixTreeModel(PrefixAggregator aggregator, SortOrder sortOrder)
+    {
+        this.aggregator = aggregator;
+        this.sortOrder = sortOrder;
+        this.modCount = aggregator.getModCount();
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    public PrefixAggregator getAggregator()
+    {
+        return aggregator;
+    }
+
+
+    /**
+     *  Indicates whether the aggregator has changed since the last refresh.
+     */
+    public boolean isStale()
+    {
+        return modCount != aggregator.getModCount();
+    }
+
+
+    /**
+     *  Changes the sort order, and refreshes the tree.
+     */
+    public void setSortOrder(SortOrder sortOrder)
+    {
+        this.sortOrder = sortOrder;
+        refresh();
+    }
+
+
+    /**
+     *  Discards cached children, and notifies listeners that the entire tree
+     *  has changed.
+     */
+    public void refresh()
+    {
+        modCount = aggregator.getModCount();
+        sortedChildren.clear();
+
+        TreeModelEvent event = new TreeModelEvent(this, new TreePath(getRoot()));
+        Object[] list = listeners.getListenerList();
+        for (int ii = list.length - 2 ; ii >= 0 ; ii -= 2)
+        {
+            if (list[ii] == TreeModelListener.class)
+                ((TreeModelListener)list[ii + 1]).treeStructureChanged(event);
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  TreeModel
+//----------------------------------------------------------------------------
+
+    @Override
+    public Object getRoot()
+    {
+        return aggregator.getRoot();
+    }
+
+
+    @Override
+    public Object getChild(Object parent, int index)
+    {
+        return getSortedChildren(parent).get(index);
+    }
+
+
+    @Override
+    public int getChildCount(Object parent)
+    {
+        return getSortedChildren(parent).size();
+    }
+
+
+    @Override
+    public boolean isLeaf(Object node)
+    {
+        return getChildCount(node) == 0;
+    }
+
+
+    @Override
+    public int getIndexOfChild(Object parent, Object child)
+    {
+        if ((parent == null) || (child == null))
+            return -1;
+        return getSortedChildren(parent).indexOf(child);
+    }
+
+
+    @Override
+    public void valueForPathChanged(TreePath path, Object newValue)
+    {
+        throw new UnsupportedOperationException("this tree is not editable");
+    }
+
+
+    @Override
+    public void addTreeModelListener(TreeModelListener listener)
+    {
+        listeners.add(TreeModelListener.class, listener);
+    }
+
+
+    @Override
+    public void removeTreeModelListener(TreeModelListener listener)
+    {
+        listeners.remove(TreeModelListener.class, listener);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private List<PrefixAggregator.Node> getSortedChildren(Object parent)
+    {
+        PrefixAggregator.Node node = (PrefixAggregator.Node)parent;
+        List<PrefixAggregator.Node> children = sortedChildren.get(node);
+        if (children == null)
+        {
+            children = node.getChildren();
+            children.sort(sortOrder.comparator);
+            sortedChildren.put(node, children);
+        }
+        return children;
+    }
+}
@@ -0,0 +1,619 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.Arrays;
+
+import javax.swing.ListSelectionModel;
+import javax.swing.event.EventListenerList;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+
+/**
+ *  A list selection model that stores the selection as a list of ranges, rather
+ *  than a flag per row. Selecting all rows is a single range, regardless of the
+ *  size of the table, and the count of selected rows is maintained as the
+ *  selection changes; both <code>DefaultListSelectionModel</code> and
+ *  <code>JTable</code> examine every row to answer that question.
+ *  <p>
+ *  The ranges are copy-on-write: each change creates a new {@link Selection},
+ *  so that the current selection may be passed to a background thread without
+ *  copying it.
+ *  <p>
+ *  Lead and anchor behave as in <code>DefaultListSelectionModel</code>, so that
+ *  keyboard and mouse selection work as usual. Like all Swing models, this is
+ *  not thread-safe, and must only be changed on the event dispatch thread.
+ */
+public class RangeSelectionModel
+implements ListSelectionModel
+{
+    private EventListenerList listeners = new EventListenerList();
+
+    private Selection selection = Selection.EMPTY;
+    private int selectionMode = MULTIPLE_INTERVAL_SELECTION;
+    private int anchorIndex = -1;
+    private int leadIndex = -1;
+
+    private boolean isAdjusting;
+    private int firstChanged = Integer.MAX_VALUE;
+    private int lastChanged = -1;
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the current selection. This is immutable, and may be retained
+     *  or passed between threads.
+     */
+    public Selection getSelection()
+    {
+        return selection;
+    }
+
+
+    /**
+     *  Returns the number of selected rows; this is constant-time.
+     */
+    public int getSelectedCount()
+    {
+        return selection.getCount();
+    }
+
+//----------------------------------------------------------------------------
+//  ListSelectionModel -- selection changes
+//----------------------------------------------------------------------------
+
+    @Override
+    public void setSelectionInterval(int index0, int index1)
+    {
+        if ((index0 == -1) || (index1 == -1))
+            return;
+
+        if (selectionMode == SINGLE_SELECTION)
+            index0 = index1;
+
+        updateLeadAnchor(index0, index1);
+        changeSelection(add(new int[0], index0, index1));
+    }
+
+
+    @Override
+    public void addSelectionInterval(int index0, int index1)
+    {
+        if ((index0 == -1) || (index1 == -1))
+            return;
+
+        if (selectionMode != MULTIPLE_INTERVAL_SELECTION)
+        {
+            setSelectionInterval(index0, index1);
+            return;
+        }
+
+        updateLeadAnchor(index0, index1);
+        changeSelection(add(selection.ranges, index0, index1));
+    }
+
+
+    @Override
+    public void removeSelectionInterval(int index0, int index1)
+    {
+        if ((index0 == -1) || (index1 == -1))
+            return;
+
+        updateLeadAnchor(index0, index1);
+        changeSelection(remove(selection.ranges, index0, index1));
+    }
+
+
+    @Override
+    public void clearSelection()
+    {
+        changeSelection(new int[0]);
+    }
+
+
+    @Override
+    public boolean isSelectedIndex(int index)
+    {
+        return selection.contains(index);
+    }
+
+
+    @Override
+    public boolean isSelectionEmpty()
+    {
+        return selection.getCount() == 0;
+    }
+
+
+    @Override
+    public int getMinSelectionIndex()
+    {
+        int[] ranges = selection.ranges;
+        return (ranges.length > 0) ? ranges[0] : -1;
+    }
+
+
+    @Override
+    public int getMaxSelectionIndex()
+    {
+        int[] ranges = selection.ranges;
+        return (ranges.length > 0) ? ranges[ranges.length - 1] : -1;
+    }
+
+//----------------------------------------------------------------------------
+//  ListSelectionModel -- lead and anchor
+//----------------------------------------------------------------------------
+
+    @Override
+    public int getAnchorSelectionIndex()
+    {
+        return anchorIndex;
+    }
+
+
+    @Override
+    public void setAnchorSelectionIndex(int index)
+    {
+        int oldAnchor = anchorIndex;
+        anchorIndex = index;
+        markChanged(oldAnchor, index);
+        fireValueChanged();
+    }
+
+
+    @Override
+    public int getLeadSelectionIndex()
+    {
+        return leadIndex;
+    }
+
+
+    /**
+     *  Moves the lead, extending the selection from the anchor (this is how
+     *  shift-click works). As with the default model, the new range takes
+     *  the anchor's selection state.
+     */
+    @Override
+    public void setLeadSelectionIndex(int index)
+    {
+        if ((anchorIndex == -1) || (index == -1))
+        {
+            int oldLead = leadIndex;
+            leadIndex = index;
+            markChanged(oldLead, index);
+            fireValueChanged();
+            return;
+        }
+
+        int oldLead = (leadIndex == -1) ? index : leadIndex;
+        boolean select = selection.contains(anchorIndex);
+        leadIndex = index;
+        markChanged(oldLead, index);
+
+        int[] ranges;
+        if (selectionMode == SINGLE_SELECTION)
+            ranges = select ? add(new int[0], index, index) : selection.ranges;
+        else if (selectionMode == SINGLE_INTERVAL_SELECTION)
+            ranges = select ? add(new int[0], anchorIndex, index) : remove(selection.ranges, anchorIndex, index);
+        else if (select)
+            ranges = add(remove(selection.ranges, anchorIndex, oldLead), anchorIndex, index);
+        else
+            ranges = remove(selection.ranges, anchorIndex, index);
+        changeSelection(ranges);
+    }
+
+//----------------------------------------------------------------------------
+//  ListSelectionModel -- changes to the underlying list
+//----------------------------------------------------------------------------
+
+    /**
+     *  Called when rows are inserted. Rows after the insertion point move down;
+     *  the inserted rows are selected if the row at <code>index</code> is.
+     */
+    @Override
+    public void insertIndexInterval(int index, int length, boolean before)
+    {
+        if (length <= 0)
+            return;
+
+        int insMin = before ? index : index + 1;
+        boolean selectInserted = (selectionMode != SINGLE_SELECTION) && selection.contains(index);
+
+        int[] ranges = selection.ranges.clone();
+        for (int ii = 0 ; ii < ranges.length ; ii++)
+        {
+            if (ranges[ii] >= insMin)
+                ranges[ii] += length;
+        }
+        if (selectInserted)
+            ranges = add(ranges, insMin, insMin + length - 1);
+
+        anchorIndex = shiftForInsert(anchorIndex, insMin, length);
+        leadIndex = shiftForInsert(leadIndex, insMin, length);
+        markChanged(insMin, Math.max(insMin + length - 1, getMaxSelectionIndex() + length));
+        changeSelection(ranges);
+    }
+
+
+    /**
+     *  Called when rows are deleted. Rows after the deleted rows move up.
+     */
+    @Override
+    public void removeIndexInterval(int index0, int index1)
+    {
+        int rmMin = Math.min(index0, index1);
+        int rmMax = Math.max(index0, index1);
+
+        int oldMax = getMaxSelectionIndex();
+        int[] ranges = delete(selection.ranges, rmMin, rmMax);
+
+        anchorIndex = shiftForRemove(anchorIndex, rmMin, rmMax);
+        leadIndex = shiftForRemove(leadIndex, rmMin, rmMax);
+        markChanged(rmMin, Math.max(rmMin, oldMax));
+        changeSelection(ranges);
+    }
+
+//----------------------------------------------------------------------------
+//  ListSelectionModel -- everything else
+//----------------------------------------------------------------------------
+
+    @Override
+    public void setValueIsAdjusting(boolean valueIsAdjusting)
+    {
+        if (valueIsAdjusting == isAdjusting)
+            return;
+
+        isAdjusting = valueIsAdjusting;
+        if (!isAdjusting)
+            fireValueChanged();
+    }
+
+
+    @Override
+    public boolean getValueIsAdjusting()
+    {
+        return isAdjusting;
+    }
+
+
+    @Override
+    public void setSelectionMode(int selectionMode)
+    {
+        switch (selectionMode)
+        {
+            case SINGLE_SELECTION :
+            case SINGLE_INTERVAL_SELECTION :
+            case MULTIPLE_INTERVAL_SELECTION :
+                this.selectionMode = selectionMode;
+                break;
+            default :
+                throw new IllegalArgumentException("invalid selection mode: " + selectionMode);
+        }
+    }
+
+
+    @Override
+    public int getSelectionMode()
+    {
+        return selectionMode;
+    }
+
+
+    @Override
+    public void addListSelectionListener(ListSelectionListener listener)
+    {
+        listeners.add(ListSelectionListener.class, listener);
+    }
+
+
+    @Override
+    public void removeListSelectionListener(ListSelectionListener listener)
+    {
+        listeners.remove(ListSelectionListener.class, listener);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void updateLeadAnchor(int anchor, int lead)
+    {
+        markChanged(anchorIndex, leadIndex);
+        anchorIndex = anchor;
+        leadIndex = lead;
+        markChanged(anchor, lead);
+    }
+
+
+    /**
+     *  Replaces the current selection, and notifies listeners of the range of
+     *  rows that changed (which includes any changes to lead and anchor).
+     */
+    private void changeSelection(int[] ranges)
+    {
+        Selection oldSelection = selection;
+        if (!Arrays.equals(ranges, oldSelection.ranges))
+        {
+            selection = new Selection(ranges);
+            markChanged(oldSelection.getMin(), oldSelection.getMax());
+            markChanged(selection.getMin(), selection.getMax());
+        }
+        fireValueChanged();
+    }
+
+
+    private void markChanged(int index0, int index1)
+    {
+        if ((index0 < 0) && (index1 < 0))
+            return;
+
+        int min = Math.min(index0, index1);
+        int max = Math.max(index0, index1);
+        firstChanged = Math.min(firstChanged, (min < 0) ? max : min);
+        lastChanged = Math.max(lastChanged, max);
+    }
+
+
+    /**
+     *  Notifies listeners of the accumulated changes. While adjusting, each
+     *  change is reported as an adjusting event, and the range is retained so
+     *  that the final event covers everything that changed.
+     */
+    private void fireValueChanged()
+    {
+        if (lastChanged < 0)
+            return;
+
+        ListSelectionEvent event = new ListSelectionEvent(this, firstChanged, lastChanged, isAdjusting);
+        if (!isAdjusting)
+        {
+            firstChanged = Integer.MAX_VALUE;
+            lastChanged = -1;
+        }
+
+        Object[] list = listeners.getListenerList();
+        for (int ii = list.length - 2 ; ii >= 0 ; ii -= 2)
+        {
+            if (list[ii] == ListSelectionListener.class)
+                ((ListSelectionListener)list[ii + 1]).valueChanged(event);
+        }
+    }
+
+
+    private static int shiftForInsert(int index, int insMin, int length)
+    {
+        return (index >= insMin) ? index + length : index;
+    }
+
+
+    private static int shiftForRemove(int index, int rmMin, int rmMax)
+    {
+        if (index > rmMax)
+            return index - (rmMax - rmMin + 1);
+        if (index >= rmMin)
+            return rmMin - 1;
+        return index;
+    }
+
+
+    /**
+     *  Returns a new range array with the specified range added; ranges that
+     *  overlap or touch the new range are merged with it.
+     */
+    static int[] add(int[] ranges, int index0, int index1)
+    {
+        int start = Math.min(index0, index1);
+        int end = Math.max(index0, index1);
+
+        int[] result = new int[ranges.length + 2];
+        int count = 0;
+        int ii = 0;
+        while ((ii < ranges.length) && (ranges[ii + 1] < start - 1))
+        {
+            result[count++] = ranges[ii++];
+            result[count++] = ranges[ii++];
+        }
+        while ((ii < ranges.length) && (ranges[ii] <= end + 1))
+        {
+            start = Math.min(start, ranges[ii++]);
+            end = Math.max(end, ranges[ii++]);
+        }
+        result[count++] = start;
+        result[count++] = end;
+        while (ii < ranges.length)
+        {
+            result[count++] = ranges[ii++];
+        }
+        return (count == result.length) ? result : Arrays.copyOf(result, count);
+    }
+
+
+    /**
+     *  Returns a new range array with the specified range removed; a range
+     *  that spans the removed range is split.
+     */
+    static int[] remove(int[] ranges, int index0, int index1)
+    {
+        int start = Math.min(index0, index1);
+        int end = Math.max(index0, index1);
+
+        int[] result = new int[ranges.length + 2];
+        int count = 0;
+        for (int ii = 0 ; ii < ranges.length ; ii += 2)
+        {
+            int rStart = ranges[ii];
+            int rEnd = ranges[ii + 1];
+            if ((rEnd < start) || (rStart > end))
+            {
+                result[count++] = rStart;
+                result[count++] = rEnd;
+                continue;
+            }
+            if (rStart < start)
+            {
+                result[count++] = rStart;
+                result[count++] = start - 1;
+            }
+            if (rEnd > end)
+            {
+                result[count++] = end + 1;
+                result[count++] = rEnd;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+
+    /**
+     *  Returns a new range array reflecting the deletion of the specified rows
+     *  from the list: ranges within the deleted rows are dropped, those that
+     *  overlap are trimmed, and later ranges move up. Ranges that touch once
+     *  the rows are gone are merged. This is a single pass over the ranges.
+     */
+    static int[] delete(int[] ranges, int index0, int index1)
+    {
+        int rmMin = Math.min(index0, index1);
+        int rmMax = Math.max(index0, index1);
+        int length = rmMax - rmMin + 1;
+
+        int[] result = new int[ranges.length];
+        int count = 0;
+        for (int ii = 0 ; ii < ranges.length ; ii += 2)
+        {
+            int start = (ranges[ii] > rmMax) ? ranges[ii] - length : Math.min(ranges[ii], rmMin);
+            int end = (ranges[ii + 1] > rmMax) ? ranges[ii + 1] - length : Math.min(ranges[ii + 1], rmMin - 1);
+            if (end < start)
+                continue;
+            if ((count > 0) && (start <= result[count - 1] + 1))
+            {
+                result[count - 1] = end;
+            }
+            else
+            {
+                result[count++] = start;
+                result[count++] = end;
+            }
+        }
+        return (count == result.length) ? result : Arrays.copyOf(result, count);
+    }
+
+//----------------------------------------------------------------------------
+//  Selection
+//----------------------------------------------------------------------------
+
+    /**
+     *  An immutable snapshot of the selection: a list of disjoint ranges of row
+     *  indexes, in ascending order. The selected rows can also be accessed by
+     *  position (the first selected row is position 0, and so on), which takes
+     *  time proportional to the log of the number of ranges.
+     */
+    public static class Selection
+    {
+        public final static Selection EMPTY = new Selection(new int[0]);
+
+        private int[] ranges;
+        private int[] offsets;
+        private int count;
+
+        private Selection(int[] ranges)
+        {
+            this.ranges = ranges;
+            this.offsets = new int[ranges.length / 2];
+            for (int ii = 0 ; ii < ranges.length ; ii += 2)
+            {
+                offsets[ii / 2] = count;
+                count += ranges[ii + 1] - ranges[ii] + 1;
+            }
+        }
+
+        /**
+         *  Returns the number of selected rows.
+         */
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         *  Returns the number of ranges in the selection.
+         */
+        public int getRangeCount()
+        {
+            return offsets.length;
+        }
+
+        /**
+         *  Returns the first row of the specified range (inclusive).
+         */
+        public int getRangeStart(int range)
+        {
+            return ranges[range * 2];
+        }
+
+        /**
+         *  Returns the last row of the specified range (inclusive).
+         */
+        public int getRangeEnd(int range)
+        {
+            return ranges[range * 2 + 1];
+        }
+
+        /**
+         *  Returns the row index of the Nth selected row.
+         */
+        public int getRow(int position)
+        {
+            if ((position < 0) || (position >= count))
+                throw new IndexOutOfBoundsException("position: " + position + ", count: " + count);
+
+            int idx = Arrays.binarySearch(offsets, position);
+            int range = (idx >= 0) ? idx : -(idx + 1) - 1;
+            return ranges[range * 2] + (position - offsets[range]);
+        }
+
+        /**
+         *  Determines whether the specified row is selected.
+         */
+        public boolean contains(int row)
+        {
+            int lo = 0;
+            int hi = offsets.length - 1;
+            while (lo <= hi)
+            {
+                int mid = (lo + hi) >>> 1;
+                if (row < ranges[mid * 2])
+                    hi = mid - 1;
+                else if (row > ranges[mid * 2 + 1])
+                    lo = mid + 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+
+        private int getMin()
+        {
+            return (ranges.length > 0) ? ranges[0] : -1;
+        }
+
+        private int getMax()
+        {
+            return (ranges.length > 0) ? ranges[ranges.length - 1] : -1;
+        }
+    }
+}
@@ -37,6 +37,10 @@ import net.sf.kdgcommons.lang.StringUtil;
  *  (if any). The <code>file</code> component is a simple filename, containing
  *  the substring of the key after the final slash (if any).
  *  <p>
+ *  Files that were uploaded into a pack (see {@link com.kdgregory.app.s3util.transfer.PackIndex})
+ *  are "virtual": they have a key, but are actually stored as a range of bytes
+ *  within the pack object, and must be retrieved with a ranged GET.
+ *  <p>
  *  Note: S3 keys are <em>not</em> URL-encoded; the S34J library will handle
  *        encoding/decoding where needed.
  */
@@ -49,6 +53,10 @@ implements Comparable<S3File>
 
     private Long contentLength;
     private Date lastModified;
+    private String eTag;
+
+    private String packKey;
+    private long packOffset;
 
 
     /**
@@ -91,6 +99,27 @@ implements Comparable<S3File>
     }
 
 
+    /**
+     *  Constructs an instance from an S3 key, metadata, and the object's ETag.
+     */
+    public S3File(String key, long contentLength, Date lastModified, String eTag)
+    {
+        this(key, contentLength, lastModified);
+        this.eTag = eTag;
+    }
+
+
+    /**
+     *  Constructs a virtual instance, representing a member of a pack.
+     */
+    public S3File(String key, long contentLength, Date lastModified, String packKey, long packOffset)
+    {
+        this(key, contentLength, lastModified);
+        this.packKey = packKey;
+        this.packOffset = packOffset;
+    }
+
+
 //----------------------------------------------------------------------------
 //  Accessor Methods
 //----------------------------------------------------------------------------
@@ -145,6 +174,44 @@ implements Comparable<S3File>
         return lastModified;
     }
 
+
+    /**
+     *  Returns the object's ETag, if known. This identifies the object's content,
+     *  so may be used to validate cached copies.
+     */
+    public String getETag()
+    {
+        return eTag;
+    }
+
+
+    /**
+     *  Indicates whether this is a virtual file, stored within a pack.
+     */
+    public boolean isPackMember()
+    {
+        return packKey != null;
+    }
+
+
+    /**
+     *  Returns the key of the pack that holds this file's content, null if
+     *  it's not a pack member.
+     */
+    public String getPackKey()
+    {
+        return packKey;
+    }
+
+
+    /**
+     *  Returns the offset of this file's content within its pack.
+     */
+    public long getPackOffset()
+    {
+        return packOffset;
+    }
+
 //----------------------------------------------------------------------------
 //  Overrides
 //----------------------------------------------------------------------------
@@ -0,0 +1,57 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ *  A read-only view of the selected files, combining a snapshot of the file
+ *  list (see {@link FileListTableModel#snapshot}) with a snapshot of the
+ *  selection (see {@link RangeSelectionModel#getSelection}). Nothing is copied:
+ *  files are retrieved as they're accessed, so creating the view takes constant
+ *  time regardless of how many files are selected, and operations can consume
+ *  it in a streaming fashion on a background thread.
+ */
+public class SelectedFiles
+extends AbstractList<S3File>
+implements RandomAccess
+{
+    private List<S3File> files;
+    private RangeSelectionModel.Selection selection;
+
+
+    public SelectedFiles(List<S3File> files, RangeSelectionModel.Selection selection)
+    {
+        this.files = files;
+        this.selection = selection;
+    }
+
+
+    @Override
+    public int size()
+    {
+        return selection.getCount();
+    }
+
+
+    @Override
+    public S3File get(int index)
+    {
+        return files.get(selection.getRow(index));
+    }
+}
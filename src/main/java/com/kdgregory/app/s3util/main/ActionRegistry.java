@@ -27,6 +27,9 @@ public class ActionRegistry
     public FileRefresh          fileRefresh;
     public FileUpload           fileUpload;
     public FileDownload         fileDownload;
+    public FileCopy             fileCopy;
+    public FileMove             fileMove;
+    public FileRename           fileRename;
     public FileDelete           fileDelete;
     public FileQuit             fileQuit;
 
@@ -35,6 +38,11 @@ public class ActionRegistry
     public EditCopyUrl          editCopyUrl;
 
     public BucketSelect         bucketSelect;
+    public BucketClose          bucketClose;
+    public BucketFolderSizes    bucketFolderSizes;
+    public BucketReport         bucketReport;
+    public BucketExport         bucketExport;
+    public BucketLoadInventory  bucketLoadInventory;
 
 //----------------------------------------------------------------------------
 //  Only one constructor, meant to be called within the package
@@ -45,6 +53,9 @@ public class ActionRegistry
         fileRefresh = new FileRefresh(concierge);
         fileUpload = new FileUpload(concierge);
         fileDownload = new FileDownload(concierge);
+        fileCopy = new FileCopy(concierge);
+        fileMove = new FileMove(concierge);
+        fileRename = new FileRename(concierge);
         fileDelete = new FileDelete(concierge);
         fileQuit = new FileQuit();
 
@@ -53,12 +64,34 @@ public class ActionRegistry
         editCopyUrl = new EditCopyUrl(concierge);
 
         bucketSelect = new BucketSelect(concierge);
+        bucketClose = new BucketClose(concierge);
+        bucketFolderSizes = new BucketFolderSizes(concierge);
+        bucketReport = new BucketReport(concierge);
+        bucketExport = new BucketExport(concierge);
+        bucketLoadInventory = new BucketLoadInventory(concierge);
     }
 
 //----------------------------------------------------------------------------
 //  Public methods - used to enable/disable groups of actions
 //----------------------------------------------------------------------------
 
+    /**
+     *  Called when the current bucket changes, with <code>false</code> if
+     *  there are no open buckets.
+     */
+    public void updatePerBucket(boolean hasBucket)
+    {
+        fileRefresh.setEnabled(hasBucket);
+        fileUpload.setEnabled(hasBucket);
+        editSelectAll.setEnabled(hasBucket);
+        bucketClose.setEnabled(hasBucket);
+        bucketFolderSizes.setEnabled(hasBucket);
+        bucketReport.setEnabled(hasBucket);
+        bucketExport.setEnabled(hasBucket);
+        bucketLoadInventory.setEnabled(hasBucket);
+    }
+
+
     /**
      *  Called when the selection state changes (either some row is selected
      *  or no rows are selected).
@@ -66,6 +99,9 @@ public class ActionRegistry
     public void updatePerSelection(int count)
     {
         fileDownload.setEnabled(count > 0);
+        fileCopy.setEnabled(count > 0);
+        fileMove.setEnabled(count > 0);
+        fileRename.setEnabled(count == 1);
         fileDelete.setEnabled(count > 0);
         editSelectNone.setEnabled(count > 0);
         editCopyUrl.setEnabled(count == 1);
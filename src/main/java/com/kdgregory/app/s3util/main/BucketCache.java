@@ -0,0 +1,200 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *  Caches the list of buckets and the region of each bucket, so that the
+ *  bucket dialog and application startup don't have to wait for S3. Entries
+ *  are persisted in the preferences store, with the time that they were
+ *  retrieved; callers use cached values immediately, and refresh them in
+ *  the background if they're stale.
+ *  <p>
+ *  The bucket list is held in a child node with one key per bucket (a single
+ *  preference value is limited to 8 KB); regions are held in another child,
+ *  keyed by bucket name, with the value "region TAB timestamp".
+ *  <p>
+ *  Instances are thread-safe.
+ */
+public class BucketCache
+{
+    /** Regions don't change unless the bucket is deleted and re-created. */
+    public final static long REGION_TTL_MILLIS = 7 * 24 * 3600 * 1000L;
+
+    private final static String KEY_LIST_TIMESTAMP  = "listTimestamp";
+    private final static String NODE_LIST           = "list";
+    private final static String NODE_REGIONS        = "regions";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Preferences root;
+    private long listTtlMillis;
+
+
+    /**
+     *  @param  root            The preferences node that holds the cache.
+     *  @param  listTtlMillis   How long the bucket list remains fresh.
+     */
+    public BucketCache(Preferences root, long listTtlMillis)
+    {
+        this.root = root;
+        this.listTtlMillis = listTtlMillis;
+    }
+
+//----------------------------------------------------------------------------
+//  Bucket list
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the cached bucket list, sorted; null if it's never been retrieved.
+     */
+    public synchronized List<String> getBucketList()
+    {
+        if (root.getLong(KEY_LIST_TIMESTAMP, 0) == 0)
+            return null;
+
+        try
+        {
+            List<String> result = new ArrayList<String>(Arrays.asList(root.node(NODE_LIST).keys()));
+            Collections.sort(result);
+            return result;
+        }
+        catch (BackingStoreException ex)
+        {
+            logger.warn("unable to read cached bucket list", ex);
+            return null;
+        }
+    }
+
+
+    /**
+     *  Indicates whether the bucket list is missing or older than its TTL.
+     */
+    public synchronized boolean isBucketListStale()
+    {
+        return now() - root.getLong(KEY_LIST_TIMESTAMP, 0) > listTtlMillis;
+    }
+
+
+    /**
+     *  Replaces the cached bucket list. Regions are kept independently of the
+     *  list, since buckets may be opened by name without being listed (eg,
+     *  those owned by another account); this discards regions that are past
+     *  their TTL, so that the cache doesn't grow without limit.
+     */
+    public synchronized void setBucketList(List<String> buckets)
+    {
+        try
+        {
+            Preferences list = root.node(NODE_LIST);
+            list.clear();
+            for (String bucket : buckets)
+                list.put(bucket, "");
+
+            Preferences regions = root.node(NODE_REGIONS);
+            for (String bucket : regions.keys())
+            {
+                if (isRegionStale(bucket))
+                    regions.remove(bucket);
+            }
+
+            root.putLong(KEY_LIST_TIMESTAMP, now());
+        }
+        catch (BackingStoreException ex)
+        {
+            logger.warn("unable to cache bucket list", ex);
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Regions
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the cached region for a bucket, null if it isn't cached. Note
+     *  that <code>getBucketLocation</code> reports "US" for us-east-1.
+     */
+    public synchronized String getRegion(String bucket)
+    {
+        String[] entry = regionEntry(bucket);
+        return (entry != null) ? entry[0] : null;
+    }
+
+
+    /**
+     *  Indicates whether the region for a bucket is missing or older than its TTL.
+     */
+    public synchronized boolean isRegionStale(String bucket)
+    {
+        String[] entry = regionEntry(bucket);
+        return (entry == null) || (now() - Long.parseLong(entry[1]) > REGION_TTL_MILLIS);
+    }
+
+
+    public synchronized void setRegion(String bucket, String region)
+    {
+        root.node(NODE_REGIONS).put(bucket, region + "\t" + now());
+    }
+
+
+    /**
+     *  Removes a bucket from the cache; called when we discover that it no
+     *  longer exists.
+     */
+    public synchronized void invalidate(String bucket)
+    {
+        root.node(NODE_REGIONS).remove(bucket);
+        root.node(NODE_LIST).remove(bucket);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the current time; overridden for testing.
+     */
+    protected long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+
+    /**
+     *  Returns the cached region entry as a two-element array (region and
+     *  timestamp), null if there isn't a valid entry.
+     */
+    private String[] regionEntry(String bucket)
+    {
+        String value = root.node(NODE_REGIONS).get(bucket, null);
+        if (value == null)
+            return null;
+
+        String[] fields = value.split("\t");
+        if ((fields.length != 2) || !fields[1].matches("[0-9]+"))
+            return null;
+        return fields;
+    }
+}
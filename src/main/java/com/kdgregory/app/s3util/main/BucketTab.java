@@ -0,0 +1,180 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.main;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.swing.JComponent;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableModel;
+
+import com.kdgregory.app.s3util.filelist.CachingFormatRenderer;
+import com.kdgregory.app.s3util.filelist.FileListTableModel;
+import com.kdgregory.app.s3util.filelist.RangeSelectionModel;
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.filelist.SelectedFiles;
+import com.kdgregory.swinglib.table.TableUtil;
+
+
+/**
+ *  One of the main frame's tabs: holds the file list for a single bucket,
+ *  and the table that displays it. The list is kept when the tab isn't
+ *  displayed, so switching between buckets doesn't require a new listing.
+ *  <p>
+ *  All methods must be called on the event thread.
+ */
+class BucketTab
+{
+    // shared by all tabs; shown until the first listing completes
+    private final static TableModel EMPTY_LIST = new DefaultTableModel(
+                                                    new Object[0][0],
+                                                    new String[] { "Loading..." });
+
+    private String bucketName;
+    private JTable table;
+    private RangeSelectionModel selectionModel;
+    private JScrollPane container;
+    private FileListTableModel fileList;
+    private int loadCount;
+
+
+    public BucketTab(String bucketName)
+    {
+        this.bucketName = bucketName;
+
+        fileList = new FileListTableModel();
+
+        selectionModel = new RangeSelectionModel();
+
+        table = new JTable(EMPTY_LIST, null, selectionModel);
+        table.setFocusable(false);
+        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        table.setColumnSelectionAllowed(false);
+        table.setDefaultRenderer(
+                Long.class,
+                CachingFormatRenderer.forSize());
+        table.setDefaultRenderer(
+                Date.class,
+                CachingFormatRenderer.forDate("MMM dd yyyy HH:mm:ss"));
+
+        container = new JScrollPane(table);
+    }
+
+//----------------------------------------------------------------------------
+//  Accessors
+//----------------------------------------------------------------------------
+
+    public String getBucketName()
+    {
+        return bucketName;
+    }
+
+
+    public JComponent getComponent()
+    {
+        return container;
+    }
+
+
+    public JTable getTable()
+    {
+        return table;
+    }
+
+
+    public FileListTableModel getFileList()
+    {
+        return fileList;
+    }
+
+
+    /**
+     *  Returns the tab's title, which indicates whether a listing is in progress.
+     */
+    public String getTitle()
+    {
+        return isLoading() ? bucketName + " (loading)" : bucketName;
+    }
+
+
+    /**
+     *  Indicates whether the tab is displaying its file list (as opposed to the
+     *  placeholder shown before the first listing).
+     */
+    public boolean isDisplayingList()
+    {
+        return table.getModel() == fileList;
+    }
+
+//----------------------------------------------------------------------------
+//  Operations
+//----------------------------------------------------------------------------
+
+    /**
+     *  Records the start or end of a listing. Listings may overlap (for
+     *  example, if the user refreshes while the initial load is running).
+     */
+    public void setLoading(boolean isLoading)
+    {
+        loadCount = Math.max(0, loadCount + (isLoading ? 1 : -1));
+    }
+
+
+    public boolean isLoading()
+    {
+        return loadCount > 0;
+    }
+
+
+    /**
+     *  Replaces the file list, and clears the selection.
+     */
+    public void setFileList(FileListTableModel model)
+    {
+        fileList = model;
+        table.setModel(fileList);
+        TableUtil.setRelativeColumnWidths(table, fileList.getRelativeWidths());
+        table.clearSelection();
+    }
+
+
+    /**
+     *  Returns the number of selected files. Unlike the table's selected row
+     *  count, this doesn't examine each row.
+     */
+    public int getSelectionCount()
+    {
+        return isDisplayingList() ? selectionModel.getSelectedCount() : 0;
+    }
+
+
+    /**
+     *  Returns the currently selected files, as a lazy view of snapshots of the
+     *  file list and selection (see {@link SelectedFiles}); it's unaffected by
+     *  later changes to either.
+     */
+    public List<S3File> getSelectedFiles()
+    {
+        if (!isDisplayingList())
+            return Collections.emptyList();
+
+        return new SelectedFiles(fileList.snapshot(), selectionModel.getSelection());
+    }
+}
@@ -14,13 +14,33 @@
 
 package com.kdgregory.app.s3util.main;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.prefs.Preferences;
 import javax.swing.JFrame;
 
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 
+import com.kdgregory.app.s3util.metrics.MetricsRequestHandler;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+import com.kdgregory.app.s3util.transfer.BandwidthLimiter;
+import com.kdgregory.app.s3util.transfer.BandwidthRequestHandler;
+import com.kdgregory.app.s3util.transfer.DirectBufferPool;
+import com.kdgregory.app.s3util.transfer.HashCache;
+import com.kdgregory.app.s3util.transfer.RequestGovernor;
+import com.kdgregory.app.s3util.transfer.UploadPolicy;
 import com.kdgregory.swinglib.AsynchronousOperation;
 import com.kdgregory.swinglib.CursorManager;
 
@@ -36,19 +56,57 @@ import com.kdgregory.swinglib.CursorManager;
  */
 public class Concierge
 {
+    // the number of concurrent operations (normally, bucket listings) that run at once
+    private final static int CONCURRENT_OPERATIONS = 4;
+
+    // how long we use the default client for a bucket whose region couldn't be resolved
+    private final static long REGION_FAILURE_TTL_MILLIS = 10 * 60 * 1000L;
+
     private ConfigBean config;
 
-    private ExecutorService threadPool;
+    private ThreadPoolExecutor threadPool;
+    private ExecutorService concurrentPool;
+    private ExecutorService transferPool;
     private CursorManager cursorManager;
     private JFrame dialogOwner;
     private MainFrameController mainFrame;
 
+    private S3Metrics metrics;
+    private RequestGovernor governor;
+    private BandwidthLimiter uploadLimiter;
+    private BandwidthLimiter downloadLimiter;
+    private HashCache hashCache;
+    private BucketCache bucketCache;
+    private DirectBufferPool bufferPool;
+    private UploadPolicy uploadPolicy;
+    private long uploadPolicyTimestamp = -1;
     private AmazonS3 s3Client;
+    private Map<String,AmazonS3> regionClients = new ConcurrentHashMap<String,AmazonS3>();
+    private Map<String,Long> regionFailures = new ConcurrentHashMap<String,Long>();
 
 
     public Concierge(ConfigBean config)
     {
         this.config = config;
+
+        metrics = new S3Metrics();
+        metrics.setQueueDepthSource(() -> (threadPool != null) ? threadPool.getQueue().size() : 0);
+        metrics.register();
+        governor = new RequestGovernor(metrics);
+
+        uploadLimiter = new BandwidthLimiter("upload");
+        uploadLimiter.register();
+        downloadLimiter = new BandwidthLimiter("download");
+        downloadLimiter.register();
+        configureBandwidth(uploadLimiter, config.getUploadBandwidth());
+        configureBandwidth(downloadLimiter, config.getDownloadBandwidth());
+        config.addChangeListener(evt ->
+        {
+            if (ConfigBean.KEY_UPLOAD_BANDWIDTH.equals(evt.getKey()))
+                configureBandwidth(uploadLimiter, config.getUploadBandwidth());
+            else if (ConfigBean.KEY_DOWNLOAD_BANDWIDTH.equals(evt.getKey()))
+                configureBandwidth(downloadLimiter, config.getDownloadBandwidth());
+        });
     }
 
 //----------------------------------------------------------------------------
@@ -62,11 +120,52 @@ public class Concierge
     public void execute(AsynchronousOperation<?> op)
     {
         if (threadPool == null)
-            threadPool = Executors.newFixedThreadPool(1);
+            threadPool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
         threadPool.execute(op);
     }
 
 
+    /**
+     *  Adds an operation to the pool for operations that may run concurrently,
+     *  such as the listings for different buckets. This is separate from the
+     *  operation pool, so that a slow listing doesn't hold up other operations.
+     */
+    public synchronized void executeConcurrent(AsynchronousOperation<?> op)
+    {
+        if (concurrentPool == null)
+        {
+            concurrentPool = Executors.newFixedThreadPool(CONCURRENT_OPERATIONS, (runnable) ->
+            {
+                Thread thread = new Thread(runnable, "concurrent-op");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        concurrentPool.execute(op);
+    }
+
+
+    /**
+     *  Returns the pool used by operations that transfer many files concurrently.
+     *  This is separate from the operation pool: an operation running on that
+     *  pool hands individual transfers to this one and waits for them. The size
+     *  is taken from configuration when the pool is first used.
+     */
+    public synchronized ExecutorService getTransferPool()
+    {
+        if (transferPool == null)
+        {
+            transferPool = Executors.newFixedThreadPool(config.getTransferThreads(), (runnable) ->
+            {
+                Thread thread = new Thread(runnable, "transfer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return transferPool;
+    }
+
+
     /**
      *  Returns the configuration bean.
      */
@@ -108,17 +207,233 @@ public class Concierge
 
 
     /**
-     *  Returns the S3 client object.
+     *  Returns the operational metrics, which are also exposed via JMX.
+     */
+    public S3Metrics getMetrics()
+    {
+        return metrics;
+    }
+
+
+    /**
+     *  Returns the governor that all S3 requests should pass through, which
+     *  handles retries and per-prefix concurrency.
+     */
+    public RequestGovernor getGovernor()
+    {
+        return governor;
+    }
+
+
+    /**
+     *  Returns the limiter shared by all uploads. It's configured from the
+     *  <code>UploadBandwidth</code> preference, and reconfigured whenever
+     *  that changes.
+     */
+    public BandwidthLimiter getUploadLimiter()
+    {
+        return uploadLimiter;
+    }
+
+
+    /**
+     *  Returns the limiter shared by all downloads, configured from the
+     *  <code>DownloadBandwidth</code> preference.
+     */
+    public BandwidthLimiter getDownloadLimiter()
+    {
+        return downloadLimiter;
+    }
+
+
+    /**
+     *  Returns the cache of bucket names and regions. This is persisted with
+     *  the application's preferences.
+     */
+    public synchronized BucketCache getBucketCache()
+    {
+        if (bucketCache == null)
+        {
+            bucketCache = new BucketCache(
+                            Preferences.userNodeForPackage(ConfigBean.class).node("BucketCache"),
+                            config.getBucketCacheMinutes() * 60000L);
+        }
+        return bucketCache;
+    }
+
+
+    /**
+     *  Returns the local file hash cache. This is loaded on first use, and saved
+     *  when the JVM exits; operations that add many entries may also save it
+     *  explicitly.
+     */
+    public synchronized HashCache getHashCache()
+    {
+        if (hashCache == null)
+        {
+            final HashCache cache = new HashCache(HashCache.defaultIndexFile());
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+            {
+                try
+                {
+                    cache.save();
+                }
+                catch (Exception ex)
+                {
+                    LoggerFactory.getLogger(getClass()).warn("unable to save hash cache", ex);
+                }
+            }));
+            hashCache = cache;
+        }
+        return hashCache;
+    }
+
+
+    /**
+     *  Returns the pool of direct buffers used for file I/O that can't be
+     *  memory-mapped. The number of idle buffers retained is based on the
+     *  number of transfer threads.
      */
-    public AmazonS3 getS3Client()
+    public synchronized DirectBufferPool getBufferPool()
+    {
+        if (bufferPool == null)
+            bufferPool = new DirectBufferPool(DirectBufferPool.DEFAULT_BUFFER_SIZE, config.getTransferThreads() * 2);
+        return bufferPool;
+    }
+
+
+    /**
+     *  Returns the policy that controls headers and ACLs for uploaded objects.
+     *  This is re-read whenever the policy file changes, so edits take effect
+     *  with the next upload.
+     *
+     *  @throws IllegalArgumentException if the policy file is invalid; we don't
+     *          want to upload with the wrong headers.
+     */
+    public synchronized UploadPolicy getUploadPolicy()
+    throws IOException
+    {
+        File policyFile = UploadPolicy.defaultPolicyFile();
+        long timestamp = policyFile.lastModified();
+        if ((uploadPolicy == null) || (timestamp != uploadPolicyTimestamp))
+        {
+            try
+            {
+                uploadPolicy = UploadPolicy.load(policyFile);
+                uploadPolicyTimestamp = timestamp;
+            }
+            catch (IllegalArgumentException ex)
+            {
+                throw new IllegalArgumentException("invalid upload policy " + policyFile + ": " + ex.getMessage());
+            }
+        }
+        return uploadPolicy;
+    }
+
+
+    /**
+     *  Returns the default S3 client, which uses the default region. This is
+     *  used for requests that aren't tied to a bucket, such as listing buckets
+     *  and discovering a bucket's region; operations on a bucket should use
+     *  {@link #getS3Client(String)}.
+     *  <p>
+     *  All requests made by this client (and the regional clients) are recorded
+     *  in the application's metrics. Failed requests are not retried by the
+     *  client; that's left to the governor.
+     */
+    public synchronized AmazonS3 getS3Client()
     {
         if (s3Client == null)
         {
-            s3Client = AmazonS3ClientBuilder.defaultClient();
+            s3Client = configureClient(AmazonS3ClientBuilder.standard()).build();
         }
         return s3Client;
     }
 
+
+    /**
+     *  Returns a client for the region that holds the specified bucket, so that
+     *  requests go directly to that region rather than being redirected. The
+     *  region is resolved once per bucket (see {@link #getBucketRegion}); if it
+     *  can't be resolved (for example, because we don't have permission to call
+     *  <code>GetBucketLocation</code>), returns the default client; that failure
+     *  is remembered for a while, so that operations which get a client for
+     *  each file don't retry the lookup each time.
+     */
+    public AmazonS3 getS3Client(String bucket)
+    {
+        if ((bucket == null) || bucket.isEmpty())
+            return getS3Client();
+
+        Long failureTimestamp = regionFailures.get(bucket);
+        if ((failureTimestamp != null) && (System.currentTimeMillis() - failureTimestamp < REGION_FAILURE_TTL_MILLIS))
+            return getS3Client();
+
+        try
+        {
+            AmazonS3 client = getS3ClientForRegion(getBucketRegion(bucket));
+            regionFailures.remove(bucket);
+            return client;
+        }
+        catch (Exception ex)
+        {
+            LoggerFactory.getLogger(getClass()).debug("unable to resolve region for bucket {}, using default client: {}",
+                                                      bucket, ex.getMessage());
+            regionFailures.put(bucket, System.currentTimeMillis());
+            return getS3Client();
+        }
+    }
+
+
+    /**
+     *  Returns the client for a region, creating it on first use. Each client
+     *  has its own connection pool, so switching between buckets in different
+     *  regions doesn't discard warm connections.
+     */
+    public AmazonS3 getS3ClientForRegion(String region)
+    {
+        return regionClients.computeIfAbsent(region, (r) ->
+        {
+            LoggerFactory.getLogger(getClass()).debug("creating client for region {}", r);
+            return configureClient(AmazonS3ClientBuilder.standard().withRegion(r)).build();
+        });
+    }
+
+
+    /**
+     *  Returns the region for a bucket: from the bucket cache if possible,
+     *  otherwise by calling <code>GetBucketLocation</code> with the default
+     *  client (which S3 allows for any region), and caching the result.
+     *
+     *  @throws Exception if unable to retrieve the location (including if the
+     *          bucket doesn't exist).
+     */
+    public String getBucketRegion(final String bucket)
+    throws Exception
+    {
+        String region = getBucketCache().getRegion(bucket);
+        if (region == null)
+        {
+            region = governor.execute(OperationType.OTHER, "", () -> getS3Client().getBucketLocation(bucket));
+            getBucketCache().setRegion(bucket, region);
+        }
+        return normalizeRegion(region);
+    }
+
+
+    /**
+     *  Converts the value returned by <code>GetBucketLocation</code> to a region
+     *  name: the original regions have legacy names.
+     */
+    public static String normalizeRegion(String location)
+    {
+        if ((location == null) || location.isEmpty() || location.equals("US"))
+            return "us-east-1";
+        if (location.equals("EU"))
+            return "eu-west-1";
+        return location;
+    }
+
 //----------------------------------------------------------------------------
 //  Methods called during initialization; these are all protected, on the
 //  assumption that all initialization takes place in the "main" package
@@ -129,4 +444,40 @@ public class Concierge
         mainFrame = controller;
         dialogOwner = frame;
     }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Applies a bandwidth preference to its limiter. An invalid schedule is
+     *  logged and ignored, leaving the previous one in effect.
+     */
+    private void configureBandwidth(BandwidthLimiter limiter, String schedule)
+    {
+        try
+        {
+            limiter.setSchedule(schedule);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            LoggerFactory.getLogger(getClass()).warn("ignoring bandwidth preference: {}", ex.getMessage());
+        }
+    }
+
+
+    /**
+     *  Applies the configuration shared by all clients. The connection pool is
+     *  sized so that transfers don't wait for connections, and all clients
+     *  share the bandwidth limiters.
+     */
+    private AmazonS3ClientBuilder configureClient(AmazonS3ClientBuilder builder)
+    {
+        int maxConnections = Math.max(ClientConfiguration.DEFAULT_MAX_CONNECTIONS, config.getTransferThreads() * 2);
+        return builder.withClientConfiguration(new ClientConfiguration()
+                                               .withRetryPolicy(RequestGovernor.sdkRetryPolicy())
+                                               .withMaxConnections(maxConnections))
+                      .withRequestHandlers(new MetricsRequestHandler(metrics),
+                                           new BandwidthRequestHandler(uploadLimiter, downloadLimiter));
+    }
 }
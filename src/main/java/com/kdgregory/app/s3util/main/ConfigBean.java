@@ -14,6 +14,10 @@
 
 package com.kdgregory.app.s3util.main;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.Preferences;
 
 
@@ -32,16 +36,40 @@ import java.util.prefs.Preferences;
 public class ConfigBean
 {
     private final static String KEY_S3_BUCKET       = "S3BucketName";
+    private final static String KEY_OPEN_BUCKETS    = "OpenBuckets";
 
     private final static String KEY_UPLOAD_DIR      = "LastUploadDirectory";
     private final static String KEY_DOWNLOAD_DIR    = "LastDownloadDirectory";
 
+    private final static String KEY_TRANSFER_THREADS = "TransferThreads";
+    private final static String KEY_BUCKET_CACHE_MINUTES = "BucketCacheMinutes";
+    public final static String KEY_UPLOAD_BANDWIDTH = "UploadBandwidth";
+    public final static String KEY_DOWNLOAD_BANDWIDTH = "DownloadBandwidth";
+
+    private final static String BANDWIDTH_ENTRY_REGEX = "\\s*([0-9]{1,2}:[0-9]{2}\\s*-\\s*[0-9]{1,2}:[0-9]{2}\\s*=\\s*)?[0-9]+\\s*";
+
+    public final static int DEFAULT_TRANSFER_THREADS = 8;
+    public final static int DEFAULT_BUCKET_CACHE_MINUTES = 60;
+
 //----------------------------------------------------------------------------
 //  Instance Data and Constructors
 //----------------------------------------------------------------------------
 
     Preferences _prefs = Preferences.userNodeForPackage(this.getClass());
 
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Registers a listener that's invoked (on a thread owned by the Preferences
+     *  API) whenever a preference is changed by this program.
+     */
+    public void addChangeListener(PreferenceChangeListener listener)
+    {
+        _prefs.addPreferenceChangeListener(listener);
+    }
+
 //----------------------------------------------------------------------------
 //  Accessors
 //----------------------------------------------------------------------------
@@ -119,4 +147,145 @@ public class ConfigBean
     {
         return "[-A-Za-z0-9]+";
     }
+
+
+    /**
+     *  Returns the buckets that are open in the main window, in tab order.
+     *  The selected bucket is {@link #getAmazonBucketName}.
+     */
+    public List<String> getOpenBuckets()
+    {
+        String value = _prefs.get(KEY_OPEN_BUCKETS, "").trim();
+        return value.isEmpty()
+             ? new ArrayList<String>()
+             : new ArrayList<String>(Arrays.asList(value.split(",")));
+    }
+
+
+    public void setOpenBuckets(List<String> names)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String name : names)
+        {
+            if (sb.length() > 0)
+                sb.append(",");
+            sb.append(name);
+        }
+        _prefs.put(KEY_OPEN_BUCKETS, sb.toString());
+    }
+
+
+    public static String openBucketsInfo()
+    {
+        return "The buckets shown as tabs in the main window, separated by commas.";
+    }
+
+
+    public static String openBucketsRegex()
+    {
+        return "([-.A-Za-z0-9]+(,[-.A-Za-z0-9]+)*)?";
+    }
+
+
+    public int getTransferThreads()
+    {
+        return _prefs.getInt(KEY_TRANSFER_THREADS, DEFAULT_TRANSFER_THREADS);
+    }
+
+
+    public void setTransferThreads(int value)
+    {
+        _prefs.putInt(KEY_TRANSFER_THREADS, value);
+    }
+
+
+    public static String transferThreadsInfo()
+    {
+        return "The number of files transferred concurrently by bulk operations "
+             + "such as sync. Read at startup.";
+    }
+
+
+    public static String transferThreadsRegex()
+    {
+        return "[1-9][0-9]?";
+    }
+
+
+    public int getBucketCacheMinutes()
+    {
+        return _prefs.getInt(KEY_BUCKET_CACHE_MINUTES, DEFAULT_BUCKET_CACHE_MINUTES);
+    }
+
+
+    public void setBucketCacheMinutes(int value)
+    {
+        _prefs.putInt(KEY_BUCKET_CACHE_MINUTES, value);
+    }
+
+
+    public static String bucketCacheMinutesInfo()
+    {
+        return "How long the cached list of buckets is used before being refreshed "
+             + "in the background. Read at startup.";
+    }
+
+
+    public static String bucketCacheMinutesRegex()
+    {
+        return "[0-9]{1,5}";
+    }
+
+
+    public String getUploadBandwidth()
+    {
+        return _prefs.get(KEY_UPLOAD_BANDWIDTH, "");
+    }
+
+
+    public void setUploadBandwidth(String value)
+    {
+        _prefs.put(KEY_UPLOAD_BANDWIDTH, value);
+    }
+
+
+    public static String uploadBandwidthInfo()
+    {
+        return "The maximum rate for all uploads combined, in KB/sec; empty or 0 is "
+             + "unlimited. May be a schedule, such as \"09:00-17:00=512, 0\", where "
+             + "the first entry matching the time of day applies. Changes take effect "
+             + "immediately.";
+    }
+
+
+    public static String uploadBandwidthRegex()
+    {
+        return "(" + BANDWIDTH_ENTRY_REGEX + "(," + BANDWIDTH_ENTRY_REGEX + ")*)?";
+    }
+
+
+    public String getDownloadBandwidth()
+    {
+        return _prefs.get(KEY_DOWNLOAD_BANDWIDTH, "");
+    }
+
+
+    public void setDownloadBandwidth(String value)
+    {
+        _prefs.put(KEY_DOWNLOAD_BANDWIDTH, value);
+    }
+
+
+    public static String downloadBandwidthInfo()
+    {
+        return "The maximum rate for all downloads combined, in KB/sec; empty or 0 "
+             + "is unlimited. May be a schedule, as for uploads. Changes take effect "
+             + "immediately.";
+    }
+
+
+    public static String downloadBandwidthRegex()
+    {
+        return uploadBandwidthRegex();
+    }
 }
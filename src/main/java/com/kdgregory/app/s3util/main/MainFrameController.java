@@ -16,33 +16,34 @@ package com.kdgregory.app.s3util.main;
 
 import java.awt.Dimension;
 import java.awt.event.KeyEvent;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JPopupMenu;
-import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
-import javax.swing.JTable;
-import javax.swing.ListSelectionModel;
+import javax.swing.JSplitPane;
+import javax.swing.JTabbedPane;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
-import javax.swing.table.DefaultTableModel;
 
 import net.sf.kdgcommons.lang.StringUtil;
 
 import com.kdgregory.app.s3util.filelist.FileListTableModel;
+import com.kdgregory.app.s3util.filelist.PrefixAggregator;
 import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.preview.PreviewPane;
+import com.kdgregory.app.s3util.s3ops.S3InitialLoadOp;
 import com.kdgregory.swinglib.SwingUtil;
 import com.kdgregory.swinglib.components.MainFrame;
 import com.kdgregory.swinglib.listeners.PopupListener;
-import com.kdgregory.swinglib.table.FormattingRenderer;
-import com.kdgregory.swinglib.table.TableUtil;
 
 
 /**
@@ -54,13 +55,19 @@ public class MainFrameController
 {
     private final static String BASE_TITLE = "S3Util";
 
+    // the number of files before and after the selection that are prefetched
+    // for preview; more after, because that's the usual direction of travel
+    private final static int PREFETCH_BEFORE = 1;
+    private final static int PREFETCH_AFTER = 2;
+
     private Concierge concierge;
     private ActionRegistry actionRegistry;
 
     private JFrame mainFrame;
-    private JTable table;
-    private FileListTableModel fileList;
-    private DefaultTableModel emptyList;
+    private JTabbedPane tabbedPane;
+    private JPopupMenu popupMenu;
+    private Map<String,BucketTab> bucketTabs = new LinkedHashMap<String,BucketTab>();
+    private PreviewPane previewPane;
 
 
     public MainFrameController(Concierge concierge)
@@ -77,17 +84,39 @@ public class MainFrameController
     {
         mainFrame = new MainFrame(BASE_TITLE, actionRegistry.fileQuit);
         mainFrame.setJMenuBar(createMainMenu());
+        popupMenu = createPopupMenu();
         mainFrame.setContentPane(createContentPane());
         mainFrame.pack();
         concierge.setMainFrame(this, mainFrame);
 
-        PopupListener.attach(table, createPopupMenu());
-        resetBucket();
+        updateForCurrentBucket();
 
         SwingUtil.centerAndShow(mainFrame);
     }
 
 
+    /**
+     *  Opens the buckets that were open when the application last ran (or the
+     *  configured bucket, if upgrading from a version without tabs), and loads
+     *  them. Returns <code>false</code> if there weren't any.
+     */
+    public boolean restoreBuckets()
+    {
+        String selected = concierge.getConfig().getAmazonBucketName();
+        List<String> buckets = concierge.getConfig().getOpenBuckets();
+        if (buckets.isEmpty() && !StringUtil.isEmpty(selected))
+            buckets.add(selected);
+
+        for (String bucket : buckets)
+            openBucket(bucket);
+
+        if (bucketTabs.containsKey(selected))
+            openBucket(selected);
+
+        return !bucketTabs.isEmpty();
+    }
+
+
     private JMenuBar createMainMenu()
     {
         JMenu fileMenu = new JMenu("File");
@@ -96,6 +125,10 @@ public class MainFrameController
         fileMenu.add(new JSeparator(JSeparator.HORIZONTAL));
         fileMenu.add(actionRegistry.fileUpload);
         fileMenu.add(actionRegistry.fileDownload);
+        fileMenu.add(new JSeparator(JSeparator.HORIZONTAL));
+        fileMenu.add(actionRegistry.fileCopy);
+        fileMenu.add(actionRegistry.fileMove);
+        fileMenu.add(actionRegistry.fileRename);
         fileMenu.add(actionRegistry.fileDelete);
         fileMenu.add(new JSeparator(JSeparator.HORIZONTAL));
         fileMenu.add(actionRegistry.fileQuit);
@@ -110,6 +143,12 @@ public class MainFrameController
         JMenu bucketMenu = new JMenu("Bucket");
         fileMenu.setMnemonic(KeyEvent.VK_B);
         bucketMenu.add(actionRegistry.bucketSelect);
+        bucketMenu.add(actionRegistry.bucketClose);
+        bucketMenu.add(actionRegistry.bucketLoadInventory);
+        bucketMenu.add(new JSeparator(JSeparator.HORIZONTAL));
+        bucketMenu.add(actionRegistry.bucketFolderSizes);
+        bucketMenu.add(actionRegistry.bucketReport);
+        bucketMenu.add(actionRegistry.bucketExport);
 
         JMenuBar menuBar = new JMenuBar();
         menuBar.add(fileMenu);
@@ -129,6 +168,10 @@ public class MainFrameController
         menu.add(new JSeparator(JSeparator.HORIZONTAL));
         menu.add(actionRegistry.fileUpload);
         menu.add(actionRegistry.fileDownload);
+        menu.add(new JSeparator(JSeparator.HORIZONTAL));
+        menu.add(actionRegistry.fileCopy);
+        menu.add(actionRegistry.fileMove);
+        menu.add(actionRegistry.fileRename);
         menu.add(actionRegistry.fileDelete);
         menu.add(new JSeparator(JSeparator.HORIZONTAL));
         menu.add(actionRegistry.fileRefresh);
@@ -136,27 +179,18 @@ public class MainFrameController
     }
 
 
-    private JScrollPane createContentPane()
+    private JSplitPane createContentPane()
     {
-        emptyList = new DefaultTableModel(
-                        new Object[0][0],
-                        new String[] { "Loading..." });
-
-        table = new JTable();
-        table.setFocusable(false);
-        table.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
-        table.setColumnSelectionAllowed(false);
-        table.getSelectionModel().addListSelectionListener(new SelectionListener());
-        table.setDefaultRenderer(
-                Integer.class,
-                new FormattingRenderer(new DecimalFormat("#,##0")));
-        table.setDefaultRenderer(
-                Date.class,
-                new FormattingRenderer(new SimpleDateFormat("MMM dd yyyy HH:mm:ss")));
-
-        JScrollPane container = new JScrollPane(table);
-        container.setPreferredSize(new Dimension(600, 400));
-        return container;
+        tabbedPane = new JTabbedPane(JTabbedPane.TOP, JTabbedPane.SCROLL_TAB_LAYOUT);
+        tabbedPane.setPreferredSize(new Dimension(600, 400));
+        tabbedPane.addChangeListener(new TabListener());
+
+        previewPane = new PreviewPane(concierge);
+        previewPane.getComponent().setPreferredSize(new Dimension(300, 400));
+
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, tabbedPane, previewPane.getComponent());
+        splitPane.setResizeWeight(0.7);
+        return splitPane;
     }
 
 
@@ -183,132 +217,305 @@ public class MainFrameController
 
 
     /**
-     *  Updates the frame and actions to match the current bucket,
-     *  if any.
+     *  Indicates that a bucket's listing has started or finished. Unlike
+     *  {@link #setBusyState}, this only affects the bucket's tab, so that the
+     *  user can continue to work with other buckets.
      */
-    public void resetBucket()
+    public void setLoadingState(String bucketName, boolean isLoading)
     {
-        String bucketName = concierge.getConfig().getAmazonBucketName();
-        if (StringUtil.isEmpty(bucketName))
-        {
-            // the only time we'll have an empty bucket is when the
-            // program is first initialized, or for the short time
-            // between deleting a bucket and selecting a new one
-            mainFrame.setTitle(BASE_TITLE);
-        }
-        else
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab == null)
+            return;
+
+        tab.setLoading(isLoading);
+        tabbedPane.setTitleAt(tabbedPane.indexOfComponent(tab.getComponent()), tab.getTitle());
+    }
+
+
+    /**
+     *  Makes the specified bucket the current bucket. If it isn't already open,
+     *  adds a tab for it and starts loading its list of files; if it is, just
+     *  switches to its tab.
+     */
+    public void openBucket(String bucketName)
+    {
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab == null)
         {
-            mainFrame.setTitle(BASE_TITLE + " - " + bucketName);
+            tab = new BucketTab(bucketName);
+            tab.getTable().getSelectionModel().addListSelectionListener(new SelectionListener(tab));
+            PopupListener.attach(tab.getTable(), popupMenu);
+            bucketTabs.put(bucketName, tab);
+            tabbedPane.addTab(bucketName, tab.getComponent());
+            saveOpenBuckets();
+
+            new S3InitialLoadOp(concierge).setBucketName(bucketName).start();
         }
+        tabbedPane.setSelectedComponent(tab.getComponent());
+        updateForCurrentBucket();
+    }
+
+
+    /**
+     *  Closes the tab for the specified bucket, discarding its file list.
+     *  Operations in progress on that bucket continue, but their results
+     *  are ignored.
+     */
+    public void closeBucket(String bucketName)
+    {
+        BucketTab tab = bucketTabs.remove(bucketName);
+        if (tab == null)
+            return;
+
+        tabbedPane.remove(tab.getComponent());
+        saveOpenBuckets();
+        updateForCurrentBucket();
+    }
+
+
+    /**
+     *  Returns the bucket displayed in the current tab, null if there aren't
+     *  any tabs.
+     */
+    public String getCurrentBucket()
+    {
+        BucketTab tab = getCurrentTab();
+        return (tab != null) ? tab.getBucketName() : null;
+    }
+
+
+    /**
+     *  Returns the per-prefix totals for the current tab's list of files, null
+     *  if there aren't any tabs. These are updated as the list changes, but
+     *  are replaced when the list is refreshed.
+     */
+    public PrefixAggregator getCurrentPrefixSizes()
+    {
+        BucketTab tab = getCurrentTab();
+        return (tab != null) ? tab.getFileList().getAggregator() : null;
+    }
+
+
+    /**
+     *  Replaces a bucket's entire list of files. Ignored if the bucket has
+     *  been closed.
+     */
+    public void resetList(String bucketName, FileListTableModel model)
+    {
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab == null)
+            return;
+
+        tab.setFileList(model);
+        if (tab == getCurrentTab())
+            updatePreview();
+    }
+
 
-        // regardless of whether we've got a bucket or not, we will reset
-        // the displayed list
-        table.setModel(emptyList);
-        fileList = new FileListTableModel();
+    /**
+     *  Adds a single file to a bucket's list (will update an existing file
+     *  with the same key).
+     */
+    public void addFileToList(String bucketName, S3File file)
+    {
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab != null)
+            tab.getFileList().addFile(file);
     }
 
 
     /**
-     *  Resets the entire list of files.
+     *  Adds multiple files to a bucket's list, as a single update. Used by
+     *  operations that touch many files, which would otherwise swamp the
+     *  event thread.
      */
-    public void resetList(FileListTableModel model)
+    public void addFilesToList(String bucketName, Collection<S3File> files)
     {
-        fileList = model;
-        displayActualList();
-        selectNone();
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab != null)
+            tab.getFileList().addFiles(files);
     }
 
 
     /**
-     *  Adds a single file to the list (will update an existing file with
-     *  the same key).
+     *  Deletes a single file from a bucket's list. The scroll is not changed.
      */
-    public void addFileToList(S3File file)
+    public void removeFileFromList(String bucketName, S3File file)
     {
-        fileList.addFile(file);
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab != null)
+            tab.getFileList().deleteFile(file);
     }
 
 
     /**
-     *  Deletes a single file from the  list. The scroll is not changed.
+     *  Deletes multiple files from a bucket's list, as a single update.
      */
-    public void removeFileFromList(S3File file)
+    public void removeFilesFromList(String bucketName, Collection<S3File> files)
     {
-        fileList.deleteFile(file);
+        BucketTab tab = bucketTabs.get(bucketName);
+        if (tab != null)
+            tab.getFileList().deleteFiles(files);
     }
 
 
     /**
-     *  Returns the number of files selected.
+     *  Returns the number of files selected in the current tab.
      */
     public int getSelectionCount()
     {
-        return table.getSelectedRowCount();
+        BucketTab tab = getCurrentTab();
+        return (tab != null) ? tab.getSelectionCount() : 0;
     }
 
 
     /**
-     *  Returns the list of currently selected files.
+     *  Returns the list of files selected in the current tab. This is a lazy
+     *  view of the selection at the time of the call, which may be consumed on
+     *  a background thread; it isn't affected by later changes.
      */
     public List<S3File> getSelectedFiles()
     {
-        int[] selection = table.getSelectedRows();
-        List<S3File> result = new ArrayList<S3File>(selection.length);
-        for (int row : selection)
-            result.add(fileList.getFileAt(row));
-        return result;
+        BucketTab tab = getCurrentTab();
+        return (tab != null) ? tab.getSelectedFiles() : new ArrayList<S3File>();
     }
 
 
     /**
-     *  Sets the "selected" flag on all current files.
+     *  Selects all files in the current tab.
      */
     public void selectAll()
     {
-        table.selectAll();
+        BucketTab tab = getCurrentTab();
+        if (tab != null)
+            tab.getTable().selectAll();
     }
 
 
     /**
-     *  Clears the "selected" flag on all current files.
+     *  Clears the selection in the current tab.
      */
     public void selectNone()
     {
-        table.clearSelection();
+        BucketTab tab = getCurrentTab();
+        if (tab != null)
+            tab.getTable().clearSelection();
     }
 
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
 
+    private BucketTab getCurrentTab()
+    {
+        for (BucketTab tab : bucketTabs.values())
+        {
+            if (tab.getComponent() == tabbedPane.getSelectedComponent())
+                return tab;
+        }
+        return null;
+    }
+
+
+    /**
+     *  Records the open buckets, in tab order, so that they can be restored
+     *  at the next startup.
+     */
+    private void saveOpenBuckets()
+    {
+        concierge.getConfig().setOpenBuckets(new ArrayList<String>(bucketTabs.keySet()));
+    }
+
+
+    /**
+     *  Updates the title, configuration, and actions to match the current tab.
+     *  The configured bucket is the default for operations, so it always
+     *  reflects the current tab.
+     */
+    private void updateForCurrentBucket()
+    {
+        String bucketName = getCurrentBucket();
+        if (bucketName == null)
+        {
+            mainFrame.setTitle(BASE_TITLE);
+            concierge.getConfig().setAmazonBucketName("");
+        }
+        else
+        {
+            mainFrame.setTitle(BASE_TITLE + " - " + bucketName);
+            concierge.getConfig().setAmazonBucketName(bucketName);
+        }
+
+        actionRegistry.updatePerBucket(bucketName != null);
+        actionRegistry.updatePerSelection(getSelectionCount());
+        updatePreview();
+    }
+
+
     /**
-     *  A helper method that determines whether the table is currently
-     *  displaying the dummy "Loading" list, or the real list. If the
-     *  former, switches list models and properly sets column sizes.
+     *  Updates the preview pane to match the current tab's selection: a single
+     *  selected file is previewed, and its neighbors are prefetched.
      */
-    private void displayActualList()
+    private void updatePreview()
     {
-        if (table.getModel() != fileList)
+        BucketTab tab = getCurrentTab();
+        int count = getSelectionCount();
+        if ((tab == null) || (count != 1) || !tab.isDisplayingList())
+        {
+            previewPane.showMessage((count == 0) ? "No file selected" : count + " files selected");
+            return;
+        }
+
+        FileListTableModel fileList = tab.getFileList();
+        int row = tab.getTable().getSelectedRow();
+        List<S3File> adjacent = new ArrayList<S3File>();
+        for (int ii = row - PREFETCH_BEFORE ; ii <= row + PREFETCH_AFTER ; ii++)
         {
-            table.setModel(fileList);
-            TableUtil.setRelativeColumnWidths(
-                    table,
-                    fileList.getRelativeWidths());
+            if ((ii != row) && (ii >= 0) && (ii < fileList.getRowCount()))
+                adjacent.add(fileList.getFileAt(ii));
         }
+        previewPane.show(fileList.getFileAt(row), adjacent);
     }
 
 
     /**
-     *  Listens for changes to the selection, and enables/disables actions
-     *  appropriately.
+     *  Listens for changes to a tab's selection, and enables/disables actions
+     *  appropriately. Changes to tabs other than the current one (which happen
+     *  when their list is replaced) are ignored.
      */
     private class SelectionListener
     implements ListSelectionListener
     {
+        private BucketTab tab;
+
+        public SelectionListener(BucketTab tab)
+        {
+            this.tab = tab;
+        }
+
         @Override
         public void valueChanged(ListSelectionEvent evt)
         {
+            if (tab != getCurrentTab())
+                return;
+
             actionRegistry.updatePerSelection(getSelectionCount());
+            if (!evt.getValueIsAdjusting())
+                updatePreview();
+        }
+    }
+
+
+    /**
+     *  Listens for the user switching tabs.
+     */
+    private class TabListener
+    implements ChangeListener
+    {
+        @Override
+        public void stateChanged(ChangeEvent evt)
+        {
+            updateForCurrentBucket();
         }
     }
 }
@@ -0,0 +1,168 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *  A lock-free latency histogram with power-of-two buckets, measured in
+ *  microseconds: bucket N holds values in the range [2^N, 2^(N+1)). This
+ *  gives constant memory and update cost, at the price of percentiles that
+ *  are only accurate to within a factor of two (we report the upper bound
+ *  of the bucket that contains the requested rank).
+ */
+public class LatencyHistogram
+{
+    private final static int NUM_BUCKETS = 40;
+
+    private AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private LongAdder count = new LongAdder();
+    private LongAdder totalMicros = new LongAdder();
+    private AtomicLong maxMicros = new AtomicLong();
+
+
+    /**
+     *  Records a single observation.
+     */
+    public void record(long elapsedNanos)
+    {
+        long micros = Math.max(0, elapsedNanos / 1000);
+        buckets.incrementAndGet(bucketFor(micros));
+        count.increment();
+        totalMicros.add(micros);
+
+        long prevMax = maxMicros.get();
+        while ((micros > prevMax) && !maxMicros.compareAndSet(prevMax, micros))
+        {
+            prevMax = maxMicros.get();
+        }
+    }
+
+
+    /**
+     *  Clears all observations. Not atomic with respect to concurrent updates.
+     */
+    public void reset()
+    {
+        for (int ii = 0 ; ii < NUM_BUCKETS ; ii++)
+            buckets.set(ii, 0);
+        count.reset();
+        totalMicros.reset();
+        maxMicros.set(0);
+    }
+
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+
+    public double getMeanMillis()
+    {
+        long n = count.sum();
+        return (n == 0) ? 0 : totalMicros.sum() / 1000.0 / n;
+    }
+
+
+    public double getMaxMillis()
+    {
+        return maxMicros.get() / 1000.0;
+    }
+
+
+    /**
+     *  Returns the approximate value at the given percentile (0-100), in
+     *  milliseconds. Returns 0 if there are no observations.
+     */
+    public double getPercentileMillis(double pct)
+    {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long bucketCount : snapshot)
+            total += bucketCount;
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(pct / 100.0 * total));
+        long seen = 0;
+        for (int ii = 0 ; ii < NUM_BUCKETS ; ii++)
+        {
+            seen += snapshot[ii];
+            if (seen >= rank)
+                return Math.min(upperBoundMicros(ii), maxMicros.get()) / 1000.0;
+        }
+        return getMaxMillis();
+    }
+
+
+    /**
+     *  Returns the non-empty buckets, keyed by a description of their upper
+     *  bound (eg: "< 512 ms").
+     */
+    public Map<String,Long> getBuckets()
+    {
+        long[] snapshot = snapshot();
+        Map<String,Long> result = new LinkedHashMap<>();
+        for (int ii = 0 ; ii < NUM_BUCKETS ; ii++)
+        {
+            if (snapshot[ii] > 0)
+                result.put(describe(upperBoundMicros(ii)), snapshot[ii]);
+        }
+        return result;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private long[] snapshot()
+    {
+        long[] result = new long[NUM_BUCKETS];
+        for (int ii = 0 ; ii < NUM_BUCKETS ; ii++)
+            result[ii] = buckets.get(ii);
+        return result;
+    }
+
+
+    private static int bucketFor(long micros)
+    {
+        if (micros <= 1)
+            return 0;
+        return Math.min(NUM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+    }
+
+
+    private static long upperBoundMicros(int bucket)
+    {
+        return 1L << (bucket + 1);
+    }
+
+
+    private static String describe(long micros)
+    {
+        if (micros < 1000)
+            return "< " + micros + " us";
+        else if (micros < 1000000)
+            return "< " + (micros / 1000) + " ms";
+        else
+            return "< " + (micros / 1000000) + " s";
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.handlers.HandlerAfterAttemptContext;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.HandlerContextKey;
+import com.amazonaws.handlers.RequestHandler2;
+
+
+/**
+ *  Attached to the S3 client, this handler feeds every request into an
+ *  {@link S3Metrics} instance. The SDK calls <code>beforeRequest</code> and
+ *  <code>afterResponse</code>/<code>afterError</code> once per request, and
+ *  the attempt methods once per try, which is how we count retries.
+ */
+public class MetricsRequestHandler
+extends RequestHandler2
+{
+    private final static HandlerContextKey<Long> START_NANOS = new HandlerContextKey<>("s3util.startNanos");
+    private final static HandlerContextKey<AtomicInteger> ATTEMPTS = new HandlerContextKey<>("s3util.attempts");
+
+    private S3Metrics metrics;
+
+
+    public MetricsRequestHandler(S3Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+//----------------------------------------------------------------------------
+//  RequestHandler2
+//----------------------------------------------------------------------------
+
+    @Override
+    public void beforeRequest(Request<?> request)
+    {
+        request.addHandlerContext(START_NANOS, System.nanoTime());
+        request.addHandlerContext(ATTEMPTS, new AtomicInteger());
+        metrics.requestStarted();
+    }
+
+
+    @Override
+    public void beforeAttempt(HandlerBeforeAttemptContext context)
+    {
+        AtomicInteger attempts = context.getRequest().getHandlerContext(ATTEMPTS);
+        if ((attempts != null) && (attempts.incrementAndGet() > 1))
+        {
+            metricsFor(context.getRequest()).recordRetry();
+        }
+    }
+
+
+    @Override
+    public void afterAttempt(HandlerAfterAttemptContext context)
+    {
+        if (isThrottle(context.getException()))
+        {
+            metricsFor(context.getRequest()).recordThrottle();
+        }
+    }
+
+
+    @Override
+    public void afterResponse(Request<?> request, Response<?> response)
+    {
+        finish(request, response, true);
+    }
+
+
+    @Override
+    public void afterError(Request<?> request, Response<?> response, Exception e)
+    {
+        finish(request, response, false);
+    }
+
+//----------------------------------------------------------------------------
+//  Public utility methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Determines whether an exception indicates that S3 is asking us to slow
+     *  down: the 503 "SlowDown" response, or the generic AWS throttling codes.
+     */
+    public static boolean isThrottle(Throwable ex)
+    {
+        if (!(ex instanceof AmazonServiceException))
+            return false;
+
+        AmazonServiceException ase = (AmazonServiceException)ex;
+        if ((ase.getStatusCode() == 503) || (ase.getStatusCode() == 429))
+            return true;
+
+        String code = ase.getErrorCode();
+        return "SlowDown".equals(code)
+            || "Throttling".equals(code)
+            || "ThrottlingException".equals(code)
+            || "RequestLimitExceeded".equals(code);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private OperationMetrics metricsFor(Request<?> request)
+    {
+        return metrics.forType(OperationType.forRequest(request.getOriginalRequest()));
+    }
+
+
+    private void finish(Request<?> request, Response<?> response, boolean success)
+    {
+        Long start = request.getHandlerContext(START_NANOS);
+        if (start == null)
+            return;
+        request.addHandlerContext(START_NANOS, null);
+
+        long bytesOut = parseLength(request.getHeaders().get("Content-Length"));
+        List<String> responseLength = ((response != null) && (response.getHttpResponse() != null))
+                                    ? response.getHttpResponse().getHeaderValues("Content-Length")
+                                    : null;
+        long bytesIn = ((responseLength != null) && !responseLength.isEmpty())
+                     ? parseLength(responseLength.get(0))
+                     : 0;
+
+        metricsFor(request).recordRequest(System.nanoTime() - start, bytesIn, bytesOut, success);
+        metrics.requestFinished();
+    }
+
+
+    private static long parseLength(String value)
+    {
+        try
+        {
+            return (value != null) ? Long.parseLong(value.trim()) : 0;
+        }
+        catch (NumberFormatException ex)
+        {
+            return 0;
+        }
+    }
+}
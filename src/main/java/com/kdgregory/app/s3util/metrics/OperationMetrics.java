@@ -0,0 +1,170 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *  Accumulates metrics for a single type of S3 request. All methods are
+ *  thread-safe and non-blocking.
+ */
+public class OperationMetrics
+implements OperationMetricsMXBean
+{
+    private LongAdder requestCount = new LongAdder();
+    private LongAdder errorCount = new LongAdder();
+    private LongAdder retryCount = new LongAdder();
+    private LongAdder throttleCount = new LongAdder();
+    private LongAdder bytesIn = new LongAdder();
+    private LongAdder bytesOut = new LongAdder();
+    private LatencyHistogram latency = new LatencyHistogram();
+
+//----------------------------------------------------------------------------
+//  Update methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Records the completion of a request.
+     *
+     *  @param  elapsedNanos    Time from start of request to receipt of response
+     *                          headers (or error).
+     *  @param  in              Bytes received (response content length).
+     *  @param  out             Bytes sent (request content length).
+     *  @param  success         Whether the request succeeded.
+     */
+    public void recordRequest(long elapsedNanos, long in, long out, boolean success)
+    {
+        requestCount.increment();
+        if (!success)
+            errorCount.increment();
+        bytesIn.add(in);
+        bytesOut.add(out);
+        latency.record(elapsedNanos);
+    }
+
+
+    public void recordRetry()
+    {
+        retryCount.increment();
+    }
+
+
+    public void recordThrottle()
+    {
+        throttleCount.increment();
+    }
+
+//----------------------------------------------------------------------------
+//  OperationMetricsMXBean
+//----------------------------------------------------------------------------
+
+    @Override
+    public long getRequestCount()
+    {
+        return requestCount.sum();
+    }
+
+
+    @Override
+    public long getErrorCount()
+    {
+        return errorCount.sum();
+    }
+
+
+    @Override
+    public long getRetryCount()
+    {
+        return retryCount.sum();
+    }
+
+
+    @Override
+    public long getThrottleCount()
+    {
+        return throttleCount.sum();
+    }
+
+
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn.sum();
+    }
+
+
+    @Override
+    public long getBytesOut()
+    {
+        return bytesOut.sum();
+    }
+
+
+    @Override
+    public double getLatencyMeanMillis()
+    {
+        return latency.getMeanMillis();
+    }
+
+
+    @Override
+    public double getLatency50thMillis()
+    {
+        return latency.getPercentileMillis(50);
+    }
+
+
+    @Override
+    public double getLatency90thMillis()
+    {
+        return latency.getPercentileMillis(90);
+    }
+
+
+    @Override
+    public double getLatency99thMillis()
+    {
+        return latency.getPercentileMillis(99);
+    }
+
+
+    @Override
+    public double getLatencyMaxMillis()
+    {
+        return latency.getMaxMillis();
+    }
+
+
+    @Override
+    public Map<String,Long> getLatencyHistogram()
+    {
+        return latency.getBuckets();
+    }
+
+
+    @Override
+    public void reset()
+    {
+        requestCount.reset();
+        errorCount.reset();
+        retryCount.reset();
+        throttleCount.reset();
+        bytesIn.reset();
+        bytesOut.reset();
+        latency.reset();
+    }
+}
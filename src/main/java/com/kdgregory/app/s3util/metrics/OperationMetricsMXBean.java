@@ -0,0 +1,41 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.util.Map;
+
+
+/**
+ *  JMX view of the metrics for a single type of S3 request. Latencies are
+ *  per HTTP request, including any retries made by the SDK.
+ */
+public interface OperationMetricsMXBean
+{
+    long getRequestCount();
+    long getErrorCount();
+    long getRetryCount();
+    long getThrottleCount();
+    long getBytesIn();
+    long getBytesOut();
+
+    double getLatencyMeanMillis();
+    double getLatency50thMillis();
+    double getLatency90thMillis();
+    double getLatency99thMillis();
+    double getLatencyMaxMillis();
+    Map<String,Long> getLatencyHistogram();
+
+    void reset();
+}
@@ -0,0 +1,73 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListBucketsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+
+/**
+ *  The categories of S3 request that we track. Multipart requests are
+ *  attributed to the operation that they implement.
+ */
+public enum OperationType
+{
+    LIST, GET, PUT, DELETE, OTHER;
+
+
+    /**
+     *  Returns the JMX name for this type (lowercase).
+     */
+    public String getName()
+    {
+        return name().toLowerCase();
+    }
+
+
+    /**
+     *  Classifies an SDK request.
+     */
+    public static OperationType forRequest(AmazonWebServiceRequest request)
+    {
+        if ((request instanceof ListObjectsRequest)
+            || (request instanceof ListObjectsV2Request)
+            || (request instanceof ListBucketsRequest))
+            return LIST;
+        if ((request instanceof GetObjectRequest)
+            || (request instanceof GetObjectMetadataRequest))
+            return GET;
+        if ((request instanceof PutObjectRequest)
+            || (request instanceof InitiateMultipartUploadRequest)
+            || (request instanceof UploadPartRequest)
+            || (request instanceof CompleteMultipartUploadRequest)
+            || (request instanceof AbortMultipartUploadRequest))
+            return PUT;
+        if ((request instanceof DeleteObjectRequest)
+            || (request instanceof DeleteObjectsRequest))
+            return DELETE;
+        return OTHER;
+    }
+}
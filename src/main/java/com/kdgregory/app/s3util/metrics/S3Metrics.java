@@ -0,0 +1,247 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ *  The root of the application's operational metrics. A single instance is
+ *  owned by the {@link com.kdgregory.app.s3util.main.Concierge}, and registered
+ *  with the platform MBean server as <code>com.kdgregory.app.s3util:type=S3Client</code>;
+ *  the per-request-type metrics are registered as
+ *  <code>com.kdgregory.app.s3util:type=S3Operation,name=XXX</code>.
+ */
+public class S3Metrics
+implements S3MetricsMXBean
+{
+    public final static String JMX_DOMAIN = "com.kdgregory.app.s3util";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Map<OperationType,OperationMetrics> operations = new EnumMap<>(OperationType.class);
+    private AtomicInteger activeConnections = new AtomicInteger();
+    private AtomicInteger activeOperations = new AtomicInteger();
+    private LongAdder operationsCompleted = new LongAdder();
+    private LongAdder operationsFailed = new LongAdder();
+    private volatile IntSupplier queueDepthSource;
+
+
+    public S3Metrics()
+    {
+        for (OperationType type : OperationType.values())
+            operations.put(type, new OperationMetrics());
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Registers this object and its per-operation metrics with the platform
+     *  MBean server, replacing any existing registrations. Failure to register
+     *  is logged but otherwise ignored: metrics are not worth failing for.
+     */
+    public void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            register(server, new ObjectName(JMX_DOMAIN + ":type=S3Client"), this);
+            for (Map.Entry<OperationType,OperationMetrics> entry : operations.entrySet())
+            {
+                ObjectName name = new ObjectName(JMX_DOMAIN + ":type=S3Operation,name=" + entry.getKey().getName());
+                register(server, name, entry.getValue());
+            }
+        }
+        catch (Exception ex)
+        {
+            logger.warn("unable to register metrics beans", ex);
+        }
+    }
+
+
+    /**
+     *  Returns the metrics for a particular type of request.
+     */
+    public OperationMetrics forType(OperationType type)
+    {
+        return operations.get(type);
+    }
+
+
+    /**
+     *  Identifies the source for the queue depth gauge. This is a callback
+     *  because the queue belongs to an executor that we don't control.
+     */
+    public void setQueueDepthSource(IntSupplier source)
+    {
+        queueDepthSource = source;
+    }
+
+
+    public void requestStarted()
+    {
+        activeConnections.incrementAndGet();
+    }
+
+
+    public void requestFinished()
+    {
+        activeConnections.decrementAndGet();
+    }
+
+
+    public void operationStarted()
+    {
+        activeOperations.incrementAndGet();
+    }
+
+
+    public void operationFinished(boolean success)
+    {
+        activeOperations.decrementAndGet();
+        if (success)
+            operationsCompleted.increment();
+        else
+            operationsFailed.increment();
+    }
+
+//----------------------------------------------------------------------------
+//  S3MetricsMXBean
+//----------------------------------------------------------------------------
+
+    @Override
+    public int getActiveConnections()
+    {
+        return activeConnections.get();
+    }
+
+
+    @Override
+    public int getActiveOperations()
+    {
+        return activeOperations.get();
+    }
+
+
+    @Override
+    public int getQueueDepth()
+    {
+        IntSupplier source = queueDepthSource;
+        return (source != null) ? source.getAsInt() : 0;
+    }
+
+
+    @Override
+    public long getOperationsCompleted()
+    {
+        return operationsCompleted.sum();
+    }
+
+
+    @Override
+    public long getOperationsFailed()
+    {
+        return operationsFailed.sum();
+    }
+
+
+    @Override
+    public long getTotalRequests()
+    {
+        long total = 0;
+        for (OperationMetrics op : operations.values())
+            total += op.getRequestCount();
+        return total;
+    }
+
+
+    @Override
+    public long getTotalBytesIn()
+    {
+        long total = 0;
+        for (OperationMetrics op : operations.values())
+            total += op.getBytesIn();
+        return total;
+    }
+
+
+    @Override
+    public long getTotalBytesOut()
+    {
+        long total = 0;
+        for (OperationMetrics op : operations.values())
+            total += op.getBytesOut();
+        return total;
+    }
+
+
+    @Override
+    public long getTotalRetries()
+    {
+        long total = 0;
+        for (OperationMetrics op : operations.values())
+            total += op.getRetryCount();
+        return total;
+    }
+
+
+    @Override
+    public long getTotalThrottles()
+    {
+        long total = 0;
+        for (OperationMetrics op : operations.values())
+            total += op.getThrottleCount();
+        return total;
+    }
+
+
+    /**
+     *  Resets the counters and histograms. The gauges (active connections,
+     *  active operations, queue depth) reflect current state, so are not reset.
+     */
+    @Override
+    public void reset()
+    {
+        operationsCompleted.reset();
+        operationsFailed.reset();
+        for (OperationMetrics op : operations.values())
+            op.reset();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static void register(MBeanServer server, ObjectName name, Object bean)
+    throws Exception
+    {
+        if (server.isRegistered(name))
+            server.unregisterMBean(name);
+        server.registerMBean(bean, name);
+    }
+}
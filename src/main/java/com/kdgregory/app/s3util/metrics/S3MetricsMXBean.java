@@ -0,0 +1,50 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+
+/**
+ *  JMX view of the client-wide metrics. Per-request-type metrics are exposed
+ *  as separate beans (see {@link OperationMetricsMXBean}).
+ */
+public interface S3MetricsMXBean
+{
+    /**
+     *  Number of HTTP requests currently in flight; each of these holds a
+     *  connection from the client's pool.
+     */
+    int getActiveConnections();
+
+    /**
+     *  Number of S3Util operations (eg, "upload") currently executing.
+     */
+    int getActiveOperations();
+
+    /**
+     *  Number of operations waiting for a background thread.
+     */
+    int getQueueDepth();
+
+    long getOperationsCompleted();
+    long getOperationsFailed();
+
+    long getTotalRequests();
+    long getTotalBytesIn();
+    long getTotalBytesOut();
+    long getTotalRetries();
+    long getTotalThrottles();
+
+    void reset();
+}
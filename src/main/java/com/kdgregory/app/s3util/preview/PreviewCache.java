@@ -0,0 +1,270 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.preview;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.util.BinaryUtils;
+
+
+/**
+ *  A two-level LRU cache for preview content: a memory cache, backed by a
+ *  directory on disk. Each level is bounded by the total size of its entries,
+ *  and evicts the least-recently-used entries when it exceeds that bound.
+ *  <p>
+ *  Entries are keyed by a string that must identify the content exactly, such
+ *  as bucket, key, and ETag. On disk, each entry is a file whose name is the
+ *  SHA-1 of its key; recency is tracked with the file's modification time, so
+ *  survives restarts.
+ *  <p>
+ *  Instances are thread-safe.
+ */
+public class PreviewCache
+{
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private long maxMemoryBytes;
+    private long maxDiskBytes;
+    private File cacheDir;
+
+    // both maps are in access order; the disk map is keyed by filename
+    private LinkedHashMap<String,byte[]> memory = new LinkedHashMap<String,byte[]>(16, 0.75f, true);
+    private long memoryBytes;
+    private LinkedHashMap<String,Long> disk = new LinkedHashMap<String,Long>(16, 0.75f, true);
+    private long diskBytes;
+
+
+    /**
+     *  @param  cacheDir        The directory for the disk cache; created if it
+     *                          doesn't exist. May be null, to disable the disk
+     *                          cache.
+     *  @param  maxMemoryBytes  The maximum size of the memory cache.
+     *  @param  maxDiskBytes    The maximum size of the disk cache.
+     */
+    public PreviewCache(File cacheDir, long maxMemoryBytes, long maxDiskBytes)
+    {
+        this.cacheDir = cacheDir;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        loadDiskIndex();
+    }
+
+
+    /**
+     *  Returns the default location of the disk cache.
+     */
+    public static File defaultCacheDir()
+    {
+        return new File(new File(System.getProperty("user.home"), ".s3util"), "preview-cache");
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the cached content for a key, null if it isn't cached. Content
+     *  found on disk is promoted to the memory cache.
+     */
+    public byte[] get(String key)
+    {
+        synchronized (this)
+        {
+            byte[] content = memory.get(key);
+            if (content != null)
+                return content;
+        }
+
+        String filename = filenameFor(key);
+        synchronized (this)
+        {
+            if ((filename == null) || (disk.get(filename) == null))
+                return null;
+        }
+
+        File file = new File(cacheDir, filename);
+        try
+        {
+            byte[] content = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            addToMemory(key, content);
+            return content;
+        }
+        catch (IOException ex)
+        {
+            logger.debug("unable to read cache file {}: {}", file, ex.getMessage());
+            removeFromDisk(filename);
+            return null;
+        }
+    }
+
+
+    /**
+     *  Adds content to both levels of the cache. Content larger than a level's
+     *  limit is not added to that level.
+     */
+    public void put(String key, byte[] content)
+    {
+        addToMemory(key, content);
+
+        String filename = filenameFor(key);
+        if ((filename == null) || (content.length > maxDiskBytes))
+            return;
+
+        File file = new File(cacheDir, filename);
+        File tempFile = new File(cacheDir, filename + ".tmp");
+        try
+        {
+            Files.write(tempFile.toPath(), content);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException ex)
+        {
+            logger.debug("unable to write cache file {}: {}", file, ex.getMessage());
+            tempFile.delete();
+            return;
+        }
+
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this)
+        {
+            Long prev = disk.put(filename, Long.valueOf(content.length));
+            diskBytes += content.length - ((prev != null) ? prev.longValue() : 0);
+            for (Iterator<Map.Entry<String,Long>> itx = disk.entrySet().iterator() ; itx.hasNext() && (diskBytes > maxDiskBytes) ; )
+            {
+                Map.Entry<String,Long> entry = itx.next();
+                if (entry.getKey().equals(filename))
+                    continue;
+                diskBytes -= entry.getValue().longValue();
+                evicted.add(entry.getKey());
+                itx.remove();
+            }
+        }
+        for (String name : evicted)
+            new File(cacheDir, name).delete();
+    }
+
+
+    public synchronized long getMemoryBytes()
+    {
+        return memoryBytes;
+    }
+
+
+    public synchronized long getDiskBytes()
+    {
+        return diskBytes;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private synchronized void addToMemory(String key, byte[] content)
+    {
+        if (content.length > maxMemoryBytes)
+            return;
+
+        byte[] prev = memory.put(key, content);
+        memoryBytes += content.length - ((prev != null) ? prev.length : 0);
+        for (Iterator<Map.Entry<String,byte[]>> itx = memory.entrySet().iterator() ; itx.hasNext() && (memoryBytes > maxMemoryBytes) ; )
+        {
+            Map.Entry<String,byte[]> entry = itx.next();
+            if (entry.getKey().equals(key))
+                continue;
+            memoryBytes -= entry.getValue().length;
+            itx.remove();
+        }
+    }
+
+
+    private void removeFromDisk(String filename)
+    {
+        synchronized (this)
+        {
+            Long size = disk.remove(filename);
+            if (size != null)
+                diskBytes -= size.longValue();
+        }
+        new File(cacheDir, filename).delete();
+    }
+
+
+    /**
+     *  Reads the cache directory, ordering entries by last-modified time so that
+     *  recency survives a restart. Leftover temporary files are deleted.
+     */
+    private void loadDiskIndex()
+    {
+        if (cacheDir == null)
+            return;
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+        {
+            logger.warn("unable to create preview cache directory: {}", cacheDir);
+            cacheDir = null;
+            return;
+        }
+
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files)
+        {
+            if (file.getName().endsWith(".tmp"))
+                file.delete();
+            else if (file.isFile())
+            {
+                disk.put(file.getName(), Long.valueOf(file.length()));
+                diskBytes += file.length();
+            }
+        }
+    }
+
+
+    /**
+     *  Returns the disk cache filename for a key, null if there is no disk cache.
+     */
+    private String filenameFor(String key)
+    {
+        if (cacheDir == null)
+            return null;
+
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return BinaryUtils.toHex(digest.digest(key.getBytes("UTF-8")));
+        }
+        catch (Exception ex)
+        {
+            throw new RuntimeException("unable to compute cache filename", ex);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.preview;
+
+import java.awt.BorderLayout;
+import java.awt.CardLayout;
+import java.awt.Font;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.util.MimeHelper;
+
+
+/**
+ *  Shows a preview of the selected file: the start of its content as text,
+ *  or the image if it's a (reasonably small) image. Only the bytes needed for
+ *  the preview are retrieved, with a ranged GET, and they're held in a
+ *  {@link PreviewCache}.
+ *  <p>
+ *  Retrieval happens on a small pool of daemon threads that belongs to this
+ *  pane, rather than the operation thread, so that previews don't wait for (or
+ *  delay) long-running operations. When the selection changes, any pending
+ *  work for the previous selection is discarded; the files adjacent to the
+ *  selection are then prefetched into the cache, so that moving through the
+ *  list shows previews immediately.
+ *  <p>
+ *  Except as noted, methods must be called on the event thread.
+ */
+public class PreviewPane
+{
+    /** The number of bytes retrieved to preview a text (or binary) file. */
+    public final static int TEXT_PREVIEW_BYTES = 64 * 1024;
+
+    /** Images larger than this aren't previewed, because a partial image isn't useful. */
+    public final static int IMAGE_PREVIEW_BYTES = 2 * 1024 * 1024;
+
+    private final static long MEMORY_CACHE_BYTES = 32 * 1024 * 1024;
+    private final static long DISK_CACHE_BYTES = 256 * 1024 * 1024;
+    private final static int MAX_IMAGE_DIMENSION = 800;
+    private final static int HEX_DUMP_BYTES = 256;
+
+    private final static String CARD_MESSAGE = "message";
+    private final static String CARD_TEXT = "text";
+    private final static String CARD_IMAGE = "image";
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private Concierge concierge;
+    private PreviewCache cache;
+    private ThreadPoolExecutor executor;
+
+    private JPanel panel;
+    private CardLayout cards;
+    private JLabel message;
+    private JTextArea text;
+    private JLabel image;
+
+    // the file currently being previewed; results for other files are ignored
+    private S3File current;
+
+
+    public PreviewPane(Concierge concierge)
+    {
+        this.concierge = concierge;
+        this.cache = new PreviewCache(PreviewCache.defaultCacheDir(), MEMORY_CACHE_BYTES, DISK_CACHE_BYTES);
+        this.executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), (runnable) ->
+        {
+            Thread thread = new Thread(runnable, "preview");
+            thread.setDaemon(true);
+            return thread;
+        });
+        buildComponent();
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the component that displays previews.
+     */
+    public JComponent getComponent()
+    {
+        return panel;
+    }
+
+
+    /**
+     *  Previews a file, and prefetches the adjacent files.
+     */
+    public void show(final S3File file, List<S3File> adjacent)
+    {
+        if (file == current)
+            return;
+
+        current = file;
+        executor.getQueue().clear();
+        setMessage("Loading " + file.getFile().getName() + " ...");
+
+        final String bucket = concierge.getConfig().getAmazonBucketName();
+        executor.execute(() ->
+        {
+            final Rendered rendered = render(file, bucket);
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    display(file, rendered);
+                }
+            });
+        });
+
+        for (final S3File prefetch : adjacent)
+        {
+            executor.execute(() ->
+            {
+                try
+                {
+                    fetch(prefetch, bucket);
+                }
+                catch (Exception ex)
+                {
+                    logger.debug("unable to prefetch {}: {}", prefetch.getKey(), ex.getMessage());
+                }
+            });
+        }
+    }
+
+
+    /**
+     *  Replaces the preview with a message (eg, when there isn't a single file
+     *  selected), and discards any pending work.
+     */
+    public void showMessage(String value)
+    {
+        current = null;
+        executor.getQueue().clear();
+        setMessage(value);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- these run on the preview threads
+//----------------------------------------------------------------------------
+
+    /**
+     *  Retrieves the preview content for a file, from the cache if possible.
+     *  Returns null if the file is an image that's too large to preview.
+     */
+    private byte[] fetch(S3File file, final String bucket)
+    throws Exception
+    {
+        long size = (file.getContentLength() != null) ? file.getContentLength().longValue() : Long.MAX_VALUE;
+        boolean isImage = isImage(file);
+        if (isImage && (size > IMAGE_PREVIEW_BYTES))
+            return null;
+
+        int limit = isImage ? IMAGE_PREVIEW_BYTES : TEXT_PREVIEW_BYTES;
+        String cacheKey = cacheKey(file, bucket, limit);
+        byte[] content = cache.get(cacheKey);
+        if (content != null)
+            return content;
+
+        long length = Math.min(limit, size);
+        if (length == 0)
+            return new byte[0];
+
+        final String key = file.isPackMember() ? file.getPackKey() : file.getKey();
+        long start = file.isPackMember() ? file.getPackOffset() : 0;
+        final GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, start + length - 1);
+        content = concierge.getGovernor().execute(OperationType.GET, key, () ->
+        {
+            try (S3Object obj = concierge.getS3Client(bucket).getObject(request))
+            {
+                return IOUtils.toByteArray(obj.getObjectContent());
+            }
+        });
+
+        cache.put(cacheKey, content);
+        return content;
+    }
+
+
+    /**
+     *  Retrieves and renders the preview for a file. Never throws; errors are
+     *  rendered as a message.
+     */
+    private Rendered render(S3File file, String bucket)
+    {
+        try
+        {
+            byte[] content = fetch(file, bucket);
+            if (content == null)
+                return Rendered.message("Image is too large to preview ("
+                                        + String.format("%,d", file.getContentLength()) + " bytes)");
+
+            if (isImage(file))
+            {
+                BufferedImage img = ImageIO.read(new ByteArrayInputStream(content));
+                if (img != null)
+                    return Rendered.image(new ImageIcon(scale(img)));
+            }
+
+            boolean truncated = (file.getContentLength() == null) || (file.getContentLength().longValue() > content.length);
+            String decoded = decodeText(content, truncated);
+            if (decoded != null)
+            {
+                if (truncated)
+                    decoded += "\n\n[preview shows the first " + String.format("%,d", content.length) + " bytes]";
+                return Rendered.text(decoded);
+            }
+            return Rendered.text(hexDump(content));
+        }
+        catch (Exception ex)
+        {
+            logger.debug("unable to preview {}: {}", file.getKey(), ex.getMessage());
+            return Rendered.message("Unable to preview: " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     *  Pack members are immutable, so are identified by location. Other objects
+     *  are identified by ETag, if known, otherwise size and timestamp.
+     */
+    private static String cacheKey(S3File file, String bucket, int limit)
+    {
+        String version = file.isPackMember()      ? file.getPackKey() + "@" + file.getPackOffset()
+                       : (file.getETag() != null) ? file.getETag()
+                       : file.getContentLength() + ":" + ((file.getLastModified() != null) ? file.getLastModified().getTime() : 0);
+        return bucket + "/" + file.getKey() + "\n" + version + "\n" + limit;
+    }
+
+
+    private static boolean isImage(S3File file)
+    {
+        return MimeHelper.lookup(file.getFile()).startsWith("image/")
+            && !MimeHelper.lookup(file.getFile()).equals("image/svg+xml");
+    }
+
+
+    private static Image scale(BufferedImage img)
+    {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        if ((width <= MAX_IMAGE_DIMENSION) && (height <= MAX_IMAGE_DIMENSION))
+            return img;
+
+        double factor = (double)MAX_IMAGE_DIMENSION / Math.max(width, height);
+        return img.getScaledInstance((int)(width * factor), (int)(height * factor), Image.SCALE_SMOOTH);
+    }
+
+
+    /**
+     *  Attempts to decode content as UTF-8 text, returning null if it doesn't
+     *  look like text (it contains NULs or invalid sequences). If the content
+     *  is truncated, a partial character at the end is ignored.
+     */
+    private static String decodeText(byte[] content, boolean truncated)
+    {
+        int length = content.length;
+        if (truncated)
+        {
+            // drop a trailing character that's missing continuation bytes
+            int back = 0;
+            while ((back < 3) && (length - back > 0) && ((content[length - back - 1] & 0xC0) == 0x80))
+                back++;
+            if (length - back > 0)
+            {
+                int lead = content[length - back - 1] & 0xFF;
+                int expected = (lead >= 0xF0) ? 4 : (lead >= 0xE0) ? 3 : (lead >= 0xC0) ? 2 : 1;
+                if (back + 1 < expected)
+                    length -= back + 1;
+            }
+        }
+
+        for (int ii = 0 ; ii < length ; ii++)
+        {
+            if (content[ii] == 0)
+                return null;
+        }
+
+        try
+        {
+            return StandardCharsets.UTF_8.newDecoder()
+                   .onMalformedInput(CodingErrorAction.REPORT)
+                   .onUnmappableCharacter(CodingErrorAction.REPORT)
+                   .decode(ByteBuffer.wrap(content, 0, length))
+                   .toString();
+        }
+        catch (CharacterCodingException ex)
+        {
+            return null;
+        }
+    }
+
+
+    private static String hexDump(byte[] content)
+    {
+        StringBuilder sb = new StringBuilder("Binary content; first bytes:\n\n");
+        int length = Math.min(content.length, HEX_DUMP_BYTES);
+        for (int ii = 0 ; ii < length ; ii += 16)
+        {
+            sb.append(String.format("%08x ", ii));
+            for (int jj = ii ; jj < ii + 16 ; jj++)
+                sb.append((jj < length) ? String.format(" %02x", content[jj] & 0xFF) : "   ");
+            sb.append("  ");
+            for (int jj = ii ; (jj < ii + 16) && (jj < length) ; jj++)
+            {
+                char c = (char)(content[jj] & 0xFF);
+                sb.append(((c >= 0x20) && (c < 0x7F)) ? c : '.');
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- these run on the event thread
+//----------------------------------------------------------------------------
+
+    private void buildComponent()
+    {
+        message = new JLabel("", SwingConstants.CENTER);
+
+        text = new JTextArea();
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, text.getFont().getSize()));
+
+        image = new JLabel("", SwingConstants.CENTER);
+
+        cards = new CardLayout();
+        panel = new JPanel(cards);
+        panel.add(message, CARD_MESSAGE);
+        panel.add(new JScrollPane(text), CARD_TEXT);
+        JPanel imagePanel = new JPanel(new BorderLayout());
+        imagePanel.add(image, BorderLayout.CENTER);
+        panel.add(new JScrollPane(imagePanel), CARD_IMAGE);
+
+        showMessage("No file selected");
+    }
+
+
+    private void display(S3File file, Rendered rendered)
+    {
+        if (file != current)
+            return;
+
+        if (rendered.image != null)
+        {
+            image.setIcon(rendered.image);
+            cards.show(panel, CARD_IMAGE);
+        }
+        else if (rendered.text != null)
+        {
+            text.setText(rendered.text);
+            text.setCaretPosition(0);
+            cards.show(panel, CARD_TEXT);
+        }
+        else
+        {
+            setMessage(rendered.message);
+        }
+    }
+
+
+    private void setMessage(String value)
+    {
+        message.setText(value);
+        cards.show(panel, CARD_MESSAGE);
+    }
+
+
+    /**
+     *  The result of rendering: exactly one of the fields is set.
+     */
+    private static class Rendered
+    {
+        public String text;
+        public Icon image;
+        public String message;
+
+        public static Rendered text(String value)
+        {
+            Rendered result = new Rendered();
+            result.text = value;
+            return result;
+        }
+
+        public static Rendered image(Icon value)
+        {
+            Rendered result = new Rendered();
+            result.image = value;
+            return result;
+        }
+
+        public static Rendered message(String value)
+        {
+            Rendered result = new Rendered();
+            result.message = value;
+            return result;
+        }
+    }
+}
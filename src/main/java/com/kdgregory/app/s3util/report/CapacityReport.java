@@ -0,0 +1,453 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+
+
+/**
+ *  Accumulates a summary of a bucket's objects: the distribution of object
+ *  sizes and ages, and the largest and most recently modified objects. This
+ *  is fed one object at a time, as a listing streams past, and its memory use
+ *  is independent of the number of objects.
+ *  <p>
+ *  The distributions are histograms with power-of-two buckets: for sizes,
+ *  bucket N holds objects in the range [2^(N-1), 2^N) bytes, with bucket 0
+ *  holding empty objects; for ages, the buckets are measured in days, with
+ *  bucket 0 holding objects less than a day old. Each bucket records both
+ *  the number of objects and their total size. The largest and newest objects
+ *  are kept in bounded min-heaps, so that adding an object that doesn't make
+ *  the cut is a single comparison.
+ *  <p>
+ *  Reports may be merged, so that a listing can be split into partitions that
+ *  are processed independently. Merging is exact: the result is the same as
+ *  if every object had been added to a single report. Instances are not
+ *  thread-safe; each partition should have its own report.
+ */
+public class CapacityReport
+{
+    private final static long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    private final static int SIZE_BUCKETS = 64;
+    private final static int AGE_BUCKETS = 32;
+
+    // orders entries so that the heap's head is the first to be evicted; ties
+    // are broken by key, so that merged reports are deterministic
+    private final static Comparator<Entry> BY_SIZE
+        = Comparator.comparingLong(Entry::getSize).thenComparing(Entry::getKey, Comparator.reverseOrder());
+    private final static Comparator<Entry> BY_LAST_MODIFIED
+        = Comparator.comparingLong(Entry::getLastModified).thenComparing(Entry::getKey, Comparator.reverseOrder());
+
+    private long asOf;
+    private int topK;
+
+    private long count;
+    private long totalBytes;
+    private long[] sizeCounts = new long[SIZE_BUCKETS];
+    private long[] sizeBytes = new long[SIZE_BUCKETS];
+    private long[] ageCounts = new long[AGE_BUCKETS];
+    private long[] ageBytes = new long[AGE_BUCKETS];
+    private PriorityQueue<Entry> largest;
+    private PriorityQueue<Entry> newest;
+
+
+    /**
+     *  @param  asOf    The timestamp (millis since epoch) used to compute ages.
+     *                  Reports that will be merged must use the same value.
+     *  @param  topK    The number of largest and newest objects to retain.
+     */
+    public CapacityReport(long asOf, int topK)
+    {
+        if (topK < 1)
+            throw new IllegalArgumentException("topK must be positive: " + topK);
+
+        this.asOf = asOf;
+        this.topK = topK;
+        this.largest = new PriorityQueue<Entry>(topK, BY_SIZE);
+        this.newest = new PriorityQueue<Entry>(topK, BY_LAST_MODIFIED);
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a single object to the report.
+     */
+    public void add(String key, long size, long lastModified)
+    {
+        int sizeBucket = sizeBucket(size);
+        int ageBucket = ageBucket(lastModified);
+
+        count++;
+        totalBytes += size;
+        sizeCounts[sizeBucket]++;
+        sizeBytes[sizeBucket] += size;
+        ageCounts[ageBucket]++;
+        ageBytes[ageBucket] += size;
+
+        // the common case is that the object makes neither list, so we check
+        // before creating an entry
+        boolean isLarge = (largest.size() < topK) || (size >= largest.peek().getSize());
+        boolean isNew = (newest.size() < topK) || (lastModified >= newest.peek().getLastModified());
+        if (isLarge || isNew)
+        {
+            Entry entry = new Entry(key, size, lastModified);
+            if (isLarge)
+                offer(largest, entry);
+            if (isNew)
+                offer(newest, entry);
+        }
+    }
+
+
+    /**
+     *  Adds the contents of another report to this one, returning this report.
+     *  The other report is not changed.
+     */
+    public CapacityReport merge(CapacityReport that)
+    {
+        if (that.asOf != asOf)
+            throw new IllegalArgumentException("can't merge reports with different timestamps");
+
+        count += that.count;
+        totalBytes += that.totalBytes;
+        for (int ii = 0 ; ii < SIZE_BUCKETS ; ii++)
+        {
+            sizeCounts[ii] += that.sizeCounts[ii];
+            sizeBytes[ii] += that.sizeBytes[ii];
+        }
+        for (int ii = 0 ; ii < AGE_BUCKETS ; ii++)
+        {
+            ageCounts[ii] += that.ageCounts[ii];
+            ageBytes[ii] += that.ageBytes[ii];
+        }
+        for (Entry entry : that.largest)
+            offer(largest, entry);
+        for (Entry entry : that.newest)
+            offer(newest, entry);
+        return this;
+    }
+
+
+    public long getAsOf()
+    {
+        return asOf;
+    }
+
+
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+
+    /**
+     *  Returns the non-empty buckets of the size histogram, in order of size.
+     */
+    public List<Bucket> getSizeHistogram()
+    {
+        List<Bucket> result = new ArrayList<Bucket>();
+        for (int ii = 0 ; ii < SIZE_BUCKETS ; ii++)
+        {
+            if (sizeCounts[ii] > 0)
+                result.add(new Bucket(lowerBound(ii), upperBound(ii), sizeCounts[ii], sizeBytes[ii]));
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the non-empty buckets of the age histogram, in order of age.
+     *  Bounds are measured in days.
+     */
+    public List<Bucket> getAgeHistogram()
+    {
+        List<Bucket> result = new ArrayList<Bucket>();
+        for (int ii = 0 ; ii < AGE_BUCKETS ; ii++)
+        {
+            if (ageCounts[ii] > 0)
+            {
+                long upper = (ii == AGE_BUCKETS - 1) ? Long.MAX_VALUE : upperBound(ii);
+                result.add(new Bucket(lowerBound(ii), upper, ageCounts[ii], ageBytes[ii]));
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the largest objects, largest first.
+     */
+    public List<Entry> getLargest()
+    {
+        return sortedDescending(largest);
+    }
+
+
+    /**
+     *  Returns the most recently modified objects, newest first.
+     */
+    public List<Entry> getNewest()
+    {
+        return sortedDescending(newest);
+    }
+
+
+    /**
+     *  Writes the report as CSV. All rows have the same columns, so that the
+     *  output can be loaded into a spreadsheet or database as a single table;
+     *  the first column identifies the section. For histogram rows, the lower
+     *  bound is inclusive and the upper bound exclusive (and empty for the last
+     *  age bucket). For the top-K sections, the bounds columns are empty, and
+     *  the object's size is reported as its bytes.
+     */
+    public void writeCsv(Writer out)
+    throws IOException
+    {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        out.write("section,lower,upper,count,bytes,key,lastModified\n");
+        writeRow(out, "total", "", "", count, totalBytes, "", "");
+        for (Bucket bucket : getSizeHistogram())
+        {
+            writeRow(out, "size", String.valueOf(bucket.getLower()), String.valueOf(bucket.getUpper()),
+                     bucket.getCount(), bucket.getBytes(), "", "");
+        }
+        for (Bucket bucket : getAgeHistogram())
+        {
+            String upper = (bucket.getUpper() == Long.MAX_VALUE) ? "" : String.valueOf(bucket.getUpper());
+            writeRow(out, "ageDays", String.valueOf(bucket.getLower()), upper,
+                     bucket.getCount(), bucket.getBytes(), "", "");
+        }
+        for (Entry entry : getLargest())
+        {
+            writeRow(out, "largest", "", "", 1, entry.getSize(), entry.getKey(),
+                     dateFormat.format(new Date(entry.getLastModified())));
+        }
+        for (Entry entry : getNewest())
+        {
+            writeRow(out, "newest", "", "", 1, entry.getSize(), entry.getKey(),
+                     dateFormat.format(new Date(entry.getLastModified())));
+        }
+        out.flush();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the histogram bucket for a value: 0 for values less than 1,
+     *  otherwise one more than the index of the value's highest set bit.
+     */
+    static int log2Bucket(long value)
+    {
+        return (value <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(value);
+    }
+
+
+    private static int sizeBucket(long size)
+    {
+        return log2Bucket(size);
+    }
+
+
+    private int ageBucket(long lastModified)
+    {
+        // objects modified "in the future" (due to clock skew) are treated as new
+        long days = Math.max(0, asOf - lastModified) / MILLIS_PER_DAY;
+        return Math.min(log2Bucket(days), AGE_BUCKETS - 1);
+    }
+
+
+    private static long lowerBound(int bucket)
+    {
+        return (bucket == 0) ? 0 : 1L << (bucket - 1);
+    }
+
+
+    private static long upperBound(int bucket)
+    {
+        // the last bucket's bound can't be represented, so we settle for the max
+        return (bucket == 63) ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+
+    private void offer(PriorityQueue<Entry> heap, Entry entry)
+    {
+        if (heap.size() < topK)
+        {
+            heap.add(entry);
+        }
+        else if (heap.comparator().compare(entry, heap.peek()) > 0)
+        {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+
+    private static List<Entry> sortedDescending(PriorityQueue<Entry> heap)
+    {
+        List<Entry> result = new ArrayList<Entry>(heap);
+        Collections.sort(result, Collections.reverseOrder(heap.comparator()));
+        return result;
+    }
+
+
+    private static void writeRow(Writer out, String section, String lower, String upper,
+                                 long count, long bytes, String key, String lastModified)
+    throws IOException
+    {
+        out.write(section);
+        out.write(',');
+        out.write(lower);
+        out.write(',');
+        out.write(upper);
+        out.write(',');
+        out.write(String.valueOf(count));
+        out.write(',');
+        out.write(String.valueOf(bytes));
+        out.write(',');
+        out.write(csvEscape(key));
+        out.write(',');
+        out.write(lastModified);
+        out.write('\n');
+    }
+
+
+    /**
+     *  Quotes a value if it contains characters that are significant to CSV.
+     *  Keys may contain anything.
+     */
+    static String csvEscape(String value)
+    {
+        for (int ii = 0 ; ii < value.length() ; ii++)
+        {
+            char c = value.charAt(ii);
+            if ((c == ',') || (c == '"') || (c == '\n') || (c == '\r'))
+                return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+//----------------------------------------------------------------------------
+//  Result classes
+//----------------------------------------------------------------------------
+
+    /**
+     *  A single histogram bucket.
+     */
+    public static class Bucket
+    {
+        private long lower;
+        private long upper;
+        private long count;
+        private long bytes;
+
+        public Bucket(long lower, long upper, long count, long bytes)
+        {
+            this.lower = lower;
+            this.upper = upper;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        /**
+         *  Returns the inclusive lower bound of the bucket.
+         */
+        public long getLower()
+        {
+            return lower;
+        }
+
+        /**
+         *  Returns the exclusive upper bound of the bucket.
+         */
+        public long getUpper()
+        {
+            return upper;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         *  Returns the total size of the objects in the bucket.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+    }
+
+
+    /**
+     *  An object retained in one of the top-K lists.
+     */
+    public static class Entry
+    {
+        private String key;
+        private long size;
+        private long lastModified;
+
+        public Entry(String key, long size, long lastModified)
+        {
+            this.key = key;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        @Override
+        public String toString()
+        {
+            return key + " (" + size + " bytes)";
+        }
+    }
+}
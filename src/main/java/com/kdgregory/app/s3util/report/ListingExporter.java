@@ -0,0 +1,322 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.report;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.transfer.PagedLister;
+
+
+/**
+ *  Writes a listing to a file as it's retrieved, as CSV or JSON Lines. This is
+ *  a page handler (for {@link PagedLister} or {@link com.kdgregory.app.s3util.transfer.InventoryReader}),
+ *  so the listing is never held in memory.
+ *  <p>
+ *  Pages are handed to a dedicated writer thread via a bounded queue, so that
+ *  formatting and disk I/O overlap with retrieving the next page; if the writer
+ *  falls behind, the listing blocks until there's room. The thread is separate
+ *  from the transfer pool because the producers may be running on that pool,
+ *  and would deadlock if they filled it while waiting for the writer.
+ *  <p>
+ *  Each object is written with its key, size, last-modified timestamp (UTC,
+ *  ISO-8601), ETag, and storage class. The caller must call {@link #close}
+ *  when the listing is done (or has failed), to write the remaining pages and
+ *  stop the writer thread; the underlying writer is flushed but not closed.
+ */
+public class ListingExporter
+implements PagedLister.PageHandler, Closeable
+{
+    /**
+     *  The supported output formats.
+     */
+    public enum Format
+    {
+        CSV, JSONL;
+
+        /**
+         *  Picks a format based on a file's extension: JSON Lines for
+         *  <code>.jsonl</code> or <code>.json</code>, CSV for anything else.
+         */
+        public static Format forFile(File file)
+        {
+            String name = file.getName().toLowerCase();
+            return (name.endsWith(".jsonl") || name.endsWith(".json")) ? JSONL : CSV;
+        }
+    }
+
+    // tuning parameters: a page is normally 1,000 objects
+    private final static int QUEUE_PAGES = 16;
+    private final static int BUFFER_SIZE = 65536;
+    private final static long POLL_MILLIS = 100;
+
+    // marks the end of the listing; compared by identity
+    private final static List<S3ObjectSummary> END = new ArrayList<S3ObjectSummary>();
+
+    private Writer out;
+    private Format format;
+    private SimpleDateFormat dateFormat;
+
+    private BlockingQueue<List<S3ObjectSummary>> queue = new ArrayBlockingQueue<List<S3ObjectSummary>>(QUEUE_PAGES);
+    private AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    private Thread writerThread;
+    private volatile long count;
+    private boolean isClosed;
+
+
+    /**
+     *  Creates the exporter and starts its writer thread. For CSV, the header
+     *  is the first thing written.
+     */
+    public ListingExporter(Writer out, Format format)
+    {
+        this.out = new BufferedWriter(out, BUFFER_SIZE);
+        this.format = format;
+
+        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        writerThread = new Thread(this::writeLoop, "export-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Queues a page for writing, blocking if the queue is full. May be called
+     *  concurrently; pages are written in the order that they're queued.
+     *
+     *  @throws Exception   if the writer has failed.
+     */
+    @Override
+    public void handlePage(List<S3ObjectSummary> objects, List<String> commonPrefixes)
+    throws Exception
+    {
+        if (objects.isEmpty())
+            return;
+        enqueue(objects);
+    }
+
+
+    /**
+     *  Writes any queued pages, flushes the output, and stops the writer thread.
+     *  May be called more than once.
+     *
+     *  @throws IOException if the writer failed at any point.
+     */
+    @Override
+    public void close()
+    throws IOException
+    {
+        if (isClosed)
+            return;
+        isClosed = true;
+
+        try
+        {
+            enqueue(END);
+            writerThread.join();
+        }
+        catch (InterruptedException ex)
+        {
+            writerThread.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for writer", ex);
+        }
+        catch (IOException ex)
+        {
+            throw ex;
+        }
+        catch (Exception ex)
+        {
+            throw new IOException(ex.getMessage(), ex);
+        }
+
+        Exception ex = failure.get();
+        if (ex != null)
+            throw (ex instanceof IOException) ? (IOException)ex : new IOException(ex.getMessage(), ex);
+    }
+
+
+    /**
+     *  Returns the number of objects written so far.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a page to the queue. If the writer has died, nothing will take
+     *  pages off the queue, so rather than blocking indefinitely we wait a
+     *  limited time and check for failure.
+     */
+    private void enqueue(List<S3ObjectSummary> page)
+    throws Exception
+    {
+        while (true)
+        {
+            Exception ex = failure.get();
+            if (ex != null)
+                throw ex;
+            if (queue.offer(page, POLL_MILLIS, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+
+    private void writeLoop()
+    {
+        try
+        {
+            if (format == Format.CSV)
+                out.write("key,size,lastModified,etag,storageClass\n");
+
+            while (true)
+            {
+                List<S3ObjectSummary> page = queue.take();
+                if (page == END)
+                    break;
+                for (S3ObjectSummary obj : page)
+                {
+                    if (format == Format.CSV)
+                        writeCsv(obj);
+                    else
+                        writeJson(obj);
+                }
+                count += page.size();
+            }
+            out.flush();
+        }
+        catch (Exception ex)
+        {
+            failure.compareAndSet(null, ex);
+        }
+    }
+
+
+    private void writeCsv(S3ObjectSummary obj)
+    throws IOException
+    {
+        out.write(CapacityReport.csvEscape(obj.getKey()));
+        out.write(',');
+        out.write(String.valueOf(obj.getSize()));
+        out.write(',');
+        out.write(formatDate(obj));
+        out.write(',');
+        out.write(CapacityReport.csvEscape(nonNull(obj.getETag())));
+        out.write(',');
+        out.write(CapacityReport.csvEscape(nonNull(obj.getStorageClass())));
+        out.write('\n');
+    }
+
+
+    private void writeJson(S3ObjectSummary obj)
+    throws IOException
+    {
+        out.write("{\"key\":");
+        writeJsonString(obj.getKey());
+        out.write(",\"size\":");
+        out.write(String.valueOf(obj.getSize()));
+        out.write(",\"lastModified\":\"");
+        out.write(formatDate(obj));
+        out.write("\",\"etag\":");
+        writeJsonString(obj.getETag());
+        out.write(",\"storageClass\":");
+        writeJsonString(obj.getStorageClass());
+        out.write("}\n");
+    }
+
+
+    private String formatDate(S3ObjectSummary obj)
+    {
+        return (obj.getLastModified() == null) ? "" : dateFormat.format(obj.getLastModified());
+    }
+
+
+    private static String nonNull(String value)
+    {
+        return (value == null) ? "" : value;
+    }
+
+
+    /**
+     *  Writes a JSON string, or <code>null</code>. Keys may contain anything,
+     *  so we escape quotes, backslashes, and control characters.
+     */
+    private void writeJsonString(String value)
+    throws IOException
+    {
+        if (value == null)
+        {
+            out.write("null");
+            return;
+        }
+
+        out.write('"');
+        int start = 0;
+        for (int ii = 0 ; ii < value.length() ; ii++)
+        {
+            char c = value.charAt(ii);
+            if ((c != '"') && (c != '\\') && (c >= 0x20))
+                continue;
+
+            out.write(value, start, ii - start);
+            switch (c)
+            {
+                case '"' :
+                    out.write("\\\"");
+                    break;
+                case '\\' :
+                    out.write("\\\\");
+                    break;
+                case '\n' :
+                    out.write("\\n");
+                    break;
+                case '\r' :
+                    out.write("\\r");
+                    break;
+                case '\t' :
+                    out.write("\\t");
+                    break;
+                default :
+                    out.write(String.format("\\u%04x", (int)c));
+            }
+            start = ii + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
@@ -14,20 +14,44 @@
 
 package com.kdgregory.app.s3util.s3ops;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
 
+import com.kdgregory.app.s3util.filelist.S3File;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.ChannelUploader;
+import com.kdgregory.app.s3util.transfer.ChecksumDownloader;
+import com.kdgregory.app.s3util.transfer.HashCache;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.StreamChecksums;
+import com.kdgregory.app.s3util.transfer.UploadPolicy;
 import com.kdgregory.swinglib.AsynchronousOperation;
 import com.kdgregory.swinglib.components.ProgressMonitor;
 
 
 /**
  *  Holds common code for all S3 operations.
+ *  <p>
+ *  Operations are normally started from the GUI via {@link #start}, which runs
+ *  them on a background thread with a progress monitor. They may also be run
+ *  synchronously via {@link #runHeadless}, for the command-line interface; in
+ *  this case there's no interaction with Swing, and subclasses must route any
+ *  main-frame updates through {@link #updateMainFrame}.
  */
 public abstract class AbstractS3Op<T>
 extends AsynchronousOperation<T>
@@ -36,14 +60,22 @@ extends AsynchronousOperation<T>
 
     private Concierge concierge;
     private String description;
+    private String bucketName;
 
     private ProgressMonitor _progressMonitor;
+    private PrintStream _headlessProgress;
+    private boolean _isHeadless;
+    private boolean _isFinished;
+    private boolean _isLoading;
 
 
     protected AbstractS3Op(Concierge concierge, String description)
     {
         this.concierge = concierge;
         this.description = description;
+
+        // captured now, because the user may switch tabs before we run
+        this.bucketName = concierge.getConfig().getAmazonBucketName();
     }
 
 
@@ -59,7 +91,51 @@ extends AsynchronousOperation<T>
     public void start()
     {
         setBusyState(true);
-        concierge.execute(this);
+        concierge.getMetrics().operationStarted();
+        if (isConcurrent())
+            concierge.executeConcurrent(this);
+        else
+            concierge.execute(this);
+    }
+
+
+    /**
+     *  Executes this operation on the calling thread, without touching the GUI:
+     *  there's no progress monitor, and the success and failure callbacks are
+     *  not invoked. Instead, the result is returned and exceptions are thrown.
+     *
+     *  @param  progress    If not null, receives the messages that would
+     *                      otherwise go to the progress monitor.
+     */
+    public T runHeadless(PrintStream progress)
+    throws Exception
+    {
+        _isHeadless = true;
+        _headlessProgress = progress;
+        concierge.getMetrics().operationStarted();
+        boolean success = false;
+        try
+        {
+            T result = performOperation();
+            success = true;
+            return result;
+        }
+        finally
+        {
+            concierge.getMetrics().operationFinished(success);
+        }
+    }
+
+
+    /**
+     *  Overrides the bucket used by this operation; by default, operations
+     *  use the bucket that was selected when they were constructed. Must be
+     *  called before the operation starts.
+     */
+    public AbstractS3Op<T> setBucketName(String value)
+    {
+        bucketName = value;
+        return this;
     }
 
 
@@ -70,6 +146,7 @@ extends AsynchronousOperation<T>
     protected void onComplete()
     {
         setBusyState(false);
+        recordFinished(true);
     }
 
 
@@ -85,6 +162,7 @@ extends AsynchronousOperation<T>
     {
         logger.error("request failed", ex);
         setBusyState(false);
+        recordFinished(false);
         JOptionPane.showMessageDialog(
                 concierge.getDialogOwner(),
                 "Unable to process this request: " + ex.getMessage()
@@ -104,36 +182,229 @@ extends AsynchronousOperation<T>
 
 
     /**
-     *  Returns the S3 client object.
+     *  Returns the S3 client for this operation's bucket, which sends requests
+     *  directly to the bucket's region.
      */
     protected AmazonS3 getClient()
     {
-        return concierge.getS3Client();
+        return concierge.getS3Client(getBucketName());
+    }
+
+
+    /**
+     *  Returns the S3 client for an arbitrary bucket, for operations that work
+     *  with more than one.
+     */
+    protected AmazonS3 getClient(String bucket)
+    {
+        return concierge.getS3Client(bucket);
+    }
+
+
+    /**
+     *  Cleans up a destination prefix, removing leading and trailing slashes
+     *  (the same cleanup that's applied when creating keys for files). Returns
+     *  an empty string if the destination is the root of the bucket.
+     */
+    protected static String cleanPrefix(String destination)
+    {
+        String prefix = destination;
+        if (prefix.startsWith("/"))
+            prefix = prefix.substring(1);
+        if (prefix.endsWith("/"))
+            prefix = prefix.substring(0, prefix.length() - 1);
+        return prefix;
     }
 
 
     /**
-     *  Returns the currently selected bucket name.
+     *  Executes a single S3 request via the shared governor, which retries
+     *  failed requests and limits per-prefix concurrency. The request must be
+     *  repeatable.
+     */
+    protected <X> X governed(OperationType type, String key, Callable<X> request)
+    throws Exception
+    {
+        return concierge.getGovernor().execute(type, key, request);
+    }
+
+
+    /**
+     *  Returns the upload settings for a file: headers and ACL from the upload
+     *  policy, with the ACL optionally overridden to public-read.
+     */
+    protected UploadPolicy.Settings uploadSettings(String key, File file, boolean makePublic)
+    throws IOException
+    {
+        UploadPolicy.Settings settings = concierge.getUploadPolicy().apply(key, file);
+        if (makePublic)
+            settings.setCannedAcl(CannedAccessControlList.PublicRead);
+        return settings;
+    }
+
+
+    /**
+     *  Uploads a local file to the operation's bucket. All headers and the ACL
+     *  come from the upload policy (see {@link #uploadSettings}), so that they're
+     *  applied by the upload itself. The file's body is read directly from its
+     *  channel (see {@link ChannelUploader}), and verified against the ETag as
+     *  it's sent; the resulting hashes are recorded in the hash cache, so the file
+     *  is only read once. If the cache already has the file's hashes (eg, because
+     *  they were needed to decide whether to upload it), a single-request upload
+     *  also includes <code>Content-MD5</code>.
+     */
+    protected void uploadFile(String key, File file, boolean makePublic)
+    throws Exception
+    {
+        UploadPolicy.Settings settings = uploadSettings(key, file, makePublic);
+        HashCache hashCache = concierge.getHashCache();
+        HashCache.Hashes hashes = hashCache.getIfCached(file);
+        long size = file.length();
+        long lastModified = file.lastModified();
+        StreamChecksums checksums
+            = new ChannelUploader(getClient(), concierge.getGovernor(), concierge.getBufferPool())
+              .upload(getBucketName(), key, file, settings, (hashes != null) ? hashes.getContentMD5() : null);
+        if (hashes == null)
+            hashCache.record(file, size, lastModified, checksums);
+    }
+
+
+    /**
+     *  Downloads an object from the operation's bucket to a local file, verifying
+     *  its content as it's written (see {@link ChecksumDownloader}). Returns the
+     *  checksums, which the caller may record in the hash cache once it's done
+     *  with the file.
+     *
+     *  @param  expectedSize    The object's size, -1 if not known.
+     */
+    protected StreamChecksums downloadFile(String key, long expectedSize, File file)
+    throws Exception
+    {
+        return new ChecksumDownloader(getClient(), concierge.getGovernor())
+               .download(getBucketName(), key, expectedSize, file);
+    }
+
+
+    /**
+     *  Retrieves a pack index from the operation's bucket, and returns its
+     *  members as (virtual) files.
+     */
+    protected List<S3File> loadPackMembers(String indexKey)
+    throws Exception
+    {
+        PackIndex index = PackIndex.load(getClient(), concierge.getGovernor(), getBucketName(), indexKey);
+        List<S3File> result = new ArrayList<S3File>(index.getEntries().size());
+        for (PackIndex.Entry entry : index.getEntries())
+        {
+            result.add(new S3File(entry.getKey(), entry.getLength(), new Date(entry.getLastModified()),
+                                  index.getPackKey(), entry.getOffset()));
+        }
+        return result;
+    }
+
+
+    /**
+     *  Throws if any of the passed files are pack members, for operations that
+     *  can't work on a range of an object.
+     */
+    protected void rejectPackMembers(Collection<S3File> files, String action)
+    {
+        for (S3File file : files)
+        {
+            if (file.isPackMember())
+                throw new IllegalArgumentException("can't " + action + " " + file.getKey()
+                                                   + ": it's stored in pack " + file.getPackKey());
+        }
+    }
+
+
+    /**
+     *  Returns the bucket for this operation: either an explicitly configured
+     *  bucket, or the bucket that was selected when the operation was created.
      */
     protected String getBucketName()
     {
-        return concierge.getConfig().getAmazonBucketName();
+        return bucketName;
+    }
+
+
+    /**
+     *  Indicates whether this operation may run alongside other operations.
+     *  By default, operations run one at a time, on the Concierge's operation
+     *  pool; read-only operations that are limited to their own bucket, such
+     *  as listings, may override to return <code>true</code>.
+     */
+    protected boolean isConcurrent()
+    {
+        return false;
+    }
+
+
+    /**
+     *  An alternative to the normal busy state, for operations that only affect
+     *  their own bucket: marks the bucket's tab as loading, without a progress
+     *  monitor. Subclasses call this from an override of {@link #setBusyState}.
+     */
+    protected void setLoadingState(boolean isLoading)
+    {
+        // we may be cleared by both onFailure() and onComplete()
+        if (isLoading == _isLoading)
+            return;
+        _isLoading = isLoading;
+        concierge.getMainFrame().setLoadingState(getBucketName(), isLoading);
+    }
+
+
+    /**
+     *  Indicates whether this operation is running without a GUI.
+     */
+    protected boolean isHeadless()
+    {
+        return _isHeadless;
     }
 
 
     /**
      *  Called during operation to update the progress monitor status
-     *  message.
+     *  message. When running headless, the message is written to the
+     *  progress stream (if any).
      */
     protected void updateProgressMonitor(String message)
     {
-        _progressMonitor.setStatus(message);
+        if (_progressMonitor != null)
+            _progressMonitor.setStatus(message);
+        else if (_headlessProgress != null)
+            _headlessProgress.println(message);
+    }
+
+
+    /**
+     *  Queues a main-frame update onto the event dispatch thread. This is a
+     *  no-op when running headless.
+     */
+    protected void updateMainFrame(Runnable update)
+    {
+        if (!_isHeadless)
+            SwingUtilities.invokeLater(update);
     }
 
 //----------------------------------------------------------------------------
 //  Internals
 //----------------------------------------------------------------------------
 
+    /**
+     *  Updates the operation metrics; guarded because we may see both
+     *  <code>onFailure()</code> and <code>onComplete()</code>.
+     */
+    private void recordFinished(boolean success)
+    {
+        if (_isFinished)
+            return;
+        _isFinished = true;
+        concierge.getMetrics().operationFinished(success);
+    }
+
+
     /**
      *  Controls the various "wait indicators" -- pass <code>true</code> at
      *  the start of an operation, <code>false</code> at the end.
@@ -0,0 +1,160 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.transfer.ArchiveReader;
+import com.kdgregory.app.s3util.transfer.StreamUploader;
+import com.kdgregory.app.s3util.transfer.UploadPolicy;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
+
+
+/**
+ *  Uploads the files inside one or more zip or tar archives as individual
+ *  objects, without extracting them to disk. Each entry's key is the
+ *  destination followed by its path within the archive.
+ *  <p>
+ *  The archive is read sequentially, on the operation's thread, and each entry
+ *  is streamed into S3 by a {@link StreamUploader}: small entries as a single
+ *  PUT, large entries as multipart uploads. The requests run concurrently on
+ *  the Concierge's transfer pool, with at most 64 MB of entry content waiting
+ *  to be sent. Object headers come from the upload policy, as for any upload,
+ *  matched against the entry's path.
+ *  <p>
+ *  Uploaded files are reported to the main frame in batches.
+ */
+public class S3ArchiveUploadOp
+extends AbstractS3Op<Object>
+{
+    // tuning parameters
+    private final static int QUEUE_FACTOR = 2;
+    private final static long MEMORY_LIMIT = 64 * 1024 * 1024;
+    private final static int UPDATE_BATCH_SIZE = 500;
+
+    private File[] archives;
+    private String destination;
+    private boolean makePublic;
+    private List<S3File> pendingAdds = new ArrayList<S3File>();
+    private int uploadCount;
+
+    public S3ArchiveUploadOp(Concierge concierge, File[] archives, String destination, boolean makePublic)
+    {
+        super(concierge, "Uploading archive contents");
+        this.archives = archives;
+        this.destination = destination;
+        this.makePublic = makePublic;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Object performOperation()
+    throws Exception
+    {
+        logger.debug("starting archive upload; public read: {}", makePublic);
+
+        WorkQueue workQueue = new WorkQueue(
+                                getConcierge().getTransferPool(),
+                                getConcierge().getConfig().getTransferThreads() * QUEUE_FACTOR);
+        StreamUploader uploader = new StreamUploader(
+                                getClient(), getConcierge().getGovernor(), workQueue, MEMORY_LIMIT);
+        try
+        {
+            try
+            {
+                for (File archive : archives)
+                {
+                    uploadArchive(archive, uploader);
+                }
+            }
+            finally
+            {
+                workQueue.waitForCompletion();
+                reportFileUploaded(null, true);
+            }
+            workQueue.await();
+        }
+        catch (Exception ex)
+        {
+            uploader.abortIncomplete();
+            throw ex;
+        }
+
+        logger.debug("upload complete; {} files uploaded", uploadCount);
+        return null;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void uploadArchive(File archive, StreamUploader uploader)
+    throws Exception
+    {
+        logger.debug("uploading contents of {}", archive);
+        String prefix = cleanPrefix(destination);
+        if (!prefix.isEmpty())
+            prefix += "/";
+        try (ArchiveReader reader = ArchiveReader.open(archive))
+        {
+            for (ArchiveReader.Entry entry = reader.next() ; entry != null ; entry = reader.next())
+            {
+                String key = prefix + entry.getName();
+                updateProgressMonitor("upload: " + key);
+
+                // the policy only looks at the file's name, so it doesn't need to exist
+                UploadPolicy.Settings settings = uploadSettings(key, new File(entry.getName()), makePublic);
+                uploader.upload(getBucketName(), key, entry.getContent(), entry.getSize(), settings,
+                                (uploadedKey, size) -> reportFileUploaded(new S3File(uploadedKey, size, new Date()), false));
+            }
+        }
+    }
+
+
+    /**
+     *  Accumulates uploaded files, and sends them to the main frame once there's
+     *  a full batch (or when forced, at the end of the operation). Called from
+     *  the transfer pool.
+     */
+    private synchronized void reportFileUploaded(S3File file, boolean force)
+    {
+        if (file != null)
+        {
+            pendingAdds.add(file);
+            uploadCount++;
+        }
+        if (pendingAdds.isEmpty() || (!force && (pendingAdds.size() < UPDATE_BATCH_SIZE)))
+            return;
+
+        final List<S3File> adds = pendingAdds;
+        pendingAdds = new ArrayList<S3File>();
+        updateMainFrame(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getConcierge().getMainFrame().addFilesToList(getBucketName(), adds);
+            }
+        });
+    }
+}
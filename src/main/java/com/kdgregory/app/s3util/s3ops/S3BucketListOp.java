@@ -20,10 +20,12 @@ import java.util.List;
 import com.amazonaws.services.s3.model.Bucket;
 
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
 
 
 /**
- *  Retrieves a list of buckets associated with the current user.
+ *  Retrieves a list of buckets associated with the current user, and stores
+ *  it in the Concierge's bucket cache.
  */
 public class S3BucketListOp
 extends AbstractS3Op<List<String>>
@@ -64,12 +66,14 @@ extends AbstractS3Op<List<String>>
         List<String> result = new ArrayList<>();
 
         logger.debug("retrieving bucket list");
-        for (Bucket bucket : getClient().listBuckets())
+        for (Bucket bucket : governed(OperationType.LIST, "", () -> getConcierge().getS3Client().listBuckets()))
         {
             result.add(bucket.getName());
         }
         logger.debug("found {} buckets", result.size());
 
+        getConcierge().getBucketCache().setBucketList(result);
+
         return result;
     }
 
@@ -0,0 +1,381 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.SSEAwsKeyManagementParams;
+import com.amazonaws.services.s3.model.StorageClass;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.PartSizes;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
+
+
+/**
+ *  Copies one or more files using S3's server-side copy, so that no data
+ *  passes through this machine. Optionally deletes the source files after
+ *  copying, which turns the copy into a move (or rename).
+ *  <p>
+ *  Destination keys are formed by replacing a source prefix with a destination
+ *  prefix. If the source prefix is null, each file's path is replaced, which
+ *  puts all files directly under the destination prefix.
+ *  <p>
+ *  Files are copied concurrently, on the Concierge's transfer pool. A single
+ *  CopyObject request is limited to 5 GB, so larger objects are copied as a
+ *  multipart upload, with each part copied by UploadPartCopy; the parts of a
+ *  single object are copied sequentially. Objects copied this way keep their
+ *  content headers and user metadata, but not their ACL (which is also true
+ *  of a normal copy).
+ *  <p>
+ *  Either way, the copy has the same storage class and server-side encryption
+ *  as its source; S3 would otherwise use the defaults for the destination.
+ *  <p>
+ *  The main frame is updated in batches, since a large move would otherwise
+ *  queue two events per file.
+ */
+public class S3CopyOp
+extends AbstractS3Op<Object>
+{
+    /** Objects larger than this are copied in parts; this is the S3 limit for CopyObject. */
+    public final static long MAX_SINGLE_COPY_SIZE = 5L * 1024 * 1024 * 1024;
+
+    /** The minimum part size for a multipart copy; larger if needed to stay under the part limit. */
+    public final static long MIN_PART_SIZE = 512L * 1024 * 1024;
+
+    // tuning parameters
+    private final static int QUEUE_FACTOR = 4;
+    private final static int UPDATE_BATCH_SIZE = 500;
+
+    private Collection<S3File> files;
+    private String srcPrefix;
+    private String destBucket;
+    private String destPrefix;
+    private boolean move;
+
+    // these are accumulated by the worker threads, and flushed to the main frame
+    private List<S3File> pendingAdds = new ArrayList<S3File>();
+    private List<S3File> pendingRemoves = new ArrayList<S3File>();
+
+
+    /**
+     *  @param  concierge   The usual.
+     *  @param  files       The files to copy.
+     *  @param  srcPrefix   The portion of each source key that is replaced by
+     *                      <code>destPrefix</code>; null to replace the file's
+     *                      path (including its trailing slash).
+     *  @param  destBucket  The destination bucket; null for the current bucket.
+     *  @param  destPrefix  The prefix for destination keys; this may be an
+     *                      entire key, for renames.
+     *  @param  move        If true, the source files are deleted after copy.
+     */
+    public S3CopyOp(Concierge concierge, Collection<S3File> files,
+                    String srcPrefix, String destBucket, String destPrefix, boolean move)
+    {
+        super(concierge, move ? "Moving file(s)" : "Copying file(s)");
+        this.files = files;
+        this.srcPrefix = srcPrefix;
+        this.destBucket = destBucket;
+        this.destPrefix = destPrefix;
+        this.move = move;
+    }
+
+
+    /**
+     *  Returns the longest "directory" prefix (ending in a slash) shared by all
+     *  of the passed files; empty if there isn't one. Used as a source prefix
+     *  so that a copy preserves the relative structure of the selected files.
+     */
+    public static String commonPrefix(Collection<S3File> files)
+    {
+        String prefix = null;
+        for (S3File file : files)
+        {
+            String key = file.getKey();
+            String dir = key.substring(0, key.lastIndexOf('/') + 1);
+            if (prefix == null)
+                prefix = dir;
+            while (!dir.startsWith(prefix))
+            {
+                int idx = prefix.lastIndexOf('/', prefix.length() - 2);
+                prefix = prefix.substring(0, idx + 1);
+            }
+        }
+        return (prefix == null) ? "" : prefix;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Object performOperation()
+    throws Exception
+    {
+        final String srcBucket = getBucketName();
+        final String dstBucket = (destBucket != null) ? destBucket : srcBucket;
+        rejectPackMembers(files, move ? "move" : "copy");
+
+        logger.debug("copying {} files from {} to {}/{}; move: {}", files.size(), srcBucket, dstBucket, destPrefix, move);
+
+        WorkQueue workQueue = new WorkQueue(
+                                getConcierge().getTransferPool(),
+                                getConcierge().getConfig().getTransferThreads() * QUEUE_FACTOR);
+        int count = 0;
+        try
+        {
+            for (final S3File file : files)
+            {
+                final String srcKey = file.getKey();
+                final String dstKey = destKeyFor(file);
+                if (srcBucket.equals(dstBucket) && srcKey.equals(dstKey))
+                {
+                    logger.debug("skipping copy to self: {}", srcKey);
+                    continue;
+                }
+
+                workQueue.submit(() -> copy(file, srcBucket, srcKey, dstBucket, dstKey));
+                count++;
+            }
+        }
+        finally
+        {
+            workQueue.waitForCompletion();
+            flushUpdates(srcBucket, dstBucket, true);
+        }
+        workQueue.await();
+
+        logger.debug("copy complete; {} files copied", count);
+        return null;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private String destKeyFor(S3File file)
+    {
+        String key = file.getKey();
+        if (srcPrefix == null)
+            return destPrefix + file.getFile().getName();
+        if (!key.startsWith(srcPrefix))
+            throw new IllegalArgumentException("key does not start with source prefix: " + key);
+        return destPrefix + key.substring(srcPrefix.length());
+    }
+
+
+    /**
+     *  Copies a single file, picking single or multipart copy based on its size.
+     *  Runs on the transfer pool. The source metadata is always retrieved, since
+     *  the listing doesn't tell us the object's storage class or encryption.
+     */
+    private void copy(S3File file, String srcBucket, String srcKey, String dstBucket, String dstKey)
+    throws Exception
+    {
+        final ObjectMetadata srcMetadata = governed(OperationType.GET, srcKey, () ->
+                                            getClient(srcBucket).getObjectMetadata(srcBucket, srcKey));
+        long size = srcMetadata.getContentLength();
+
+        updateProgressMonitor((move ? "move: " : "copy: ") + srcKey + " -> " + dstKey);
+        Date lastModified = (size > MAX_SINGLE_COPY_SIZE)
+                          ? multipartCopy(srcBucket, srcKey, dstBucket, dstKey, size, srcMetadata)
+                          : governed(OperationType.OTHER, dstKey, () ->
+                                getClient(dstBucket).copyObject(copyRequest(srcBucket, srcKey, dstBucket, dstKey, srcMetadata))
+                                .getLastModifiedDate());
+
+        if (move)
+        {
+            governed(OperationType.DELETE, srcKey, () ->
+            {
+                getClient(srcBucket).deleteObject(srcBucket, srcKey);
+                return null;
+            });
+        }
+
+        synchronized (this)
+        {
+            pendingAdds.add(new S3File(dstKey, size, lastModified));
+            if (move)
+                pendingRemoves.add(file);
+        }
+        flushUpdates(srcBucket, dstBucket, false);
+    }
+
+
+    /**
+     *  Copies an object in parts. The part size is chosen to stay within the
+     *  S3 limit on part count. Returns the completion time, since there isn't
+     *  a last-modified date in the response.
+     */
+    private Date multipartCopy(String srcBucket, String srcKey, String dstBucket, String dstKey,
+                               long size, ObjectMetadata srcMetadata)
+    throws Exception
+    {
+        long partSize = PartSizes.forObject(size, MIN_PART_SIZE);
+        logger.debug("multipart copy of {} ({} bytes, part size {})", srcKey, size, partSize);
+
+        final InitiateMultipartUploadRequest initRequest = initiateRequest(dstBucket, dstKey, srcMetadata);
+        final String uploadId = governed(OperationType.PUT, dstKey, () ->
+                                    getClient(dstBucket).initiateMultipartUpload(initRequest).getUploadId());
+        try
+        {
+            List<PartETag> partETags = new ArrayList<PartETag>();
+            int partNumber = 1;
+            for (long offset = 0 ; offset < size ; offset += partSize, partNumber++)
+            {
+                final CopyPartRequest partRequest = new CopyPartRequest()
+                                                    .withSourceBucketName(srcBucket)
+                                                    .withSourceKey(srcKey)
+                                                    .withDestinationBucketName(dstBucket)
+                                                    .withDestinationKey(dstKey)
+                                                    .withUploadId(uploadId)
+                                                    .withPartNumber(partNumber)
+                                                    .withFirstByte(offset)
+                                                    .withLastByte(Math.min(offset + partSize, size) - 1);
+                updateProgressMonitor((move ? "move: " : "copy: ") + srcKey + " (part " + partNumber + ")");
+                partETags.add(governed(OperationType.PUT, dstKey, () ->
+                                getClient(dstBucket).copyPart(partRequest).getPartETag()));
+            }
+
+            final CompleteMultipartUploadRequest completeRequest
+                = new CompleteMultipartUploadRequest(dstBucket, dstKey, uploadId, partETags);
+            governed(OperationType.PUT, dstKey, () -> getClient(dstBucket).completeMultipartUpload(completeRequest));
+            return new Date();
+        }
+        catch (Exception ex)
+        {
+            try
+            {
+                getClient(dstBucket).abortMultipartUpload(new AbortMultipartUploadRequest(dstBucket, dstKey, uploadId));
+            }
+            catch (Exception ex2)
+            {
+                logger.warn("unable to abort multipart upload for {}: {}", dstKey, ex2.getMessage());
+            }
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  Creates the request for a single-request copy. S3 copies the source
+     *  object's headers and metadata, but not its storage class or encryption,
+     *  so those are set explicitly. An object encrypted with a specific KMS key
+     *  must name that key, or the copy would use the account's default key.
+     *  Exposed for testing.
+     */
+    static CopyObjectRequest copyRequest(String srcBucket, String srcKey, String dstBucket, String dstKey, ObjectMetadata srcMetadata)
+    {
+        CopyObjectRequest request = new CopyObjectRequest(srcBucket, srcKey, dstBucket, dstKey);
+        if (srcMetadata.getStorageClass() != null)
+            request.setStorageClass(srcMetadata.getStorageClass());
+        if (srcMetadata.getSSEAwsKmsKeyId() != null)
+            request.setSSEAwsKeyManagementParams(new SSEAwsKeyManagementParams(srcMetadata.getSSEAwsKmsKeyId()));
+        else if (srcMetadata.getSSEAlgorithm() != null)
+            request.putCustomRequestHeader(Headers.SERVER_SIDE_ENCRYPTION, srcMetadata.getSSEAlgorithm());
+        return request;
+    }
+
+
+    /**
+     *  Creates the request that starts a multipart copy, with the source
+     *  object's headers, storage class, and encryption. As with a single copy,
+     *  a specific KMS key must be named. Exposed for testing.
+     */
+    static InitiateMultipartUploadRequest initiateRequest(String dstBucket, String dstKey, ObjectMetadata srcMetadata)
+    {
+        InitiateMultipartUploadRequest request
+            = new InitiateMultipartUploadRequest(dstBucket, dstKey, copyableMetadata(srcMetadata));
+        if (srcMetadata.getStorageClass() != null)
+            request.setStorageClass(StorageClass.fromValue(srcMetadata.getStorageClass()));
+        if (srcMetadata.getSSEAwsKmsKeyId() != null)
+            request.setSSEAwsKeyManagementParams(new SSEAwsKeyManagementParams(srcMetadata.getSSEAwsKmsKeyId()));
+        return request;
+    }
+
+
+    /**
+     *  Extracts the headers from a source object that should be applied to a
+     *  copy. We can't pass the source metadata directly, because it includes
+     *  response headers such as <code>Content-Length</code> and <code>ETag</code>.
+     */
+    private static ObjectMetadata copyableMetadata(ObjectMetadata src)
+    {
+        ObjectMetadata dst = new ObjectMetadata();
+        dst.setUserMetadata(src.getUserMetadata());
+        if (src.getContentType() != null)
+            dst.setContentType(src.getContentType());
+        if (src.getContentEncoding() != null)
+            dst.setContentEncoding(src.getContentEncoding());
+        if (src.getContentDisposition() != null)
+            dst.setContentDisposition(src.getContentDisposition());
+        if (src.getContentLanguage() != null)
+            dst.setContentLanguage(src.getContentLanguage());
+        if (src.getCacheControl() != null)
+            dst.setCacheControl(src.getCacheControl());
+        if (src.getSSEAlgorithm() != null)
+            dst.setSSEAlgorithm(src.getSSEAlgorithm());
+        return dst;
+    }
+
+
+    /**
+     *  Sends accumulated updates to the main frame, which applies them to the
+     *  source and destination buckets' tabs, if open. Unless forced, waits
+     *  until there's a full batch.
+     */
+    private void flushUpdates(String srcBucket, String dstBucket, boolean force)
+    {
+        final List<S3File> adds;
+        final List<S3File> removes;
+        synchronized (this)
+        {
+            if (!force && (pendingAdds.size() < UPDATE_BATCH_SIZE))
+                return;
+            adds = pendingAdds;
+            removes = pendingRemoves;
+            pendingAdds = new ArrayList<S3File>();
+            pendingRemoves = new ArrayList<S3File>();
+        }
+
+        if (adds.isEmpty() && removes.isEmpty())
+            return;
+
+        updateMainFrame(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!removes.isEmpty())
+                    getConcierge().getMainFrame().removeFilesFromList(srcBucket, removes);
+                if (!adds.isEmpty())
+                    getConcierge().getMainFrame().addFilesToList(dstBucket, adds);
+            }
+        });
+    }
+}
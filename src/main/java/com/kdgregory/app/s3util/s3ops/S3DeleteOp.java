@@ -14,22 +14,40 @@
 
 package com.kdgregory.app.s3util.s3ops;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import javax.swing.SwingUtilities;
+import java.util.Map;
 
 import com.kdgregory.app.s3util.filelist.S3File;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.PackIndex;
 
 
 /**
- *  Deletes one or more files from S3, reporting each back to the main frame.
+ *  Deletes one or more files from S3, reporting them back to the main frame.
+ *  The files may be a lazy view of the selection (see
+ *  {@link com.kdgregory.app.s3util.filelist.SelectedFiles}), which is read as
+ *  the deletes proceed; deleted files are reported in batches, so that a large
+ *  delete doesn't swamp the event thread.
+ *  <p>
+ *  Pack members can only be deleted together: if all members of a pack are
+ *  selected, the pack and its index are deleted. Selecting only some of them
+ *  is an error, which is reported before anything is deleted.
  */
 public class S3DeleteOp
 extends AbstractS3Op<Object>
 {
-    private List<S3File> filesToDelete;
+    // tuning parameter
+    private final static int UPDATE_BATCH_SIZE = 500;
 
-    public S3DeleteOp(Concierge concierge, List<S3File> files)
+    private Collection<S3File> filesToDelete;
+    private List<S3File> pendingRemoves = new ArrayList<S3File>();
+
+    public S3DeleteOp(Concierge concierge, Collection<S3File> files)
     {
         super(concierge, "Deleting file(s)");
         this.filesToDelete = files;
@@ -44,12 +62,37 @@ extends AbstractS3Op<Object>
     throws Exception
     {
         logger.debug("deleting {} files", filesToDelete.size());
+
+        Map<String,List<S3File>> packMembers = new LinkedHashMap<>();
         for (S3File file : filesToDelete)
         {
-            String key = file.getKey();
-            logger.debug("deleting {}", key);
-            getClient().deleteObject(getBucketName(), key);
-            reportFileDeleted(file);
+            if (file.isPackMember())
+                packMembers.computeIfAbsent(file.getPackKey(), k -> new ArrayList<>()).add(file);
+        }
+        verifyCompletePacks(packMembers);
+
+        try
+        {
+            for (S3File file : filesToDelete)
+            {
+                if (file.isPackMember())
+                    continue;
+                delete(file.getKey());
+                reportFileDeleted(file, false);
+            }
+
+            for (Map.Entry<String,List<S3File>> entry : packMembers.entrySet())
+            {
+                delete(PackIndex.indexKeyFor(entry.getKey()));
+                delete(entry.getKey());
+                for (S3File file : entry.getValue())
+                    reportFileDeleted(file, false);
+            }
+        }
+        finally
+        {
+            // whatever we managed to delete is gone, even if we failed partway
+            reportFileDeleted(null, true);
         }
         logger.debug("deletion complete");
         return null;
@@ -59,14 +102,57 @@ extends AbstractS3Op<Object>
 //  Internals
 //----------------------------------------------------------------------------
 
-    private void reportFileDeleted(final S3File file)
+    private void delete(final String key)
+    throws Exception
     {
-        SwingUtilities.invokeLater(new Runnable()
+        logger.debug("deleting {}", key);
+        updateProgressMonitor("delete: " + key);
+        governed(OperationType.DELETE, key, () ->
+        {
+            getClient().deleteObject(getBucketName(), key);
+            return null;
+        });
+    }
+
+
+    /**
+     *  Verifies that every pack with a selected member has all of its members
+     *  selected.
+     */
+    private void verifyCompletePacks(Map<String,List<S3File>> packMembers)
+    throws Exception
+    {
+        for (Map.Entry<String,List<S3File>> entry : packMembers.entrySet())
+        {
+            String packKey = entry.getKey();
+            List<S3File> allMembers = loadPackMembers(PackIndex.indexKeyFor(packKey));
+            if (!new HashSet<S3File>(entry.getValue()).containsAll(allMembers))
+                throw new IllegalArgumentException(
+                        "can't delete part of a pack: " + entry.getValue().size() + " of "
+                        + allMembers.size() + " files in " + packKey + " are selected");
+        }
+    }
+
+
+    /**
+     *  Accumulates deleted files, and sends them to the main frame once there's
+     *  a full batch (or when forced, at the end of the operation).
+     */
+    private void reportFileDeleted(S3File file, boolean force)
+    {
+        if (file != null)
+            pendingRemoves.add(file);
+        if (pendingRemoves.isEmpty() || (!force && (pendingRemoves.size() < UPDATE_BATCH_SIZE)))
+            return;
+
+        final List<S3File> removes = pendingRemoves;
+        pendingRemoves = new ArrayList<S3File>();
+        updateMainFrame(new Runnable()
         {
             @Override
             public void run()
             {
-                getConcierge().getMainFrame().removeFileFromList(file);
+                getConcierge().getMainFrame().removeFilesFromList(getBucketName(), removes);
             }
         });
     }
@@ -14,29 +14,57 @@
 
 package com.kdgregory.app.s3util.s3ops;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.kdgcommons.lang.StringUtil;
 
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
 
 import com.kdgregory.app.s3util.filelist.S3File;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.StreamChecksums;
 
 
 /**
  *  Downloads one or more files from S3 into a specified directory,
  *  optionally flattening the directory structure.
+ *  <p>
+ *  Each file is verified as it's written (see {@link AbstractS3Op#downloadFile}),
+ *  and a file that doesn't match its ETag or checksum is downloaded again. The
+ *  hashes of the downloaded files are saved in the hash cache, so that a later
+ *  upload or sync doesn't have to read them.
+ *  <p>
+ *  Pack members are retrieved with ranged GETs of their pack: members of the
+ *  same pack that are close together are retrieved by a single request. If
+ *  given a pack index (as happens with a recursive download from the command
+ *  line), its members are downloaded; pack objects themselves are skipped.
  */
 public class S3DownloadOp
 extends AbstractS3Op<Object>
 {
-    private List<S3File> files;
+    // members separated by less than this are retrieved by the same request
+    private final static long MAX_RANGE_GAP = 256 * 1024;
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private Collection<S3File> files;
     private File baseDir;
     private boolean flatten;
 
-    public S3DownloadOp(Concierge concierge, List<S3File> files,
+    public S3DownloadOp(Concierge concierge, Collection<S3File> files,
                         File dest, boolean flatten)
     {
         super(concierge, "Downloading file(s)");
@@ -54,11 +82,32 @@ extends AbstractS3Op<Object>
     throws Exception
     {
         logger.debug("downloading {} files to {}; flatten: {}", files.size(), baseDir, flatten);
+
+        Map<String,List<S3File>> packMembers = new LinkedHashMap<>();
         for (S3File file : files)
         {
-            updateProgressMonitor(file.getS3Path());
-            download(file);
+            if (PackIndex.isIndexKey(file.getKey()))
+            {
+                for (S3File member : loadPackMembers(file.getKey()))
+                    packMembers.computeIfAbsent(member.getPackKey(), k -> new ArrayList<>()).add(member);
+            }
+            else if (file.isPackMember())
+            {
+                packMembers.computeIfAbsent(file.getPackKey(), k -> new ArrayList<>()).add(file);
+            }
+            else if (!PackIndex.isPackObject(file.getKey()))
+            {
+                updateProgressMonitor("download: " + file.getKey());
+                download(file);
+            }
+        }
+
+        for (Map.Entry<String,List<S3File>> entry : packMembers.entrySet())
+        {
+            downloadMembers(entry.getKey(), entry.getValue());
         }
+        getConcierge().getHashCache().save();
+
         logger.debug("download complete");
         return null;
     }
@@ -76,6 +125,80 @@ extends AbstractS3Op<Object>
     {
         logger.debug("downloading {}", file.getKey());
 
+        File localFile = localFileFor(file);
+        Long expectedSize = file.getContentLength();
+        StreamChecksums checksums = downloadFile(file.getKey(), (expectedSize != null) ? expectedSize : -1, localFile);
+        getConcierge().getHashCache().record(localFile, localFile.length(), localFile.lastModified(), checksums);
+    }
+
+
+    /**
+     *  Downloads members of a single pack, grouping them into runs that can be
+     *  retrieved by one ranged GET.
+     */
+    private void downloadMembers(String packKey, List<S3File> members)
+    throws Exception
+    {
+        members.sort((a, b) -> Long.compare(a.getPackOffset(), b.getPackOffset()));
+
+        List<S3File> run = new ArrayList<>();
+        long runEnd = 0;
+        for (S3File member : members)
+        {
+            if (!run.isEmpty() && (member.getPackOffset() - runEnd > MAX_RANGE_GAP))
+            {
+                downloadRun(packKey, run);
+                run = new ArrayList<>();
+            }
+            run.add(member);
+            runEnd = Math.max(runEnd, member.getPackOffset() + member.getContentLength());
+        }
+        if (!run.isEmpty())
+            downloadRun(packKey, run);
+    }
+
+
+    private void downloadRun(final String packKey, final List<S3File> run)
+    throws Exception
+    {
+        final long start = run.get(0).getPackOffset();
+        long end = start;
+        for (S3File member : run)
+            end = Math.max(end, member.getPackOffset() + member.getContentLength());
+
+        logger.debug("downloading {} members of {}, range {}-{}", run.size(), packKey, start, end - 1);
+        updateProgressMonitor("download: " + run.get(0).getKey()
+                              + ((run.size() > 1) ? " (+" + (run.size() - 1) + " more)" : ""));
+
+        final GetObjectRequest request = new GetObjectRequest(getBucketName(), packKey).withRange(start, end - 1);
+        governed(OperationType.GET, packKey, () ->
+        {
+            try (S3Object obj = getClient().getObject(request);
+                 InputStream in = obj.getObjectContent())
+            {
+                byte[] buf = new byte[BUFFER_SIZE];
+                long position = start;
+                for (S3File member : run)
+                {
+                    transfer(in, null, member.getPackOffset() - position, buf);
+                    try (OutputStream out = new FileOutputStream(localFileFor(member)))
+                    {
+                        transfer(in, out, member.getContentLength(), buf);
+                    }
+                    position = member.getPackOffset() + member.getContentLength();
+                }
+            }
+            return null;
+        });
+    }
+
+
+    /**
+     *  Returns the local file for an S3 file, creating its parent directories
+     *  if needed.
+     */
+    private File localFileFor(S3File file)
+    {
         File fileDir = baseDir;
         String path = file.getS3Path();
         if (!flatten && !StringUtil.isEmpty(path))
@@ -84,9 +207,25 @@ extends AbstractS3Op<Object>
             if (!fileDir.isDirectory() && !fileDir.mkdirs())
                 throw new RuntimeException("unable to create directories: " + fileDir);
         }
+        return new File(fileDir, file.getFile().getName());
+    }
 
-        GetObjectRequest request = new GetObjectRequest(getBucketName(), file.getKey());
-        File localFile = new File(fileDir, file.getFile().getName());
-        getClient().getObject(request, localFile);
+
+    /**
+     *  Copies the specified number of bytes from the input stream to the output
+     *  stream, or discards them if the output stream is null.
+     */
+    private static void transfer(InputStream in, OutputStream out, long count, byte[] buf)
+    throws IOException
+    {
+        while (count > 0)
+        {
+            int read = in.read(buf, 0, (int)Math.min(buf.length, count));
+            if (read < 0)
+                throw new EOFException("pack content ended unexpectedly");
+            if (out != null)
+                out.write(buf, 0, read);
+            count -= read;
+        }
     }
 }
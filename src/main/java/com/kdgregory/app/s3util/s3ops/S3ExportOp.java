@@ -0,0 +1,184 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JOptionPane;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.report.ListingExporter;
+import com.kdgregory.app.s3util.transfer.InventoryReader;
+import com.kdgregory.app.s3util.transfer.PagedLister;
+
+
+/**
+ *  Exports a bucket's listing (optionally restricted to a prefix) as CSV or
+ *  JSON Lines, writing each page as it arrives (see {@link ListingExporter}).
+ *  Like {@link S3ReportOp}, this reports objects as they're stored, and may
+ *  read a local inventory rather than listing the bucket; in that case the
+ *  output is not in key order.
+ */
+public class S3ExportOp
+extends AbstractS3Op<Long>
+{
+    private String prefix;
+    private ListingExporter.Format format;
+    private File outputFile;
+    private OutputStream outputStream;
+    private File inventoryManifest;
+
+
+    /**
+     *  Creates an operation that writes to a file, which is replaced if it
+     *  exists.
+     */
+    public S3ExportOp(Concierge concierge, String prefix, ListingExporter.Format format, File outputFile)
+    {
+        super(concierge, "Exporting listing");
+        this.prefix = (prefix == null) ? "" : prefix;
+        this.format = format;
+        this.outputFile = outputFile;
+    }
+
+
+    /**
+     *  Creates an operation that writes to a stream, which is flushed but not
+     *  closed.
+     */
+    public S3ExportOp(Concierge concierge, String prefix, ListingExporter.Format format, OutputStream outputStream)
+    {
+        super(concierge, "Exporting listing");
+        this.prefix = (prefix == null) ? "" : prefix;
+        this.format = format;
+        this.outputStream = outputStream;
+    }
+
+
+    /**
+     *  Exports the contents of an inventory rather than a listing. The prefix
+     *  is still applied.
+     *
+     *  @param  manifest    The inventory's <code>manifest.json</code>.
+     */
+    public S3ExportOp setInventory(File manifest)
+    {
+        inventoryManifest = manifest;
+        return this;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Long performOperation()
+    throws Exception
+    {
+        logger.debug("exporting {}, prefix {}, as {}", getBucketName(), prefix, format);
+
+        Writer writer = (outputFile != null)
+                      ? Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)
+                      : new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        try
+        {
+            final ListingExporter exporter = new ListingExporter(writer, format);
+            try
+            {
+                PagedLister.PageHandler handler = (objects, prefixes) ->
+                {
+                    exporter.handlePage(filter(objects), prefixes);
+                    updateProgressMonitor("exported " + exporter.getCount() + " objects");
+                };
+
+                if (inventoryManifest != null)
+                {
+                    new InventoryReader(inventoryManifest)
+                        .readAll(getConcierge().getTransferPool(), getConcierge().getConfig().getTransferThreads(), handler);
+                }
+                else
+                {
+                    new PagedLister(getClient(), getConcierge().getGovernor(), getBucketName())
+                        .withPrefix(prefix)
+                        .listAll(handler);
+                }
+            }
+            catch (Exception ex)
+            {
+                // stop the writer, but don't let its failure hide ours
+                try
+                {
+                    exporter.close();
+                }
+                catch (Exception ex2)
+                {
+                    ex.addSuppressed(ex2);
+                }
+                throw ex;
+            }
+            exporter.close();
+
+            logger.debug("finished export: {} objects", exporter.getCount());
+            return exporter.getCount();
+        }
+        finally
+        {
+            if (outputFile != null)
+                writer.close();
+            else
+                writer.flush();
+        }
+    }
+
+
+    @Override
+    protected void onSuccess(Long result)
+    {
+        JOptionPane.showMessageDialog(
+                getConcierge().getDialogOwner(),
+                String.format("Exported %,d objects to %s", result, outputFile),
+                "Export Listing: " + getBucketName(),
+                JOptionPane.INFORMATION_MESSAGE);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Listings are already restricted to the prefix, but inventories aren't.
+     */
+    private List<S3ObjectSummary> filter(List<S3ObjectSummary> objects)
+    {
+        if (prefix.isEmpty() || (inventoryManifest == null))
+            return objects;
+
+        List<S3ObjectSummary> result = new ArrayList<S3ObjectSummary>(objects.size());
+        for (S3ObjectSummary obj : objects)
+        {
+            if (obj.getKey().startsWith(prefix))
+                result.add(obj);
+        }
+        return result;
+    }
+}
@@ -17,13 +17,23 @@ package com.kdgregory.app.s3util.s3ops;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 
 import com.kdgregory.app.s3util.dialogs.BucketDialogController;
+import com.kdgregory.app.s3util.main.BucketCache;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
 
 
 /**
- *  Called when the application starts, to verify that the configured bucket
- *  exists and either (1) show the bucket selection dialog (if it doesn't),
- *  or (2) refresh the file list.
+ *  Called when a bucket is opened, to verify that it exists and either (1)
+ *  show the bucket selection dialog (if it doesn't), or (2) refresh the file
+ *  list.
+ *  <p>
+ *  The bucket's region is cached (see {@link BucketCache}). If it's in the
+ *  cache we assume that the bucket exists, and go straight to the refresh;
+ *  a stale entry is re-checked in the background. If it turns out that the
+ *  bucket doesn't exist, the refresh will fail and show the selection dialog.
+ *  <p>
+ *  Like {@link S3RefreshOp}, this runs concurrently with loads for other
+ *  buckets, and only marks its bucket's tab as busy.
  */
 public class S3InitialLoadOp
 extends AbstractS3Op<Object>
@@ -41,39 +51,93 @@ extends AbstractS3Op<Object>
     protected Object performOperation()
     throws Exception
     {
-        String bucketName = getConcierge().getConfig().getAmazonBucketName();
+        final String bucketName = getBucketName();
+        final BucketCache cache = getConcierge().getBucketCache();
+
+        String cachedRegion = cache.getRegion(bucketName);
+        if (cachedRegion != null)
+        {
+            logger.debug("bucket {} is cached, region {}", bucketName, cachedRegion);
+            if (cache.isRegionStale(bucketName))
+                getConcierge().getTransferPool().execute(() -> refreshRegion(bucketName, cache));
+            return null;
+        }
 
         logger.debug("verifying that bucket {} exists", bucketName);
 
-        // this will throw if the bucket doesn't exist
-        getClient().getBucketLocation(bucketName);
+        // this will throw if the bucket doesn't exist, and caches the region if it does
+        getConcierge().getBucketRegion(bucketName);
 
         return null;
     }
 
 
+    @Override
+    protected boolean isConcurrent()
+    {
+        return true;
+    }
+
+
+    @Override
+    protected void setBusyState(boolean isBusy)
+    {
+        setLoadingState(isBusy);
+    }
+
+
     @Override
     protected void onSuccess(Object result)
     {
-        new S3RefreshOp(getConcierge()).start();
+        new S3RefreshOp(getConcierge()).setBucketName(getBucketName()).start();
     }
 
 
     @Override
     protected void onFailure(Throwable ex)
     {
-        if (ex instanceof AmazonS3Exception)
+        if (isNoSuchBucket(ex))
         {
-            if ("NoSuchBucket".equals(((AmazonS3Exception)ex).getErrorCode()))
-            {
-                new BucketDialogController(getConcierge()).show();
-                return;
-            }
+            getConcierge().getBucketCache().invalidate(getBucketName());
+            getConcierge().getMainFrame().closeBucket(getBucketName());
+            new BucketDialogController(getConcierge()).show();
+            return;
         }
 
         super.onFailure(ex);
     }
 
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Re-reads the bucket's region and updates the cache; runs in the background,
+     *  so failures are just logged.
+     */
+    private void refreshRegion(final String bucketName, BucketCache cache)
+    {
+        try
+        {
+            cache.setRegion(bucketName, governed(OperationType.OTHER, "", () ->
+                                                getConcierge().getS3Client().getBucketLocation(bucketName)));
+            logger.debug("refreshed region for bucket {}", bucketName);
+        }
+        catch (Exception ex)
+        {
+            if (isNoSuchBucket(ex))
+                cache.invalidate(bucketName);
+            logger.debug("unable to refresh region for bucket {}: {}", bucketName, ex.getMessage());
+        }
+    }
 
 
+    /**
+     *  Determines whether an exception indicates that the bucket doesn't exist.
+     */
+    public static boolean isNoSuchBucket(Throwable ex)
+    {
+        return (ex instanceof AmazonS3Exception)
+            && "NoSuchBucket".equals(((AmazonS3Exception)ex).getErrorCode());
+    }
 }
@@ -0,0 +1,66 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.transfer.PagedLister;
+
+
+/**
+ *  Lists the contents of a bucket (optionally restricted to a prefix),
+ *  passing each page of results to a callback as it arrives. Unlike
+ *  {@link S3RefreshOp}, this does not accumulate the listing, so can be
+ *  used for buckets of any size.
+ */
+public class S3ListOp
+extends AbstractS3Op<Long>
+{
+    private String prefix;
+    private String delimiter;
+    private PagedLister.PageHandler callback;
+
+
+    /**
+     *  @param  concierge   The usual.
+     *  @param  prefix      If not null, only keys starting with this prefix are listed.
+     *  @param  delimiter   If not null, keys containing this delimiter after the
+     *                      prefix are rolled up into common prefixes.
+     *  @param  callback    Receives each page of the listing.
+     */
+    public S3ListOp(Concierge concierge, String prefix, String delimiter, PagedLister.PageHandler callback)
+    {
+        super(concierge, "Listing files");
+        this.prefix = prefix;
+        this.delimiter = delimiter;
+        this.callback = callback;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Long performOperation()
+    throws Exception
+    {
+        logger.debug("listing {}, prefix {}", getBucketName(), prefix);
+        long count = new PagedLister(getClient(), getConcierge().getGovernor(), getBucketName())
+                     .withPrefix(prefix)
+                     .withDelimiter(delimiter)
+                     .listAll(callback);
+        logger.debug("finished listing: {} objects", count);
+        return count;
+    }
+}
@@ -14,29 +14,66 @@
 
 package com.kdgregory.app.s3util.s3ops;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import com.amazonaws.services.s3.model.ListObjectsRequest;
-import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 
+import com.kdgregory.app.s3util.dialogs.BucketDialogController;
 import com.kdgregory.app.s3util.filelist.FileListTableModel;
+import com.kdgregory.app.s3util.filelist.PrefixAggregator;
 import com.kdgregory.app.s3util.filelist.S3File;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.transfer.InventoryReader;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.PagedLister;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
 
 
 /**
- *  Retrieves the list of files from S3.
+ *  Retrieves the list of files from S3. Pack objects are replaced by their
+ *  members, with the indexes retrieved in parallel once the listing is done.
+ *  <p>
+ *  Alternatively, the list may be populated from a local copy of the bucket's
+ *  S3 Inventory (see {@link InventoryReader}), which avoids listing the bucket.
+ *  The inventory's data files are parsed in parallel; pack indexes are still
+ *  retrieved from S3.
+ *  <p>
+ *  Either way, each page is sorted as it arrives (on the thread that read it),
+ *  and appended to a single list. Once everything has been read, that list is
+ *  sorted again, which merges the pages, and becomes the table model; so a
+ *  large bucket is only held in memory once. Per-prefix totals (see {@link
+ *  PrefixAggregator}) are computed from the final list.
+ *  <p>
+ *  Refreshes for different buckets run concurrently. Rather than blocking the
+ *  main frame, a refresh marks its bucket's tab as loading; the result goes
+ *  to that tab, whether or not it's the current tab.
  */
 public class S3RefreshOp
 extends AbstractS3Op<FileListTableModel>
 {
+    private File inventoryManifest;
+
+
     public S3RefreshOp(Concierge concierge)
     {
         super(concierge, "Refreshing list of files");
     }
 
+
+    /**
+     *  Populates the list from an inventory report rather than a listing.
+     *
+     *  @param  manifest    The report's <code>manifest.json</code>.
+     */
+    public S3RefreshOp setInventory(File manifest)
+    {
+        inventoryManifest = manifest;
+        return this;
+    }
+
 //----------------------------------------------------------------------------
 //  Operation
 //----------------------------------------------------------------------------
@@ -47,32 +84,138 @@ extends AbstractS3Op<FileListTableModel>
     {
         logger.debug("starting refresh");
 
-        SortedSet<S3File> result = new TreeSet<>();
-        ListObjectsRequest request = new ListObjectsRequest().withBucketName(getBucketName());
-        ObjectListing response = null;
-        do
+        // the handler may be called concurrently; it does its work on the
+        // calling thread, and only holds the lock to append the result
+        final ArrayList<S3File> result = new ArrayList<>();
+        final List<String> indexKeys = new ArrayList<>();
+        PagedLister.PageHandler handler = (objects, prefixes) ->
         {
-            response = getClient().listObjects(request);
-            for (S3ObjectSummary info : response.getObjectSummaries())
+            List<S3File> page = new ArrayList<>(objects.size());
+            List<String> pageIndexKeys = new ArrayList<>();
+            for (S3ObjectSummary info : objects)
             {
                 // the Console creates zero-length objects as "folders"
-                if (info.getSize() > 0)
+                if (PackIndex.isIndexKey(info.getKey()))
+                    pageIndexKeys.add(info.getKey());
+                else if ((info.getSize() > 0) && !PackIndex.isPackObject(info.getKey()))
+                    page.add(new S3File(info.getKey(), info.getSize(), info.getLastModified(), info.getETag()));
+            }
+            Collections.sort(page);
+            synchronized (result)
+            {
+                result.addAll(page);
+                indexKeys.addAll(pageIndexKeys);
+            }
+        };
+
+        if (inventoryManifest != null)
+            readInventory(handler);
+        else
+            new PagedLister(getClient(), getConcierge().getGovernor(), getBucketName()).listAll(handler);
+
+        if (!indexKeys.isEmpty())
+        {
+            updateProgressMonitor("reading " + indexKeys.size() + " pack indexes");
+            WorkQueue workQueue = new WorkQueue(getConcierge().getTransferPool(), indexKeys.size());
+            for (final String indexKey : indexKeys)
+            {
+                workQueue.submit(() ->
                 {
-                    result.add(new S3File(info.getKey(), info.getSize(), info.getLastModified()));
-                }
+                    List<S3File> members = loadPackMembers(indexKey);
+                    Collections.sort(members);
+                    synchronized (result)
+                    {
+                        result.addAll(members);
+                    }
+                });
             }
-            request.setMarker(response.getNextMarker());
+            workQueue.await();
         }
-        while (response.isTruncated());
 
+        sortAndRemoveDuplicates(result);
         logger.debug("finished refresh: {} files", result.size());
-        return new FileListTableModel(result);
+        return new FileListTableModel(result, new PrefixAggregator(result));
+    }
+
+
+    @Override
+    protected boolean isConcurrent()
+    {
+        return true;
+    }
+
+
+    @Override
+    protected void setBusyState(boolean isBusy)
+    {
+        setLoadingState(isBusy);
     }
 
 
     @Override
     protected void onSuccess(FileListTableModel result)
     {
-        getConcierge().getMainFrame().resetList(result);
+        getConcierge().getMainFrame().resetList(getBucketName(), result);
+    }
+
+
+    /**
+     *  The initial load doesn't verify cached buckets, so a bucket that's been
+     *  deleted is discovered here; we handle it the same way.
+     */
+    @Override
+    protected void onFailure(Throwable ex)
+    {
+        if (S3InitialLoadOp.isNoSuchBucket(ex))
+        {
+            getConcierge().getBucketCache().invalidate(getBucketName());
+            getConcierge().getMainFrame().closeBucket(getBucketName());
+            new BucketDialogController(getConcierge()).show();
+            return;
+        }
+
+        super.onFailure(ex);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Sorts a list that was built from sorted pages, and removes duplicates,
+     *  keeping the first (so a listed object wins over a pack member with the
+     *  same key). The pages are runs that the sort merges, so this is close to
+     *  linear. Exposed for testing.
+     */
+    static void sortAndRemoveDuplicates(ArrayList<S3File> files)
+    {
+        Collections.sort(files);
+        int count = 0;
+        for (int ii = 0 ; ii < files.size() ; ii++)
+        {
+            S3File file = files.get(ii);
+            if ((count == 0) || (file.compareTo(files.get(count - 1)) != 0))
+                files.set(count++, file);
+        }
+        files.subList(count, files.size()).clear();
+    }
+
+
+    /**
+     *  Reads the inventory, passing its pages to the handler. Data files are
+     *  parsed concurrently, and the handler is called on the threads that
+     *  parse them.
+     */
+    private void readInventory(final PagedLister.PageHandler handler)
+    throws Exception
+    {
+        InventoryReader reader = new InventoryReader(inventoryManifest);
+        if (!reader.getSourceBucket().equals(getBucketName()))
+            throw new IllegalArgumentException("inventory is for bucket " + reader.getSourceBucket()
+                                               + ", not " + getBucketName());
+
+        logger.debug("reading {} inventory files from {}", reader.getDataFiles().size(), inventoryManifest);
+        updateProgressMonitor("reading inventory: " + inventoryManifest);
+        reader.readAll(getConcierge().getTransferPool(), getConcierge().getConfig().getTransferThreads(), handler);
     }
 }
@@ -0,0 +1,211 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JOptionPane;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.report.CapacityReport;
+import com.kdgregory.app.s3util.transfer.InventoryReader;
+import com.kdgregory.app.s3util.transfer.PagedLister;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
+
+
+/**
+ *  Produces a {@link CapacityReport} for a bucket (optionally restricted to a
+ *  prefix), optionally writing it to a CSV file. Unlike {@link S3RefreshOp},
+ *  this doesn't retain the listing: each page is added to the report and then
+ *  discarded, so it can be used on buckets of any size.
+ *  <p>
+ *  The listing is partitioned by the first level of "directories" under the
+ *  prefix. These are listed in parallel on the transfer pool, each into its
+ *  own report, and the partial reports are merged when all are done. Objects
+ *  that aren't in any directory are added to the report by this thread, as
+ *  they're discovered. A bucket without directories is listed sequentially.
+ *  <p>
+ *  The report covers objects as they're stored: a pack is a single object,
+ *  and the Console's zero-length "folder" objects are included.
+ *  <p>
+ *  The report may also be produced from a local copy of the bucket's S3
+ *  Inventory (see {@link InventoryReader}), in which case each of the
+ *  inventory's data files is a partition.
+ */
+public class S3ReportOp
+extends AbstractS3Op<CapacityReport>
+{
+    public final static int DEFAULT_TOP_K = 100;
+
+    private String prefix;
+    private int topK;
+    private File outputFile;
+    private File inventoryManifest;
+
+    private AtomicLong objectsListed = new AtomicLong();
+
+
+    /**
+     *  @param  concierge   The usual.
+     *  @param  prefix      If not null, only keys starting with this prefix are
+     *                      included in the report.
+     *  @param  topK        The number of largest and newest objects to report.
+     */
+    public S3ReportOp(Concierge concierge, String prefix, int topK)
+    {
+        super(concierge, "Generating bucket report");
+        this.prefix = (prefix == null) ? "" : prefix;
+        this.topK = topK;
+    }
+
+
+    /**
+     *  Sets a file that will receive the report as CSV, once it's complete.
+     */
+    public S3ReportOp setOutputFile(File value)
+    {
+        outputFile = value;
+        return this;
+    }
+
+
+    /**
+     *  Produces the report from an inventory rather than a listing. The prefix
+     *  is still applied.
+     *
+     *  @param  manifest    The inventory's <code>manifest.json</code>.
+     */
+    public S3ReportOp setInventory(File manifest)
+    {
+        inventoryManifest = manifest;
+        return this;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected CapacityReport performOperation()
+    throws Exception
+    {
+        logger.debug("generating report for {}, prefix {}", getBucketName(), prefix);
+
+        final long asOf = System.currentTimeMillis();
+        final CapacityReport report = new CapacityReport(asOf, topK);
+        final Queue<CapacityReport> partials = new ConcurrentLinkedQueue<CapacityReport>();
+        final WorkQueue workQueue = new WorkQueue(getConcierge().getTransferPool(),
+                                                  getConcierge().getConfig().getTransferThreads());
+        try
+        {
+            if (inventoryManifest != null)
+            {
+                final InventoryReader reader = new InventoryReader(inventoryManifest);
+                for (final File dataFile : reader.getDataFiles())
+                {
+                    workQueue.submit(() ->
+                    {
+                        CapacityReport partial = new CapacityReport(asOf, topK);
+                        reader.read(dataFile, (objects, ignored) -> addPage(partial, objects));
+                        partials.add(partial);
+                    });
+                }
+            }
+            else
+            {
+                newLister(prefix).withDelimiter("/").listAll((objects, prefixes) ->
+                {
+                    addPage(report, objects);
+                    for (final String partition : prefixes)
+                    {
+                        workQueue.submit(() ->
+                        {
+                            CapacityReport partial = new CapacityReport(asOf, topK);
+                            newLister(partition).listAll((partObjects, ignored) -> addPage(partial, partObjects));
+                            partials.add(partial);
+                        });
+                    }
+                });
+            }
+            workQueue.await();
+        }
+        finally
+        {
+            workQueue.waitForCompletion();
+        }
+
+        for (CapacityReport partial : partials)
+            report.merge(partial);
+        logger.debug("finished report: {} objects in {} partitions", report.getCount(), partials.size());
+
+        if (outputFile != null)
+        {
+            updateProgressMonitor("writing " + outputFile);
+            try (Writer out = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8))
+            {
+                report.writeCsv(out);
+            }
+        }
+        return report;
+    }
+
+
+    @Override
+    protected void onSuccess(CapacityReport result)
+    {
+        JOptionPane.showMessageDialog(
+                getConcierge().getDialogOwner(),
+                String.format("%,d objects, %,d bytes", result.getCount(), result.getTotalBytes())
+                    + ((outputFile != null) ? "\nReport written to " + outputFile : ""),
+                "Bucket Report: " + getBucketName(),
+                JOptionPane.INFORMATION_MESSAGE);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private PagedLister newLister(String listPrefix)
+    {
+        return new PagedLister(getClient(), getConcierge().getGovernor(), getBucketName())
+               .withPrefix(listPrefix);
+    }
+
+
+    /**
+     *  Adds a page of objects to a report. Called concurrently, but always with
+     *  different reports. Listings are already restricted to the prefix, but
+     *  inventories aren't.
+     */
+    private void addPage(CapacityReport report, Iterable<S3ObjectSummary> objects)
+    {
+        long listed = 0;
+        for (S3ObjectSummary obj : objects)
+        {
+            if (!obj.getKey().startsWith(prefix))
+                continue;
+            report.add(obj.getKey(), obj.getSize(), obj.getLastModified().getTime());
+            listed++;
+        }
+        updateProgressMonitor("listed " + objectsListed.addAndGet(listed) + " objects");
+    }
+}
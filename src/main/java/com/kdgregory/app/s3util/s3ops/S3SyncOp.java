@@ -0,0 +1,332 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.LocalTreeWalker;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.PagedLister;
+import com.kdgregory.app.s3util.transfer.SyncEntry;
+import com.kdgregory.app.s3util.transfer.StreamChecksums;
+import com.kdgregory.app.s3util.transfer.SyncPlanner;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
+
+
+/**
+ *  Makes a bucket prefix match a local directory, or vice versa, transferring
+ *  only the files that differ. The local tree and the prefix listing are
+ *  merge-joined by key (see {@link SyncPlanner}), so memory use does not
+ *  depend on the number of files.
+ *  <p>
+ *  Files are considered different if their sizes differ, or if the source
+ *  is newer and its hash doesn't match the destination's ETag. Local hashes
+ *  come from the Concierge's {@link com.kdgregory.app.s3util.transfer.HashCache},
+ *  so are only computed for new or changed files. Downloaded files are given the object's
+ *  last-modified time, so that a subsequent sync sees them as unchanged. Transfers
+ *  verify each file as they read or write it, and record its hashes in the cache.
+ *  <p>
+ *  The join runs on the operation's thread, while the comparisons and
+ *  transfers run on the Concierge's transfer pool. The first failure stops
+ *  the sync (transfers already in progress are allowed to finish).
+ *  <p>
+ *  In a dry run, the actions that would be taken are reported to the progress
+ *  monitor (or stream), but nothing is changed.
+ */
+public class S3SyncOp
+extends AbstractS3Op<S3SyncOp.Summary>
+{
+    /**
+     *  Controls which side is the source.
+     */
+    public enum Direction { UPLOAD, DOWNLOAD }
+
+
+    /**
+     *  The result of a sync.
+     */
+    public static class Summary
+    {
+        private AtomicLong transferred = new AtomicLong();
+        private AtomicLong transferredBytes = new AtomicLong();
+        private AtomicLong deleted = new AtomicLong();
+        private AtomicLong unchanged = new AtomicLong();
+
+        public long getTransferred()        { return transferred.get(); }
+        public long getTransferredBytes()   { return transferredBytes.get(); }
+        public long getDeleted()            { return deleted.get(); }
+        public long getUnchanged()          { return unchanged.get(); }
+
+        @Override
+        public String toString()
+        {
+            return transferred + " files transferred (" + transferredBytes + " bytes), "
+                 + deleted + " deleted, "
+                 + unchanged + " unchanged";
+        }
+    }
+
+
+    // limits the number of tasks waiting in the pool, relative to its size
+    private final static int QUEUE_FACTOR = 4;
+
+    private File localDir;
+    private String prefix;
+    private Direction direction;
+    private boolean delete;
+    private boolean dryRun;
+
+    private Summary summary = new Summary();
+    private WorkQueue workQueue;
+
+
+    /**
+     *  @param  concierge   The usual.
+     *  @param  localDir    The local directory.
+     *  @param  prefix      The bucket prefix; a trailing slash is added if
+     *                      needed. Empty to sync the entire bucket.
+     *  @param  direction   Which way to sync.
+     *  @param  delete      If true, files that only exist in the destination
+     *                      are deleted.
+     *  @param  dryRun      If true, report what would be done but don't do it.
+     */
+    public S3SyncOp(Concierge concierge, File localDir, String prefix,
+                    Direction direction, boolean delete, boolean dryRun)
+    {
+        super(concierge, dryRun ? "Comparing files" : "Synchronizing files");
+        this.localDir = localDir;
+        this.prefix = (prefix.isEmpty() || prefix.endsWith("/")) ? prefix : prefix + "/";
+        this.direction = direction;
+        this.delete = delete;
+        this.dryRun = dryRun;
+
+        workQueue = new WorkQueue(concierge.getTransferPool(),
+                                  concierge.getConfig().getTransferThreads() * QUEUE_FACTOR);
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Summary performOperation()
+    throws Exception
+    {
+        logger.debug("sync {} {} {}/{}; delete: {}, dry run: {}",
+                     localDir, direction, getBucketName(), prefix, delete, dryRun);
+
+        if (!localDir.isDirectory())
+        {
+            if (direction == Direction.UPLOAD)
+                throw new IllegalArgumentException("not a directory: " + localDir);
+            if (!dryRun && !localDir.mkdirs())
+                throw new RuntimeException("unable to create directory: " + localDir);
+        }
+
+        final SyncPlanner planner = new SyncPlanner(
+                                        new LocalTreeWalker(localDir),
+                                        direction == Direction.UPLOAD,
+                                        new PlanHandler());
+        try
+        {
+            new PagedLister(getClient(), getConcierge().getGovernor(), getBucketName())
+                .withPrefix(prefix)
+                .listAll((objects, commonPrefixes) ->
+                {
+                    for (S3ObjectSummary obj : objects)
+                    {
+                        String relKey = obj.getKey().substring(prefix.length());
+                        // skip "folder" objects, as the GUI does, and packs; sync works
+                        // with individual objects, so it ignores pack members
+                        if (relKey.isEmpty() || relKey.endsWith("/") || PackIndex.isPackObject(obj.getKey()))
+                            continue;
+                        planner.remote(SyncEntry.forRemote(relKey, obj.getSize(), obj.getLastModified().getTime(), obj.getETag()));
+                    }
+                });
+            planner.finish();
+        }
+        finally
+        {
+            workQueue.waitForCompletion();
+            getConcierge().getHashCache().save();
+        }
+        workQueue.await();
+
+        logger.debug("sync complete: {}", summary);
+        return summary;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Receives the results of the join, and turns them into tasks.
+     */
+    private class PlanHandler
+    implements SyncPlanner.Handler
+    {
+        @Override
+        public void sourceOnly(final SyncEntry src) throws Exception
+        {
+            workQueue.submit(() -> transfer(src, "new"));
+        }
+
+        @Override
+        public void destOnly(final SyncEntry dst) throws Exception
+        {
+            if (delete)
+                workQueue.submit(() -> delete(dst));
+        }
+
+        @Override
+        public void both(final SyncEntry src, final SyncEntry dst) throws Exception
+        {
+            switch (SyncPlanner.compare(src, dst))
+            {
+                case SAME :
+                    summary.unchanged.incrementAndGet();
+                    break;
+                case DIFFERENT :
+                    workQueue.submit(() -> transfer(src, "changed"));
+                    break;
+                case CHECK_CONTENT :
+                    workQueue.submit(() ->
+                    {
+                        if (contentMatches(src, dst))
+                            unchanged(src, dst);
+                        else
+                            transfer(src, "changed");
+                    });
+                    break;
+            }
+        }
+    }
+
+
+    private void transfer(SyncEntry src, String reason)
+    throws Exception
+    {
+        final String key = prefix + src.getKey();
+        final File file = new File(localDir, src.getKey());
+        updateProgressMonitor((direction == Direction.UPLOAD ? "upload: " : "download: ")
+                              + src.getKey() + " (" + reason + ")");
+        if (!dryRun)
+        {
+            if (direction == Direction.UPLOAD)
+            {
+                uploadFile(key, file, false);
+                reportFileUploaded(new S3File(key, src.getSize(), new Date()));
+            }
+            else
+            {
+                File parent = file.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs())
+                    throw new RuntimeException("unable to create directories: " + parent);
+
+                StreamChecksums checksums = downloadFile(key, src.getSize(), file);
+                file.setLastModified(src.getLastModified());
+                getConcierge().getHashCache().record(file, file.length(), file.lastModified(), checksums);
+            }
+        }
+        summary.transferred.incrementAndGet();
+        summary.transferredBytes.addAndGet(src.getSize());
+    }
+
+
+    private void delete(SyncEntry dst)
+    throws Exception
+    {
+        final String key = prefix + dst.getKey();
+        updateProgressMonitor("delete: " + dst.getKey());
+        if (!dryRun)
+        {
+            if (direction == Direction.UPLOAD)
+            {
+                governed(OperationType.DELETE, key, () ->
+                {
+                    getClient().deleteObject(getBucketName(), key);
+                    return null;
+                });
+                reportFileDeleted(new S3File(key));
+            }
+            else if (!dst.getFile().delete())
+            {
+                throw new RuntimeException("unable to delete: " + dst.getFile());
+            }
+        }
+        summary.deleted.incrementAndGet();
+    }
+
+
+    /**
+     *  Called when content matches despite a newer source. For downloads we
+     *  update the local timestamp, so that we don't recompute the hash on the
+     *  next sync; for uploads there's nothing we can do without re-uploading.
+     */
+    private void unchanged(SyncEntry src, SyncEntry dst)
+    {
+        if ((direction == Direction.DOWNLOAD) && !dryRun)
+            dst.getFile().setLastModified(src.getLastModified());
+        summary.unchanged.incrementAndGet();
+    }
+
+
+    /**
+     *  Compares the local file's hashes (from the cache) to the object's ETag.
+     *  Multipart ETags can only be matched if the object was uploaded with the
+     *  cache's part size; otherwise we assume that the files are different.
+     */
+    private boolean contentMatches(SyncEntry src, SyncEntry dst)
+    throws Exception
+    {
+        SyncEntry local = (direction == Direction.UPLOAD) ? src : dst;
+        SyncEntry remote = (direction == Direction.UPLOAD) ? dst : src;
+        return getConcierge().getHashCache().get(local.getFile()).matchesETag(remote.getETag());
+    }
+
+
+    private void reportFileUploaded(final S3File file)
+    {
+        updateMainFrame(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getConcierge().getMainFrame().addFileToList(getBucketName(), file);
+            }
+        });
+    }
+
+
+    private void reportFileDeleted(final S3File file)
+    {
+        updateMainFrame(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getConcierge().getMainFrame().removeFileFromList(getBucketName(), file);
+            }
+        });
+    }
+}
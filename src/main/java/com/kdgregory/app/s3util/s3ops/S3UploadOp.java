@@ -16,38 +16,94 @@ package com.kdgregory.app.s3util.s3ops;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
-import javax.swing.SwingUtilities;
-
 import com.amazonaws.services.s3.model.CannedAccessControlList;
 
 import com.kdgregory.app.s3util.filelist.S3File;
 import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.transfer.GzipUploader;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.PackUploader;
+import com.kdgregory.app.s3util.transfer.WorkQueue;
+import com.kdgregory.app.s3util.util.MimeHelper;
 
 
 /**
  *  Uploads a file to S3. If given a directory, will recurse through
  *  the contents of that directory.
+ *  <p>
+ *  Object headers and ACL are determined by the Concierge's upload policy,
+ *  and sent with the upload request.
+ *  <p>
+ *  Files are hashed as they're uploaded, and verified against the ETag that S3
+ *  returns (see {@link AbstractS3Op#uploadFile}); there's no separate hashing
+ *  pass, so each file is read once. The hashes are saved in the hash cache.
+ *  <p>
+ *  Files are uploaded concurrently, on the Concierge's transfer pool. If
+ *  compression is enabled, files with a compressible content type (per
+ *  {@link MimeHelper#isCompressible}) are gzipped as they're uploaded, and
+ *  stored with <code>Content-Encoding: gzip</code>; since each file is
+ *  compressed by the worker that uploads it, compression is also parallel.
+ *  <p>
+ *  If packing is enabled, small files (see {@link PackUploader#isPackable})
+ *  are combined into pack objects under the destination, each with an index;
+ *  they appear in the file list as virtual files. Each pack is assembled and
+ *  uploaded by a single worker. Packed files aren't compressed, and the upload
+ *  policy doesn't apply to them, other than the public-read option.
  */
 public class S3UploadOp
 extends AbstractS3Op<Object>
 {
+    // tuning parameter
+    private final static int QUEUE_FACTOR = 4;
+
     private List<S3File> files;
+    private String destination;
     private boolean makePublic;
+    private boolean compress;
+    private boolean pack;
 
     public S3UploadOp(
             Concierge concierge,
             File[] files,
             String destination,
             boolean makePublic)
+    {
+        this(concierge, files, destination, makePublic, false);
+    }
+
+
+    public S3UploadOp(
+            Concierge concierge,
+            File[] files,
+            String destination,
+            boolean makePublic,
+            boolean compress)
+    {
+        this(concierge, files, destination, makePublic, compress, false);
+    }
+
+
+    public S3UploadOp(
+            Concierge concierge,
+            File[] files,
+            String destination,
+            boolean makePublic,
+            boolean compress,
+            boolean pack)
     {
         super(concierge, "Uploading file(s)");
 
         this.files = new ArrayList<S3File>(files.length);
         for (File file : files)
             this.files.add(new S3File(file, destination));
+        this.destination = destination;
         this.makePublic = makePublic;
+        this.compress = compress;
+        this.pack = pack;
     }
 
 //----------------------------------------------------------------------------
@@ -58,13 +114,69 @@ extends AbstractS3Op<Object>
     protected Object performOperation()
     throws Exception
     {
-        int count = 0;
-        logger.debug("starting upload; public read: {}", makePublic);
+        logger.debug("starting upload; public read: {}, compress: {}, pack: {}", makePublic, compress, pack);
+
+        List<S3File> toUpload = new ArrayList<S3File>();
         for (S3File file : files)
         {
-            count += uploadFileRecursive(file);
+            collectFilesRecursive(file, toUpload);
         }
-        logger.debug("upload complete; {} files uploaded", count);
+
+        List<PackUploader.Member> toPack = new ArrayList<PackUploader.Member>();
+        if (pack)
+        {
+            for (Iterator<S3File> itx = toUpload.iterator() ; itx.hasNext() ; )
+            {
+                S3File file = itx.next();
+                if (PackUploader.isPackable(file.getKey(), file.getFile()))
+                {
+                    toPack.add(new PackUploader.Member(file.getKey(), file.getFile()));
+                    itx.remove();
+                }
+            }
+        }
+
+        final GzipUploader gzipUploader = new GzipUploader(getClient(), getConcierge().getGovernor());
+        final PackUploader packUploader = new PackUploader(getClient(), getConcierge().getGovernor());
+        WorkQueue workQueue = new WorkQueue(
+                                getConcierge().getTransferPool(),
+                                getConcierge().getConfig().getTransferThreads() * QUEUE_FACTOR);
+        try
+        {
+            for (final S3File file : toUpload)
+            {
+                workQueue.submit(() -> upload(file, gzipUploader));
+            }
+
+            List<PackUploader.Member> batch = new ArrayList<PackUploader.Member>();
+            long batchSize = 0;
+            for (PackUploader.Member member : toPack)
+            {
+                long size = member.getFile().length();
+                if (!batch.isEmpty() && (batchSize + size > PackUploader.PACK_SIZE))
+                {
+                    final List<PackUploader.Member> members = batch;
+                    workQueue.submit(() -> uploadPack(members, packUploader));
+                    batch = new ArrayList<PackUploader.Member>();
+                    batchSize = 0;
+                }
+                batch.add(member);
+                batchSize += size;
+            }
+            if (!batch.isEmpty())
+            {
+                final List<PackUploader.Member> members = batch;
+                workQueue.submit(() -> uploadPack(members, packUploader));
+            }
+        }
+        finally
+        {
+            workQueue.waitForCompletion();
+            getConcierge().getHashCache().save();
+        }
+        workQueue.await();
+
+        logger.debug("upload complete; {} files uploaded, {} packed", toUpload.size(), toPack.size());
         return null;
     }
 
@@ -73,44 +185,91 @@ extends AbstractS3Op<Object>
 //  Internals
 //----------------------------------------------------------------------------
 
-    private int uploadFileRecursive(S3File fileToUpload)
-    throws Exception
+    private void collectFilesRecursive(S3File file, List<S3File> result)
     {
-        int count = 0;
-
-        File localFile = fileToUpload.getFile();
+        File localFile = file.getFile();
         if (localFile.isDirectory())
         {
-            String s3Path = fileToUpload.getS3Path() + "/" + localFile.getName();
+            String s3Path = file.getS3Path() + "/" + localFile.getName();
             for (File child : localFile.listFiles())
             {
-                count += uploadFileRecursive(new S3File(child, s3Path));
+                collectFilesRecursive(new S3File(child, s3Path), result);
             }
         }
         else
         {
-            logger.debug("uploading: {}", fileToUpload);
-            getClient().putObject(getBucketName(), fileToUpload.getKey(), localFile);
-            if (makePublic)
-            {
-                getClient().setObjectAcl(getBucketName(), fileToUpload.getKey(), CannedAccessControlList.PublicRead);
-            }
-            reportFileUploaded(fileToUpload);
-            count++;
+            result.add(file);
+        }
+    }
+
+
+    private boolean shouldCompress(File file)
+    {
+        return compress && MimeHelper.isCompressible(MimeHelper.lookup(file));
+    }
+
+
+    /**
+     *  Uploads a single file; runs on the transfer pool. The file is reported
+     *  with its size in S3, which is the compressed size if it was gzipped.
+     */
+    private void upload(S3File fileToUpload, GzipUploader gzipUploader)
+    throws Exception
+    {
+        final String key = fileToUpload.getKey();
+        final File localFile = fileToUpload.getFile();
+
+        logger.debug("uploading: {}", fileToUpload);
+        updateProgressMonitor("upload: " + key);
+        long size;
+        if (shouldCompress(localFile))
+        {
+            size = gzipUploader.upload(getBucketName(), key, localFile, uploadSettings(key, localFile, makePublic));
         }
+        else
+        {
+            uploadFile(key, localFile, makePublic);
+            size = localFile.length();
+        }
+        reportFileUploaded(new S3File(key, size, new Date()));
+    }
+
+
+    /**
+     *  Uploads a single pack; runs on the transfer pool.
+     */
+    private void uploadPack(List<PackUploader.Member> members, PackUploader packUploader)
+    throws Exception
+    {
+        updateProgressMonitor("upload: " + members.size() + " files, packed");
+        CannedAccessControlList acl = makePublic ? CannedAccessControlList.PublicRead : null;
+        PackIndex index = packUploader.upload(getBucketName(), cleanPrefix(destination), members, acl);
 
-        return count;
+        final List<S3File> uploaded = new ArrayList<S3File>(members.size());
+        for (PackIndex.Entry entry : index.getEntries())
+        {
+            uploaded.add(new S3File(entry.getKey(), entry.getLength(), new Date(),
+                                    index.getPackKey(), entry.getOffset()));
+        }
+        updateMainFrame(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getConcierge().getMainFrame().addFilesToList(getBucketName(), uploaded);
+            }
+        });
     }
 
 
     private void reportFileUploaded(final S3File file)
     {
-        SwingUtilities.invokeLater(new Runnable()
+        updateMainFrame(new Runnable()
         {
             @Override
             public void run()
             {
-                getConcierge().getMainFrame().addFileToList(file);
+                getConcierge().getMainFrame().addFileToList(getBucketName(), file);
             }
         });
     }
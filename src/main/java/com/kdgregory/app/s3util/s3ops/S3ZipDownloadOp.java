@@ -0,0 +1,240 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.swing.JOptionPane;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.transfer.PackIndex;
+import com.kdgregory.app.s3util.transfer.ReadAheadQueue;
+
+
+/**
+ *  Downloads one or more files from S3 into a single zip archive, rather than
+ *  as separate files. Entries are named by their full key, and written in the
+ *  order that the files are given.
+ *  <p>
+ *  Files are retrieved concurrently, ahead of the writer (see {@link ReadAheadQueue}),
+ *  with a limit on the bytes held in memory. Files that are too large to hold
+ *  in memory (or whose size isn't known) are streamed directly into the archive,
+ *  after everything ahead of them has been written; these requests can't be
+ *  retried once data has been written.
+ *  <p>
+ *  Pack members are retrieved with ranged GETs of their pack; pack indexes are
+ *  replaced by their members, and pack objects are skipped. If the operation
+ *  fails, the partial archive is deleted.
+ */
+public class S3ZipDownloadOp
+extends AbstractS3Op<Long>
+{
+    // tuning parameters
+    private final static long READ_AHEAD_BYTES = 64 * 1024 * 1024;
+    private final static long MAX_BUFFERED_FILE = 8 * 1024 * 1024;
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private Collection<S3File> files;
+    private File zipFile;
+
+
+    public S3ZipDownloadOp(Concierge concierge, Collection<S3File> files, File zipFile)
+    {
+        super(concierge, "Downloading file(s) to archive");
+        this.files = files;
+        this.zipFile = zipFile;
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    @Override
+    protected Long performOperation()
+    throws Exception
+    {
+        logger.debug("downloading {} files to {}", files.size(), zipFile);
+
+        long count = 0;
+        ReadAheadQueue<byte[]> queue = new ReadAheadQueue<byte[]>(getConcierge().getTransferPool(),
+                                                                  getConcierge().getConfig().getTransferThreads() * 2,
+                                                                  READ_AHEAD_BYTES);
+        Deque<S3File> pending = new ArrayDeque<S3File>();
+        boolean success = false;
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile), BUFFER_SIZE)))
+        {
+            for (S3File file : files)
+            {
+                if (PackIndex.isIndexKey(file.getKey()))
+                {
+                    for (S3File member : loadPackMembers(file.getKey()))
+                    {
+                        addFile(member, queue, pending, zip);
+                        count++;
+                    }
+                }
+                else if (!PackIndex.isPackObject(file.getKey()))
+                {
+                    addFile(file, queue, pending, zip);
+                    count++;
+                }
+            }
+
+            while (!queue.isEmpty())
+                writeEntry(zip, pending.poll(), queue.next());
+
+            zip.finish();
+            success = true;
+        }
+        finally
+        {
+            queue.cancel();
+            if (!success && !zipFile.delete())
+                logger.warn("unable to delete partial archive {}", zipFile);
+        }
+
+        logger.debug("download complete: {} files", count);
+        return count;
+    }
+
+
+    @Override
+    protected void onSuccess(Long result)
+    {
+        JOptionPane.showMessageDialog(
+                getConcierge().getDialogOwner(),
+                String.format("Downloaded %,d files to %s", result, zipFile),
+                "Download Complete",
+                JOptionPane.INFORMATION_MESSAGE);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds a single file to the archive: either by queueing it for retrieval,
+     *  after writing whatever entries are needed to make room, or by streaming
+     *  it directly if it's too large to buffer. Queued files are tracked in
+     *  <code>pending</code>, in the same order as the queue.
+     */
+    private void addFile(final S3File file, ReadAheadQueue<byte[]> queue, Deque<S3File> pending, ZipOutputStream zip)
+    throws Exception
+    {
+        Long size = file.getContentLength();
+        if ((size == null) || (size.longValue() > MAX_BUFFERED_FILE))
+        {
+            while (!queue.isEmpty())
+                writeEntry(zip, pending.poll(), queue.next());
+            streamEntry(zip, file);
+            return;
+        }
+
+        while (!queue.hasRoom(size.longValue()))
+            writeEntry(zip, pending.poll(), queue.next());
+
+        pending.add(file);
+        queue.add(size.longValue(), () -> fetch(file));
+    }
+
+
+    /**
+     *  Retrieves a file's content into memory; runs on the transfer pool.
+     */
+    private byte[] fetch(S3File file)
+    throws Exception
+    {
+        // an empty pack member can't be expressed as a range
+        if (file.isPackMember() && (file.getContentLength().longValue() == 0))
+            return new byte[0];
+
+        final GetObjectRequest request = requestFor(file);
+        return governed(OperationType.GET, request.getKey(), () ->
+        {
+            try (S3Object obj = getClient().getObject(request))
+            {
+                return IOUtils.toByteArray(obj.getObjectContent());
+            }
+        });
+    }
+
+
+    private void writeEntry(ZipOutputStream zip, S3File file, byte[] content)
+    throws Exception
+    {
+        logger.debug("writing {} ({} bytes)", file.getKey(), content.length);
+        updateProgressMonitor("download: " + file.getKey());
+        zip.putNextEntry(entryFor(file));
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+
+    /**
+     *  Copies a file directly from S3 into the archive. Only the request itself
+     *  goes through the governor, as we can't retry once we've started writing.
+     */
+    private void streamEntry(ZipOutputStream zip, S3File file)
+    throws Exception
+    {
+        logger.debug("streaming {}", file.getKey());
+        updateProgressMonitor("download: " + file.getKey());
+
+        final GetObjectRequest request = requestFor(file);
+        try (S3Object obj = governed(OperationType.GET, request.getKey(), () -> getClient().getObject(request));
+             InputStream in = obj.getObjectContent())
+        {
+            zip.putNextEntry(entryFor(file));
+            byte[] buf = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buf)) > 0)
+                zip.write(buf, 0, read);
+            zip.closeEntry();
+        }
+    }
+
+
+    private GetObjectRequest requestFor(S3File file)
+    {
+        if (!file.isPackMember())
+            return new GetObjectRequest(getBucketName(), file.getKey());
+
+        long start = file.getPackOffset();
+        long end = start + file.getContentLength().longValue() - 1;
+        return new GetObjectRequest(getBucketName(), file.getPackKey()).withRange(start, end);
+    }
+
+
+    private static ZipEntry entryFor(S3File file)
+    {
+        ZipEntry entry = new ZipEntry(file.getKey());
+        if (file.getLastModified() != null)
+            entry.setTime(file.getLastModified().getTime());
+        return entry;
+    }
+}
@@ -0,0 +1,596 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+
+/**
+ *  Reads the regular files from a zip or tar archive, one at a time, without
+ *  extracting them. Tar archives may be gzipped (<code>.tar.gz</code> or
+ *  <code>.tgz</code>). Directories, links, and other special entries are
+ *  skipped.
+ *  <p>
+ *  The tar reader understands ustar headers (including the name prefix field),
+ *  GNU long names, pax <code>path</code>, <code>size</code>, and <code>mtime</code>
+ *  records, and base-256 sizes; that covers archives written by GNU tar, bsdtar,
+ *  and most libraries.
+ *  <p>
+ *  Instances are not thread-safe: each entry's content must be consumed (or
+ *  abandoned) before calling {@link #next} again.
+ */
+public abstract class ArchiveReader
+implements Closeable
+{
+    /**
+     *  A single file from the archive.
+     */
+    public static class Entry
+    {
+        private String name;
+        private long size;
+        private long lastModified;
+        private InputStream content;
+
+        public Entry(String name, long size, long lastModified, InputStream content)
+        {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+
+        /**
+         *  Returns the entry's path within the archive, without any leading
+         *  slash or "./".
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         *  Returns the entry's uncompressed size, -1 if unknown.
+         */
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         *  Returns the entry's modification time, in millis since epoch; 0 if
+         *  unknown.
+         */
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         *  Returns the entry's content. This stream is only valid until the
+         *  next call to {@link ArchiveReader#next}, and must not be closed.
+         */
+        public InputStream getContent()
+        {
+            return content;
+        }
+    }
+
+
+    /**
+     *  Opens an archive, choosing the format by its filename.
+     *
+     *  @throws IllegalArgumentException if the file isn't a supported archive.
+     */
+    public static ArchiveReader open(File file)
+    throws IOException
+    {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".zip") || name.endsWith(".jar"))
+            return new ZipReader(file);
+
+        if (name.endsWith(".tar"))
+            return new TarReader(new BufferedInputStream(new FileInputStream(file), 65536));
+
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz"))
+            return new TarReader(new GZIPInputStream(new FileInputStream(file), 65536));
+
+        throw new IllegalArgumentException("unsupported archive type: " + file.getName());
+    }
+
+
+    /**
+     *  Determines whether a file has one of the supported archive extensions.
+     */
+    public static boolean isArchive(File file)
+    {
+        String name = file.getName().toLowerCase();
+        return name.endsWith(".zip") || name.endsWith(".jar") || name.endsWith(".tar")
+            || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+
+    /**
+     *  Advances to the next regular file, returning null at the end of the
+     *  archive.
+     */
+    public abstract Entry next()
+    throws IOException;
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Removes leading slashes and "./" from an entry name, so that it can be
+     *  appended to a destination prefix.
+     */
+    static String cleanName(String name)
+    {
+        while (true)
+        {
+            if (name.startsWith("/"))
+                name = name.substring(1);
+            else if (name.startsWith("./"))
+                name = name.substring(2);
+            else
+                return name;
+        }
+    }
+
+
+    /**
+     *  Wraps the archive's stream for a single entry: reads are limited to
+     *  the entry, and close is ignored.
+     */
+    private static class EntryStream
+    extends FilterInputStream
+    {
+        private long remaining;
+
+        public EntryStream(InputStream in, long size)
+        {
+            super(in);
+            this.remaining = size;
+        }
+
+        public long getRemaining()
+        {
+            return remaining;
+        }
+
+        @Override
+        public int read()
+        throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException("archive truncated");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len)
+        throws IOException
+        {
+            if (remaining <= 0)
+                return -1;
+            int count = in.read(buf, off, (int)Math.min(len, remaining));
+            if (count < 0)
+                throw new EOFException("archive truncated");
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n)
+        throws IOException
+        {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        throws IOException
+        {
+            return (int)Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public void close()
+        {
+            // the archive owns the underlying stream
+        }
+    }
+
+
+    /**
+     *  Reads zip archives via the central directory, so sizes are always known
+     *  (unlike <code>ZipInputStream</code>, which can't report the size of an
+     *  entry that was written with a trailing data descriptor).
+     */
+    private static class ZipReader
+    extends ArchiveReader
+    {
+        private ZipFile zipFile;
+        private Enumeration<? extends ZipEntry> entries;
+        private InputStream current;
+
+        public ZipReader(File file)
+        throws IOException
+        {
+            zipFile = new ZipFile(file);
+            entries = zipFile.entries();
+        }
+
+        @Override
+        public Entry next()
+        throws IOException
+        {
+            closeCurrent();
+            while (entries.hasMoreElements())
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = cleanName(entry.getName());
+                if (entry.isDirectory() || name.isEmpty())
+                    continue;
+
+                current = zipFile.getInputStream(entry);
+                long size = entry.getSize();
+                InputStream content = (size >= 0) ? new EntryStream(current, size) : current;
+                return new Entry(name, size, Math.max(entry.getTime(), 0), content);
+            }
+            return null;
+        }
+
+        @Override
+        public void close()
+        throws IOException
+        {
+            closeCurrent();
+            zipFile.close();
+        }
+
+        private void closeCurrent()
+        throws IOException
+        {
+            if (current != null)
+                current.close();
+            current = null;
+        }
+    }
+
+
+    /**
+     *  Reads tar archives sequentially, from any stream.
+     */
+    static class TarReader
+    extends ArchiveReader
+    {
+        private final static int BLOCK_SIZE = 512;
+
+        private InputStream in;
+        private byte[] header = new byte[BLOCK_SIZE];
+        private EntryStream current;
+        private long currentPadding;
+
+        public TarReader(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public Entry next()
+        throws IOException
+        {
+            skipCurrent();
+
+            String longName = null;
+            String paxPath = null;
+            long paxSize = -1;
+            long paxTime = -1;
+            while (true)
+            {
+                if (!readHeader())
+                    return null;
+
+                char type = (char)header[156];
+                long size = parseNumber(header, 124, 12);
+                long mtime = parseNumber(header, 136, 12);
+                String name = headerName();
+
+                if ((type == 'L') || (type == 'x') || (type == 'g'))
+                {
+                    byte[] data = readData(size);
+                    if (type == 'L')
+                    {
+                        longName = parseString(data, 0, data.length);
+                    }
+                    else if (type == 'x')
+                    {
+                        String[] pax = parsePax(data);
+                        if (pax[0] != null)
+                            paxPath = pax[0];
+                        if (pax[1] != null)
+                            paxSize = Long.parseLong(pax[1]);
+                        if (pax[2] != null)
+                            paxTime = (long)(Double.parseDouble(pax[2]) * 1000);
+                    }
+                    continue;
+                }
+
+                if (paxPath != null)
+                    name = paxPath;
+                else if (longName != null)
+                    name = longName;
+                if (paxSize >= 0)
+                    size = paxSize;
+                long lastModified = (paxTime >= 0) ? paxTime : mtime * 1000;
+
+                // only regular files have content that we care about, but any
+                // entry type may have data (eg, a GNU sparse file), which we skip
+                startEntry(size);
+                name = cleanName(name);
+                if (((type == '0') || (type == 0) || (type == '7')) && !name.isEmpty() && !name.endsWith("/"))
+                    return new Entry(name, size, lastModified, current);
+
+                longName = null;
+                paxPath = null;
+                paxSize = -1;
+                paxTime = -1;
+                skipCurrent();
+            }
+        }
+
+        @Override
+        public void close()
+        throws IOException
+        {
+            in.close();
+        }
+
+        /**
+         *  Reads the next header block, returning false at the end-of-archive
+         *  marker (or a clean end of stream).
+         */
+        private boolean readHeader()
+        throws IOException
+        {
+            int count = readFully(in, header, 0, BLOCK_SIZE);
+            if (count == 0)
+                return false;
+            if (count < BLOCK_SIZE)
+                throw new EOFException("archive truncated");
+
+            boolean allZero = true;
+            for (byte b : header)
+            {
+                if (b != 0)
+                {
+                    allZero = false;
+                    break;
+                }
+            }
+            if (allZero)
+                return false;
+
+            long expected = parseNumber(header, 148, 8);
+            long actual = 0;
+            for (int ii = 0 ; ii < BLOCK_SIZE ; ii++)
+            {
+                actual += ((ii >= 148) && (ii < 156)) ? ' ' : (header[ii] & 0xFF);
+            }
+            if (expected != actual)
+                throw new IOException("not a tar archive (invalid header checksum)");
+            return true;
+        }
+
+        private String headerName()
+        {
+            String name = parseString(header, 0, 100);
+            boolean isUstar = (header[257] == 'u') && (header[258] == 's') && (header[259] == 't')
+                           && (header[260] == 'a') && (header[261] == 'r');
+            if (isUstar && (header[263] == '0'))
+            {
+                // POSIX ustar; GNU tar uses this space for other things
+                String prefix = parseString(header, 345, 155);
+                if (!prefix.isEmpty())
+                    name = prefix + "/" + name;
+            }
+            return name;
+        }
+
+        private void startEntry(long size)
+        {
+            current = new EntryStream(in, size);
+            currentPadding = (BLOCK_SIZE - (size % BLOCK_SIZE)) % BLOCK_SIZE;
+        }
+
+        private byte[] readData(long size)
+        throws IOException
+        {
+            if ((size < 0) || (size > 1024 * 1024))
+                throw new IOException("invalid extended header size: " + size);
+            byte[] data = new byte[(int)size];
+            startEntry(size);
+            if (readFully(current, data, 0, data.length) < data.length)
+                throw new EOFException("archive truncated");
+            skipCurrent();
+            return data;
+        }
+
+        private void skipCurrent()
+        throws IOException
+        {
+            if (current == null)
+                return;
+
+            long toSkip = current.getRemaining() + currentPadding;
+            while (toSkip > 0)
+            {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0)
+                {
+                    if (in.read() < 0)
+                        throw new EOFException("archive truncated");
+                    skipped = 1;
+                }
+                toSkip -= skipped;
+            }
+            current = null;
+            currentPadding = 0;
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Tar header parsing; package-private so they can be tested
+//----------------------------------------------------------------------------
+
+    /**
+     *  Parses a numeric header field: octal digits, optionally surrounded by
+     *  spaces and terminated by NUL, or GNU base-256 (high bit of the first
+     *  byte set) for values that don't fit.
+     */
+    static long parseNumber(byte[] buf, int off, int len)
+    throws IOException
+    {
+        if ((buf[off] & 0x80) != 0)
+        {
+            long value = buf[off] & 0x7F;
+            for (int ii = 1 ; ii < len ; ii++)
+            {
+                value = (value << 8) | (buf[off + ii] & 0xFF);
+            }
+            return value;
+        }
+
+        long value = 0;
+        boolean started = false;
+        for (int ii = off ; ii < off + len ; ii++)
+        {
+            byte b = buf[ii];
+            if ((b == 0) || ((b == ' ') && started))
+                break;
+            if (b == ' ')
+                continue;
+            if ((b < '0') || (b > '7'))
+                throw new IOException("not a tar archive (invalid numeric field)");
+            value = (value << 3) + (b - '0');
+            started = true;
+        }
+        return value;
+    }
+
+
+    /**
+     *  Parses a NUL-terminated (or full-width) UTF-8 header field.
+     */
+    static String parseString(byte[] buf, int off, int len)
+    {
+        int end = off;
+        while ((end < off + len) && (buf[end] != 0))
+            end++;
+        return new String(buf, off, end - off, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     *  Parses a pax extended header, returning the path, size, and mtime
+     *  values (null for any that aren't present). Records have the form
+     *  "LENGTH KEY=VALUE\n", where LENGTH counts the entire record.
+     */
+    static String[] parsePax(byte[] data)
+    throws IOException
+    {
+        String[] result = new String[3];
+        int pos = 0;
+        while (pos < data.length)
+        {
+            int space = pos;
+            while ((space < data.length) && (data[space] != ' '))
+                space++;
+            int length;
+            try
+            {
+                length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("invalid pax header");
+            }
+            if ((length <= space - pos) || (pos + length > data.length))
+                throw new IOException("invalid pax header");
+
+            // record excludes the length, the space, and the trailing newline
+            String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+            int eq = record.indexOf('=');
+            if (eq > 0)
+            {
+                String key = record.substring(0, eq);
+                String value = record.substring(eq + 1);
+                if (key.equals("path"))
+                    result[0] = value;
+                else if (key.equals("size"))
+                    result[1] = value;
+                else if (key.equals("mtime"))
+                    result[2] = value;
+            }
+            pos += length;
+        }
+        return result;
+    }
+
+
+    /**
+     *  Reads until the buffer is full or the stream ends, returning the number
+     *  of bytes read.
+     */
+    static int readFully(InputStream in, byte[] buf, int off, int len)
+    throws IOException
+    {
+        int total = 0;
+        while (total < len)
+        {
+            int count = in.read(buf, off + total, len - total);
+            if (count < 0)
+                break;
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,316 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+
+
+/**
+ *  A token bucket that limits the rate at which bytes are transferred in one
+ *  direction. A single instance is shared by all of the threads transferring
+ *  in that direction, so the limit applies to their total.
+ *  <p>
+ *  The bucket doesn't hold tokens: instead it holds the time at which the
+ *  transferred bytes will have been "paid for". Each caller advances that
+ *  time by the cost of its bytes, using compare-and-set, and then sleeps
+ *  until it arrives; there are no locks, and callers only contend for the
+ *  instant that it takes to update a single value. The time is never allowed
+ *  to fall more than {@link #BURST_NANOS} behind the clock, which is how much
+ *  an idle limiter lets through without delay.
+ *  <p>
+ *  The limit is given by a {@link Schedule}, which may vary by time of day.
+ *  The limiter checks the schedule every few seconds, so the current limit
+ *  changes shortly after the schedule (or the clock) moves into a new period.
+ *  The schedule may be replaced at any time, including via JMX.
+ */
+public class BandwidthLimiter
+implements BandwidthLimiterMXBean
+{
+    private final static long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private final static long RECHECK_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private String name;
+    private volatile Schedule schedule = Schedule.parse("");
+    private volatile long bytesPerSecond;
+    private volatile long nextRecheck;
+    private AtomicLong paidUntil = new AtomicLong(System.nanoTime());
+
+    private LongAdder totalBytes = new LongAdder();
+    private LongAdder totalDelayNanos = new LongAdder();
+
+
+    /**
+     *  Creates an unlimited instance.
+     *
+     *  @param name     Identifies the limiter in logs and JMX; eg, "upload".
+     */
+    public BandwidthLimiter(String name)
+    {
+        this.name = name;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Registers this limiter with the platform MBean server, as
+     *  <code>com.kdgregory.app.s3util:type=Bandwidth,name=NAME</code>.
+     *  Failure is logged but otherwise ignored.
+     */
+    public void register()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(S3Metrics.JMX_DOMAIN + ":type=Bandwidth,name=" + name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        }
+        catch (Exception ex)
+        {
+            logger.warn("unable to register bandwidth limiter: " + name, ex);
+        }
+    }
+
+
+    /**
+     *  Waits until the passed number of bytes may be transferred. Callers
+     *  should transfer before or after calling, in chunks of a few KB: the
+     *  cost of a call is small, but not so small that it should be made for
+     *  every byte.
+     */
+    public void acquire(long bytes)
+    throws InterruptedException
+    {
+        totalBytes.add(bytes);
+
+        long now = System.nanoTime();
+        if (now - nextRecheck >= 0)
+        {
+            nextRecheck = now + RECHECK_NANOS;
+            bytesPerSecond = schedule.rateAt(LocalTime.now());
+        }
+
+        long delay = reserve(bytes, now);
+        if (delay > 0)
+        {
+            totalDelayNanos.add(delay);
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  BandwidthLimiterMXBean
+//----------------------------------------------------------------------------
+
+    @Override
+    public String getSchedule()
+    {
+        return schedule.toString();
+    }
+
+
+    /**
+     *  Replaces the schedule, taking effect immediately.
+     *
+     *  @throws IllegalArgumentException if the schedule can't be parsed; the
+     *          existing schedule remains in effect.
+     */
+    @Override
+    public void setSchedule(String value)
+    {
+        Schedule newSchedule = Schedule.parse(value);
+        schedule = newSchedule;
+        bytesPerSecond = newSchedule.rateAt(LocalTime.now());
+        nextRecheck = System.nanoTime() + RECHECK_NANOS;
+        logger.debug("{} bandwidth schedule: \"{}\", current limit {} bytes/sec", name, newSchedule, bytesPerSecond);
+    }
+
+
+    @Override
+    public long getCurrentLimit()
+    {
+        return bytesPerSecond / 1024;
+    }
+
+
+    @Override
+    public long getTotalBytes()
+    {
+        return totalBytes.sum();
+    }
+
+
+    @Override
+    public long getTotalDelayMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(totalDelayNanos.sum());
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Pays for the passed bytes at the current rate, returning the number of
+     *  nanoseconds that the caller must wait. Exposed for testing.
+     */
+    long reserve(long bytes, long now)
+    {
+        long rate = bytesPerSecond;
+        if (rate <= 0)
+            return 0;
+
+        long cost = (long)(bytes * 1e9 / rate);
+        long earliest = now - BURST_NANOS;
+        while (true)
+        {
+            long prev = paidUntil.get();
+            long next = ((prev - earliest) < 0 ? earliest : prev) + cost;
+            if (paidUntil.compareAndSet(prev, next))
+                return Math.max(0, next - now);
+        }
+    }
+
+
+    /**
+     *  Sets the rate directly, bypassing the schedule. Exposed for testing.
+     */
+    void setRate(long value)
+    {
+        bytesPerSecond = value;
+        nextRecheck = Long.MAX_VALUE;
+    }
+
+//----------------------------------------------------------------------------
+//  Schedule
+//----------------------------------------------------------------------------
+
+    /**
+     *  A list of limits, in KB/second, each of which may apply to a particular
+     *  time of day. The textual form is a comma-separated list, where each
+     *  entry is either <code>HH:MM-HH:MM=LIMIT</code> or simply <code>LIMIT</code>:
+     *  <pre>
+     *      09:00-17:30=512, 17:30-22:00=2048, 0
+     *  </pre>
+     *  The first entry whose period contains the (local) time is used; an entry
+     *  without a period matches any time. A period whose end is before its
+     *  start wraps past midnight. A limit of 0 means unlimited, as does an
+     *  empty schedule or one where no entry matches.
+     */
+    public static class Schedule
+    {
+        private String spec;
+        private List<LocalTime> starts = new ArrayList<LocalTime>();
+        private List<LocalTime> ends = new ArrayList<LocalTime>();
+        private List<Long> limits = new ArrayList<Long>();
+
+        private Schedule(String spec)
+        {
+            this.spec = spec;
+        }
+
+        /**
+         *  Parses the textual form of a schedule; null is treated as empty.
+         *
+         *  @throws IllegalArgumentException if unable to parse.
+         */
+        public static Schedule parse(String value)
+        {
+            String spec = (value == null) ? "" : value.trim();
+            Schedule schedule = new Schedule(spec);
+            if (spec.isEmpty())
+                return schedule;
+
+            for (String entry : spec.split(","))
+            {
+                entry = entry.trim();
+                int eqIdx = entry.indexOf('=');
+                String period = (eqIdx < 0) ? "" : entry.substring(0, eqIdx).trim();
+                String limit = entry.substring(eqIdx + 1).trim();
+                try
+                {
+                    long kbPerSecond = Long.parseLong(limit);
+                    if (kbPerSecond < 0)
+                        throw new IllegalArgumentException("invalid bandwidth limit: " + entry);
+                    if (period.isEmpty())
+                    {
+                        schedule.starts.add(null);
+                        schedule.ends.add(null);
+                    }
+                    else
+                    {
+                        int dashIdx = period.indexOf('-');
+                        if (dashIdx < 0)
+                            throw new IllegalArgumentException("invalid bandwidth period: " + entry);
+                        schedule.starts.add(LocalTime.parse(period.substring(0, dashIdx).trim()));
+                        schedule.ends.add(LocalTime.parse(period.substring(dashIdx + 1).trim()));
+                    }
+                    schedule.limits.add(kbPerSecond);
+                }
+                catch (NumberFormatException|DateTimeParseException ex)
+                {
+                    throw new IllegalArgumentException("invalid bandwidth schedule entry: " + entry);
+                }
+            }
+            return schedule;
+        }
+
+        /**
+         *  Returns the limit at the passed time, in bytes per second, 0 if
+         *  unlimited.
+         */
+        public long rateAt(LocalTime time)
+        {
+            for (int ii = 0 ; ii < limits.size() ; ii++)
+            {
+                LocalTime start = starts.get(ii);
+                LocalTime end = ends.get(ii);
+                boolean matches = (start == null)
+                               || (start.isBefore(end)
+                                   ? !time.isBefore(start) && time.isBefore(end)
+                                   : !time.isBefore(start) || time.isBefore(end));
+                if (matches)
+                    return limits.get(ii) * 1024;
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return spec;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+
+/**
+ *  JMX view of a {@link BandwidthLimiter}, which allows the limit to be
+ *  changed while transfers are running.
+ */
+public interface BandwidthLimiterMXBean
+{
+    /**
+     *  The schedule of limits, in KB/second (see {@link BandwidthLimiter.Schedule}).
+     *  Changes made here apply until the program exits.
+     */
+    String getSchedule();
+    void setSchedule(String value);
+
+    /**
+     *  The limit currently in effect, in KB/second; 0 means unlimited.
+     */
+    long getCurrentLimit();
+
+    long getTotalBytes();
+    long getTotalDelayMillis();
+}
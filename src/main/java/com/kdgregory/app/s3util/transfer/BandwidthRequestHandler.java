@@ -0,0 +1,68 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import com.amazonaws.Request;
+import com.amazonaws.handlers.RequestHandler2;
+import com.amazonaws.http.HttpResponse;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+
+
+/**
+ *  Attached to the S3 client, this handler passes every request body through
+ *  the upload limiter, and the content of every GetObject response through
+ *  the download limiter. Doing this in the client means that all transfers
+ *  share the limits, however they're made.
+ *  <p>
+ *  Request bodies are wrapped before the SDK marks them, so a retried request
+ *  is limited as it's re-sent.
+ */
+public class BandwidthRequestHandler
+extends RequestHandler2
+{
+    private BandwidthLimiter uploadLimiter;
+    private BandwidthLimiter downloadLimiter;
+
+
+    public BandwidthRequestHandler(BandwidthLimiter uploadLimiter, BandwidthLimiter downloadLimiter)
+    {
+        this.uploadLimiter = uploadLimiter;
+        this.downloadLimiter = downloadLimiter;
+    }
+
+//----------------------------------------------------------------------------
+//  RequestHandler2
+//----------------------------------------------------------------------------
+
+    @Override
+    public void beforeRequest(Request<?> request)
+    {
+        if (request.getContent() != null)
+        {
+            request.setContent(new ThrottledInputStream(request.getContent(), uploadLimiter));
+        }
+    }
+
+
+    @Override
+    public HttpResponse beforeUnmarshalling(Request<?> request, HttpResponse httpResponse)
+    {
+        if ((request.getOriginalRequest() instanceof GetObjectRequest) && (httpResponse.getContent() != null))
+        {
+            httpResponse.setContent(new ThrottledInputStream(httpResponse.getContent(), downloadLimiter));
+        }
+        return httpResponse;
+    }
+}
@@ -0,0 +1,273 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  Uploads a file with request bodies read directly from its channel. Each
+ *  request (the whole file for a single PUT, or one part of a multipart upload)
+ *  reads a region of the file, which is memory-mapped if possible; if the
+ *  region can't be mapped, it's read with positional reads into a pooled
+ *  direct buffer. Either way there's a single copy, from the page cache into
+ *  the SDK's send buffer, and nothing is allocated on the heap per request.
+ *  The region streams are fully resettable, so the SDK doesn't buffer them to
+ *  support retries.
+ *  <p>
+ *  Files larger than the part size are sent as a multipart upload. The default
+ *  part size matches the hash cache, so that the resulting ETag can be compared
+ *  to a cached multipart ETag. Parts are uploaded sequentially on the calling
+ *  thread; callers get parallelism by uploading multiple files at once.
+ *  <p>
+ *  Each request body is checksummed as it's sent (see {@link ChecksumInputStream}),
+ *  and verified against the ETag that S3 returns: for a single PUT, the ETag is
+ *  the file's MD5; for a multipart upload, each part's ETag is its MD5, and the
+ *  completed upload's ETag is derived from the parts. A mismatched request is
+ *  retried by the governor; a mismatched multipart ETag (which would mean that
+ *  S3 assembled something other than the parts we sent) repeats the upload
+ *  once. The checksums are returned, so that the caller can record them (eg,
+ *  in the {@link HashCache}) without reading the file again.
+ *  <p>
+ *  Instances are thread-safe.
+ */
+public class ChannelUploader
+{
+    /** The number of times that a multipart upload is attempted. */
+    private final static int MAX_MULTIPART_ATTEMPTS = 2;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+    private DirectBufferPool bufferPool;
+    private long partSize;
+
+
+    public ChannelUploader(AmazonS3 client, RequestGovernor governor, DirectBufferPool bufferPool)
+    {
+        this(client, governor, bufferPool, PartSizes.DEFAULT_PART_SIZE);
+    }
+
+
+    public ChannelUploader(AmazonS3 client, RequestGovernor governor, DirectBufferPool bufferPool, long partSize)
+    {
+        this.client = client;
+        this.governor = governor;
+        this.bufferPool = bufferPool;
+        this.partSize = partSize;
+    }
+
+
+    /**
+     *  Uploads a file, with the passed settings (normally from an {@link UploadPolicy}).
+     *
+     *  @param  contentMD5  The base64-encoded MD5 of the file, if known, so that
+     *                      S3 verifies a single-request upload before storing it.
+     *                      May be null. Ignored for a multipart upload.
+     *
+     *  @return The checksums of the uploaded content. The multipart ETag is
+     *          computed using the part size, which for very large files may be
+     *          larger than the configured size.
+     */
+    public StreamChecksums upload(String bucket, String key, File file, UploadPolicy.Settings settings, String contentMD5)
+    throws Exception
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size <= partSize)
+                return uploadSingle(bucket, key, channel, size, settings, contentMD5);
+
+            for (int attempt = 1 ; ; attempt++)
+            {
+                try
+                {
+                    return uploadMultipart(bucket, key, channel, size, settings);
+                }
+                catch (ChecksumMismatchException ex)
+                {
+                    if (attempt >= MAX_MULTIPART_ATTEMPTS)
+                        throw ex;
+                    logger.warn("repeating upload: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private StreamChecksums uploadSingle(
+            final String bucket, final String key, FileChannel channel, long size,
+            final UploadPolicy.Settings settings, String contentMD5)
+    throws Exception
+    {
+        final Region region = new Region(channel, 0, size);
+        final ObjectMetadata metadata = settings.getMetadata();
+        metadata.setContentLength(size);
+        if (contentMD5 != null)
+            metadata.setContentMD5(contentMD5);
+
+        return governor.execute(OperationType.PUT, key, () ->
+        {
+            ChecksumInputStream body = new ChecksumInputStream(region.open(), new StreamChecksums(partSize, false));
+            PutObjectResult result = client.putObject(settings.applyTo(new PutObjectRequest(bucket, key, body, metadata)));
+            StreamChecksums checksums = body.getChecksums().finish();
+            if (StreamChecksums.isContentETag(result.getSSEAlgorithm(), result.getSSECustomerAlgorithm()))
+                checksums.verifyETag(key, result.getETag());
+            return checksums;
+        });
+    }
+
+
+    private StreamChecksums uploadMultipart(
+            final String bucket, final String key, FileChannel channel, long size,
+            UploadPolicy.Settings settings)
+    throws Exception
+    {
+        long effectivePartSize = PartSizes.forObject(size, partSize);
+
+        final InitiateMultipartUploadRequest initRequest
+            = new InitiateMultipartUploadRequest(bucket, key, settings.getMetadata())
+              .withCannedACL(settings.getCannedAcl())
+              .withStorageClass(settings.getStorageClass());
+        final String uploadId = governor.execute(OperationType.PUT, key, () ->
+                                    client.initiateMultipartUpload(initRequest).getUploadId());
+
+        try
+        {
+            // each part starts from the checksums of the parts before it, so
+            // that a retry doesn't include the failed attempt's content
+            StreamChecksums checksums = new StreamChecksums(effectivePartSize, false);
+            final List<PartETag> partETags = new ArrayList<PartETag>();
+            for (long offset = 0 ; offset < size ; offset += effectivePartSize)
+            {
+                final long length = Math.min(effectivePartSize, size - offset);
+                final int partNumber = partETags.size() + 1;
+                final boolean isLastPart = (offset + length >= size);
+                final Region region = new Region(channel, offset, length);
+                final StreamChecksums previous = checksums;
+                checksums = governor.execute(OperationType.PUT, key, () ->
+                {
+                    ChecksumInputStream body = new ChecksumInputStream(region.open(), previous.copy());
+                    UploadPartResult result = client.uploadPart(new UploadPartRequest()
+                                                                .withBucketName(bucket)
+                                                                .withKey(key)
+                                                                .withUploadId(uploadId)
+                                                                .withPartNumber(partNumber)
+                                                                .withPartSize(length)
+                                                                .withInputStream(body));
+                    StreamChecksums partChecksums = body.getChecksums();
+                    if (isLastPart)
+                        partChecksums.finish();
+                    if (StreamChecksums.isContentETag(result.getSSEAlgorithm(), result.getSSECustomerAlgorithm()))
+                        partChecksums.verifyPartETag(key, partNumber, result.getETag());
+                    partETags.add(result.getPartETag());
+                    return partChecksums;
+                });
+            }
+
+            final CompleteMultipartUploadRequest completeRequest
+                = new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags);
+            CompleteMultipartUploadResult result = governor.execute(OperationType.PUT, key, () ->
+                                                        client.completeMultipartUpload(completeRequest));
+            logger.debug("uploaded {} in {} parts", key, partETags.size());
+
+            // if this fails the upload has already completed, so the abort below
+            // will also fail (and be logged); the caller repeats the upload
+            if (StreamChecksums.isContentETag(result.getSSEAlgorithm(), result.getSSECustomerAlgorithm()))
+                checksums.verifyETag(key, result.getETag());
+            return checksums;
+        }
+        catch (Exception ex)
+        {
+            try
+            {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            }
+            catch (Exception ex2)
+            {
+                logger.warn("unable to abort multipart upload for {}: {}", key, ex2.getMessage());
+            }
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  A region of the file, which produces a new stream for each attempt at
+     *  a request. The region is mapped once, when constructed; if that fails
+     *  (or the region is too large to map), streams read from the channel.
+     */
+    private class Region
+    {
+        private FileChannel channel;
+        private long offset;
+        private long length;
+        private ByteBuffer mapped;
+
+        public Region(FileChannel channel, long offset, long length)
+        {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+
+            if ((length > 0) && (length <= Integer.MAX_VALUE))
+            {
+                try
+                {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                }
+                catch (IOException ex)
+                {
+                    logger.debug("unable to map region, using buffered reads: {}", ex.getMessage());
+                }
+            }
+        }
+
+        public InputStream open()
+        {
+            return (mapped != null)
+                 ? new FileRegionInputStream(mapped)
+                 : new FileRegionInputStream(channel, offset, length, bufferPool);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  Downloads an object to a local file, verifying its content as it's written.
+ *  The SDK's own file download verifies only single-part objects, and does so
+ *  by reading the file again once it's been written; this computes checksums
+ *  in the same pass that writes the file (see {@link StreamChecksums}), and
+ *  verifies multipart objects as well.
+ *  <p>
+ *  The content is verified against:
+ *  <ul>
+ *  <li> The ETag, unless the object is encrypted with KMS or a customer key.
+ *       To verify a multipart ETag we need the part size, which is retrieved
+ *       (along with the number of parts) by a HEAD request for the first part.
+ *       That request is only made for objects that are larger than the default
+ *       part size, so the multipart ETags of smaller objects aren't verified.
+ *  <li> The CRC-32C reported by S3, if the object was uploaded with one and
+ *       it's a whole-object checksum (multipart uploads have a checksum of
+ *       their parts' checksums, which we can't verify).
+ *  </ul>
+ *  A mismatch is retried by the governor, downloading the object again.
+ *  <p>
+ *  Instances are thread-safe.
+ */
+public class ChecksumDownloader
+{
+    /** Request header that asks S3 to return the object's checksums. */
+    public final static String CHECKSUM_MODE_HEADER = "x-amz-checksum-mode";
+
+    /** Response header that holds an object's CRC-32C. */
+    public final static String CRC32C_HEADER = "x-amz-checksum-crc32c";
+
+    private final static int BUFFER_SIZE = 64 * 1024;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+
+
+    public ChecksumDownloader(AmazonS3 client, RequestGovernor governor)
+    {
+        this.client = client;
+        this.governor = governor;
+    }
+
+
+    /**
+     *  Downloads an object, replacing the contents of the file.
+     *
+     *  @param  expectedSize    The object's size, if known (eg, from a listing);
+     *                          -1 if not. Used to decide whether to retrieve
+     *                          the part size.
+     *
+     *  @return The checksums of the downloaded content.
+     */
+    public StreamChecksums download(final String bucket, final String key, long expectedSize, final File file)
+    throws Exception
+    {
+        final long partSize = ((expectedSize < 0) || (expectedSize > PartSizes.DEFAULT_PART_SIZE))
+                            ? retrievePartSize(bucket, key)
+                            : PartSizes.DEFAULT_PART_SIZE;
+
+        return governor.execute(OperationType.GET, key, () ->
+        {
+            GetObjectRequest request = new GetObjectRequest(bucket, key);
+            request.putCustomRequestHeader(CHECKSUM_MODE_HEADER, "ENABLED");
+            try (S3Object obj = client.getObject(request))
+            {
+                ObjectMetadata metadata = obj.getObjectMetadata();
+                Object crc32c = metadata.getRawMetadataValue(CRC32C_HEADER);
+                StreamChecksums checksums = new StreamChecksums(partSize, crc32c != null);
+
+                try (InputStream in = obj.getObjectContent();
+                     OutputStream out = new FileOutputStream(file))
+                {
+                    byte[] buf = new byte[BUFFER_SIZE];
+                    int count;
+                    while ((count = in.read(buf)) >= 0)
+                    {
+                        checksums.update(buf, 0, count);
+                        out.write(buf, 0, count);
+                    }
+                }
+                checksums.finish();
+
+                String eTag = metadata.getETag();
+                if (canVerifyETag(eTag, metadata, checksums))
+                    checksums.verifyETag(key, eTag);
+                else
+                    logger.debug("unable to verify ETag of {}", key);
+                checksums.verifyCRC32C(key, (crc32c != null) ? crc32c.toString() : null);
+                return checksums;
+            }
+        });
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Retrieves the size of the object's first part, which is the part size if
+     *  it was a multipart upload (or the default part size if it wasn't).
+     */
+    private long retrievePartSize(final String bucket, final String key)
+    throws Exception
+    {
+        final GetObjectMetadataRequest request = new GetObjectMetadataRequest(bucket, key).withPartNumber(1);
+        ObjectMetadata metadata = governor.execute(OperationType.OTHER, key, () -> client.getObjectMetadata(request));
+        return ((metadata.getPartCount() != null) && (metadata.getContentLength() > 0))
+             ? metadata.getContentLength()
+             : PartSizes.DEFAULT_PART_SIZE;
+    }
+
+
+    /**
+     *  Determines whether the ETag (which the SDK has stripped of quotes) can be
+     *  verified: it must be derived from the content, and if it's a multipart
+     *  ETag we must have computed it with the same parts. If our part count
+     *  doesn't match the ETag's, then either we don't know the part size or the
+     *  parts weren't all the same size (other than the last); a truncated
+     *  download is caught by the SDK.
+     */
+    private static boolean canVerifyETag(String eTag, ObjectMetadata metadata, StreamChecksums checksums)
+    {
+        if ((eTag == null) || !StreamChecksums.isContentETag(metadata.getSSEAlgorithm(), metadata.getSSECustomerAlgorithm()))
+            return false;
+
+        int dash = eTag.indexOf('-');
+        if (dash < 0)
+            return true;
+
+        return eTag.substring(dash).equals("-" + checksums.getPartCount());
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ *  Updates a {@link StreamChecksums} with everything read through it, so that
+ *  a request body can be verified against the ETag that S3 returns without
+ *  reading its source a second time.
+ *  <p>
+ *  The SDK marks request bodies before sending them, and resets them to retry.
+ *  This stream supports mark and reset if the underlying stream does, by saving
+ *  a copy of the checksums when marked; since a reset replaces the checksums,
+ *  callers must use {@link #getChecksums} after reading, rather than holding on
+ *  to the object passed to the constructor.
+ */
+public class ChecksumInputStream
+extends FilterInputStream
+{
+    private StreamChecksums checksums;
+    private StreamChecksums marked;
+    private byte[] single = new byte[1];
+
+
+    public ChecksumInputStream(InputStream in, StreamChecksums checksums)
+    {
+        super(in);
+        this.checksums = checksums;
+    }
+
+
+    /**
+     *  Returns the checksums of everything read (since the last reset).
+     */
+    public StreamChecksums getChecksums()
+    {
+        return checksums;
+    }
+
+
+    @Override
+    public int read()
+    throws IOException
+    {
+        int b = in.read();
+        if (b >= 0)
+        {
+            single[0] = (byte)b;
+            checksums.update(single, 0, 1);
+        }
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] buf, int off, int len)
+    throws IOException
+    {
+        int count = in.read(buf, off, len);
+        if (count > 0)
+            checksums.update(buf, off, count);
+        return count;
+    }
+
+
+    @Override
+    public long skip(long n)
+    throws IOException
+    {
+        // skipped bytes must still be checksummed
+        byte[] buf = new byte[(int)Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n)
+        {
+            int count = read(buf, 0, (int)Math.min(buf.length, n - skipped));
+            if (count < 0)
+                break;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+
+    @Override
+    public synchronized void mark(int readlimit)
+    {
+        in.mark(readlimit);
+        marked = checksums.copy();
+    }
+
+
+    @Override
+    public synchronized void reset()
+    throws IOException
+    {
+        if (marked == null)
+            throw new IOException("mark not set");
+        in.reset();
+        checksums = marked.copy();
+    }
+}
@@ -0,0 +1,42 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import com.amazonaws.SdkClientException;
+
+
+/**
+ *  Thrown when content that was sent to or received from S3 doesn't match the
+ *  checksum that S3 reported for it. This is retryable, so the governor (see
+ *  {@link RequestGovernor}) will repeat the request.
+ */
+public class ChecksumMismatchException
+extends SdkClientException
+{
+    private static final long serialVersionUID = 1L;
+
+
+    public ChecksumMismatchException(String key, String checksumType, String reported, String computed)
+    {
+        super(checksumType + " mismatch for " + key + ": S3 reported " + reported + ", computed " + computed);
+    }
+
+
+    @Override
+    public boolean isRetryable()
+    {
+        return true;
+    }
+}
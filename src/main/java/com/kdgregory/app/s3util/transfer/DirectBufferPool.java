@@ -0,0 +1,85 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ *  A pool of fixed-size direct buffers. Direct buffers are expensive to
+ *  allocate and are only released when the garbage collector gets around to
+ *  their (tiny) heap objects, so allocating one per request is a good way to
+ *  run out of native memory. This pool holds up to a fixed number of idle
+ *  buffers; if they're all in use, {@link #acquire} allocates a new one, which
+ *  is dropped rather than retained when it's released.
+ *  <p>
+ *  Instances are thread-safe.
+ */
+public class DirectBufferPool
+{
+    /** The default buffer size. */
+    public final static int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private int bufferSize;
+    private BlockingQueue<ByteBuffer> idle;
+
+
+    public DirectBufferPool(int bufferSize, int maxIdle)
+    {
+        this.bufferSize = bufferSize;
+        this.idle = new ArrayBlockingQueue<ByteBuffer>(maxIdle);
+    }
+
+
+    /**
+     *  Returns a cleared buffer, from the pool if possible.
+     */
+    public ByteBuffer acquire()
+    {
+        ByteBuffer buffer = idle.poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        buffer.clear();
+        return buffer;
+    }
+
+
+    /**
+     *  Returns a buffer to the pool. The caller must not use the buffer after
+     *  this call. Buffers that weren't allocated by this pool are ignored.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if ((buffer != null) && buffer.isDirect() && (buffer.capacity() == bufferSize))
+            idle.offer(buffer);
+    }
+
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+
+    /**
+     *  Returns the number of idle buffers currently in the pool.
+     */
+    public int getIdleCount()
+    {
+        return idle.size();
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ *  An input stream that reads a region of a file, either from a mapped (or
+ *  other) <code>ByteBuffer</code>, or by positional reads from a channel into
+ *  a pooled direct buffer. Either way, the only copy is from that buffer into
+ *  the caller's array: there's no intermediate heap buffer, and no temporary
+ *  direct buffer allocated by the JDK.
+ *  <p>
+ *  The stream supports mark and reset with no limit, because the entire region
+ *  can be re-read; the AWS SDK relies on this to retry a request without
+ *  buffering its body. Positional reads don't affect the channel's position,
+ *  so multiple streams may share a channel. Closing the stream releases its
+ *  buffer, but does not close the channel.
+ *  <p>
+ *  Instances are not thread-safe.
+ */
+public class FileRegionInputStream
+extends InputStream
+{
+    // mapped mode
+    private ByteBuffer region;
+
+    // channel mode
+    private FileChannel channel;
+    private long start;
+    private DirectBufferPool pool;
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    private long length;
+    private long position;
+    private long mark;
+
+
+    /**
+     *  Creates a stream that reads the remaining content of the passed buffer,
+     *  which is normally a mapped region of a file. The buffer is sliced, so
+     *  its position is not changed by reading.
+     */
+    public FileRegionInputStream(ByteBuffer region)
+    {
+        this.region = region.slice();
+        this.length = this.region.remaining();
+    }
+
+
+    /**
+     *  Creates a stream that reads the specified region of a channel, using a
+     *  buffer taken from the passed pool.
+     */
+    public FileRegionInputStream(FileChannel channel, long start, long length, DirectBufferPool pool)
+    {
+        this.channel = channel;
+        this.start = start;
+        this.length = length;
+        this.pool = pool;
+    }
+
+//----------------------------------------------------------------------------
+//  InputStream
+//----------------------------------------------------------------------------
+
+    @Override
+    public int read()
+    throws IOException
+    {
+        byte[] b = new byte[1];
+        return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    throws IOException
+    {
+        if ((region == null) && (channel == null))
+            throw new IOException("stream closed");
+        if (len == 0)
+            return 0;
+        if (position >= length)
+            return -1;
+
+        int count = (int)Math.min(len, length - position);
+        if (region != null)
+        {
+            region.position((int)position);
+            region.get(b, off, count);
+        }
+        else
+        {
+            ensureBuffered();
+            int bufOffset = (int)(position - bufferStart);
+            count = Math.min(count, buffer.limit() - bufOffset);
+            buffer.position(bufOffset);
+            buffer.get(b, off, count);
+        }
+        position += count;
+        return count;
+    }
+
+
+    @Override
+    public long skip(long n)
+    {
+        long count = Math.max(0, Math.min(n, length - position));
+        position += count;
+        return count;
+    }
+
+
+    @Override
+    public int available()
+    {
+        return (int)Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+
+    @Override
+    public boolean markSupported()
+    {
+        return true;
+    }
+
+
+    @Override
+    public void mark(int readlimit)
+    {
+        mark = position;
+    }
+
+
+    @Override
+    public void reset()
+    {
+        position = mark;
+    }
+
+
+    @Override
+    public void close()
+    {
+        if (buffer != null)
+        {
+            pool.release(buffer);
+            buffer = null;
+        }
+        region = null;
+        channel = null;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Ensures that the buffer holds the byte at the current position, reading
+     *  from the channel if it doesn't.
+     */
+    private void ensureBuffered()
+    throws IOException
+    {
+        if (buffer == null)
+        {
+            buffer = pool.acquire();
+            buffer.limit(0);
+            bufferStart = position;
+        }
+
+        if ((position >= bufferStart) && (position < bufferStart + buffer.limit()))
+            return;
+
+        buffer.clear();
+        buffer.limit((int)Math.min(buffer.capacity(), length - position));
+        bufferStart = position;
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, start + bufferStart + buffer.position()) < 0)
+                throw new EOFException("file truncated during read: expected " + (start + length) + " bytes");
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,271 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.util.Base64;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  Uploads a file with gzip compression applied on the fly. We don't know the
+ *  compressed size in advance, and don't want to write a temporary file, so
+ *  compressed output is collected into an in-memory part buffer; each time the
+ *  buffer fills it's sent as one part of a multipart upload. Files that compress
+ *  to less than a single part are sent with a normal PUT. Either way, memory use
+ *  is bounded by the part size, and each part (or PUT) carries its MD5 so that S3
+ *  can verify it.
+ *  <p>
+ *  Compression runs on the calling thread; callers get parallelism by uploading
+ *  multiple files at once. Instances are thread-safe.
+ */
+public class GzipUploader
+{
+    private final static int READ_BUFFER_SIZE = 64 * 1024;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+    private int partSize;
+
+
+    public GzipUploader(AmazonS3 client, RequestGovernor governor)
+    {
+        this(client, governor, (int)PartSizes.DEFAULT_PART_SIZE);
+    }
+
+
+    public GzipUploader(AmazonS3 client, RequestGovernor governor, int partSize)
+    {
+        this.client = client;
+        this.governor = governor;
+        this.partSize = partSize;
+    }
+
+
+    /**
+     *  Compresses and uploads a file. The passed settings (normally from an
+     *  {@link UploadPolicy}) are applied to the object, with the addition of
+     *  <code>Content-Encoding: gzip</code>.
+     *
+     *  @return The compressed size.
+     */
+    public long upload(String bucket, String key, File file, UploadPolicy.Settings settings)
+    throws Exception
+    {
+        settings.getMetadata().setContentEncoding("gzip");
+        PartOutputStream parts = new PartOutputStream(bucket, key, settings);
+        try
+        {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(parts, READ_BUFFER_SIZE))
+            {
+                byte[] buf = new byte[READ_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(buf)) > 0)
+                    out.write(buf, 0, read);
+            }
+            parts.complete();
+            logger.debug("compressed {}: {} bytes to {}", key, file.length(), parts.totalBytes);
+            return parts.totalBytes;
+        }
+        catch (Exception ex)
+        {
+            parts.abort();
+            throw ex;
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Collects compressed data into part-sized buffers, uploading each as
+     *  it fills. The multipart upload is only started if we fill a buffer.
+     *  Closing the stream does not complete the upload.
+     */
+    private class PartOutputStream
+    extends OutputStream
+    {
+        private String bucket;
+        private String key;
+        private UploadPolicy.Settings settings;
+        private ObjectMetadata metadata;
+
+        private byte[] buffer;
+        private int count;
+        private long totalBytes;
+
+        private String uploadId;
+        private List<PartETag> partETags = new ArrayList<PartETag>();
+
+        public PartOutputStream(String bucket, String key, UploadPolicy.Settings settings)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.settings = settings;
+            this.metadata = settings.getMetadata();
+            this.buffer = new byte[partSize];
+        }
+
+        @Override
+        public void write(int b)
+        throws IOException
+        {
+            write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len)
+        throws IOException
+        {
+            while (len > 0)
+            {
+                int chunk = Math.min(len, buffer.length - count);
+                System.arraycopy(data, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+                if (count == buffer.length)
+                    uploadPart();
+            }
+        }
+
+        /**
+         *  Sends whatever remains in the buffer, either as the last part of
+         *  a multipart upload or as a single PUT.
+         */
+        public void complete()
+        throws Exception
+        {
+            if (uploadId == null)
+            {
+                final byte[] content = buffer;
+                final int length = count;
+                metadata.setContentLength(length);
+                metadata.setContentMD5(md5(content, length));
+                governor.execute(OperationType.PUT, key, () ->
+                    client.putObject(settings.applyTo(
+                                        new PutObjectRequest(bucket, key, new ByteArrayInputStream(content, 0, length), metadata))));
+                totalBytes = length;
+                return;
+            }
+
+            if (count > 0)
+                uploadPart();
+
+            final CompleteMultipartUploadRequest request
+                = new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags);
+            governor.execute(OperationType.PUT, key, () -> client.completeMultipartUpload(request));
+        }
+
+        public void abort()
+        {
+            if (uploadId == null)
+                return;
+
+            try
+            {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+            }
+            catch (Exception ex)
+            {
+                logger.warn("unable to abort multipart upload for {}: {}", key, ex.getMessage());
+            }
+        }
+
+        private void uploadPart()
+        throws IOException
+        {
+            try
+            {
+                if (uploadId == null)
+                {
+                    final InitiateMultipartUploadRequest request
+                        = new InitiateMultipartUploadRequest(bucket, key, metadata)
+                          .withCannedACL(settings.getCannedAcl())
+                          .withStorageClass(settings.getStorageClass());
+                    uploadId = governor.execute(OperationType.PUT, key, () ->
+                                    client.initiateMultipartUpload(request).getUploadId());
+                }
+
+                final byte[] content = buffer;
+                final int length = count;
+                final int partNumber = partETags.size() + 1;
+                final String md5 = md5(content, length);
+                partETags.add(governor.execute(OperationType.PUT, key, () ->
+                                client.uploadPart(new UploadPartRequest()
+                                                  .withBucketName(bucket)
+                                                  .withKey(key)
+                                                  .withUploadId(uploadId)
+                                                  .withPartNumber(partNumber)
+                                                  .withPartSize(length)
+                                                  .withMD5Digest(md5)
+                                                  .withInputStream(new ByteArrayInputStream(content, 0, length)))
+                                .getPartETag()));
+                totalBytes += length;
+                count = 0;
+            }
+            catch (IOException ex)
+            {
+                throw ex;
+            }
+            catch (Exception ex)
+            {
+                throw new IOException("unable to upload part for " + key, ex);
+            }
+        }
+    }
+
+
+    private static String md5(byte[] data, int length)
+    throws IOException
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(data, 0, length);
+            return Base64.encodeAsString(digest.digest());
+        }
+        catch (Exception ex)
+        {
+            throw new IOException("unable to compute MD5", ex);
+        }
+    }
+}
@@ -0,0 +1,433 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.util.Base64;
+import com.amazonaws.util.BinaryUtils;
+
+
+/**
+ *  A persistent index of local file hashes, so that comparing a large tree
+ *  against S3 doesn't mean reading every file on every run. Entries are keyed
+ *  by absolute path, and are only used if the file's size and last-modified
+ *  time match what was recorded.
+ *  <p>
+ *  For each file we record its MD5, which is the ETag of an object uploaded
+ *  in a single part, and (for files larger than the part size) the ETag that
+ *  S3 would assign to a multipart upload with that part size. The default part
+ *  size is 8 MB, which is what the AWS CLI uses. Both are computed in a single
+ *  pass over the file.
+ *  <p>
+ *  Transfers also record the hashes that they compute as they read or write a
+ *  file (see {@link #record}), so a file that has been uploaded or downloaded
+ *  doesn't need to be hashed separately.
+ *  <p>
+ *  Files are hashed on a pool with one thread per core; callers that need many
+ *  hashes should use {@link #getAll}, so that they're computed in parallel.
+ *  <p>
+ *  The index is loaded when constructed, and written by {@link #save}, which
+ *  does nothing if there haven't been any changes. The file is a simple tab-
+ *  delimited format, with the path as the last field. Entries are never removed,
+ *  even if the file no longer exists; delete the index file to clean it up.
+ */
+public class HashCache
+{
+    private final static String HEADER_PREFIX = "# s3util hash cache v1, part size ";
+    private final static int BUFFER_SIZE = 1024 * 1024;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private File indexFile;
+    private long partSize;
+    private Map<String,Hashes> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private ExecutorService hashPool;
+
+
+    /**
+     *  The hashes recorded for a single file.
+     */
+    public static class Hashes
+    {
+        private long size;
+        private long lastModified;
+        private String md5;
+        private String multipartETag;
+
+        public Hashes(long size, long lastModified, String md5, String multipartETag)
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.md5 = md5;
+            this.multipartETag = multipartETag;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        /**
+         *  Returns the file's MD5, as a lowercase hex string.
+         */
+        public String getMD5()
+        {
+            return md5;
+        }
+
+        /**
+         *  Returns the file's MD5 as a Base64 string, suitable for the
+         *  <code>Content-MD5</code> header.
+         */
+        public String getContentMD5()
+        {
+            return Base64.encodeAsString(BinaryUtils.fromHex(md5));
+        }
+
+        /**
+         *  Returns the ETag that would result from a multipart upload with the
+         *  cache's part size, null if the file is no larger than one part.
+         */
+        public String getMultipartETag()
+        {
+            return multipartETag;
+        }
+
+        /**
+         *  Determines whether the passed ETag (with or without quotes) matches
+         *  this file. A multipart ETag can only be matched if it was created
+         *  using the same part size as the cache.
+         */
+        public boolean matchesETag(String eTag)
+        {
+            if (eTag == null)
+                return false;
+
+            eTag = eTag.replace("\"", "");
+            return eTag.contains("-")
+                 ? eTag.equalsIgnoreCase(multipartETag)
+                 : eTag.equalsIgnoreCase(md5);
+        }
+
+        private boolean isValidFor(File file)
+        {
+            return (size == file.length()) && (lastModified == file.lastModified());
+        }
+    }
+
+
+    /**
+     *  Creates an instance that persists to the specified file, using the
+     *  default part size.
+     */
+    public HashCache(File indexFile)
+    {
+        this(indexFile, PartSizes.DEFAULT_PART_SIZE);
+    }
+
+
+    /**
+     *  Creates an instance that persists to the specified file, using the
+     *  specified part size to calculate multipart ETags. If the file exists
+     *  but was written with a different part size, it's ignored.
+     */
+    public HashCache(File indexFile, long partSize)
+    {
+        this.indexFile = indexFile;
+        this.partSize = partSize;
+        load();
+    }
+
+
+    /**
+     *  Returns the default location for the index: in the <code>.s3util</code>
+     *  directory under the user's home directory.
+     */
+    public static File defaultIndexFile()
+    {
+        return new File(new File(System.getProperty("user.home"), ".s3util"), "hashes.tsv");
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the hashes for a single file, computing them if they're not in
+     *  the index or the file has changed.
+     */
+    public Hashes get(File file)
+    throws IOException
+    {
+        String path = file.getAbsolutePath();
+        Hashes hashes = entries.get(path);
+        if ((hashes != null) && hashes.isValidFor(file))
+            return hashes;
+
+        return await(getHashPool().submit(() -> compute(file)));
+    }
+
+
+    /**
+     *  Returns the hashes for a single file if they're in the index and the file
+     *  hasn't changed, null otherwise. Never reads the file.
+     */
+    public Hashes getIfCached(File file)
+    {
+        Hashes hashes = entries.get(file.getAbsolutePath());
+        return ((hashes != null) && hashes.isValidFor(file)) ? hashes : null;
+    }
+
+
+    /**
+     *  Records checksums that were computed while transferring a file. The size
+     *  and last-modified time should be read before the transfer starts (for an
+     *  upload) or after it's completed (for a download), so that a concurrent
+     *  change makes the entry stale. Does nothing if the checksums were computed
+     *  with a different part size and the file is larger than a part, since
+     *  we can't derive the multipart ETag.
+     */
+    public void record(File file, long size, long lastModified, StreamChecksums checksums)
+    {
+        String path = file.getAbsolutePath();
+        if ((checksums.getSize() != size) || (path.indexOf('\n') >= 0))
+            return;
+        if ((size > partSize) && (checksums.getPartSize() != partSize))
+            return;
+
+        String multipartETag = (size > partSize) ? checksums.getMultipartETag() : null;
+        entries.put(path, new Hashes(size, lastModified, checksums.getMD5(), multipartETag));
+        dirty = true;
+    }
+
+
+    /**
+     *  Returns the hashes for a collection of files, in the same order. Files
+     *  that need to be hashed are processed in parallel.
+     */
+    public List<Hashes> getAll(Collection<File> files)
+    throws IOException
+    {
+        List<Future<Hashes>> futures = new ArrayList<>(files.size());
+        for (final File file : files)
+        {
+            Hashes hashes = entries.get(file.getAbsolutePath());
+            futures.add(((hashes != null) && hashes.isValidFor(file))
+                        ? CompletableFuture.completedFuture(hashes)
+                        : getHashPool().submit(() -> compute(file)));
+        }
+
+        List<Hashes> result = new ArrayList<>(files.size());
+        for (Future<Hashes> future : futures)
+            result.add(await(future));
+        return result;
+    }
+
+
+    /**
+     *  Writes the index, if it has changed since it was loaded or last saved.
+     *  The index is written to a temporary file that is then renamed, so a
+     *  failure won't leave a partial index.
+     */
+    public synchronized void save()
+    throws IOException
+    {
+        if (!dirty)
+            return;
+        dirty = false;
+
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("unable to create directory: " + dir);
+
+        File tempFile = new File(dir, indexFile.getName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8))
+        {
+            out.write(HEADER_PREFIX + partSize + "\n");
+            for (Map.Entry<String,Hashes> entry : entries.entrySet())
+            {
+                Hashes hashes = entry.getValue();
+                out.write(hashes.size + "\t"
+                          + hashes.lastModified + "\t"
+                          + hashes.md5 + "\t"
+                          + (hashes.multipartETag != null ? hashes.multipartETag : "") + "\t"
+                          + entry.getKey() + "\n");
+            }
+        }
+        catch (IOException ex)
+        {
+            dirty = true;
+            throw ex;
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        logger.debug("saved {} entries to {}", entries.size(), indexFile);
+    }
+
+
+    /**
+     *  Returns the number of entries in the index.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+
+    /**
+     *  Computes the hashes for a file, without reference to (or update of) the
+     *  index.
+     */
+    public static Hashes computeHashes(File file, long partSize)
+    throws IOException
+    {
+        StreamChecksums checksums = new StreamChecksums(partSize, false);
+
+        // we read these before the content, so a change during the read makes the entry stale
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        byte[] buf = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file))
+        {
+            int read;
+            while ((read = in.read(buf)) > 0)
+            {
+                checksums.update(buf, 0, read);
+            }
+        }
+        checksums.finish();
+
+        String multipartETag = (size > partSize) ? checksums.getMultipartETag() : null;
+        return new Hashes(size, lastModified, checksums.getMD5(), multipartETag);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private synchronized ExecutorService getHashPool()
+    {
+        if (hashPool == null)
+        {
+            hashPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), (runnable) ->
+            {
+                Thread thread = new Thread(runnable, "hash");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return hashPool;
+    }
+
+
+    private Hashes compute(File file)
+    throws IOException
+    {
+        logger.debug("hashing {}", file);
+        Hashes hashes = computeHashes(file, partSize);
+        String path = file.getAbsolutePath();
+        if (path.indexOf('\n') < 0)
+        {
+            entries.put(path, hashes);
+            dirty = true;
+        }
+        return hashes;
+    }
+
+
+    private static Hashes await(Future<Hashes> future)
+    throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while hashing", ex);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+                throw (IOException)ex.getCause();
+            throw new IOException("unable to hash file", ex.getCause());
+        }
+    }
+
+
+    private void load()
+    {
+        if (!indexFile.exists())
+            return;
+
+        try (BufferedReader in = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8))
+        {
+            String header = in.readLine();
+            if ((header == null) || !header.equals(HEADER_PREFIX + partSize))
+            {
+                logger.warn("ignoring hash cache {}: unrecognized header or different part size", indexFile);
+                return;
+            }
+
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5)
+                    continue;
+                Hashes hashes = new Hashes(Long.parseLong(fields[0]),
+                                           Long.parseLong(fields[1]),
+                                           fields[2],
+                                           fields[3].isEmpty() ? null : fields[3]);
+                entries.put(fields[4], hashes);
+            }
+            logger.debug("loaded {} entries from {}", entries.size(), indexFile);
+        }
+        catch (Exception ex)
+        {
+            logger.warn("unable to load hash cache {}; starting empty", indexFile, ex);
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,459 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.util.json.Jackson;
+
+
+/**
+ *  Reads an S3 Inventory report that's been downloaded to the local disk, as
+ *  an alternative to listing the bucket. For a bucket with hundreds of millions
+ *  of objects, reading the inventory takes minutes, whereas listing it takes
+ *  hours (and costs a request per thousand objects).
+ *  <p>
+ *  The reader is constructed from the inventory's <code>manifest.json</code>,
+ *  which identifies the data files and their schema. Data files are located
+ *  relative to the manifest: inventory reports are delivered with the manifest
+ *  in a dated directory and the data files in a sibling <code>data</code>
+ *  directory, and if you copy the report with <code>s3util get -r</code> that
+ *  structure is retained. Data files may also be in the manifest's directory.
+ *  <p>
+ *  Only CSV inventories (gzipped or not) are supported. Rows for non-current
+ *  versions and delete markers are skipped, so that the result matches what a
+ *  listing would return. Objects are passed to the caller in pages, as with
+ *  {@link PagedLister}; the data files are independent, so may be read in
+ *  parallel.
+ */
+public class InventoryReader
+{
+    // tuning parameters
+    private final static int PAGE_SIZE = 1000;
+    private final static int BUFFER_SIZE = 65536;
+
+    private File manifestFile;
+    private String sourceBucket;
+    private List<File> dataFiles = new ArrayList<File>();
+
+    // column indexes from the schema; -1 if the column isn't present
+    private int keyColumn = -1;
+    private int sizeColumn = -1;
+    private int lastModifiedColumn = -1;
+    private int etagColumn = -1;
+    private int storageClassColumn = -1;
+    private int isLatestColumn = -1;
+    private int isDeleteMarkerColumn = -1;
+
+
+    /**
+     *  Reads the manifest and locates the data files.
+     *
+     *  @throws IllegalArgumentException if the manifest describes an inventory
+     *          that we can't read.
+     *  @throws FileNotFoundException if unable to find any of the data files.
+     */
+    public InventoryReader(File manifestFile)
+    throws IOException
+    {
+        this.manifestFile = manifestFile;
+
+        JsonNode manifest = Jackson.getObjectMapper().readTree(manifestFile);
+        sourceBucket = manifest.path("sourceBucket").asText();
+
+        String format = manifest.path("fileFormat").asText();
+        if (!"CSV".equalsIgnoreCase(format))
+            throw new IllegalArgumentException("unsupported inventory format: " + format
+                                               + " (only CSV inventories can be read)");
+
+        parseSchema(manifest.path("fileSchema").asText());
+
+        for (JsonNode file : manifest.path("files"))
+        {
+            dataFiles.add(locateDataFile(file.path("key").asText()));
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the name of the bucket that the inventory describes.
+     */
+    public String getSourceBucket()
+    {
+        return sourceBucket;
+    }
+
+
+    /**
+     *  Returns the local data files, in the order given by the manifest.
+     */
+    public List<File> getDataFiles()
+    {
+        return Collections.unmodifiableList(dataFiles);
+    }
+
+
+    /**
+     *  Reads all data files, in parallel, passing pages of objects to the
+     *  handler. Unlike {@link PagedLister}, the handler may be called
+     *  concurrently from multiple threads, and objects are not in key order.
+     *  The common prefixes passed to the handler are always empty.
+     *
+     *  @param  executor    The executor that reads files; normally shared.
+     *  @param  parallelism The maximum number of files read at once.
+     *  @param  handler     Receives each page of objects.
+     *
+     *  @return The number of objects read.
+     */
+    public long readAll(Executor executor, int parallelism, final PagedLister.PageHandler handler)
+    throws Exception
+    {
+        final AtomicLong count = new AtomicLong();
+        WorkQueue workQueue = new WorkQueue(executor, parallelism);
+        try
+        {
+            for (final File dataFile : dataFiles)
+            {
+                workQueue.submit(() -> count.addAndGet(read(dataFile, handler)));
+            }
+            workQueue.await();
+        }
+        finally
+        {
+            workQueue.waitForCompletion();
+        }
+        return count.get();
+    }
+
+
+    /**
+     *  Reads a single data file on the calling thread, passing pages of objects
+     *  to the handler.
+     *
+     *  @return The number of objects read.
+     */
+    public long read(File dataFile, PagedLister.PageHandler handler)
+    throws Exception
+    {
+        long count = 0;
+        List<S3ObjectSummary> page = new ArrayList<S3ObjectSummary>(PAGE_SIZE);
+        List<String> fields = new ArrayList<String>();
+        int lineNumber = 0;
+        try (BufferedReader in = openDataFile(dataFile))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                lineNumber++;
+                if (line.isEmpty())
+                    continue;
+
+                S3ObjectSummary obj;
+                try
+                {
+                    obj = parseRow(line, fields);
+                }
+                catch (RuntimeException ex)
+                {
+                    throw new IllegalArgumentException("invalid inventory row: " + dataFile + " line " + lineNumber
+                                                       + ": " + ex.getMessage());
+                }
+
+                if (obj == null)
+                    continue;
+
+                page.add(obj);
+                count++;
+                if (page.size() == PAGE_SIZE)
+                {
+                    handler.handlePage(page, Collections.<String>emptyList());
+                    page = new ArrayList<S3ObjectSummary>(PAGE_SIZE);
+                }
+            }
+        }
+        if (!page.isEmpty())
+            handler.handlePage(page, Collections.<String>emptyList());
+        return count;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Determines the column indexes of the fields that we care about. Key,
+     *  size, and last-modified date are required.
+     */
+    private void parseSchema(String schema)
+    {
+        String[] columns = schema.split(",");
+        for (int ii = 0 ; ii < columns.length ; ii++)
+        {
+            switch (columns[ii].trim())
+            {
+                case "Key" :
+                    keyColumn = ii;
+                    break;
+                case "Size" :
+                    sizeColumn = ii;
+                    break;
+                case "LastModifiedDate" :
+                    lastModifiedColumn = ii;
+                    break;
+                case "ETag" :
+                    etagColumn = ii;
+                    break;
+                case "StorageClass" :
+                    storageClassColumn = ii;
+                    break;
+                case "IsLatest" :
+                    isLatestColumn = ii;
+                    break;
+                case "IsDeleteMarker" :
+                    isDeleteMarkerColumn = ii;
+                    break;
+                default :
+                    // ignored
+            }
+        }
+
+        if ((keyColumn < 0) || (sizeColumn < 0) || (lastModifiedColumn < 0))
+            throw new IllegalArgumentException("inventory must include Key, Size, and LastModifiedDate; schema is: " + schema);
+    }
+
+
+    /**
+     *  Finds the local copy of a data file, given its key in the inventory
+     *  bucket. We try successively shorter suffixes of the key, relative to
+     *  the manifest's directory and its parent.
+     */
+    private File locateDataFile(String key)
+    throws FileNotFoundException
+    {
+        File manifestDir = manifestFile.getAbsoluteFile().getParentFile();
+        File[] baseDirs = new File[] { manifestDir.getParentFile(), manifestDir };
+        String suffix = key;
+        while (true)
+        {
+            for (File baseDir : baseDirs)
+            {
+                File candidate = (baseDir != null) ? new File(baseDir, suffix) : null;
+                if ((candidate != null) && candidate.isFile())
+                    return candidate;
+            }
+
+            int slashIdx = suffix.indexOf('/');
+            if (slashIdx < 0)
+                throw new FileNotFoundException("unable to find inventory data file " + key + " near " + manifestFile);
+            suffix = suffix.substring(slashIdx + 1);
+        }
+    }
+
+
+    private static BufferedReader openDataFile(File file)
+    throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            if (file.getName().endsWith(".gz"))
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+        catch (IOException ex)
+        {
+            in.close();
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  Parses a single row, returning null if it should be skipped.
+     */
+    S3ObjectSummary parseRow(String line, List<String> fields)
+    throws IOException
+    {
+        splitCsv(line, fields);
+
+        if ((isLatestColumn >= 0) && "false".equalsIgnoreCase(field(fields, isLatestColumn)))
+            return null;
+        if ((isDeleteMarkerColumn >= 0) && "true".equalsIgnoreCase(field(fields, isDeleteMarkerColumn)))
+            return null;
+
+        S3ObjectSummary obj = new S3ObjectSummary();
+        obj.setBucketName(sourceBucket);
+        obj.setKey(decodeKey(field(fields, keyColumn)));
+        String size = field(fields, sizeColumn);
+        obj.setSize(size.isEmpty() ? 0 : Long.parseLong(size));
+        obj.setLastModified(new Date(parseTimestamp(field(fields, lastModifiedColumn))));
+        if (etagColumn >= 0)
+            obj.setETag(field(fields, etagColumn));
+        if (storageClassColumn >= 0)
+            obj.setStorageClass(field(fields, storageClassColumn));
+        return obj;
+    }
+
+
+    /**
+     *  Parses an inventory timestamp, returning millis since epoch. Inventories
+     *  use a fixed-width format (<code>2020-09-01T12:00:00.000Z</code>), which
+     *  we parse directly: the general-purpose JDK parser takes as long as the
+     *  rest of the row. Anything else is passed to that parser.
+     */
+    static long parseTimestamp(String value)
+    {
+        if ((value.length() == 24) && (value.charAt(4) == '-') && (value.charAt(7) == '-')
+            && (value.charAt(10) == 'T') && (value.charAt(13) == ':') && (value.charAt(16) == ':')
+            && (value.charAt(19) == '.') && (value.charAt(23) == 'Z'))
+        {
+            int year = digits(value, 0, 4);
+            int month = digits(value, 5, 7);
+            int day = digits(value, 8, 10);
+            int hour = digits(value, 11, 13);
+            int minute = digits(value, 14, 16);
+            int second = digits(value, 17, 19);
+            int millis = digits(value, 20, 23);
+            if ((year >= 0) && (month >= 1) && (month <= 12) && (day >= 1) && (day <= 31)
+                && (hour >= 0) && (hour < 24) && (minute >= 0) && (minute < 60)
+                && (second >= 0) && (second < 60) && (millis >= 0))
+            {
+                try
+                {
+                    long days = LocalDate.of(year, month, day).toEpochDay();
+                    return ((days * 86400 + hour * 3600 + minute * 60 + second) * 1000) + millis;
+                }
+                catch (RuntimeException ex)
+                {
+                    // an invalid date (such as February 30); let the JDK report it
+                }
+            }
+        }
+        return Instant.parse(value).toEpochMilli();
+    }
+
+
+    /**
+     *  Parses a run of decimal digits, returning -1 if there are non-digits.
+     */
+    private static int digits(String value, int start, int end)
+    {
+        int result = 0;
+        for (int ii = start ; ii < end ; ii++)
+        {
+            char c = value.charAt(ii);
+            if ((c < '0') || (c > '9'))
+                return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+
+    private static String field(List<String> fields, int index)
+    {
+        if (index >= fields.size())
+            throw new IllegalArgumentException("expected at least " + (index + 1) + " fields, was " + fields.size());
+        return fields.get(index);
+    }
+
+
+    /**
+     *  Inventory keys are URL-encoded. Most keys don't contain anything that
+     *  needs encoding, so we check before decoding.
+     */
+    static String decodeKey(String value)
+    throws IOException
+    {
+        if ((value.indexOf('%') < 0) && (value.indexOf('+') < 0))
+            return value;
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+
+    /**
+     *  Splits a CSV line into the passed list, which is cleared first. Fields
+     *  may be quoted, with embedded quotes doubled. Inventory files quote every
+     *  field, but we don't require it.
+     */
+    static void splitCsv(String line, List<String> fields)
+    {
+        fields.clear();
+        int len = line.length();
+        int pos = 0;
+        while (true)
+        {
+            if ((pos < len) && (line.charAt(pos) == '"'))
+            {
+                StringBuilder sb = null;
+                int start = ++pos;
+                while (true)
+                {
+                    int quoteIdx = line.indexOf('"', pos);
+                    if (quoteIdx < 0)
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    if ((quoteIdx + 1 < len) && (line.charAt(quoteIdx + 1) == '"'))
+                    {
+                        if (sb == null)
+                            sb = new StringBuilder();
+                        sb.append(line, start, quoteIdx + 1);
+                        pos = start = quoteIdx + 2;
+                        continue;
+                    }
+                    fields.add((sb == null) ? line.substring(start, quoteIdx)
+                                            : sb.append(line, start, quoteIdx).toString());
+                    pos = quoteIdx + 1;
+                    break;
+                }
+            }
+            else
+            {
+                int commaIdx = line.indexOf(',', pos);
+                int end = (commaIdx < 0) ? len : commaIdx;
+                fields.add(line.substring(pos, end));
+                pos = end;
+            }
+
+            if (pos >= len)
+                return;
+            if (line.charAt(pos) != ',')
+                throw new IllegalArgumentException("expected comma at position " + pos);
+            pos++;
+        }
+    }
+}
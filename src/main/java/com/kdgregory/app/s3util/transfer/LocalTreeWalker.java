@@ -0,0 +1,130 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ *  Lazily walks a directory tree, returning the files in the order used by
+ *  {@link SyncPlanner#compareKeys}, as applied to their slash-separated path
+ *  relative to the root. Only one directory listing is held per level of the
+ *  tree.
+ *  <p>
+ *  To produce the same order as a flat S3 listing, each directory's children
+ *  are sorted with subdirectory names treated as if they ended with a slash:
+ *  "foo-bar" sorts before "foo/baz", because '-' is less than '/'.
+ */
+public class LocalTreeWalker
+implements Iterator<SyncEntry>
+{
+    private Deque<Level> stack = new ArrayDeque<>();
+    private SyncEntry next;
+
+
+    public LocalTreeWalker(File root)
+    {
+        push(root, "");
+    }
+
+
+    @Override
+    public boolean hasNext()
+    {
+        advance();
+        return next != null;
+    }
+
+
+    @Override
+    public SyncEntry next()
+    {
+        advance();
+        if (next == null)
+            throw new NoSuchElementException();
+
+        SyncEntry result = next;
+        next = null;
+        return result;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  One directory in the walk, with its sorted children and our position.
+     */
+    private static class Level
+    {
+        public String prefix;
+        public Child[] children;
+        public int index;
+    }
+
+
+    private static class Child
+    {
+        public File file;
+        public String sortName;
+
+        public Child(File file)
+        {
+            this.file = file;
+            this.sortName = file.isDirectory() ? file.getName() + "/" : file.getName();
+        }
+    }
+
+
+    private void push(File dir, String prefix)
+    {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+
+        Level level = new Level();
+        level.prefix = prefix;
+        level.children = new Child[files.length];
+        for (int ii = 0 ; ii < files.length ; ii++)
+            level.children[ii] = new Child(files[ii]);
+        Arrays.sort(level.children, (c1, c2) -> SyncPlanner.compareKeys(c1.sortName, c2.sortName));
+        stack.push(level);
+    }
+
+
+    private void advance()
+    {
+        while ((next == null) && !stack.isEmpty())
+        {
+            Level level = stack.peek();
+            if (level.index >= level.children.length)
+            {
+                stack.pop();
+                continue;
+            }
+
+            Child child = level.children[level.index++];
+            if (child.file.isDirectory())
+                push(child.file, level.prefix + child.sortName);
+            else if (child.file.isFile())
+                next = SyncEntry.forLocal(level.prefix + child.file.getName(), child.file);
+        }
+    }
+}
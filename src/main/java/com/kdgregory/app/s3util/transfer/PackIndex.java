@@ -0,0 +1,338 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.S3Object;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  The index for a pack: a single S3 object that holds the concatenated content
+ *  of many small files. The index is stored as a sidecar object, with the same
+ *  key as the pack plus <code>.idx</code>, and is written after the pack, so an
+ *  index's existence means that its pack is complete.
+ *  <p>
+ *  Packs live in a <code>.s3util-packs</code> "directory" under the prefix that
+ *  their members were uploaded to (the "base prefix"), and member keys are stored
+ *  relative to that prefix. This means that copying the pack and its index to a
+ *  different prefix also moves the members.
+ *  <p>
+ *  The index is UTF-8 text: a header line, followed by one line per member with
+ *  tab-separated offset, length, last-modified timestamp (millis), content type,
+ *  and relative key. Keys containing tabs or newlines can't be packed.
+ */
+public class PackIndex
+{
+    /** The name of the pseudo-directory that holds packs and their indexes. */
+    public final static String PACK_DIRECTORY = ".s3util-packs";
+
+    private final static String PACK_SUFFIX = ".pack";
+    private final static String INDEX_SUFFIX = ".idx";
+    private final static String HEADER = "# s3util pack index v1";
+
+
+    /**
+     *  Information about a single member of the pack.
+     */
+    public static class Entry
+    {
+        private String key;
+        private long offset;
+        private long length;
+        private long lastModified;
+        private String contentType;
+
+        private Entry(String key, long offset, long length, long lastModified, String contentType)
+        {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+
+        /**
+         *  Returns the member's full key (including the pack's base prefix).
+         */
+        public String getKey()
+        {
+            return key;
+        }
+
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        public long getLength()
+        {
+            return length;
+        }
+
+        public long getLastModified()
+        {
+            return lastModified;
+        }
+
+        public String getContentType()
+        {
+            return contentType;
+        }
+    }
+
+
+    private String packKey;
+    private String basePrefix;
+    private List<Entry> entries = new ArrayList<Entry>();
+    private long packSize;
+
+
+    /**
+     *  Creates an empty index for the given pack key.
+     *
+     *  @throws IllegalArgumentException if the key isn't a pack key.
+     */
+    public PackIndex(String packKey)
+    {
+        if (!isPackKey(packKey))
+            throw new IllegalArgumentException("not a pack key: " + packKey);
+
+        this.packKey = packKey;
+        this.basePrefix = packKey.substring(0, packKey.lastIndexOf(PACK_DIRECTORY + "/"));
+    }
+
+//----------------------------------------------------------------------------
+//  Key utilities
+//----------------------------------------------------------------------------
+
+    /**
+     *  Creates a unique pack key under the given prefix. The key incorporates
+     *  the current time so that packs list in the order they were created.
+     */
+    public static String newPackKey(String prefix)
+    {
+        if (!prefix.isEmpty() && !prefix.endsWith("/"))
+            prefix += "/";
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return prefix + PACK_DIRECTORY + "/"
+             + fmt.format(new Date()) + "-" + UUID.randomUUID().toString().substring(0, 8)
+             + PACK_SUFFIX;
+    }
+
+
+    /**
+     *  Determines whether the key identifies a pack or an index. These objects
+     *  aren't shown as files, and are skipped by operations such as sync.
+     */
+    public static boolean isPackObject(String key)
+    {
+        return isPackKey(key) || isIndexKey(key);
+    }
+
+
+    public static boolean isPackKey(String key)
+    {
+        return inPackDirectory(key) && key.endsWith(PACK_SUFFIX);
+    }
+
+
+    public static boolean isIndexKey(String key)
+    {
+        return inPackDirectory(key) && key.endsWith(PACK_SUFFIX + INDEX_SUFFIX);
+    }
+
+
+    public static String indexKeyFor(String packKey)
+    {
+        return packKey + INDEX_SUFFIX;
+    }
+
+
+    public static String packKeyFor(String indexKey)
+    {
+        return indexKey.substring(0, indexKey.length() - INDEX_SUFFIX.length());
+    }
+
+
+    /**
+     *  Determines whether a file's key can be stored in a pack.
+     */
+    public static boolean isPackable(String key)
+    {
+        return (key.indexOf('\t') < 0) && (key.indexOf('\n') < 0) && (key.indexOf('\r') < 0);
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    public String getPackKey()
+    {
+        return packKey;
+    }
+
+
+    public String getIndexKey()
+    {
+        return indexKeyFor(packKey);
+    }
+
+
+    /**
+     *  Returns the prefix that member keys are relative to; empty or ends with
+     *  a slash.
+     */
+    public String getBasePrefix()
+    {
+        return basePrefix;
+    }
+
+
+    /**
+     *  Returns the total size of all members; this is also the offset of the
+     *  next member to be added.
+     */
+    public long getPackSize()
+    {
+        return packSize;
+    }
+
+
+    public List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+
+    /**
+     *  Adds a member, at the end of the pack.
+     *
+     *  @param  key     The member's full key, which must start with the base prefix.
+     */
+    public Entry add(String key, long length, long lastModified, String contentType)
+    {
+        if (!key.startsWith(basePrefix) || !isPackable(key))
+            throw new IllegalArgumentException("can't add " + key + " to pack " + packKey);
+
+        Entry entry = new Entry(key, packSize, length, lastModified, contentType);
+        entries.add(entry);
+        packSize += length;
+        return entry;
+    }
+
+
+    /**
+     *  Returns the serialized form of the index.
+     */
+    public byte[] toBytes()
+    {
+        StringBuilder sb = new StringBuilder(64 * (entries.size() + 1));
+        sb.append(HEADER).append("\n");
+        for (Entry entry : entries)
+        {
+            sb.append(entry.offset).append("\t")
+              .append(entry.length).append("\t")
+              .append(entry.lastModified).append("\t")
+              .append(entry.contentType).append("\t")
+              .append(entry.key.substring(basePrefix.length())).append("\n");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     *  Parses a serialized index. The stream is not closed.
+     *
+     *  @throws IOException if the index is malformed.
+     */
+    public static PackIndex parse(String packKey, InputStream in)
+    throws IOException
+    {
+        PackIndex index = new PackIndex(packKey);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        String line = reader.readLine();
+        if (!HEADER.equals(line))
+            throw new IOException("not a pack index: " + index.getIndexKey());
+
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null)
+        {
+            lineNumber++;
+            String[] fields = line.split("\t", 5);
+            if (fields.length != 5)
+                throw new IOException("invalid pack index " + index.getIndexKey() + ", line " + lineNumber);
+            try
+            {
+                Entry entry = new Entry(index.basePrefix + fields[4],
+                                        Long.parseLong(fields[0]),
+                                        Long.parseLong(fields[1]),
+                                        Long.parseLong(fields[2]),
+                                        fields[3]);
+                index.entries.add(entry);
+                index.packSize = Math.max(index.packSize, entry.offset + entry.length);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IOException("invalid pack index " + index.getIndexKey() + ", line " + lineNumber);
+            }
+        }
+        return index;
+    }
+
+
+    /**
+     *  Retrieves and parses an index from S3.
+     */
+    public static PackIndex load(AmazonS3 client, RequestGovernor governor, final String bucket, final String indexKey)
+    throws Exception
+    {
+        final String packKey = packKeyFor(indexKey);
+        return governor.execute(OperationType.GET, indexKey, () ->
+        {
+            try (S3Object obj = client.getObject(bucket, indexKey))
+            {
+                return parse(packKey, obj.getObjectContent());
+            }
+        });
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static boolean inPackDirectory(String key)
+    {
+        return key.startsWith(PACK_DIRECTORY + "/")
+            || key.contains("/" + PACK_DIRECTORY + "/");
+    }
+}
@@ -0,0 +1,172 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.util.Base64;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.util.MimeHelper;
+
+
+/**
+ *  Uploads a group of small files as a single pack object plus its index (see
+ *  {@link PackIndex}). This replaces one request per file with two requests per
+ *  pack, which matters when there are many thousands of files.
+ *  <p>
+ *  The pack is assembled in memory, so callers must limit the size of each
+ *  group; {@link #MEMBER_LIMIT} and {@link #PACK_SIZE} are the limits used by
+ *  the upload operation. Instances are thread-safe.
+ */
+public class PackUploader
+{
+    /** Files smaller than this are packed. */
+    public final static long MEMBER_LIMIT = 64 * 1024;
+
+    /** The target size for a pack. */
+    public final static long PACK_SIZE = 16 * 1024 * 1024;
+
+
+    /**
+     *  A file to be packed, and the key that it would have if uploaded normally.
+     */
+    public static class Member
+    {
+        private String key;
+        private File file;
+
+        public Member(String key, File file)
+        {
+            this.key = key;
+            this.file = file;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+    }
+
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+
+
+    public PackUploader(AmazonS3 client, RequestGovernor governor)
+    {
+        this.client = client;
+        this.governor = governor;
+    }
+
+
+    /**
+     *  Determines whether a file should be packed: it must be non-empty, smaller
+     *  than {@link #MEMBER_LIMIT}, and have a key that can be stored in an index.
+     */
+    public static boolean isPackable(String key, File file)
+    {
+        long size = file.length();
+        return (size > 0) && (size < MEMBER_LIMIT) && PackIndex.isPackable(key);
+    }
+
+
+    /**
+     *  Reads the passed files and uploads them as a single pack, followed by its
+     *  index. All member keys must start with the given prefix.
+     *
+     *  @param  acl     The canned ACL for the pack and index; may be null.
+     *  @return The index of the uploaded pack.
+     */
+    public PackIndex upload(final String bucket, String prefix, List<Member> members, final CannedAccessControlList acl)
+    throws Exception
+    {
+        final PackIndex index = new PackIndex(PackIndex.newPackKey(prefix));
+        byte[][] contents = new byte[members.size()][];
+        for (int ii = 0 ; ii < members.size() ; ii++)
+        {
+            Member member = members.get(ii);
+            contents[ii] = Files.readAllBytes(member.getFile().toPath());
+            index.add(member.getKey(), contents[ii].length, member.getFile().lastModified(),
+                      MimeHelper.lookup(member.getFile()));
+        }
+
+        byte[] pack = new byte[(int)index.getPackSize()];
+        int offset = 0;
+        for (byte[] content : contents)
+        {
+            System.arraycopy(content, 0, pack, offset, content.length);
+            offset += content.length;
+        }
+
+        put(bucket, index.getPackKey(), pack, "application/octet-stream", acl);
+        put(bucket, index.getIndexKey(), index.toBytes(), "text/plain; charset=utf-8", acl);
+        logger.debug("uploaded pack {}: {} members, {} bytes", index.getPackKey(), members.size(), pack.length);
+        return index;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void put(final String bucket, final String key, final byte[] content, String contentType, final CannedAccessControlList acl)
+    throws Exception
+    {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(contentType);
+        metadata.setContentLength(content.length);
+        metadata.setContentMD5(md5(content));
+        governor.execute(OperationType.PUT, key, () ->
+        {
+            PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(content), metadata);
+            if (acl != null)
+                request.setCannedAcl(acl);
+            return client.putObject(request);
+        });
+    }
+
+
+    private static String md5(byte[] data)
+    throws IOException
+    {
+        try
+        {
+            return Base64.encodeAsString(MessageDigest.getInstance("MD5").digest(data));
+        }
+        catch (Exception ex)
+        {
+            throw new IOException("unable to compute MD5", ex);
+        }
+    }
+}
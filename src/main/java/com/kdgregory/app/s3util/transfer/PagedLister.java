@@ -0,0 +1,106 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.List;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  Pages through a bucket listing, handing each page to a callback as soon
+ *  as it arrives. Only one page is held at a time, so callers that process
+ *  and discard pages can list arbitrarily large buckets in constant memory.
+ *  Requests go through the governor, so are retried as needed.
+ */
+public class PagedLister
+{
+    /**
+     *  Receives listing pages. Objects arrive in key order, as returned by S3
+     *  (which is UTF-8 byte order).
+     */
+    public interface PageHandler
+    {
+        void handlePage(List<S3ObjectSummary> objects, List<String> commonPrefixes)
+        throws Exception;
+    }
+
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+    private String bucket;
+    private String prefix;
+    private String delimiter;
+
+
+    public PagedLister(AmazonS3 client, RequestGovernor governor, String bucket)
+    {
+        this.client = client;
+        this.governor = governor;
+        this.bucket = bucket;
+    }
+
+
+    /**
+     *  Restricts the listing to keys starting with the given prefix.
+     */
+    public PagedLister withPrefix(String value)
+    {
+        prefix = value;
+        return this;
+    }
+
+
+    /**
+     *  Groups keys containing the delimiter (after the prefix) into common
+     *  prefixes, as S3 does.
+     */
+    public PagedLister withDelimiter(String value)
+    {
+        delimiter = value;
+        return this;
+    }
+
+
+    /**
+     *  Retrieves all pages, passing each to the handler.
+     *
+     *  @return The number of objects (not including common prefixes).
+     */
+    public long listAll(PageHandler handler)
+    throws Exception
+    {
+        final ListObjectsRequest request = new ListObjectsRequest()
+                                           .withBucketName(bucket)
+                                           .withPrefix(prefix)
+                                           .withDelimiter(delimiter);
+        long count = 0;
+        ObjectListing response = null;
+        do
+        {
+            response = governor.execute(OperationType.LIST, prefix, () -> client.listObjects(request));
+            count += response.getObjectSummaries().size();
+            handler.handlePage(response.getObjectSummaries(), response.getCommonPrefixes());
+            request.setMarker(response.getNextMarker());
+        }
+        while (response.isTruncated());
+        return count;
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+
+/**
+ *  The part sizes used for multipart transfers. Everything that writes parts,
+ *  or computes the ETag that a multipart upload will have, uses these, so that
+ *  the ETags we compute match those that S3 reports.
+ */
+public class PartSizes
+{
+    /** The default part size; S3 requires at least 5 MB for all but the last part. */
+    public final static long DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+
+    /** The maximum number of parts that S3 will accept. */
+    public final static int MAX_PARTS = 10000;
+
+
+    /**
+     *  Returns the part size to use for an object: the preferred size, unless
+     *  that would need more than {@link #MAX_PARTS} parts.
+     */
+    public static long forObject(long objectSize, long preferredPartSize)
+    {
+        return Math.max(preferredPartSize, (objectSize + MAX_PARTS - 1) / MAX_PARTS);
+    }
+}
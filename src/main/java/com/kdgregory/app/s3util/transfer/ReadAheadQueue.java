@@ -0,0 +1,159 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ *  Runs fetches ahead of a consumer that needs their results in order, such
+ *  as a writer appending entries to an archive. Fetches run concurrently on a
+ *  shared executor; the consumer takes results in the order they were added.
+ *  <p>
+ *  Memory is bounded by both the number of fetches in flight and their total
+ *  "weight" (normally, their size in bytes). The consumer checks for room
+ *  before adding a fetch, and takes results until there is: an empty queue
+ *  always has room, so a single fetch may exceed the limit.
+ *  <p>
+ *  This class is intended for use by a single thread, which both adds fetches
+ *  and takes their results.
+ */
+public class ReadAheadQueue<T>
+{
+    /**
+     *  Retrieves a single item; runs on the executor.
+     */
+    public interface Fetcher<T>
+    {
+        T fetch() throws Exception;
+    }
+
+
+    private ExecutorService executor;
+    private int maxPending;
+    private long maxWeight;
+
+    private Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+    private Deque<Long> weights = new ArrayDeque<Long>();
+    private long pendingWeight;
+
+
+    /**
+     *  @param  executor    Runs the fetches; normally shared.
+     *  @param  maxPending  The maximum number of fetches in flight.
+     *  @param  maxWeight   The maximum total weight of fetches in flight.
+     */
+    public ReadAheadQueue(ExecutorService executor, int maxPending, long maxWeight)
+    {
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.maxWeight = maxWeight;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Determines whether a fetch with the given weight can be added without
+     *  exceeding the limits.
+     */
+    public boolean hasRoom(long weight)
+    {
+        return pending.isEmpty()
+            || ((pending.size() < maxPending) && (pendingWeight + weight <= maxWeight));
+    }
+
+
+    /**
+     *  Starts a fetch. Does not check limits; call {@link #hasRoom} first.
+     */
+    public void add(long weight, final Fetcher<T> fetcher)
+    {
+        pending.add(executor.submit(() -> fetcher.fetch()));
+        weights.add(Long.valueOf(weight));
+        pendingWeight += weight;
+    }
+
+
+    /**
+     *  Returns the result of the oldest fetch, waiting for it if necessary.
+     *
+     *  @throws Exception   the exception thrown by the fetch, if any.
+     *  @throws IllegalStateException if there are no fetches pending.
+     */
+    public T next()
+    throws Exception
+    {
+        Future<T> future = pending.poll();
+        if (future == null)
+            throw new IllegalStateException("no fetches pending");
+        pendingWeight -= weights.poll().longValue();
+
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception)
+                throw (Exception)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw ex;
+        }
+    }
+
+
+    public boolean isEmpty()
+    {
+        return pending.isEmpty();
+    }
+
+
+    public int size()
+    {
+        return pending.size();
+    }
+
+
+    /**
+     *  Returns the total weight of the fetches that are pending.
+     */
+    public long getPendingWeight()
+    {
+        return pendingWeight;
+    }
+
+
+    /**
+     *  Cancels all pending fetches, interrupting those that are running. Call
+     *  this when abandoning the queue (for example, because the consumer has
+     *  failed).
+     */
+    public void cancel()
+    {
+        for (Future<T> future : pending)
+            future.cancel(true);
+        pending.clear();
+        weights.clear();
+        pendingWeight = 0;
+    }
+}
@@ -0,0 +1,318 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+
+import com.kdgregory.app.s3util.metrics.MetricsRequestHandler;
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+
+
+/**
+ *  Controls the rate at which requests are sent to S3. There are two parts
+ *  to this:
+ *  <ul>
+ *  <li> Requests that fail with a retryable error are retried with "full jitter"
+ *       exponential backoff: the delay is a random value between 0 and an upper
+ *       bound that doubles with each attempt.
+ *  <li> S3 scales request capacity per key prefix, and responds with 503 SlowDown
+ *       when a prefix is over its limit. The governor tracks a concurrency limit
+ *       per prefix (the portion of the key before the final slash), increasing
+ *       it additively on success and halving it on throttling (AIMD, as with TCP
+ *       congestion control). Callers block when their prefix is at its limit.
+ *  </ul>
+ *  Requests passed to {@link #execute} must be repeatable: for example, uploads
+ *  should be given a <code>File</code>, not a stream.
+ *  <p>
+ *  Retries belong in one place: if the SDK also retried, each attempt made by
+ *  the governor would hide several SDK attempts (including throttled ones),
+ *  and the backoffs would compound. So clients used with the governor should
+ *  be configured with {@link #sdkRetryPolicy}, which doesn't retry at all.
+ */
+public class RequestGovernor
+{
+    public final static int     DEFAULT_INITIAL_LIMIT   = 8;
+    public final static int     DEFAULT_MAX_LIMIT       = 256;
+    public final static int     DEFAULT_MAX_ATTEMPTS    = 10;
+    public final static long    DEFAULT_BASE_DELAY      = 50;
+    public final static long    DEFAULT_MAX_DELAY       = 20000;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private S3Metrics metrics;
+    private int initialLimit;
+    private int maxLimit;
+    private int maxAttempts;
+    private long baseDelay;
+    private long maxDelay;
+
+    // all access to this map is synchronized on the governor
+    private Map<String,PrefixLimiter> limiters = new HashMap<>();
+
+
+    /**
+     *  Creates an instance with default configuration.
+     */
+    public RequestGovernor(S3Metrics metrics)
+    {
+        this(metrics, DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_ATTEMPTS,
+             DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+
+    /**
+     *  Base constructor.
+     *
+     *  @param  metrics         Receives retry counts.
+     *  @param  initialLimit    The starting concurrency limit for a prefix.
+     *  @param  maxLimit        The maximum concurrency for a prefix.
+     *  @param  maxAttempts     The number of times a request is tried before
+     *                          giving up (includes the initial attempt).
+     *  @param  baseDelay       The upper bound of the first retry delay, in millis.
+     *  @param  maxDelay        The cap on the upper bound of retry delays, in millis.
+     */
+    public RequestGovernor(S3Metrics metrics, int initialLimit, int maxLimit, int maxAttempts,
+                           long baseDelay, long maxDelay)
+    {
+        this.metrics = metrics;
+        this.initialLimit = initialLimit;
+        this.maxLimit = maxLimit;
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Executes a request, blocking until its prefix has capacity and retrying
+     *  as needed.
+     *
+     *  @param  type    The type of request, for metrics.
+     *  @param  key     The object key (or prefix) that the request targets; may
+     *                  be empty for bucket-level requests.
+     *  @param  request The request.
+     *
+     *  @return The request's result.
+     *  @throws Exception if the request fails with a non-retryable error, or
+     *          runs out of attempts (in which case the last exception is thrown),
+     *          or if the thread is interrupted while waiting.
+     */
+    public <T> T execute(OperationType type, String key, Callable<T> request)
+    throws Exception
+    {
+        PrefixLimiter limiter = acquireLimiter(prefixOf(key));
+        try
+        {
+            for (int attempt = 1 ; ; attempt++)
+            {
+                long epoch = limiter.acquire();
+                boolean throttled = false;
+                try
+                {
+                    T result = request.call();
+                    limiter.release(epoch, false);
+                    return result;
+                }
+                catch (Exception ex)
+                {
+                    throttled = MetricsRequestHandler.isThrottle(ex);
+                    limiter.release(epoch, throttled);
+                    if (!throttled && !isRetryable(ex))
+                        throw ex;
+                    if (attempt >= maxAttempts)
+                    {
+                        logger.warn("giving up on {} after {} attempts", key, attempt);
+                        throw ex;
+                    }
+                }
+
+                long delay = backoffDelay(attempt);
+                logger.debug("retrying {} in {} ms (attempt {}, throttled: {})", key, delay, attempt, throttled);
+                metrics.forType(type).recordRetry();
+                Thread.sleep(delay);
+            }
+        }
+        finally
+        {
+            releaseLimiter(limiter);
+        }
+    }
+
+
+    /**
+     *  Returns the current concurrency limit for the prefix of the given key.
+     *  This is intended for testing and diagnostics.
+     */
+    public synchronized int getLimit(String key)
+    {
+        PrefixLimiter limiter = limiters.get(prefixOf(key));
+        return (limiter != null) ? limiter.currentLimit() : initialLimit;
+    }
+
+
+    /**
+     *  Returns the retry policy for SDK clients whose requests are made through
+     *  the governor: it never retries, leaving that to {@link #execute}.
+     */
+    public static RetryPolicy sdkRetryPolicy()
+    {
+        return PredefinedRetryPolicies.NO_RETRY_POLICY;
+    }
+
+
+    /**
+     *  Returns the prefix that S3 would use to partition the given key. We use
+     *  the "directory" portion of the key, which is how most workloads are
+     *  organized.
+     */
+    public static String prefixOf(String key)
+    {
+        if (key == null)
+            return "";
+        int slashIdx = key.lastIndexOf('/');
+        return (slashIdx < 0) ? "" : key.substring(0, slashIdx + 1);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private synchronized PrefixLimiter acquireLimiter(String prefix)
+    {
+        PrefixLimiter limiter = limiters.get(prefix);
+        if (limiter == null)
+        {
+            limiter = new PrefixLimiter(prefix);
+            limiters.put(prefix, limiter);
+        }
+        limiter.users++;
+        return limiter;
+    }
+
+
+    /**
+     *  Releases a caller's interest in a limiter. Limiters that aren't in use,
+     *  and haven't been throttled below the initial limit, are discarded so that
+     *  the map doesn't grow without bound; throttled limiters are retained so
+     *  that we remember to go easy on that prefix.
+     */
+    private synchronized void releaseLimiter(PrefixLimiter limiter)
+    {
+        limiter.users--;
+        if ((limiter.users == 0) && (limiter.currentLimit() >= initialLimit))
+        {
+            limiters.remove(limiter.prefix);
+        }
+    }
+
+
+    private long backoffDelay(int attempt)
+    {
+        long ceiling = baseDelay << Math.min(attempt - 1, 30);
+        ceiling = Math.min(Math.max(ceiling, 1), maxDelay);
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+
+    private static boolean isRetryable(Exception ex)
+    {
+        if (ex instanceof AmazonServiceException)
+            return ((AmazonServiceException)ex).getStatusCode() >= 500;
+        if (ex instanceof SdkClientException)
+            return ((SdkClientException)ex).isRetryable();
+        return false;
+    }
+
+
+    /**
+     *  Manages the concurrency limit for a single prefix. The limit is held as
+     *  a double so that additive increase can be spread over a window: each
+     *  success adds <code>1/limit</code>, so the limit grows by one after a
+     *  full window of successful requests.
+     *  <p>
+     *  To avoid collapsing the limit when many concurrent requests are throttled
+     *  at once, only one decrease is applied per "epoch": a throttled request
+     *  only reduces the limit if it started after the most recent decrease.
+     */
+    private class PrefixLimiter
+    {
+        public final String prefix;
+        public int users;               // guarded by the governor
+
+        private double limit;
+        private int inFlight;
+        private long epoch;
+
+
+        public PrefixLimiter(String prefix)
+        {
+            this.prefix = prefix;
+            this.limit = initialLimit;
+        }
+
+
+        public synchronized int currentLimit()
+        {
+            return Math.max(1, (int)limit);
+        }
+
+
+        public synchronized long acquire()
+        throws InterruptedException
+        {
+            while (inFlight >= currentLimit())
+            {
+                wait();
+            }
+            inFlight++;
+            return epoch;
+        }
+
+
+        public synchronized void release(long requestEpoch, boolean throttled)
+        {
+            inFlight--;
+            if (throttled)
+            {
+                if (requestEpoch == epoch)
+                {
+                    limit = Math.max(1, limit / 2);
+                    epoch++;
+                    logger.debug("throttled on prefix \"{}\"; limit now {}", prefix, currentLimit());
+                }
+            }
+            else
+            {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+            notifyAll();
+        }
+    }
+}
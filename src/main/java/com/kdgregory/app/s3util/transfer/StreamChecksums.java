@@ -0,0 +1,300 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.security.MessageDigest;
+
+import com.amazonaws.util.BinaryUtils;
+
+
+/**
+ *  Computes the checksums that S3 reports for an object, in a single pass over
+ *  its content: the MD5 (the ETag of an object uploaded in a single request),
+ *  the ETag of a multipart upload with a given part size (the MD5 of the parts'
+ *  MD5s, followed by the number of parts), and optionally CRC-32C.
+ *  <p>
+ *  Content is passed to {@link #update} as it's read or written, and {@link
+ *  #finish} is called at the end. The <code>verify</code> methods compare the
+ *  results to what S3 reported, throwing {@link ChecksumMismatchException} if
+ *  they differ.
+ *  <p>
+ *  Instances are not thread-safe. {@link #copy} creates an independent copy
+ *  of the current state, so that a request can be retried from the point that
+ *  it started.
+ */
+public class StreamChecksums
+{
+    private long partSize;
+    private MessageDigest md5;
+    private MessageDigest partMD5;
+    private MessageDigest combinedMD5;
+    private Crc32c crc32c;
+
+    private long size;
+    private long partBytes;
+    private int partCount;
+    private byte[] lastPartMD5;
+    private boolean finished;
+
+
+    /**
+     *  @param  partSize    The part size used to compute the multipart ETag.
+     *  @param  withCRC32C  If true, also computes CRC-32C; this adds about half
+     *                      again to the CPU cost, so is only done when there's
+     *                      a value to compare against.
+     */
+    public StreamChecksums(long partSize, boolean withCRC32C)
+    {
+        this.partSize = partSize;
+        this.md5 = newMD5();
+        this.partMD5 = newMD5();
+        this.combinedMD5 = newMD5();
+        this.crc32c = withCRC32C ? new Crc32c() : null;
+    }
+
+
+    private StreamChecksums(StreamChecksums that)
+    {
+        this.partSize = that.partSize;
+        this.md5 = cloneDigest(that.md5);
+        this.partMD5 = cloneDigest(that.partMD5);
+        this.combinedMD5 = cloneDigest(that.combinedMD5);
+        this.crc32c = (that.crc32c != null) ? that.crc32c.copy() : null;
+        this.size = that.size;
+        this.partBytes = that.partBytes;
+        this.partCount = that.partCount;
+        this.lastPartMD5 = that.lastPartMD5;
+        this.finished = that.finished;
+    }
+
+//----------------------------------------------------------------------------
+//  Public Methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Adds content.
+     */
+    public void update(byte[] buf, int off, int len)
+    {
+        if (finished)
+            throw new IllegalStateException("checksums have been finished");
+
+        md5.update(buf, off, len);
+        if (crc32c != null)
+            crc32c.update(buf, off, len);
+        size += len;
+
+        while (len > 0)
+        {
+            int count = (int)Math.min(len, partSize - partBytes);
+            partMD5.update(buf, off, count);
+            off += count;
+            len -= count;
+            partBytes += count;
+            if (partBytes == partSize)
+                endPart();
+        }
+    }
+
+
+    /**
+     *  Indicates that all content has been added. May be called more than once.
+     */
+    public StreamChecksums finish()
+    {
+        if (!finished && (partBytes > 0))
+            endPart();
+        finished = true;
+        return this;
+    }
+
+
+    /**
+     *  Returns an independent copy of this object.
+     */
+    public StreamChecksums copy()
+    {
+        return new StreamChecksums(this);
+    }
+
+
+    /**
+     *  Returns the number of bytes that have been added.
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     *  Returns the number of parts that have been completed.
+     */
+    public int getPartCount()
+    {
+        return partCount;
+    }
+
+
+    /**
+     *  Returns the part size used to compute the multipart ETag.
+     */
+    public long getPartSize()
+    {
+        return partSize;
+    }
+
+
+    /**
+     *  Returns the MD5 of all content, as a lowercase hex string. Only valid
+     *  after {@link #finish}.
+     */
+    public String getMD5()
+    {
+        return BinaryUtils.toHex(cloneDigest(md5).digest());
+    }
+
+
+    /**
+     *  Returns the MD5 of the most recently completed part, as a lowercase hex
+     *  string; null if no part has been completed.
+     */
+    public String getLastPartMD5()
+    {
+        return (lastPartMD5 != null) ? BinaryUtils.toHex(lastPartMD5) : null;
+    }
+
+
+    /**
+     *  Returns the ETag of a multipart upload of the content, using the part
+     *  size. Only valid after {@link #finish}.
+     */
+    public String getMultipartETag()
+    {
+        return BinaryUtils.toHex(cloneDigest(combinedMD5).digest()) + "-" + partCount;
+    }
+
+
+    /**
+     *  Returns the CRC-32C of the content, in the form used by S3; null if not
+     *  computed.
+     */
+    public String getCRC32C()
+    {
+        return (crc32c != null) ? crc32c.toBase64() : null;
+    }
+
+
+    /**
+     *  Verifies an ETag (with or without quotes). Single-request ETags are
+     *  compared to the MD5. Multipart ETags can only be compared if they were
+     *  created with this object's part size; callers must determine that.
+     *
+     *  @throws ChecksumMismatchException if the ETag doesn't match.
+     */
+    public void verifyETag(String key, String eTag)
+    {
+        if (eTag == null)
+            return;
+
+        eTag = eTag.replace("\"", "");
+        String expected = eTag.contains("-") ? getMultipartETag() : getMD5();
+        if (!eTag.equalsIgnoreCase(expected))
+            throw new ChecksumMismatchException(key, "ETag", eTag, expected);
+    }
+
+
+    /**
+     *  Verifies the MD5 of the most recently completed part, against the ETag
+     *  that S3 returned for it.
+     *
+     *  @throws ChecksumMismatchException if the ETag doesn't match.
+     */
+    public void verifyPartETag(String key, int partNumber, String eTag)
+    {
+        if (eTag == null)
+            return;
+
+        eTag = eTag.replace("\"", "");
+        if (!eTag.equalsIgnoreCase(getLastPartMD5()))
+            throw new ChecksumMismatchException(key + " part " + partNumber, "ETag", eTag, getLastPartMD5());
+    }
+
+
+    /**
+     *  Verifies a CRC-32C reported by S3. Does nothing if the checksum wasn't
+     *  computed, or if the value is for a multipart upload (which is a checksum
+     *  of the parts' checksums, with a "-N" suffix).
+     *
+     *  @throws ChecksumMismatchException if the checksum doesn't match.
+     */
+    public void verifyCRC32C(String key, String value)
+    {
+        if ((crc32c == null) || (value == null) || value.contains("-"))
+            return;
+
+        if (!value.equals(getCRC32C()))
+            throw new ChecksumMismatchException(key, "CRC32C", value, getCRC32C());
+    }
+
+
+    /**
+     *  Determines whether an ETag is the content's MD5, given the encryption
+     *  reported with it. Objects encrypted with KMS or a customer-provided key
+     *  have ETags that aren't derived from their content.
+     */
+    public static boolean isContentETag(String sseAlgorithm, String sseCustomerAlgorithm)
+    {
+        return !"aws:kms".equals(sseAlgorithm) && (sseCustomerAlgorithm == null);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private void endPart()
+    {
+        lastPartMD5 = partMD5.digest();
+        combinedMD5.update(lastPartMD5);
+        partCount++;
+        partBytes = 0;
+    }
+
+
+    private static MessageDigest newMD5()
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (Exception ex)
+        {
+            throw new RuntimeException("MD5 not available", ex);
+        }
+    }
+
+
+    private static MessageDigest cloneDigest(MessageDigest digest)
+    {
+        try
+        {
+            return (MessageDigest)digest.clone();
+        }
+        catch (CloneNotSupportedException ex)
+        {
+            throw new RuntimeException("MD5 implementation can't be cloned", ex);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+
+
+/**
+ *  Uploads objects from streams that can only be read once, such as the entries
+ *  of an archive. The caller reads the stream, in part-sized chunks, and the
+ *  requests that send those chunks are run on a {@link WorkQueue}; so reading
+ *  proceeds while earlier content is uploaded, and the parts of a multipart
+ *  upload are sent in parallel. A stream that fits in a single part is sent as
+ *  a single PUT. Every request has a <code>Content-MD5</code> header, so S3
+ *  rejects content that was corrupted in transit; the ETag of each part is
+ *  also compared to its MD5, when S3 reports one that can be compared.
+ *  <p>
+ *  Chunks are held on the heap until they've been sent, so the total size of
+ *  unsent chunks is limited: {@link #upload} blocks until there's room. Each
+ *  chunk is queued before the next is read, so a chunk that's larger than the
+ *  limit (because the stream is too large for 10,000 default-sized parts) is
+ *  simply read once its predecessor has been sent.
+ *  <p>
+ *  The last request for an object (the PUT, or the request that completes the
+ *  multipart upload) invokes a callback, on the thread that made it. If the work
+ *  queue fails, call {@link #abortIncomplete} once its tasks have finished, to
+ *  abort any multipart uploads that were started but not completed.
+ */
+public class StreamUploader
+{
+    /**
+     *  Invoked when an object has been uploaded.
+     */
+    public interface Callback
+    {
+        void uploaded(String key, long size);
+    }
+
+
+    /** The initial buffer size for a stream whose length isn't known. */
+    private final static int INITIAL_BUFFER_SIZE = 65536;
+
+    private Logger logger = LoggerFactory.getLogger(getClass());
+
+    private AmazonS3 client;
+    private RequestGovernor governor;
+    private WorkQueue workQueue;
+    private long partSize;
+    private int memoryLimitKB;
+    private Semaphore memoryPermits;
+    private Map<String,String> incomplete = new ConcurrentHashMap<>();
+
+
+    /**
+     *  @param  memoryLimit The maximum number of bytes held for requests that
+     *                      haven't completed; should be at least twice the
+     *                      part size, so that reading can overlap uploading.
+     */
+    public StreamUploader(AmazonS3 client, RequestGovernor governor, WorkQueue workQueue, long memoryLimit)
+    {
+        this(client, governor, workQueue, memoryLimit, PartSizes.DEFAULT_PART_SIZE);
+    }
+
+
+    public StreamUploader(AmazonS3 client, RequestGovernor governor, WorkQueue workQueue, long memoryLimit, long partSize)
+    {
+        this.client = client;
+        this.governor = governor;
+        this.workQueue = workQueue;
+        this.partSize = partSize;
+        this.memoryLimitKB = (int)Math.max(memoryLimit / 1024, 1);
+        this.memoryPermits = new Semaphore(memoryLimitKB);
+    }
+
+
+    /**
+     *  Reads a stream and queues the requests to upload it. Returns once the
+     *  stream has been read, which may be before the upload has completed.
+     *
+     *  @param  size        The number of bytes in the stream, -1 if not known.
+     *                      A stream of unknown size is limited to 10,000 parts.
+     *  @param  settings    Headers and ACL (normally from an {@link UploadPolicy}).
+     *  @param  callback    Invoked when the upload completes; may be null.
+     *
+     *  @throws Exception   if unable to read the stream, or the failure of a
+     *                      previously queued request.
+     */
+    public void upload(String bucket, String key, InputStream in, long size, UploadPolicy.Settings settings, Callback callback)
+    throws Exception
+    {
+        long chunkSize = (size >= 0)
+                       ? PartSizes.forObject(size, partSize)
+                       : partSize;
+
+        PushbackInputStream pin = new PushbackInputStream(in, 1);
+        Chunk first = readChunk(pin, size, chunkSize);
+        boolean more;
+        try
+        {
+            more = hasMore(pin, size, first.length, chunkSize);
+        }
+        catch (Exception ex)
+        {
+            first.release();
+            throw ex;
+        }
+
+        if (! more)
+        {
+            workQueue.submit(() -> uploadSingle(bucket, key, first, settings, callback));
+            return;
+        }
+
+        new MultipartUpload(bucket, key, settings, callback).upload(pin, size, chunkSize, first);
+    }
+
+
+    /**
+     *  Aborts any multipart uploads that haven't been completed. Call this after
+     *  the work queue has finished, when it has failed.
+     */
+    public void abortIncomplete()
+    {
+        for (Map.Entry<String,String> entry : incomplete.entrySet())
+        {
+            String uploadId = entry.getKey();
+            String[] bucketAndKey = entry.getValue().split("/", 2);
+            try
+            {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucketAndKey[0], bucketAndKey[1], uploadId));
+            }
+            catch (Exception ex)
+            {
+                logger.warn("unable to abort multipart upload for {}: {}", bucketAndKey[1], ex.getMessage());
+            }
+        }
+        incomplete.clear();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Reads up to a chunk from the stream, first reserving memory for it. If the
+     *  stream's size isn't known, the buffer grows as needed, up to the chunk
+     *  size; the reservation is always for the full chunk.
+     */
+    private Chunk readChunk(InputStream in, long remaining, long chunkSize)
+    throws Exception
+    {
+        int maxLength = (int)((remaining >= 0) ? Math.min(remaining, chunkSize) : chunkSize);
+        int permits = Math.min((maxLength + 1023) / 1024, memoryLimitKB);
+        reserve(permits);
+        try
+        {
+            byte[] buf = new byte[(remaining >= 0) ? maxLength : Math.min(maxLength, INITIAL_BUFFER_SIZE)];
+            int length = 0;
+            while (length < maxLength)
+            {
+                if (length == buf.length)
+                    buf = Arrays.copyOf(buf, (int)Math.min((long)buf.length * 2, maxLength));
+                int count = in.read(buf, length, buf.length - length);
+                if (count < 0)
+                    break;
+                length += count;
+            }
+            if ((remaining >= 0) && (length < maxLength))
+                throw new IOException("stream ended after " + length + " of " + maxLength + " bytes");
+            return new Chunk(buf, length, permits);
+        }
+        catch (Exception ex)
+        {
+            memoryPermits.release(permits);
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  Determines whether there's more content after the first chunk. If the
+     *  stream's size isn't known, this peeks at the next byte, rather than
+     *  reading another chunk (which might not fit in memory alongside the
+     *  first).
+     */
+    private static boolean hasMore(PushbackInputStream in, long size, int firstLength, long chunkSize)
+    throws IOException
+    {
+        if (firstLength < chunkSize)
+            return false;
+        if (size >= 0)
+            return size > firstLength;
+
+        int b = in.read();
+        if (b < 0)
+            return false;
+        in.unread(b);
+        return true;
+    }
+
+
+    /**
+     *  Reserves memory for a chunk. Tasks that the work queue skips after a
+     *  failure never release their reservations, so rather than wait forever
+     *  this checks the queue, and rethrows its failure.
+     */
+    private void reserve(int permits)
+    throws Exception
+    {
+        while (!memoryPermits.tryAcquire(permits, 100, TimeUnit.MILLISECONDS))
+        {
+            if (workQueue.hasFailed())
+                workQueue.await();
+        }
+    }
+
+
+    /**
+     *  Uploads a single-chunk object; runs on the work queue.
+     */
+    private void uploadSingle(String bucket, String key, Chunk chunk, UploadPolicy.Settings settings, Callback callback)
+    throws Exception
+    {
+        try
+        {
+            ObjectMetadata metadata = settings.getMetadata();
+            metadata.setContentLength(chunk.length);
+            metadata.setContentMD5(chunk.contentMD5());
+            governor.execute(OperationType.PUT, key, () ->
+                client.putObject(settings.applyTo(new PutObjectRequest(bucket, key, chunk.open(), metadata))));
+        }
+        finally
+        {
+            chunk.release();
+        }
+        if (callback != null)
+            callback.uploaded(key, chunk.length);
+    }
+
+
+    /**
+     *  A buffer read from the stream, along with the memory it has reserved.
+     */
+    private class Chunk
+    {
+        private byte[] buf;
+        public final int length;
+        private int permits;
+        private byte[] md5;
+
+        public Chunk(byte[] buf, int length, int permits)
+        {
+            this.buf = buf;
+            this.length = length;
+            this.permits = permits;
+        }
+
+        public InputStream open()
+        {
+            return new ByteArrayInputStream(buf, 0, length);
+        }
+
+        /**
+         *  Returns the base64-encoded MD5 of the chunk, for a
+         *  <code>Content-MD5</code> header.
+         */
+        public String contentMD5()
+        throws Exception
+        {
+            return BinaryUtils.toBase64(md5());
+        }
+
+        /**
+         *  Returns the MD5 of the chunk as a hex string, for comparison to
+         *  an ETag.
+         */
+        public String md5Hex()
+        throws Exception
+        {
+            return BinaryUtils.toHex(md5());
+        }
+
+        private synchronized byte[] md5()
+        throws Exception
+        {
+            if (md5 == null)
+            {
+                MessageDigest digest = MessageDigest.getInstance("MD5");
+                digest.update(buf, 0, length);
+                md5 = digest.digest();
+            }
+            return md5;
+        }
+
+        public void release()
+        {
+            buf = null;
+            memoryPermits.release(permits);
+        }
+    }
+
+
+    /**
+     *  Tracks a multipart upload. The reader holds one reference to the upload,
+     *  and each queued part holds another; whoever drops the last reference
+     *  completes it. If the work queue fails, the upload is never completed,
+     *  and remains in the incomplete map for {@link #abortIncomplete}.
+     */
+    private class MultipartUpload
+    {
+        private String bucket;
+        private String key;
+        private UploadPolicy.Settings settings;
+        private Callback callback;
+        private String uploadId;
+        private List<PartETag> partETags = Collections.synchronizedList(new ArrayList<PartETag>());
+        private AtomicInteger references = new AtomicInteger(1);
+        private long size;
+
+        public MultipartUpload(String bucket, String key, UploadPolicy.Settings settings, Callback callback)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.settings = settings;
+            this.callback = callback;
+        }
+
+        public void upload(InputStream in, long expectedSize, long chunkSize, Chunk first)
+        throws Exception
+        {
+            try
+            {
+                final InitiateMultipartUploadRequest initRequest
+                    = new InitiateMultipartUploadRequest(bucket, key, settings.getMetadata())
+                      .withCannedACL(settings.getCannedAcl())
+                      .withStorageClass(settings.getStorageClass());
+                uploadId = governor.execute(OperationType.PUT, key, () ->
+                                client.initiateMultipartUpload(initRequest).getUploadId());
+                incomplete.put(uploadId, bucket + "/" + key);
+            }
+            catch (Exception ex)
+            {
+                first.release();
+                throw ex;
+            }
+
+            submitPart(1, first);
+            size = first.length;
+            int partNumber = 2;
+            while (true)
+            {
+                if ((expectedSize >= 0) && (size >= expectedSize))
+                    break;
+                if (partNumber > PartSizes.MAX_PARTS)
+                    throw new IOException("stream is too large for a multipart upload: " + key);
+                Chunk chunk = readChunk(in, (expectedSize >= 0) ? expectedSize - size : -1, chunkSize);
+                if (chunk.length == 0)
+                {
+                    chunk.release();
+                    break;
+                }
+                submitPart(partNumber++, chunk);
+                size += chunk.length;
+            }
+            release();
+        }
+
+        private void submitPart(final int partNumber, final Chunk chunk)
+        throws Exception
+        {
+            references.incrementAndGet();
+            try
+            {
+                workQueue.submit(() -> uploadPart(partNumber, chunk));
+            }
+            catch (Exception ex)
+            {
+                chunk.release();
+                throw ex;
+            }
+        }
+
+        private void uploadPart(final int partNumber, final Chunk chunk)
+        throws Exception
+        {
+            try
+            {
+                final String contentMD5 = chunk.contentMD5();
+                final String expectedETag = chunk.md5Hex();
+                partETags.add(governor.execute(OperationType.PUT, key, () ->
+                {
+                    UploadPartResult result = client.uploadPart(new UploadPartRequest()
+                                                                .withBucketName(bucket)
+                                                                .withKey(key)
+                                                                .withUploadId(uploadId)
+                                                                .withPartNumber(partNumber)
+                                                                .withPartSize(chunk.length)
+                                                                .withMD5Digest(contentMD5)
+                                                                .withInputStream(chunk.open()));
+                    if (StreamChecksums.isContentETag(result.getSSEAlgorithm(), result.getSSECustomerAlgorithm())
+                            && !expectedETag.equalsIgnoreCase(result.getETag()))
+                        throw new ChecksumMismatchException(key + " part " + partNumber, "ETag", result.getETag(), expectedETag);
+                    return result.getPartETag();
+                }));
+            }
+            finally
+            {
+                chunk.release();
+            }
+            release();
+        }
+
+        private void release()
+        throws Exception
+        {
+            if (references.decrementAndGet() > 0)
+                return;
+
+            List<PartETag> parts = new ArrayList<PartETag>(partETags);
+            parts.sort(Comparator.comparingInt(PartETag::getPartNumber));
+            final CompleteMultipartUploadRequest completeRequest
+                = new CompleteMultipartUploadRequest(bucket, key, uploadId, parts);
+            governor.execute(OperationType.PUT, key, () -> client.completeMultipartUpload(completeRequest));
+            incomplete.remove(uploadId);
+            logger.debug("uploaded {} in {} parts", key, parts.size());
+            if (callback != null)
+                callback.uploaded(key, size);
+        }
+    }
+}
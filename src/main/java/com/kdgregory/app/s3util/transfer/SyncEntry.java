@@ -0,0 +1,100 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+
+
+/**
+ *  One side of a sync comparison: a local file or an S3 object, identified
+ *  by its key relative to the root of the sync (always using forward slashes).
+ *  Local entries carry their file; remote entries carry their ETag.
+ */
+public final class SyncEntry
+{
+    private String key;
+    private long size;
+    private long lastModified;
+    private File file;
+    private String eTag;
+
+
+    private SyncEntry(String key, long size, long lastModified, File file, String eTag)
+    {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.file = file;
+        this.eTag = eTag;
+    }
+
+
+    public static SyncEntry forLocal(String key, File file)
+    {
+        return new SyncEntry(key, file.length(), file.lastModified(), file, null);
+    }
+
+
+    public static SyncEntry forRemote(String key, long size, long lastModified, String eTag)
+    {
+        return new SyncEntry(key, size, lastModified, null, eTag);
+    }
+
+
+    public String getKey()
+    {
+        return key;
+    }
+
+
+    public long getSize()
+    {
+        return size;
+    }
+
+
+    /**
+     *  Returns the last-modified timestamp, in milliseconds since epoch.
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+
+    /**
+     *  Returns the local file; null for remote entries.
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     *  Returns the ETag; null for local entries.
+     */
+    public String getETag()
+    {
+        return eTag;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return key;
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.Iterator;
+
+
+/**
+ *  Merge-joins a sorted source against a sorted destination, reporting the
+ *  keys that exist on only one side and the pairs that exist on both. This
+ *  never holds more than one entry from each side, so the size of the trees
+ *  doesn't matter.
+ *  <p>
+ *  The local side is pulled from an iterator, while the remote side is pushed
+ *  as listing pages arrive; which of these is the "source" depends on the sync
+ *  direction. Both sides must be ordered by {@link #compareKeys}, which matches
+ *  the (UTF-8 byte) order that S3 uses for listings.
+ */
+public class SyncPlanner
+{
+    /**
+     *  Receives the result of the join.
+     */
+    public interface Handler
+    {
+        void sourceOnly(SyncEntry src) throws Exception;
+        void destOnly(SyncEntry dst) throws Exception;
+        void both(SyncEntry src, SyncEntry dst) throws Exception;
+    }
+
+
+    /**
+     *  The result of comparing metadata for a key that exists on both sides.
+     */
+    public enum Verdict
+    {
+        /** Metadata says the files are the same. */
+        SAME,
+
+        /** Metadata says the files are different. */
+        DIFFERENT,
+
+        /** The source is newer but the same size: compare content to decide. */
+        CHECK_CONTENT
+    }
+
+
+    private Iterator<SyncEntry> local;
+    private boolean localIsSource;
+    private Handler handler;
+
+    private SyncEntry pending;
+    private String lastRemoteKey;
+
+
+    /**
+     *  @param  local           Iterator over the local entries, in key order.
+     *  @param  localIsSource   True when uploading, false when downloading.
+     *  @param  handler         Receives the join results.
+     */
+    public SyncPlanner(Iterator<SyncEntry> local, boolean localIsSource, Handler handler)
+    {
+        this.local = local;
+        this.localIsSource = localIsSource;
+        this.handler = handler;
+    }
+
+
+    /**
+     *  Processes the next remote entry, first reporting any local entries that
+     *  sort before it.
+     */
+    public void remote(SyncEntry remote)
+    throws Exception
+    {
+        if ((lastRemoteKey != null) && (compareKeys(lastRemoteKey, remote.getKey()) >= 0))
+            throw new IllegalStateException("remote entries out of order: " + lastRemoteKey + " / " + remote.getKey());
+        lastRemoteKey = remote.getKey();
+
+        while (true)
+        {
+            SyncEntry next = peekLocal();
+            int cmp = (next == null) ? 1 : compareKeys(next.getKey(), remote.getKey());
+            if (cmp < 0)
+            {
+                localOnly(takeLocal());
+            }
+            else if (cmp == 0)
+            {
+                SyncEntry loc = takeLocal();
+                if (localIsSource)
+                    handler.both(loc, remote);
+                else
+                    handler.both(remote, loc);
+                return;
+            }
+            else
+            {
+                if (localIsSource)
+                    handler.destOnly(remote);
+                else
+                    handler.sourceOnly(remote);
+                return;
+            }
+        }
+    }
+
+
+    /**
+     *  Called after the last remote entry, to report any remaining local entries.
+     */
+    public void finish()
+    throws Exception
+    {
+        while (peekLocal() != null)
+        {
+            localOnly(takeLocal());
+        }
+    }
+
+
+    /**
+     *  Compares metadata for a key that exists on both sides. Timestamps are
+     *  compared at one-second resolution, because that's all that S3 keeps.
+     */
+    public static Verdict compare(SyncEntry src, SyncEntry dst)
+    {
+        if (src.getSize() != dst.getSize())
+            return Verdict.DIFFERENT;
+
+        long srcSeconds = src.getLastModified() / 1000;
+        long dstSeconds = dst.getLastModified() / 1000;
+        return (srcSeconds > dstSeconds) ? Verdict.CHECK_CONTENT : Verdict.SAME;
+    }
+
+
+    /**
+     *  Compares keys by Unicode code point, which is equivalent to comparing
+     *  their UTF-8 representations byte-by-byte. This differs from
+     *  <code>String.compareTo()</code> for characters outside the BMP.
+     */
+    public static int compareKeys(String s1, String s2)
+    {
+        int i1 = 0;
+        int i2 = 0;
+        while ((i1 < s1.length()) && (i2 < s2.length()))
+        {
+            int c1 = s1.codePointAt(i1);
+            int c2 = s2.codePointAt(i2);
+            if (c1 != c2)
+                return (c1 < c2) ? -1 : 1;
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        int rem1 = s1.length() - i1;
+        int rem2 = s2.length() - i2;
+        return (rem1 == rem2) ? 0 : (rem1 < rem2) ? -1 : 1;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private SyncEntry peekLocal()
+    {
+        if ((pending == null) && local.hasNext())
+            pending = local.next();
+        return pending;
+    }
+
+
+    private SyncEntry takeLocal()
+    {
+        SyncEntry result = peekLocal();
+        pending = null;
+        return result;
+    }
+
+
+    private void localOnly(SyncEntry entry)
+    throws Exception
+    {
+        if (localIsSource)
+            handler.sourceOnly(entry);
+        else
+            handler.destOnly(entry);
+    }
+}
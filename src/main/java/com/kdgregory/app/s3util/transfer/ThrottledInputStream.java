@@ -0,0 +1,117 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+
+/**
+ *  Passes bytes read from the wrapped stream through a {@link BandwidthLimiter}.
+ *  Reads are accumulated locally and paid for once there's a reasonable chunk,
+ *  so that the limiter isn't touched for every buffer.
+ *  <p>
+ *  Mark and reset are passed through to the wrapped stream; bytes that are
+ *  re-read after a reset are paid for again, since they're transferred again.
+ */
+public class ThrottledInputStream
+extends FilterInputStream
+{
+    private final static int CHUNK_SIZE = 16 * 1024;
+
+    private BandwidthLimiter limiter;
+    private int unpaid;
+
+
+    public ThrottledInputStream(InputStream in, BandwidthLimiter limiter)
+    {
+        super(in);
+        this.limiter = limiter;
+    }
+
+//----------------------------------------------------------------------------
+//  InputStream
+//----------------------------------------------------------------------------
+
+    @Override
+    public int read()
+    throws IOException
+    {
+        int b = super.read();
+        pay((b < 0) ? -1 : 1);
+        return b;
+    }
+
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    throws IOException
+    {
+        int count = super.read(b, off, len);
+        pay(count);
+        return count;
+    }
+
+
+    @Override
+    public long skip(long n)
+    throws IOException
+    {
+        // skipped bytes have still been transferred
+        long count = super.skip(n);
+        unpaid += count;
+        pay(0);
+        return count;
+    }
+
+
+    @Override
+    public void close()
+    throws IOException
+    {
+        unpaid = 0;
+        super.close();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    /**
+     *  Records a read, waiting on the limiter if there's enough unpaid data
+     *  or if we've reached end-of-stream (indicated by a negative count).
+     */
+    private void pay(int count)
+    throws IOException
+    {
+        if (count > 0)
+            unpaid += count;
+        if ((unpaid == 0) || ((count >= 0) && (unpaid < CHUNK_SIZE)))
+            return;
+
+        try
+        {
+            limiter.acquire(unpaid);
+            unpaid = 0;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for bandwidth");
+        }
+    }
+}
@@ -0,0 +1,373 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.StorageClass;
+
+import com.kdgregory.app.s3util.util.MimeHelper;
+
+
+/**
+ *  Decides the headers and ACL for uploaded objects, so that they can all be
+ *  sent with the PUT rather than applied afterward.
+ *  <p>
+ *  A policy is a list of rules, read from a text file with one rule per line:
+ *  a matcher, whitespace, then a header name and value separated by a colon.
+ *  Blank lines and lines starting with '#' are ignored. For example:
+ *  <pre>
+ *      *.html          Cache-Control: max-age=300
+ *      mime:image/*    Cache-Control: public, max-age=86400
+ *      assets/**       x-amz-acl: public-read
+ *      **              x-amz-meta-uploaded-by: s3util
+ *  </pre>
+ *  Matchers are either globs, applied to the object key, or <code>mime:</code>
+ *  followed by a type (which may end with "*"), compared to the type that
+ *  {@link MimeHelper} assigns to the file. In globs, "*" and "?" don't match
+ *  slashes, and "**" matches anything; a glob without a slash is compared to
+ *  just the filename.
+ *  <p>
+ *  Every matching rule is applied, in order, so later rules override earlier
+ *  ones. <code>Content-Type</code> defaults to the <code>MimeHelper</code> type.
+ *  Supported headers are <code>Content-Type</code>, <code>Cache-Control</code>,
+ *  <code>Content-Disposition</code>, <code>Content-Language</code>,
+ *  <code>x-amz-acl</code> (a canned ACL name), <code>x-amz-storage-class</code>,
+ *  and <code>x-amz-meta-*</code> (user metadata).
+ */
+public class UploadPolicy
+{
+    /**
+     *  The result of applying the policy to a single file.
+     */
+    public static class Settings
+    {
+        private ObjectMetadata metadata = new ObjectMetadata();
+        private CannedAccessControlList cannedAcl;
+        private StorageClass storageClass;
+
+        /**
+         *  Returns the object metadata; this is a new instance for every call
+         *  to {@link UploadPolicy#apply}, so may be modified.
+         */
+        public ObjectMetadata getMetadata()
+        {
+            return metadata;
+        }
+
+        /**
+         *  Returns the canned ACL, null to use the bucket default.
+         */
+        public CannedAccessControlList getCannedAcl()
+        {
+            return cannedAcl;
+        }
+
+        public void setCannedAcl(CannedAccessControlList value)
+        {
+            cannedAcl = value;
+        }
+
+        /**
+         *  Returns the storage class, null to use the default.
+         */
+        public StorageClass getStorageClass()
+        {
+            return storageClass;
+        }
+
+        /**
+         *  Applies these settings to a PUT request, returning it.
+         */
+        public PutObjectRequest applyTo(PutObjectRequest request)
+        {
+            request.setMetadata(metadata);
+            request.setCannedAcl(cannedAcl);
+            if (storageClass != null)
+                request.setStorageClass(storageClass);
+            return request;
+        }
+    }
+
+
+    /**
+     *  A single rule.
+     */
+    private static class Rule
+    {
+        public Pattern keyPattern;
+        public boolean matchFilename;
+        public String mimeType;
+        public String header;
+        public String value;
+
+        public boolean matches(String key, String fileMimeType)
+        {
+            if (mimeType != null)
+            {
+                return mimeType.endsWith("*")
+                     ? fileMimeType.startsWith(mimeType.substring(0, mimeType.length() - 1))
+                     : fileMimeType.equals(mimeType);
+            }
+
+            String target = matchFilename ? key.substring(key.lastIndexOf('/') + 1) : key;
+            return keyPattern.matcher(target).matches();
+        }
+    }
+
+
+    private List<Rule> rules;
+
+
+    private UploadPolicy(List<Rule> rules)
+    {
+        this.rules = rules;
+    }
+
+
+    /**
+     *  Returns a policy without any rules: objects get a content type and
+     *  nothing else.
+     */
+    public static UploadPolicy empty()
+    {
+        return new UploadPolicy(Collections.<Rule>emptyList());
+    }
+
+
+    /**
+     *  Returns the default location for the policy file: in the <code>.s3util</code>
+     *  directory under the user's home directory.
+     */
+    public static File defaultPolicyFile()
+    {
+        return new File(new File(System.getProperty("user.home"), ".s3util"), "upload-policy.txt");
+    }
+
+
+    /**
+     *  Loads a policy from a file. Returns an empty policy if the file does
+     *  not exist.
+     *
+     *  @throws IllegalArgumentException if the file contains an invalid rule.
+     */
+    public static UploadPolicy load(File file)
+    throws IOException
+    {
+        if (!file.exists())
+            return empty();
+
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            return parse(in);
+        }
+    }
+
+
+    /**
+     *  Parses a policy.
+     *
+     *  @throws IllegalArgumentException if there's an invalid rule; the message
+     *          identifies the line.
+     */
+    public static UploadPolicy parse(Reader reader)
+    throws IOException
+    {
+        List<Rule> rules = new ArrayList<Rule>();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = in.readLine()) != null)
+        {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            try
+            {
+                rules.add(parseRule(line));
+            }
+            catch (IllegalArgumentException ex)
+            {
+                throw new IllegalArgumentException("line " + lineNumber + ": " + ex.getMessage());
+            }
+        }
+        return new UploadPolicy(rules);
+    }
+
+//----------------------------------------------------------------------------
+//  Public methods
+//----------------------------------------------------------------------------
+
+    /**
+     *  Returns the settings for a file that will be uploaded with the given key.
+     */
+    public Settings apply(String key, File file)
+    {
+        String mimeType = MimeHelper.lookup(file);
+
+        Settings settings = new Settings();
+        ObjectMetadata metadata = settings.metadata;
+        metadata.setContentType(mimeType);
+
+        for (Rule rule : rules)
+        {
+            if (!rule.matches(key, mimeType))
+                continue;
+
+            switch (rule.header)
+            {
+                case "content-type" :
+                    metadata.setContentType(rule.value);
+                    break;
+                case "cache-control" :
+                    metadata.setCacheControl(rule.value);
+                    break;
+                case "content-disposition" :
+                    metadata.setContentDisposition(rule.value);
+                    break;
+                case "content-language" :
+                    metadata.setContentLanguage(rule.value);
+                    break;
+                case "x-amz-acl" :
+                    settings.cannedAcl = cannedAcl(rule.value);
+                    break;
+                case "x-amz-storage-class" :
+                    settings.storageClass = StorageClass.fromValue(rule.value);
+                    break;
+                default :
+                    metadata.addUserMetadata(rule.header.substring("x-amz-meta-".length()), rule.value);
+            }
+        }
+        return settings;
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static Rule parseRule(String line)
+    {
+        String[] parts = line.split("\\s+", 2);
+        if (parts.length != 2)
+            throw new IllegalArgumentException("expected matcher and header: " + line);
+
+        int colonIdx = parts[1].indexOf(':');
+        if (colonIdx <= 0)
+            throw new IllegalArgumentException("expected \"header: value\": " + parts[1]);
+
+        Rule rule = new Rule();
+        rule.header = parts[1].substring(0, colonIdx).trim().toLowerCase(Locale.ROOT);
+        rule.value = parts[1].substring(colonIdx + 1).trim();
+
+        switch (rule.header)
+        {
+            case "content-type" :
+            case "cache-control" :
+            case "content-disposition" :
+            case "content-language" :
+                break;
+            case "x-amz-acl" :
+                cannedAcl(rule.value);
+                break;
+            case "x-amz-storage-class" :
+                StorageClass.fromValue(rule.value);
+                break;
+            default :
+                if (!rule.header.startsWith("x-amz-meta-") || (rule.header.length() == "x-amz-meta-".length()))
+                    throw new IllegalArgumentException("unsupported header: " + rule.header);
+        }
+
+        String matcher = parts[0];
+        if (matcher.startsWith("mime:"))
+        {
+            rule.mimeType = matcher.substring(5);
+        }
+        else
+        {
+            rule.matchFilename = (matcher.indexOf('/') < 0) && !matcher.contains("**");
+            rule.keyPattern = Pattern.compile(globToRegex(matcher));
+        }
+        return rule;
+    }
+
+
+    /**
+     *  Converts a glob to a regular expression.
+     */
+    private static String globToRegex(String glob)
+    {
+        StringBuilder sb = new StringBuilder(glob.length() * 2);
+        for (int ii = 0 ; ii < glob.length() ; ii++)
+        {
+            char c = glob.charAt(ii);
+            if (c == '*')
+            {
+                if ((ii + 1 < glob.length()) && (glob.charAt(ii + 1) == '*'))
+                {
+                    // "**/" also matches nothing, so that "a/**/b" matches "a/b"
+                    if ((ii + 2 < glob.length()) && (glob.charAt(ii + 2) == '/'))
+                    {
+                        sb.append("(?:.*/)?");
+                        ii += 2;
+                    }
+                    else
+                    {
+                        sb.append(".*");
+                        ii++;
+                    }
+                }
+                else
+                {
+                    sb.append("[^/]*");
+                }
+            }
+            else if (c == '?')
+            {
+                sb.append("[^/]");
+            }
+            else
+            {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return sb.toString();
+    }
+
+
+    private static CannedAccessControlList cannedAcl(String value)
+    {
+        for (CannedAccessControlList acl : CannedAccessControlList.values())
+        {
+            if (acl.toString().equals(value))
+                return acl;
+        }
+        throw new IllegalArgumentException("unknown canned ACL: " + value);
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ *  Runs tasks on a shared executor, limiting the number that are queued or
+ *  running at any time. This lets an operation feed work to a pool as fast as
+ *  the pool can take it, without holding an unbounded backlog in memory.
+ *  <p>
+ *  The first task failure is remembered: subsequent tasks are skipped, and the
+ *  exception is rethrown by the next call to {@link #submit} or {@link #await}.
+ *  Tasks that are already running are allowed to finish.
+ *  <p>
+ *  Tasks must not submit to the same queue or wait on other tasks in the same
+ *  pool, as that can deadlock.
+ */
+public class WorkQueue
+{
+    /**
+     *  A unit of work; unlike <code>Runnable</code>, may throw.
+     */
+    public interface Task
+    {
+        void run() throws Exception;
+    }
+
+
+    private Executor executor;
+    private int maxPending;
+    private Semaphore permits;
+    private AtomicReference<Exception> failure = new AtomicReference<>();
+
+
+    /**
+     *  @param  executor    The executor that runs tasks; normally shared.
+     *  @param  maxPending  The maximum number of tasks from this queue that
+     *                      may be queued or running at one time.
+     */
+    public WorkQueue(Executor executor, int maxPending)
+    {
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+    }
+
+
+    /**
+     *  Submits a task, blocking if the queue is full.
+     *
+     *  @throws Exception   the failure from a previous task, if any.
+     */
+    public void submit(final Task task)
+    throws Exception
+    {
+        rethrow();
+        permits.acquire();
+        try
+        {
+            executor.execute(() ->
+            {
+                try
+                {
+                    if (failure.get() == null)
+                        task.run();
+                }
+                catch (Exception ex)
+                {
+                    failure.compareAndSet(null, ex);
+                }
+                finally
+                {
+                    permits.release();
+                }
+            });
+        }
+        catch (RuntimeException ex)
+        {
+            permits.release();
+            throw ex;
+        }
+    }
+
+
+    /**
+     *  Waits for all submitted tasks to complete.
+     *
+     *  @throws Exception   the first failure from any task, if any.
+     */
+    public void await()
+    throws Exception
+    {
+        waitForCompletion();
+        rethrow();
+    }
+
+
+    /**
+     *  Waits for all submitted tasks to complete, without reporting failures.
+     *  Use this in a <code>finally</code> block, so that an operation doesn't
+     *  return while its tasks are still running.
+     */
+    public void waitForCompletion()
+    {
+        permits.acquireUninterruptibly(maxPending);
+        permits.release(maxPending);
+    }
+
+
+    /**
+     *  Indicates whether any task has failed.
+     */
+    public boolean hasFailed()
+    {
+        return failure.get() != null;
+    }
+
+
+    private void rethrow()
+    throws Exception
+    {
+        Exception ex = failure.get();
+        if (ex != null)
+            throw ex;
+    }
+}
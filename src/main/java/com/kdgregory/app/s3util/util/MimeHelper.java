@@ -45,6 +45,8 @@ public class MimeHelper
         TABLE.put("htm",    "text/html");
         TABLE.put("html",   "text/html");
         TABLE.put("js",     "application/javascript");
+        TABLE.put("json",   "application/json");
+        TABLE.put("svg",    "image/svg+xml");
         TABLE.put("txt",    "text/plain");
         TABLE.put("xml",    "text/xml");
 
@@ -71,4 +73,18 @@ public class MimeHelper
         }
         return "application/octet-stream";
     }
+
+
+    /**
+     *  Determines whether content of the given type is worth compressing: text,
+     *  and the structured-text "application" types. Image, PDF, and archive
+     *  formats are already compressed.
+     */
+    public static boolean isCompressible(String mimeType)
+    {
+        return mimeType.startsWith("text/")
+            || mimeType.equals("application/javascript")
+            || mimeType.equals("application/json")
+            || mimeType.equals("image/svg+xml");
+    }
 }
@@ -0,0 +1,710 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+
+/**
+ *  A minimal, in-memory, S3-compatible HTTP endpoint. It understands just
+ *  enough of the REST API to support the calls made by <em>S3Util</em>:
+ *  bucket create/location, object put/get/head/delete/copy, multipart upload,
+ *  and (V1) listing.
+ *  <p>
+ *  This is not a general-purpose mock: it doesn't check signatures, and
+ *  objects live on the heap, so size your workloads accordingly.
+ */
+public class S3StandIn
+{
+    static
+    {
+        // without this, small responses are held up by Nagle + delayed ACK,
+        // and the benchmark ends up measuring the TCP stack (read at class init)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final static Pattern PART_NUMBER = Pattern.compile("<PartNumber>(\\d+)</PartNumber>");
+
+    private ExecutorService handlerPool;
+    private HttpServer server;
+    private Map<String,NavigableMap<String,StoredObject>> buckets = new ConcurrentHashMap<>();
+    private Map<String,MultipartUpload> uploads = new ConcurrentHashMap<>();
+    private AtomicInteger uploadIds = new AtomicInteger();
+
+
+    /**
+     *  Starts the server on an ephemeral port, with a handler pool sized
+     *  to the expected number of concurrent connections.
+     */
+    public S3StandIn(int handlerThreads)
+    throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.createContext("/", new RequestHandler());
+        handlerPool = Executors.newFixedThreadPool(handlerThreads);
+        server.setExecutor(handlerPool);
+        server.start();
+    }
+
+
+    /**
+     *  Returns the endpoint URL, suitable for an SDK endpoint configuration.
+     */
+    public String getEndpoint()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+
+    /**
+     *  Creates a client that talks to this server. Uses path-style access and
+     *  the V2 signer, so that we don't pay for payload signing.
+     */
+    public AmazonS3 createClient(int maxConnections)
+    {
+        ClientConfiguration config = new ClientConfiguration()
+                                     .withMaxConnections(maxConnections)
+                                     .withSignerOverride("S3SignerType");
+        return AmazonS3ClientBuilder.standard()
+               .withEndpointConfiguration(new EndpointConfiguration(getEndpoint(), "us-east-1"))
+               .withPathStyleAccessEnabled(true)
+               .withClientConfiguration(config)
+               .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("benchmark", "benchmark")))
+               .build();
+    }
+
+
+    /**
+     *  Creates a bucket directly, without going through HTTP.
+     */
+    public void createBucket(String name)
+    {
+        buckets.putIfAbsent(name, new ConcurrentSkipListMap<String,StoredObject>());
+    }
+
+
+    /**
+     *  Removes all objects from the named bucket; used between benchmark runs
+     *  to release memory.
+     */
+    public void clearBucket(String name)
+    {
+        NavigableMap<String,StoredObject> bucket = buckets.get(name);
+        if (bucket != null)
+            bucket.clear();
+    }
+
+
+    public void shutdown()
+    {
+        server.stop(0);
+        handlerPool.shutdownNow();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals
+//----------------------------------------------------------------------------
+
+    private static class StoredObject
+    {
+        public final byte[] content;
+        public final String etag;
+        public final Date lastModified;
+        public final String contentType;
+        public final String contentEncoding;
+
+        public StoredObject(byte[] content, String contentType, String contentEncoding)
+        {
+            this(content, md5Hex(content), contentType, contentEncoding);
+        }
+
+        public StoredObject(byte[] content, String etag, String contentType, String contentEncoding)
+        {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = new Date();
+            this.contentType = (contentType != null) ? contentType : "binary/octet-stream";
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+
+    /**
+     *  A multipart upload that has been initiated but not completed. Parts
+     *  are retained by number, so a part that's sent twice replaces the first.
+     */
+    private static class MultipartUpload
+    {
+        public final String bucket;
+        public final String key;
+        public final String contentType;
+        public final String contentEncoding;
+        public final Map<Integer,byte[]> parts = new TreeMap<>();
+
+        public MultipartUpload(String bucket, String key, String contentType, String contentEncoding)
+        {
+            this.bucket = bucket;
+            this.key = key;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+
+    private class RequestHandler
+    implements HttpHandler
+    {
+        @Override
+        public void handle(HttpExchange exchange)
+        throws IOException
+        {
+            try
+            {
+                String path = exchange.getRequestURI().getPath().substring(1);
+                int slashIdx = path.indexOf('/');
+                String bucket = (slashIdx < 0) ? path : path.substring(0, slashIdx);
+                String key = (slashIdx < 0) ? "" : path.substring(slashIdx + 1);
+                Map<String,String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+
+                String method = exchange.getRequestMethod();
+                if (key.isEmpty())
+                    handleBucketRequest(exchange, method, bucket, query);
+                else if (query.containsKey("uploads") || query.containsKey("uploadId"))
+                    handleMultipartRequest(exchange, method, bucket, key, query);
+                else
+                    handleObjectRequest(exchange, method, bucket, key);
+            }
+            catch (Exception ex)
+            {
+                sendError(exchange, 500, "InternalError", String.valueOf(ex));
+            }
+            finally
+            {
+                exchange.close();
+            }
+        }
+
+
+        private void handleBucketRequest(HttpExchange exchange, String method, String bucket, Map<String,String> query)
+        throws IOException
+        {
+            if (method.equals("PUT"))
+            {
+                drain(exchange.getRequestBody());
+                createBucket(bucket);
+                sendResponse(exchange, 200, null, new byte[0]);
+                return;
+            }
+
+            NavigableMap<String,StoredObject> objects = buckets.get(bucket);
+            if (objects == null)
+            {
+                sendError(exchange, 404, "NoSuchBucket", bucket);
+                return;
+            }
+
+            if (method.equals("HEAD"))
+            {
+                sendResponse(exchange, 200, null, null);
+            }
+            else if (query.containsKey("location"))
+            {
+                sendResponse(exchange, 200, "application/xml",
+                             ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                              + "<LocationConstraint xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"/>")
+                             .getBytes(StandardCharsets.UTF_8));
+            }
+            else if (method.equals("GET"))
+            {
+                sendResponse(exchange, 200, "application/xml", listObjects(bucket, objects, query));
+            }
+            else
+            {
+                sendError(exchange, 405, "MethodNotAllowed", method);
+            }
+        }
+
+
+        private void handleObjectRequest(HttpExchange exchange, String method, String bucket, String key)
+        throws IOException
+        {
+            NavigableMap<String,StoredObject> objects = buckets.get(bucket);
+            if (objects == null)
+            {
+                sendError(exchange, 404, "NoSuchBucket", bucket);
+                return;
+            }
+
+            String copySource = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+            if (method.equals("PUT") && (copySource != null))
+            {
+                drain(exchange.getRequestBody());
+                copyObject(exchange, URLDecoder.decode(copySource, "UTF-8"), objects, key);
+                return;
+            }
+
+            if (method.equals("PUT"))
+            {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                String contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+                StoredObject obj = new StoredObject(readFully(exchange.getRequestBody()), contentType, contentEncoding);
+                objects.put(key, obj);
+                exchange.getResponseHeaders().add("ETag", "\"" + obj.etag + "\"");
+                sendResponse(exchange, 200, null, new byte[0]);
+                return;
+            }
+
+            if (method.equals("DELETE"))
+            {
+                objects.remove(key);
+                sendResponse(exchange, 204, null, null);
+                return;
+            }
+
+            StoredObject obj = objects.get(key);
+            if (obj == null)
+            {
+                sendError(exchange, 404, "NoSuchKey", key);
+                return;
+            }
+
+            exchange.getResponseHeaders().add("ETag", "\"" + obj.etag + "\"");
+            exchange.getResponseHeaders().add("Last-Modified", httpDate(obj.lastModified));
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+            if (obj.contentEncoding != null)
+                exchange.getResponseHeaders().add("Content-Encoding", obj.contentEncoding);
+            if (method.equals("HEAD"))
+            {
+                exchange.getResponseHeaders().add("Content-Type", obj.contentType);
+                exchange.getResponseHeaders().add("Content-Length", String.valueOf(obj.content.length));
+                exchange.sendResponseHeaders(200, -1);
+            }
+            else if (method.equals("GET"))
+            {
+                sendContent(exchange, obj);
+            }
+            else
+            {
+                sendError(exchange, 405, "MethodNotAllowed", method);
+            }
+        }
+
+
+        private void handleMultipartRequest(HttpExchange exchange, String method, String bucket, String key, Map<String,String> query)
+        throws IOException
+        {
+            NavigableMap<String,StoredObject> objects = buckets.get(bucket);
+            if (objects == null)
+            {
+                sendError(exchange, 404, "NoSuchBucket", bucket);
+                return;
+            }
+
+            if (method.equals("POST") && query.containsKey("uploads"))
+            {
+                drain(exchange.getRequestBody());
+                String uploadId = "upload-" + uploadIds.incrementAndGet();
+                uploads.put(uploadId, new MultipartUpload(bucket, key,
+                                                          exchange.getRequestHeaders().getFirst("Content-Type"),
+                                                          exchange.getRequestHeaders().getFirst("Content-Encoding")));
+                sendResponse(exchange, 200, "application/xml",
+                             ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                              + "<InitiateMultipartUploadResult>"
+                              + "<Bucket>" + bucket + "</Bucket>"
+                              + "<Key>" + xmlValue(key, false) + "</Key>"
+                              + "<UploadId>" + uploadId + "</UploadId>"
+                              + "</InitiateMultipartUploadResult>")
+                             .getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            String uploadId = query.get("uploadId");
+            MultipartUpload upload = uploads.get(uploadId);
+            if ((upload == null) || !upload.bucket.equals(bucket) || !upload.key.equals(key))
+            {
+                drain(exchange.getRequestBody());
+                sendError(exchange, 404, "NoSuchUpload", uploadId);
+                return;
+            }
+
+            if (method.equals("PUT"))
+            {
+                byte[] content = readFully(exchange.getRequestBody());
+                synchronized (upload)
+                {
+                    upload.parts.put(Integer.valueOf(query.get("partNumber")), content);
+                }
+                exchange.getResponseHeaders().add("ETag", "\"" + md5Hex(content) + "\"");
+                sendResponse(exchange, 200, null, new byte[0]);
+            }
+            else if (method.equals("POST"))
+            {
+                String request = new String(readFully(exchange.getRequestBody()), StandardCharsets.UTF_8);
+                StoredObject obj = completeUpload(upload, request);
+                uploads.remove(uploadId);
+                objects.put(key, obj);
+                sendResponse(exchange, 200, "application/xml",
+                             ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                              + "<CompleteMultipartUploadResult>"
+                              + "<Location>" + getEndpoint() + "/" + bucket + "/" + xmlValue(key, false) + "</Location>"
+                              + "<Bucket>" + bucket + "</Bucket>"
+                              + "<Key>" + xmlValue(key, false) + "</Key>"
+                              + "<ETag>&quot;" + obj.etag + "&quot;</ETag>"
+                              + "</CompleteMultipartUploadResult>")
+                             .getBytes(StandardCharsets.UTF_8));
+            }
+            else if (method.equals("DELETE"))
+            {
+                uploads.remove(uploadId);
+                sendResponse(exchange, 204, null, null);
+            }
+            else
+            {
+                sendError(exchange, 405, "MethodNotAllowed", method);
+            }
+        }
+
+
+        /**
+         *  Assembles the parts named in a complete request. The ETag is formed
+         *  the same way as S3's: the MD5 of the parts' MD5s, and the part count.
+         */
+        private StoredObject completeUpload(MultipartUpload upload, String request)
+        throws IOException
+        {
+            List<Integer> partNumbers = new ArrayList<>();
+            Matcher matcher = PART_NUMBER.matcher(request);
+            while (matcher.find())
+                partNumbers.add(Integer.valueOf(matcher.group(1)));
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            ByteArrayOutputStream partDigests = new ByteArrayOutputStream();
+            synchronized (upload)
+            {
+                for (Integer partNumber : partNumbers)
+                {
+                    byte[] part = upload.parts.get(partNumber);
+                    if (part == null)
+                        throw new IOException("missing part " + partNumber);
+                    content.write(part);
+                    partDigests.write(md5(part));
+                }
+            }
+            String etag = md5Hex(partDigests.toByteArray()) + "-" + partNumbers.size();
+            return new StoredObject(content.toByteArray(), etag, upload.contentType, upload.contentEncoding);
+        }
+
+
+        private void copyObject(HttpExchange exchange, String source, NavigableMap<String,StoredObject> objects, String key)
+        throws IOException
+        {
+            String path = source.startsWith("/") ? source.substring(1) : source;
+            int slashIdx = path.indexOf('/');
+            NavigableMap<String,StoredObject> srcObjects = (slashIdx > 0) ? buckets.get(path.substring(0, slashIdx)) : null;
+            StoredObject src = (srcObjects != null) ? srcObjects.get(path.substring(slashIdx + 1)) : null;
+            if (src == null)
+            {
+                sendError(exchange, 404, "NoSuchKey", source);
+                return;
+            }
+
+            StoredObject obj = new StoredObject(src.content, src.etag, src.contentType, src.contentEncoding);
+            objects.put(key, obj);
+            sendResponse(exchange, 200, "application/xml",
+                         ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                          + "<CopyObjectResult>"
+                          + "<LastModified>" + isoDate(obj.lastModified) + "</LastModified>"
+                          + "<ETag>&quot;" + obj.etag + "&quot;</ETag>"
+                          + "</CopyObjectResult>")
+                         .getBytes(StandardCharsets.UTF_8));
+        }
+
+
+        private void sendContent(HttpExchange exchange, StoredObject obj)
+        throws IOException
+        {
+            int start = 0;
+            int end = obj.content.length - 1;
+            int status = 200;
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if ((range != null) && range.startsWith("bytes="))
+            {
+                String[] bounds = range.substring(6).split("-", 2);
+                start = Integer.parseInt(bounds[0]);
+                if (bounds.length > 1 && !bounds[1].isEmpty())
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                status = 206;
+                exchange.getResponseHeaders().add("Content-Range",
+                                                  "bytes " + start + "-" + end + "/" + obj.content.length);
+            }
+
+            exchange.getResponseHeaders().add("Content-Type", obj.contentType);
+            int length = Math.max(0, end - start + 1);
+            exchange.sendResponseHeaders(status, (length > 0) ? length : -1);
+            if (length > 0)
+            {
+                try (OutputStream out = exchange.getResponseBody())
+                {
+                    out.write(obj.content, start, length);
+                }
+            }
+        }
+
+
+        private byte[] listObjects(String bucket, NavigableMap<String,StoredObject> objects, Map<String,String> query)
+        {
+            String prefix = query.containsKey("prefix") ? query.get("prefix") : "";
+            String marker = query.get("marker");
+            String delimiter = query.get("delimiter");
+            boolean urlEncode = "url".equals(query.get("encoding-type"));
+            int maxKeys = query.containsKey("max-keys") ? Integer.parseInt(query.get("max-keys")) : 1000;
+
+            NavigableMap<String,StoredObject> candidates = (marker != null)
+                                                         ? objects.tailMap(marker, false)
+                                                         : objects;
+
+            StringBuilder contents = new StringBuilder();
+            StringBuilder prefixes = new StringBuilder();
+            String lastCommonPrefix = null;
+            String lastKey = null;
+            int count = 0;
+            boolean truncated = false;
+            for (Map.Entry<String,StoredObject> entry : candidates.entrySet())
+            {
+                String key = entry.getKey();
+                if (!key.startsWith(prefix))
+                {
+                    if (key.compareTo(prefix) > 0)
+                        break;
+                    continue;
+                }
+                if (count >= maxKeys)
+                {
+                    truncated = true;
+                    break;
+                }
+
+                int delimIdx = (delimiter != null) ? key.indexOf(delimiter, prefix.length()) : -1;
+                if (delimIdx >= 0)
+                {
+                    String commonPrefix = key.substring(0, delimIdx + delimiter.length());
+                    if (!commonPrefix.equals(lastCommonPrefix))
+                    {
+                        prefixes.append("<CommonPrefixes><Prefix>")
+                                .append(xmlValue(commonPrefix, urlEncode))
+                                .append("</Prefix></CommonPrefixes>");
+                        lastCommonPrefix = commonPrefix;
+                        count++;
+                    }
+                    lastKey = key;
+                    continue;
+                }
+
+                StoredObject obj = entry.getValue();
+                contents.append("<Contents>")
+                        .append("<Key>").append(xmlValue(key, urlEncode)).append("</Key>")
+                        .append("<LastModified>").append(isoDate(obj.lastModified)).append("</LastModified>")
+                        .append("<ETag>&quot;").append(obj.etag).append("&quot;</ETag>")
+                        .append("<Size>").append(obj.content.length).append("</Size>")
+                        .append("<StorageClass>STANDARD</StorageClass>")
+                        .append("</Contents>");
+                lastKey = key;
+                count++;
+            }
+
+            StringBuilder sb = new StringBuilder(contents.length() + prefixes.length() + 512)
+                .append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>").append(bucket).append("</Name>")
+                .append("<Prefix>").append(xmlValue(prefix, urlEncode)).append("</Prefix>")
+                .append("<Marker>").append(xmlValue(marker == null ? "" : marker, urlEncode)).append("</Marker>")
+                .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>");
+            if (delimiter != null)
+                sb.append("<Delimiter>").append(xmlValue(delimiter, urlEncode)).append("</Delimiter>");
+            if (urlEncode)
+                sb.append("<EncodingType>url</EncodingType>");
+            sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+            if (truncated && lastKey != null)
+                sb.append("<NextMarker>").append(xmlValue(lastKey, urlEncode)).append("</NextMarker>");
+            sb.append(contents).append(prefixes).append("</ListBucketResult>");
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+
+        private void sendError(HttpExchange exchange, int status, String code, String message)
+        throws IOException
+        {
+            String body = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                        + "<Error><Code>" + code + "</Code>"
+                        + "<Message>" + xmlValue(message, false) + "</Message>"
+                        + "<RequestId>standin</RequestId></Error>";
+            sendResponse(exchange, status, "application/xml", body.getBytes(StandardCharsets.UTF_8));
+        }
+
+
+        private void sendResponse(HttpExchange exchange, int status, String contentType, byte[] body)
+        throws IOException
+        {
+            if (contentType != null)
+                exchange.getResponseHeaders().add("Content-Type", contentType);
+            if ((body == null) || (body.length == 0))
+            {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Static utilities
+//----------------------------------------------------------------------------
+
+    private static Map<String,String> parseQuery(String rawQuery)
+    throws IOException
+    {
+        Map<String,String> result = new HashMap<>();
+        if (rawQuery == null)
+            return result;
+
+        for (String param : rawQuery.split("&"))
+        {
+            int eqIdx = param.indexOf('=');
+            String name = (eqIdx < 0) ? param : param.substring(0, eqIdx);
+            String value = (eqIdx < 0) ? "" : URLDecoder.decode(param.substring(eqIdx + 1), "UTF-8");
+            result.put(name, value);
+        }
+        return result;
+    }
+
+
+    private static byte[] readFully(InputStream in)
+    throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int n;
+        while ((n = in.read(buf)) > 0)
+        {
+            bos.write(buf, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+
+    private static void drain(InputStream in)
+    throws IOException
+    {
+        byte[] buf = new byte[8192];
+        while (in.read(buf) > 0)
+            ;
+    }
+
+
+    private static byte[] md5(byte[] content)
+    {
+        try
+        {
+            return MessageDigest.getInstance("MD5").digest(content);
+        }
+        catch (Exception ex)
+        {
+            throw new RuntimeException("MD5 not available", ex);
+        }
+    }
+
+
+    private static String md5Hex(byte[] content)
+    {
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : md5(content))
+            sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+
+
+    private static String xmlValue(String value, boolean urlEncode)
+    {
+        if (urlEncode)
+        {
+            try
+            {
+                return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+            }
+            catch (IOException ex)
+            {
+                throw new RuntimeException("UTF-8 not supported", ex);
+            }
+        }
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+
+    private static String isoDate(Date date)
+    {
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return fmt.format(date);
+    }
+
+
+    private static String httpDate(Date date)
+    {
+        SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(date);
+    }
+}
@@ -0,0 +1,470 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+
+
+/**
+ *  Measures upload and download throughput against an embedded {@link S3StandIn},
+ *  for a set of workloads at a range of concurrency levels. Each transfer uses
+ *  the same client calls as <code>S3UploadOp</code> and <code>S3DownloadOp</code>;
+ *  concurrency is provided by a fixed thread pool, one transfer per thread.
+ *  <p>
+ *  Invoke with <code>mvn -P benchmark test</code>. Arguments are passed as
+ *  <code>name=value</code> pairs (see {@link #DEFAULTS}); the pom exposes the
+ *  common ones as properties (eg: <code>-Dbenchmark.concurrency=1,8,32</code>).
+ *  <p>
+ *  Results are written to stdout and to CSV and JSON files in the output
+ *  directory. Files are named by timestamp, so that repeated runs accumulate
+ *  for trend tracking.
+ */
+public class TransferBenchmark
+{
+    private final static String BUCKET = "benchmark";
+
+    private final static Map<String,String> DEFAULTS = new LinkedHashMap<>();
+    static
+    {
+        DEFAULTS.put("concurrency",     "1,2,4,8,16");
+        DEFAULTS.put("workloads",       "small,large,mixed");
+        DEFAULTS.put("output",          "target/benchmark");
+        DEFAULTS.put("small.count",     "2000");
+        DEFAULTS.put("small.size",      "4096");
+        DEFAULTS.put("large.count",     "4");
+        DEFAULTS.put("large.size",      "33554432");
+        DEFAULTS.put("mixed.count",     "500");
+        DEFAULTS.put("mixed.maxSize",   "4194304");
+    }
+
+
+    public static void main(String[] argv)
+    throws Exception
+    {
+        Map<String,String> params = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : argv)
+        {
+            int eqIdx = arg.indexOf('=');
+            if (eqIdx < 0)
+                throw new IllegalArgumentException("arguments must be name=value: " + arg);
+            params.put(arg.substring(0, eqIdx), arg.substring(eqIdx + 1));
+        }
+
+        new TransferBenchmark(params).run();
+    }
+
+//----------------------------------------------------------------------------
+//  Instance data and constructor
+//----------------------------------------------------------------------------
+
+    private Map<String,String> params;
+    private int[] concurrencyLevels;
+    private File workDir;
+    private List<Result> results = new ArrayList<>();
+
+
+    public TransferBenchmark(Map<String,String> params)
+    {
+        this.params = params;
+
+        String[] levels = params.get("concurrency").split(",");
+        concurrencyLevels = new int[levels.length];
+        for (int ii = 0 ; ii < levels.length ; ii++)
+            concurrencyLevels[ii] = Integer.parseInt(levels[ii].trim());
+    }
+
+//----------------------------------------------------------------------------
+//  Operation
+//----------------------------------------------------------------------------
+
+    public void run()
+    throws Exception
+    {
+        int maxConcurrency = Arrays.stream(concurrencyLevels).max().getAsInt();
+        workDir = File.createTempFile("s3util-benchmark-", "");
+        workDir.delete();
+        workDir.mkdirs();
+
+        S3StandIn server = new S3StandIn(maxConcurrency * 2);
+        try
+        {
+            server.createBucket(BUCKET);
+            AmazonS3 client = server.createClient(maxConcurrency * 2);
+
+            for (String workload : params.get("workloads").split(","))
+            {
+                workload = workload.trim();
+                List<File> files = createWorkload(workload);
+                warmup(client, files);
+                for (int concurrency : concurrencyLevels)
+                {
+                    server.clearBucket(BUCKET);
+                    results.add(runUploads(client, workload, files, concurrency));
+                    results.add(runDownloads(client, workload, files, concurrency));
+                }
+                server.clearBucket(BUCKET);
+                deleteRecursive(new File(workDir, workload));
+            }
+        }
+        finally
+        {
+            server.shutdown();
+            deleteRecursive(workDir);
+        }
+
+        report();
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- workload generation
+//----------------------------------------------------------------------------
+
+    private List<File> createWorkload(String workload)
+    throws IOException
+    {
+        File dir = new File(workDir, workload + "/upload");
+        dir.mkdirs();
+
+        Random rnd = new Random(workload.hashCode());
+        List<File> files = new ArrayList<>();
+        switch (workload)
+        {
+            case "small" :
+                for (int ii = 0 ; ii < intParam("small.count") ; ii++)
+                    files.add(createFile(dir, ii, intParam("small.size"), rnd));
+                break;
+            case "large" :
+                for (int ii = 0 ; ii < intParam("large.count") ; ii++)
+                    files.add(createFile(dir, ii, intParam("large.size"), rnd));
+                break;
+            case "mixed" :
+                // log-uniform sizes, so that we get lots of small files and a few big ones
+                double maxExp = Math.log(intParam("mixed.maxSize"));
+                for (int ii = 0 ; ii < intParam("mixed.count") ; ii++)
+                    files.add(createFile(dir, ii, (int)Math.exp(rnd.nextDouble() * maxExp), rnd));
+                break;
+            default :
+                throw new IllegalArgumentException("unknown workload: " + workload);
+        }
+        return files;
+    }
+
+
+    private static File createFile(File dir, int index, int size, Random rnd)
+    throws IOException
+    {
+        File file = new File(dir, String.format("file-%06d.dat", index));
+        byte[] buf = new byte[Math.min(size, 1024 * 1024)];
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            int remaining = size;
+            while (remaining > 0)
+            {
+                rnd.nextBytes(buf);
+                int count = Math.min(remaining, buf.length);
+                out.write(buf, 0, count);
+                remaining -= count;
+            }
+        }
+        return file;
+    }
+
+
+    /**
+     *  Pushes a few files through the client so that connection setup and
+     *  JIT compilation don't land on the first measured run.
+     */
+    private void warmup(AmazonS3 client, List<File> files)
+    throws Exception
+    {
+        File downloadDir = new File(workDir, "warmup");
+        downloadDir.mkdirs();
+        for (File file : files.subList(0, Math.min(files.size(), 20)))
+        {
+            upload(client, file);
+            download(client, file, downloadDir);
+        }
+        deleteRecursive(downloadDir);
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- measurement
+//----------------------------------------------------------------------------
+
+    private Result runUploads(final AmazonS3 client, String workload, List<File> files, int concurrency)
+    throws Exception
+    {
+        return runTimed(workload, "upload", files, concurrency, new Transfer()
+        {
+            @Override
+            public void execute(File file) throws Exception
+            {
+                upload(client, file);
+            }
+        });
+    }
+
+
+    private Result runDownloads(final AmazonS3 client, String workload, List<File> files, int concurrency)
+    throws Exception
+    {
+        final File downloadDir = new File(workDir, workload + "/download-" + concurrency);
+        downloadDir.mkdirs();
+        try
+        {
+            return runTimed(workload, "download", files, concurrency, new Transfer()
+            {
+                @Override
+                public void execute(File file) throws Exception
+                {
+                    download(client, file, downloadDir);
+                }
+            });
+        }
+        finally
+        {
+            deleteRecursive(downloadDir);
+        }
+    }
+
+
+    private Result runTimed(String workload, String direction, List<File> files, int concurrency, final Transfer transfer)
+    throws Exception
+    {
+        System.err.println("running " + workload + " " + direction + " at concurrency " + concurrency);
+
+        long totalBytes = 0;
+        for (File file : files)
+            totalBytes += file.length();
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        List<Future<Long>> futures = new ArrayList<>(files.size());
+        long start = System.nanoTime();
+        try
+        {
+            for (final File file : files)
+            {
+                futures.add(pool.submit(() ->
+                {
+                    long opStart = System.nanoTime();
+                    transfer.execute(file);
+                    return System.nanoTime() - opStart;
+                }));
+            }
+
+            long[] latencies = new long[futures.size()];
+            for (int ii = 0 ; ii < latencies.length ; ii++)
+                latencies[ii] = futures.get(ii).get();
+            long elapsed = System.nanoTime() - start;
+
+            return new Result(workload, direction, concurrency, files.size(), totalBytes, elapsed, latencies);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+
+    // these two methods mirror the per-file calls in the upload/download ops
+
+    private static void upload(AmazonS3 client, File file)
+    {
+        client.putObject(BUCKET, file.getName(), file);
+    }
+
+
+    private static void download(AmazonS3 client, File file, File downloadDir)
+    {
+        client.getObject(new GetObjectRequest(BUCKET, file.getName()), new File(downloadDir, file.getName()));
+    }
+
+//----------------------------------------------------------------------------
+//  Internals -- reporting
+//----------------------------------------------------------------------------
+
+    private void report()
+    throws IOException
+    {
+        System.out.println(Result.headerLine());
+        for (Result result : results)
+            System.out.println(result.displayLine());
+
+        File outputDir = new File(params.get("output"));
+        outputDir.mkdirs();
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+
+        File csvFile = new File(outputDir, "transfer-" + timestamp + ".csv");
+        try (PrintWriter out = new PrintWriter(csvFile, "UTF-8"))
+        {
+            out.println(Result.CSV_HEADER);
+            for (Result result : results)
+                out.println(result.toCsv());
+        }
+
+        File jsonFile = new File(outputDir, "transfer-" + timestamp + ".json");
+        try (PrintWriter out = new PrintWriter(jsonFile, "UTF-8"))
+        {
+            out.println("{");
+            out.println("  \"timestamp\": \"" + timestamp + "\",");
+            out.println("  \"parameters\": {");
+            int count = 0;
+            for (Map.Entry<String,String> param : params.entrySet())
+            {
+                out.print("    \"" + param.getKey() + "\": \"" + param.getValue() + "\"");
+                out.println((++count < params.size()) ? "," : "");
+            }
+            out.println("  },");
+            out.println("  \"results\": [");
+            for (int ii = 0 ; ii < results.size() ; ii++)
+            {
+                out.print("    " + results.get(ii).toJson());
+                out.println((ii < results.size() - 1) ? "," : "");
+            }
+            out.println("  ]");
+            out.println("}");
+        }
+
+        System.err.println("results written to " + csvFile + " and " + jsonFile);
+    }
+
+
+    private int intParam(String name)
+    {
+        return Integer.parseInt(params.get(name));
+    }
+
+
+    private static void deleteRecursive(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                deleteRecursive(child);
+        }
+        file.delete();
+    }
+
+//----------------------------------------------------------------------------
+//  Helper classes
+//----------------------------------------------------------------------------
+
+    private interface Transfer
+    {
+        void execute(File file) throws Exception;
+    }
+
+
+    /**
+     *  The measurements from a single workload/direction/concurrency run.
+     */
+    private static class Result
+    {
+        public final static String CSV_HEADER
+            = "workload,direction,concurrency,objects,bytes,elapsedMillis,mbPerSec,objectsPerSec,"
+            + "p50Millis,p90Millis,p99Millis,maxMillis";
+
+        public final String workload;
+        public final String direction;
+        public final int concurrency;
+        public final int objects;
+        public final long bytes;
+        public final double elapsedMillis;
+        public final double mbPerSec;
+        public final double objectsPerSec;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+        public final double max;
+
+        public Result(String workload, String direction, int concurrency, int objects, long bytes, long elapsedNanos, long[] latencies)
+        {
+            this.workload = workload;
+            this.direction = direction;
+            this.concurrency = concurrency;
+            this.objects = objects;
+            this.bytes = bytes;
+            this.elapsedMillis = elapsedNanos / 1e6;
+
+            double elapsedSeconds = elapsedNanos / 1e9;
+            this.mbPerSec = (bytes / (1024.0 * 1024.0)) / elapsedSeconds;
+            this.objectsPerSec = objects / elapsedSeconds;
+
+            Arrays.sort(latencies);
+            this.p50 = percentile(latencies, 50);
+            this.p90 = percentile(latencies, 90);
+            this.p99 = percentile(latencies, 99);
+            this.max = latencies[latencies.length - 1] / 1e6;
+        }
+
+        // nearest-rank percentile, in millis
+        private static double percentile(long[] sorted, int pct)
+        {
+            int rank = (int)Math.ceil(pct / 100.0 * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        public static String headerLine()
+        {
+            return String.format("%-8s %-9s %5s %7s %10s %10s %10s %9s %9s %9s",
+                                 "workload", "direction", "conc", "objects", "MB/s", "obj/s",
+                                 "p50 ms", "p90 ms", "p99 ms", "max ms");
+        }
+
+        public String displayLine()
+        {
+            return String.format("%-8s %-9s %5d %7d %10.2f %10.1f %10.2f %9.2f %9.2f %9.2f",
+                                 workload, direction, concurrency, objects, mbPerSec, objectsPerSec,
+                                 p50, p90, p99, max);
+        }
+
+        public String toCsv()
+        {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f",
+                                 workload, direction, concurrency, objects, bytes, elapsedMillis,
+                                 mbPerSec, objectsPerSec, p50, p90, p99, max);
+        }
+
+        public String toJson()
+        {
+            return String.format(Locale.ROOT, "{\"workload\": \"%s\", \"direction\": \"%s\", \"concurrency\": %d, "
+                                 + "\"objects\": %d, \"bytes\": %d, \"elapsedMillis\": %.3f, "
+                                 + "\"mbPerSec\": %.3f, \"objectsPerSec\": %.3f, "
+                                 + "\"latencyMillis\": {\"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, \"max\": %.3f}}",
+                                 workload, direction, concurrency, objects, bytes, elapsedMillis,
+                                 mbPerSec, objectsPerSec, p50, p90, p99, max);
+        }
+    }
+}
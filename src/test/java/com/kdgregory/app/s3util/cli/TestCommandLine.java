@@ -0,0 +1,240 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.AmazonS3;
+
+import com.kdgregory.app.s3util.benchmark.S3StandIn;
+import com.kdgregory.app.s3util.main.Concierge;
+import com.kdgregory.app.s3util.main.ConfigBean;
+import com.kdgregory.app.s3util.transfer.HashCache;
+import com.kdgregory.app.s3util.transfer.UploadPolicy;
+
+
+public class TestCommandLine
+extends TestCase
+{
+    private final static String BUCKET = "example";
+
+    private S3StandIn s3;
+    private AmazonS3 client;
+    private Concierge concierge;
+    private File tempDir;
+
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = Files.createTempDirectory("TestCommandLine").toFile();
+
+        s3 = new S3StandIn(4);
+        s3.createBucket(BUCKET);
+        client = s3.createClient(4);
+
+        // the stand-in's client is used for all buckets, and nothing touches
+        // the user's hash cache or upload policy
+        concierge = new Concierge(new ConfigBean())
+        {
+            @Override
+            public AmazonS3 getS3Client()
+            {
+                return client;
+            }
+
+            @Override
+            public AmazonS3 getS3ClientForRegion(String region)
+            {
+                return client;
+            }
+
+            @Override
+            public synchronized HashCache getHashCache()
+            {
+                return new HashCache(new File(tempDir, "hashes"));
+            }
+
+            @Override
+            public synchronized UploadPolicy getUploadPolicy()
+            {
+                return UploadPolicy.empty();
+            }
+        };
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        s3.shutdown();
+        delete(tempDir);
+    }
+
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+
+    private int runCommand(String... argv)
+    {
+        return new CommandLine(concierge,
+                               new PrintStream(out, true),
+                               new PrintStream(err, true))
+               .run(argv);
+    }
+
+
+    private String errorOutput()
+    throws Exception
+    {
+        return new String(err.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+
+    private File createFile(String name, String content)
+    throws Exception
+    {
+        File file = new File(tempDir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testUsage() throws Exception
+    {
+        assertEquals("no arguments",        0,      runCommand());
+        assertTrue("printed usage",                 errorOutput().startsWith("usage:"));
+    }
+
+
+    public void testUnknownCommand() throws Exception
+    {
+        assertEquals("exit code",           2,      runCommand("frobnicate"));
+        assertTrue("message",                       errorOutput().startsWith("error: unknown command: frobnicate"));
+    }
+
+
+    public void testUnknownFlag() throws Exception
+    {
+        assertEquals("exit code",           2,      runCommand("ls", "--bogus", "s3://" + BUCKET));
+        assertTrue("message",                       errorOutput().startsWith("error: unsupported option(s): [--bogus]"));
+    }
+
+
+    public void testMisplacedFlag() throws Exception
+    {
+        // each of these is valid for some command, but not the one given
+
+        File file = createFile("example.txt", "hello");
+        assertEquals("--gzip on get",       2,      runCommand("get", "--gzip", "s3://" + BUCKET + "/key", tempDir.getPath()));
+        assertEquals("--delete on cp",      2,      runCommand("cp", "--delete", file.getPath(), "s3://" + BUCKET + "/"));
+        assertEquals("--gzip on extract",   2,      runCommand("put", "--extract", "--gzip", file.getPath(), "s3://" + BUCKET));
+        assertEquals("--flatten on zip",    2,      runCommand("get", "--zip", "--flatten", "s3://" + BUCKET + "/key", "out.zip"));
+        assertTrue("nothing uploaded",              client.listObjects(BUCKET).getObjectSummaries().isEmpty());
+    }
+
+
+    public void testArgumentCounts() throws Exception
+    {
+        assertEquals("get",                 2,      runCommand("get", "s3://" + BUCKET + "/key"));
+        assertEquals("put",                 2,      runCommand("put", "s3://" + BUCKET + "/key"));
+        assertEquals("rm",                  2,      runCommand("rm"));
+        assertEquals("cp, one argument",    2,      runCommand("cp", "s3://" + BUCKET + "/key"));
+        assertEquals("cp, three arguments", 2,      runCommand("cp", "a", "b", "s3://" + BUCKET + "/key"));
+        assertEquals("sync",                2,      runCommand("sync", tempDir.getPath()));
+        assertEquals("report",              2,      runCommand("report"));
+        assertEquals("export",              2,      runCommand("export", "s3://" + BUCKET, "a", "b"));
+    }
+
+
+    public void testBadArguments() throws Exception
+    {
+        assertEquals("missing bucket",      2,      runCommand("ls", "s3://"));
+        assertEquals("not a URI",           2,      runCommand("rm", BUCKET + "/key"));
+        assertEquals("prefix without -r",   2,      runCommand("rm", "s3://" + BUCKET + "/dir/"));
+        assertEquals("local to local",      2,      runCommand("cp", "a", "b"));
+        assertEquals("missing file",        2,      runCommand("put", new File(tempDir, "missing").getPath(), "s3://" + BUCKET));
+    }
+
+
+    public void testCopyLocalToS3() throws Exception
+    {
+        File file = createFile("example.txt", "hello, world");
+
+        assertEquals("exit code",           0,      runCommand("cp", file.getPath(), "s3://" + BUCKET + "/dir/"));
+        assertEquals("content",             "hello, world",
+                                                    client.getObjectAsString(BUCKET, "dir/example.txt"));
+    }
+
+
+    public void testCopyS3ToLocal() throws Exception
+    {
+        client.putObject(BUCKET, "dir/example.txt", "hello, world");
+        File dest = new File(tempDir, "dest");
+        dest.mkdir();
+
+        assertEquals("exit code",           0,      runCommand("cp", "s3://" + BUCKET + "/dir/example.txt", dest.getPath()));
+        assertEquals("content",             "hello, world",
+                                                    new String(Files.readAllBytes(new File(dest, "example.txt").toPath()), StandardCharsets.UTF_8));
+    }
+
+
+    public void testCopyS3ToS3() throws Exception
+    {
+        client.putObject(BUCKET, "dir/example.txt", "hello, world");
+
+        assertEquals("to key",              0,      runCommand("cp", "s3://" + BUCKET + "/dir/example.txt", "s3://" + BUCKET + "/renamed.txt"));
+        assertEquals("to key, content",     "hello, world",
+                                                    client.getObjectAsString(BUCKET, "renamed.txt"));
+
+        assertEquals("to prefix",           0,      runCommand("cp", "s3://" + BUCKET + "/dir/example.txt", "s3://" + BUCKET + "/other/"));
+        assertEquals("to prefix, content",  "hello, world",
+                                                    client.getObjectAsString(BUCKET, "other/example.txt"));
+
+        assertEquals("source remains",      "hello, world",
+                                                    client.getObjectAsString(BUCKET, "dir/example.txt"));
+    }
+
+
+    public void testCopyMissingObject() throws Exception
+    {
+        assertEquals("exit code",           1,      runCommand("cp", "s3://" + BUCKET + "/missing", "s3://" + BUCKET + "/copy"));
+        assertTrue("message",                       errorOutput().startsWith("error: "));
+    }
+}
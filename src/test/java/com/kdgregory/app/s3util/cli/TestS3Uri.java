@@ -0,0 +1,111 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.cli;
+
+import junit.framework.TestCase;
+
+
+public class TestS3Uri
+extends TestCase
+{
+    public void testIsS3() throws Exception
+    {
+        assertTrue("URI",                   S3Uri.isS3("s3://bucket/key"));
+        assertFalse("relative path",        S3Uri.isS3("bucket/key"));
+        assertFalse("absolute path",        S3Uri.isS3("/tmp/s3://bucket"));
+        assertFalse("other scheme",         S3Uri.isS3("http://bucket/key"));
+    }
+
+
+    public void testBucketAndKey() throws Exception
+    {
+        S3Uri uri = S3Uri.parse("s3://bucket/path/to/key");
+        assertEquals("bucket",              "bucket",               uri.bucket);
+        assertEquals("key",                 "path/to/key",          uri.key);
+        assertEquals("file",                "path/to/key",          uri.toS3File().getKey());
+    }
+
+
+    public void testBucketOnly() throws Exception
+    {
+        S3Uri uri = S3Uri.parse("s3://bucket");
+        assertEquals("bucket",              "bucket",               uri.bucket);
+        assertEquals("key",                 "",                     uri.key);
+    }
+
+
+    public void testEmptyKey() throws Exception
+    {
+        S3Uri uri = S3Uri.parse("s3://bucket/");
+        assertEquals("bucket",              "bucket",               uri.bucket);
+        assertEquals("key",                 "",                     uri.key);
+
+        try
+        {
+            uri.toS3File();
+            fail("empty key should not be a file");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testTrailingSlash() throws Exception
+    {
+        S3Uri uri = S3Uri.parse("s3://bucket/path/");
+        assertEquals("bucket",              "bucket",               uri.bucket);
+        assertEquals("key",                 "path/",                uri.key);
+
+        try
+        {
+            uri.toS3File();
+            fail("prefix should not be a file");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue("message suggests -r", ex.getMessage().contains("-r"));
+        }
+    }
+
+
+    public void testMissingScheme() throws Exception
+    {
+        try
+        {
+            S3Uri.parse("bucket/key");
+            fail("parsed a URI without s3://");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertEquals("message", "not an S3 URI: bucket/key", ex.getMessage());
+        }
+    }
+
+
+    public void testMissingBucket() throws Exception
+    {
+        try
+        {
+            S3Uri.parse("s3:///key");
+            fail("parsed a URI without a bucket");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertEquals("message", "missing bucket name: s3:///key", ex.getMessage());
+        }
+    }
+}
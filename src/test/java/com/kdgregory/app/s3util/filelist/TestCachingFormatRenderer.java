@@ -0,0 +1,94 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+
+public class TestCachingFormatRenderer
+extends TestCase
+{
+    public void testFormatsSizes() throws Exception
+    {
+        CachingFormatRenderer renderer = CachingFormatRenderer.forSize();
+
+        assertEquals("0",               renderer.getFormatted(Long.valueOf(0)));
+        assertEquals("1,234,567",       renderer.getFormatted(Long.valueOf(1234567)));
+        assertEquals("5,000,000,000",   renderer.getFormatted(Long.valueOf(5000000000L)));
+        assertEquals("12",              renderer.getFormatted(Integer.valueOf(12)));
+    }
+
+
+    public void testFormatsDates() throws Exception
+    {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        CachingFormatRenderer renderer = new CachingFormatRenderer(format, 16);
+
+        assertEquals("1970-01-01 00:00:00", renderer.getFormatted(new Date(0)));
+        assertEquals("2020-09-13 12:26:40", renderer.getFormatted(new Date(1600000000000L)));
+    }
+
+
+    public void testCachesFormattedValues() throws Exception
+    {
+        CachingFormatRenderer renderer = CachingFormatRenderer.forSize();
+
+        String s1 = renderer.getFormatted(Long.valueOf(123456));
+        String s2 = renderer.getFormatted(Long.valueOf(123456));
+        assertSame(s1, s2);
+    }
+
+
+    public void testCollisionsReplaceEntries() throws Exception
+    {
+        // with a single slot, every value collides
+        CachingFormatRenderer renderer = new CachingFormatRenderer(new DecimalFormat("0"), 1);
+
+        for (long ii = 0 ; ii < 100 ; ii++)
+        {
+            assertEquals(String.valueOf(ii), renderer.getFormatted(Long.valueOf(ii)));
+            assertEquals(String.valueOf(ii), renderer.getFormatted(Long.valueOf(ii)));
+        }
+    }
+
+
+    public void testOtherValues() throws Exception
+    {
+        CachingFormatRenderer renderer = CachingFormatRenderer.forSize();
+
+        assertEquals("",        renderer.getFormatted(null));
+        assertEquals("foo",     renderer.getFormatted("foo"));
+    }
+
+
+    public void testInvalidCacheSize() throws Exception
+    {
+        try
+        {
+            new CachingFormatRenderer(new SimpleDateFormat(), 100);
+            fail("accepted cache size that isn't a power of 2");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+}
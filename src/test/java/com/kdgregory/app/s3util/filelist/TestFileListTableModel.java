@@ -235,4 +235,128 @@ extends TestCase
 
         lsnr.assertEventCount(0);
     }
+
+
+    public void testBatchAdd() throws Exception
+    {
+        S3File f1 = new S3File("test/foo.txt");
+        S3File f2 = new S3File("test/bar.txt");
+        TreeSet<S3File> init = new TreeSet<S3File>(Arrays.asList(f1, f2));
+
+        FileListTableModel model = new FileListTableModel(init);
+        MockModelListener lsnr = new MockModelListener();
+        model.addTableModelListener(lsnr);
+
+        S3File f3 = new S3File("zippy.txt");
+        S3File f4 = new S3File("test/foo.txt");     // replaces f1
+        S3File f5 = new S3File("bar.txt");
+        S3File f6 = new S3File("test/baz.txt");
+        model.addFiles(Arrays.asList(f3, f4, f5, f6));
+
+        assertEquals(5, model.getRowCount());
+        assertSame(f5, model.getFileAt(0));
+        assertSame(f3, model.getFileAt(1));
+        assertSame(f2, model.getFileAt(2));
+        assertSame(f6, model.getFileAt(3));
+        assertSame(f4, model.getFileAt(4));
+
+        TableModelEvent evt = lsnr.assertOneGetAndReset();
+        assertEquals(TableModelEvent.UPDATE,        evt.getType());
+        assertEquals(0,                             evt.getFirstRow());
+        assertEquals(Integer.MAX_VALUE,             evt.getLastRow());
+
+        model.addFiles(new ArrayList<S3File>());
+        lsnr.assertEventCount(0);
+    }
+
+
+    public void testBatchDelete() throws Exception
+    {
+        S3File f1 = new S3File("a.txt");
+        S3File f2 = new S3File("b.txt");
+        S3File f3 = new S3File("c.txt");
+        S3File f4 = new S3File("d.txt");
+        S3File f5 = new S3File("e.txt");
+        TreeSet<S3File> init = new TreeSet<S3File>(Arrays.asList(f1, f2, f3, f4, f5));
+
+        FileListTableModel model = new FileListTableModel(init);
+        MockModelListener lsnr = new MockModelListener();
+        model.addTableModelListener(lsnr);
+
+        model.deleteFiles(Arrays.asList(new S3File("b.txt"), new S3File("c.txt"), new S3File("e.txt"), new S3File("zippy.txt")));
+
+        assertEquals(2, model.getRowCount());
+        assertSame(f1, model.getFileAt(0));
+        assertSame(f4, model.getFileAt(1));
+
+        // one event per contiguous range, last range first
+        lsnr.assertEventCount(2);
+        assertEquals(TableModelEvent.DELETE,        lsnr.events.get(0).getType());
+        assertEquals(4,                             lsnr.events.get(0).getFirstRow());
+        assertEquals(4,                             lsnr.events.get(0).getLastRow());
+        assertEquals(TableModelEvent.DELETE,        lsnr.events.get(1).getType());
+        assertEquals(1,                             lsnr.events.get(1).getFirstRow());
+        assertEquals(2,                             lsnr.events.get(1).getLastRow());
+    }
+
+
+    public void testBatchDeleteWithManyRanges() throws Exception
+    {
+        // deleting every other file leaves too many ranges for per-range events
+
+        TreeSet<S3File> init = new TreeSet<S3File>();
+        List<S3File> toDelete = new ArrayList<S3File>();
+        for (int ii = 0 ; ii < 2 * (FileListTableModel.MAX_DELETE_EVENTS + 1) ; ii++)
+        {
+            S3File file = new S3File(String.format("file-%04d", ii));
+            init.add(file);
+            if (ii % 2 == 1)
+                toDelete.add(file);
+        }
+
+        FileListTableModel model = new FileListTableModel(init);
+        MockModelListener lsnr = new MockModelListener();
+        model.addTableModelListener(lsnr);
+
+        model.deleteFiles(toDelete);
+
+        assertEquals(FileListTableModel.MAX_DELETE_EVENTS + 1, model.getRowCount());
+        assertEquals("file-0000", model.getFileAt(0).getKey());
+        assertEquals("file-0002", model.getFileAt(1).getKey());
+
+        lsnr.assertEventCount(1);
+        assertEquals(TableModelEvent.UPDATE,        lsnr.events.get(0).getType());
+        assertEquals(Integer.MAX_VALUE,             lsnr.events.get(0).getLastRow());
+    }
+
+
+    public void testSnapshotIsUnaffectedByChanges() throws Exception
+    {
+        S3File f1 = new S3File("a.txt");
+        S3File f2 = new S3File("b.txt");
+        S3File f3 = new S3File("c.txt");
+
+        FileListTableModel model = new FileListTableModel(new TreeSet<S3File>(Arrays.asList(f1, f3)));
+
+        List<S3File> snapshot1 = model.snapshot();
+        model.addFile(f2);
+        List<S3File> snapshot2 = model.snapshot();
+        model.deleteFile(f1);
+
+        assertEquals(Arrays.asList(f1, f3), snapshot1);
+        assertEquals(Arrays.asList(f1, f2, f3), snapshot2);
+        assertEquals(2, model.getRowCount());
+        assertSame(f2, model.getFileAt(0));
+        assertSame(f3, model.getFileAt(1));
+
+        try
+        {
+            snapshot2.remove(0);
+            fail("snapshot was modifiable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // success
+        }
+    }
 }
@@ -0,0 +1,175 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+
+public class TestPrefixAggregator
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static S3File file(String key, long size)
+    {
+        return new S3File(key, size, new Date());
+    }
+
+
+    private static void assertNode(PrefixAggregator aggregator, String prefix, long expectedCount, long expectedBytes)
+    {
+        PrefixAggregator.Node node = aggregator.getNode(prefix);
+        assertNotNull("node exists: " + prefix, node);
+        assertEquals("count for " + prefix, expectedCount, node.getCount());
+        assertEquals("bytes for " + prefix, expectedBytes, node.getBytes());
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testAddUpdatesAllAncestors() throws Exception
+    {
+        PrefixAggregator aggregator = new PrefixAggregator();
+        aggregator.add(file("top.txt", 1));
+        aggregator.add(file("a/one.txt", 10));
+        aggregator.add(file("a/b/two.txt", 100));
+        aggregator.add(file("a/b/three.txt", 1000));
+        aggregator.add(file("c/four.txt", 10000));
+
+        assertNode(aggregator, "",      5, 11111);
+        assertNode(aggregator, "a",     3, 1110);
+        assertNode(aggregator, "a/b",   2, 1100);
+        assertNode(aggregator, "c",     1, 10000);
+        assertNull(aggregator.getNode("a/c"));
+
+        assertSame(aggregator.getRoot(), aggregator.getNode(""));
+        assertEquals("a/b", aggregator.getNode("a/b").getPrefix());
+        assertEquals(2, aggregator.getRoot().getChildren().size());
+    }
+
+
+    public void testRemovePrunesEmptyNodes() throws Exception
+    {
+        S3File f1 = file("a/one.txt", 10);
+        S3File f2 = file("a/b/two.txt", 100);
+
+        PrefixAggregator aggregator = new PrefixAggregator(Arrays.asList(f1, f2));
+        long modCount = aggregator.getModCount();
+
+        aggregator.remove(f2);
+        assertNode(aggregator, "",  1, 10);
+        assertNode(aggregator, "a", 1, 10);
+        assertNull(aggregator.getNode("a/b"));
+        assertTrue(aggregator.getModCount() > modCount);
+
+        aggregator.remove(f1);
+        assertNode(aggregator, "",  0, 0);
+        assertNull(aggregator.getNode("a"));
+
+        // removing a file that isn't there is ignored
+        aggregator.remove(file("x/y.txt", 5));
+        assertNode(aggregator, "",  0, 0);
+    }
+
+
+    public void testReplace() throws Exception
+    {
+        S3File f1 = file("a/one.txt", 10);
+        PrefixAggregator aggregator = new PrefixAggregator(Arrays.asList(f1));
+
+        aggregator.replace(f1, file("a/one.txt", 25));
+        assertNode(aggregator, "",  1, 25);
+        assertNode(aggregator, "a", 1, 25);
+    }
+
+
+    public void testFileWithoutSize() throws Exception
+    {
+        PrefixAggregator aggregator = new PrefixAggregator();
+        aggregator.add(new S3File("a/b.txt"));
+        assertNode(aggregator, "a", 1, 0);
+    }
+
+
+    public void testModelKeepsAggregatorCurrent() throws Exception
+    {
+        FileListTableModel model = new FileListTableModel();
+        PrefixAggregator aggregator = model.getAggregator();
+
+        model.addFile(file("a/one.txt", 10));
+        model.addFile(file("a/two.txt", 20));
+        model.addFile(file("a/one.txt", 15));
+        assertNode(aggregator, "a", 2, 35);
+
+        model.addFiles(Arrays.asList(file("a/two.txt", 5), file("b/three.txt", 100)));
+        assertNode(aggregator, "",  3, 120);
+        assertNode(aggregator, "a", 2, 20);
+
+        model.deleteFiles(Arrays.asList(new S3File("b/three.txt"), new S3File("b/three.txt")));
+        assertNode(aggregator, "",  2, 20);
+        assertNull(aggregator.getNode("b"));
+
+        model.deleteFile(new S3File("a/one.txt"));
+        assertNode(aggregator, "a", 1, 5);
+    }
+
+
+    public void testTreeModelSortOrders() throws Exception
+    {
+        PrefixAggregator aggregator = new PrefixAggregator();
+        aggregator.add(file("a/1", 100));
+        aggregator.add(file("b/1", 10));
+        aggregator.add(file("b/2", 10));
+        aggregator.add(file("b/3", 10));
+        aggregator.add(file("c/1", 50));
+
+        PrefixTreeModel model = new PrefixTreeModel(aggregator, PrefixTreeModel.SortOrder.NAME);
+        Object root = model.getRoot();
+        assertEquals(3, model.getChildCount(root));
+        assertEquals("a", ((PrefixAggregator.Node)model.getChild(root, 0)).getName());
+        assertEquals("b", ((PrefixAggregator.Node)model.getChild(root, 1)).getName());
+        assertEquals("c", ((PrefixAggregator.Node)model.getChild(root, 2)).getName());
+        assertTrue(model.isLeaf(model.getChild(root, 0)));
+
+        model.setSortOrder(PrefixTreeModel.SortOrder.SIZE);
+        assertEquals("a", ((PrefixAggregator.Node)model.getChild(root, 0)).getName());
+        assertEquals("c", ((PrefixAggregator.Node)model.getChild(root, 1)).getName());
+        assertEquals("b", ((PrefixAggregator.Node)model.getChild(root, 2)).getName());
+
+        model.setSortOrder(PrefixTreeModel.SortOrder.COUNT);
+        assertEquals("b", ((PrefixAggregator.Node)model.getChild(root, 0)).getName());
+        assertEquals(0, model.getIndexOfChild(root, aggregator.getNode("b")));
+
+        // changes aren't visible until refresh
+        assertFalse(model.isStale());
+        aggregator.add(file("d/1", 1));
+        aggregator.add(file("d/2", 1));
+        aggregator.add(file("d/3", 1));
+        aggregator.add(file("d/4", 1));
+        assertTrue(model.isStale());
+        assertEquals(3, model.getChildCount(root));
+
+        model.refresh();
+        assertFalse(model.isStale());
+        assertEquals(4, model.getChildCount(root));
+        assertEquals("d", ((PrefixAggregator.Node)model.getChild(root, 0)).getName());
+    }
+}
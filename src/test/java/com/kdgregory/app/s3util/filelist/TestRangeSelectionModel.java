@@ -0,0 +1,301 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.filelist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+import junit.framework.TestCase;
+
+
+public class TestRangeSelectionModel
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static class MockSelectionListener
+    implements ListSelectionListener
+    {
+        private List<ListSelectionEvent> events = new ArrayList<ListSelectionEvent>();
+
+        @Override
+        public void valueChanged(ListSelectionEvent evt)
+        {
+            events.add(evt);
+        }
+
+        public ListSelectionEvent assertOneGetAndReset()
+        {
+            assertEquals(1, events.size());
+            ListSelectionEvent event = events.get(0);
+            events.clear();
+            return event;
+        }
+    }
+
+
+    private static void assertRanges(RangeSelectionModel model, int... expected)
+    {
+        RangeSelectionModel.Selection selection = model.getSelection();
+        int[] actual = new int[selection.getRangeCount() * 2];
+        for (int ii = 0 ; ii < selection.getRangeCount() ; ii++)
+        {
+            actual[ii * 2] = selection.getRangeStart(ii);
+            actual[ii * 2 + 1] = selection.getRangeEnd(ii);
+        }
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testEmpty() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+
+        assertTrue(model.isSelectionEmpty());
+        assertEquals(0, model.getSelectedCount());
+        assertEquals(-1, model.getMinSelectionIndex());
+        assertEquals(-1, model.getMaxSelectionIndex());
+        assertFalse(model.isSelectedIndex(0));
+    }
+
+
+    public void testSelectAllIsOneRange() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.setSelectionInterval(0, 4999999);
+
+        assertRanges(model, 0, 4999999);
+        assertEquals(5000000, model.getSelectedCount());
+        assertTrue(model.isSelectedIndex(2500000));
+        assertFalse(model.isSelectedIndex(5000000));
+        assertEquals(0, model.getMinSelectionIndex());
+        assertEquals(4999999, model.getMaxSelectionIndex());
+    }
+
+
+    public void testAddMergesOverlappingAndAdjacentRanges() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(10, 20);
+        model.addSelectionInterval(30, 40);
+        model.addSelectionInterval(0, 2);
+        assertRanges(model, 0, 2, 10, 20, 30, 40);
+        assertEquals(25, model.getSelectedCount());
+
+        model.addSelectionInterval(21, 25);
+        assertRanges(model, 0, 2, 10, 25, 30, 40);
+
+        model.addSelectionInterval(35, 15);
+        assertRanges(model, 0, 2, 10, 40);
+        assertEquals(34, model.getSelectedCount());
+    }
+
+
+    public void testRemoveSplitsRanges() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.setSelectionInterval(0, 99);
+        model.removeSelectionInterval(10, 19);
+        model.removeSelectionInterval(95, 200);
+
+        assertRanges(model, 0, 9, 20, 94);
+        assertEquals(85, model.getSelectedCount());
+        assertFalse(model.isSelectedIndex(15));
+        assertTrue(model.isSelectedIndex(20));
+    }
+
+
+    public void testSingleSelectionMode() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+
+        model.setSelectionInterval(3, 7);
+        assertRanges(model, 7, 7);
+
+        model.addSelectionInterval(10, 12);
+        assertRanges(model, 12, 12);
+    }
+
+
+    public void testExtendFromAnchor() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+
+        // click, shift-click, shift-click closer to the anchor
+        model.setSelectionInterval(5, 5);
+        model.setLeadSelectionIndex(10);
+        assertRanges(model, 5, 10);
+        model.setLeadSelectionIndex(7);
+        assertRanges(model, 5, 7);
+
+        // ctrl-click elsewhere, then shift-click in the other direction
+        model.addSelectionInterval(20, 20);
+        model.setLeadSelectionIndex(18);
+        assertRanges(model, 5, 7, 18, 20);
+        assertEquals(20, model.getAnchorSelectionIndex());
+        assertEquals(18, model.getLeadSelectionIndex());
+    }
+
+
+    public void testInsertIndexInterval() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(5, 9);
+        model.addSelectionInterval(20, 24);
+
+        // inserted before a selection, so it moves
+        model.insertIndexInterval(2, 3, true);
+        assertRanges(model, 8, 12, 23, 27);
+
+        // inserted inside a selection, so it grows
+        model.insertIndexInterval(10, 2, true);
+        assertRanges(model, 8, 14, 25, 29);
+
+        // inserted after the end of the selection, so not selected
+        model.insertIndexInterval(30, 5, true);
+        assertRanges(model, 8, 14, 25, 29);
+        assertEquals(12, model.getSelectedCount());
+    }
+
+
+    public void testRemoveIndexInterval() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(5, 9);
+        model.addSelectionInterval(15, 19);
+        model.addSelectionInterval(30, 34);
+
+        // removes part of the first range, and the gap to the second, so they merge
+        model.removeIndexInterval(8, 14);
+        assertRanges(model, 5, 12, 23, 27);
+
+        model.removeIndexInterval(0, 100);
+        assertTrue(model.isSelectionEmpty());
+    }
+
+
+    public void testRemoveIndexIntervalCases() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(0, 1);
+        model.addSelectionInterval(5, 6);
+        model.addSelectionInterval(10, 19);
+        model.addSelectionInterval(25, 29);
+        model.addSelectionInterval(40, 44);
+
+        // drops the second range, trims the third, and shifts the rest
+        model.removeIndexInterval(4, 12);
+        assertRanges(model, 0, 1, 4, 10, 16, 20, 31, 35);
+
+        // the removed rows are inside a range, so it shrinks
+        model.removeIndexInterval(17, 18);
+        assertRanges(model, 0, 1, 4, 10, 16, 18, 29, 33);
+
+        // removes the gaps on either side of a range, so all three merge
+        model.removeIndexInterval(11, 15);
+        assertRanges(model, 0, 1, 4, 13, 24, 28);
+        model.removeIndexInterval(14, 23);
+        assertRanges(model, 0, 1, 4, 18);
+    }
+
+
+    public void testEvents() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        MockSelectionListener lsnr = new MockSelectionListener();
+        model.addListSelectionListener(lsnr);
+
+        model.setSelectionInterval(5, 9);
+        ListSelectionEvent evt = lsnr.assertOneGetAndReset();
+        assertEquals(5, evt.getFirstIndex());
+        assertEquals(9, evt.getLastIndex());
+        assertFalse(evt.getValueIsAdjusting());
+
+        model.setValueIsAdjusting(true);
+        model.setSelectionInterval(2, 2);
+        evt = lsnr.assertOneGetAndReset();
+        assertTrue(evt.getValueIsAdjusting());
+
+        model.setValueIsAdjusting(false);
+        evt = lsnr.assertOneGetAndReset();
+        assertFalse(evt.getValueIsAdjusting());
+        assertEquals(2, evt.getFirstIndex());
+        assertEquals(9, evt.getLastIndex());
+    }
+
+
+    public void testSnapshotsAreImmutable() throws Exception
+    {
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(0, 4);
+        RangeSelectionModel.Selection snapshot = model.getSelection();
+
+        model.addSelectionInterval(10, 14);
+        model.removeSelectionInterval(2, 2);
+
+        assertEquals(5, snapshot.getCount());
+        assertEquals(1, snapshot.getRangeCount());
+        assertEquals(9, model.getSelectedCount());
+    }
+
+
+    public void testSelectedFiles() throws Exception
+    {
+        List<S3File> files = new ArrayList<S3File>();
+        for (int ii = 0 ; ii < 20 ; ii++)
+            files.add(new S3File(String.format("file-%02d", ii)));
+
+        RangeSelectionModel model = new RangeSelectionModel();
+        model.addSelectionInterval(2, 4);
+        model.addSelectionInterval(10, 10);
+        model.addSelectionInterval(17, 19);
+
+        SelectedFiles selected = new SelectedFiles(files, model.getSelection());
+        assertEquals(7, selected.size());
+        assertSame(files.get(2),  selected.get(0));
+        assertSame(files.get(4),  selected.get(2));
+        assertSame(files.get(10), selected.get(3));
+        assertSame(files.get(17), selected.get(4));
+        assertSame(files.get(19), selected.get(6));
+
+        List<S3File> iterated = new ArrayList<S3File>();
+        for (S3File file : selected)
+            iterated.add(file);
+        assertEquals(Arrays.asList(files.get(2), files.get(3), files.get(4), files.get(10),
+                                   files.get(17), files.get(18), files.get(19)),
+                     iterated);
+
+        try
+        {
+            selected.get(7);
+            fail("retrieved past end of selection");
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            // success
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.main;
+
+import java.util.Arrays;
+import java.util.prefs.Preferences;
+
+import junit.framework.TestCase;
+
+
+public class TestBucketCache
+extends TestCase
+{
+    private final static long LIST_TTL = 60000;
+
+    private Preferences node;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    /**
+     *  A cache with a controllable clock.
+     */
+    private static class TestableBucketCache
+    extends BucketCache
+    {
+        public long now = 1000000;
+
+        public TestableBucketCache(Preferences root)
+        {
+            super(root, LIST_TTL);
+        }
+
+        @Override
+        protected long now()
+        {
+            return now;
+        }
+    }
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        node = Preferences.userRoot().node("TestBucketCache-" + System.nanoTime());
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        node.removeNode();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testBucketList() throws Exception
+    {
+        TestableBucketCache cache = new TestableBucketCache(node);
+        assertNull("initially empty",               cache.getBucketList());
+        assertTrue("initially stale",               cache.isBucketListStale());
+
+        cache.setBucketList(Arrays.asList("zzz", "aaa", "mmm"));
+        assertEquals("cached list, sorted",         Arrays.asList("aaa", "mmm", "zzz"), cache.getBucketList());
+        assertFalse("fresh after set",              cache.isBucketListStale());
+
+        cache.now += LIST_TTL + 1;
+        assertTrue("stale after TTL",               cache.isBucketListStale());
+        assertEquals("stale list still available",  3, cache.getBucketList().size());
+
+        cache.setBucketList(Arrays.asList("bbb"));
+        assertEquals("replaced list",               Arrays.asList("bbb"), cache.getBucketList());
+
+        // a new instance over the same node sees the persisted values
+        TestableBucketCache cache2 = new TestableBucketCache(node);
+        cache2.now = cache.now;
+        assertEquals("persisted list",              Arrays.asList("bbb"), cache2.getBucketList());
+        assertFalse("persisted timestamp",          cache2.isBucketListStale());
+    }
+
+
+    public void testRegions() throws Exception
+    {
+        TestableBucketCache cache = new TestableBucketCache(node);
+        assertNull("initially empty",               cache.getRegion("foo"));
+        assertTrue("initially stale",               cache.isRegionStale("foo"));
+
+        cache.setRegion("foo", "us-west-2");
+        assertEquals("cached region",               "us-west-2", cache.getRegion("foo"));
+        assertFalse("fresh after set",              cache.isRegionStale("foo"));
+
+        cache.now += BucketCache.REGION_TTL_MILLIS + 1;
+        assertTrue("stale after TTL",               cache.isRegionStale("foo"));
+        assertEquals("stale region still available", "us-west-2", cache.getRegion("foo"));
+
+        cache.invalidate("foo");
+        assertNull("invalidated",                   cache.getRegion("foo"));
+    }
+
+
+    public void testListUpdateDiscardsExpiredRegions() throws Exception
+    {
+        TestableBucketCache cache = new TestableBucketCache(node);
+        cache.setRegion("old", "us-west-2");
+        cache.now += BucketCache.REGION_TTL_MILLIS / 2;
+        cache.setRegion("foo", "us-east-1");
+        cache.setRegion("bar", "eu-west-1");
+        cache.now += BucketCache.REGION_TTL_MILLIS / 2 + 1;
+
+        cache.setBucketList(Arrays.asList("foo", "baz"));
+        assertEquals("retained listed region",      "us-east-1", cache.getRegion("foo"));
+        assertEquals("retained unlisted region",    "eu-west-1", cache.getRegion("bar"));
+        assertNull("discarded expired region",      cache.getRegion("old"));
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.metrics;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+
+public class TestLatencyHistogram
+extends TestCase
+{
+    private final static long MILLIS = 1000000L;
+
+
+    public void testEmpty() throws Exception
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        assertEquals(0,     hist.getCount());
+        assertEquals(0.0,   hist.getMeanMillis(), 0.0);
+        assertEquals(0.0,   hist.getPercentileMillis(50), 0.0);
+        assertEquals(0,     hist.getBuckets().size());
+    }
+
+
+    public void testCountMeanAndMax() throws Exception
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(10 * MILLIS);
+        hist.record(20 * MILLIS);
+        hist.record(30 * MILLIS);
+
+        assertEquals(3,     hist.getCount());
+        assertEquals(20.0,  hist.getMeanMillis(), 0.001);
+        assertEquals(30.0,  hist.getMaxMillis(), 0.001);
+    }
+
+
+    // percentiles are only accurate to the bucket, so we verify that they're
+    // in the right power-of-two range, and never exceed the observed max
+    public void testPercentiles() throws Exception
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        for (int ii = 0 ; ii < 99 ; ii++)
+            hist.record(1 * MILLIS);
+        hist.record(100 * MILLIS);
+
+        double p50 = hist.getPercentileMillis(50);
+        assertTrue("p50 lower bound: " + p50, p50 >= 1.0);
+        assertTrue("p50 upper bound: " + p50, p50 <= 2.048);
+
+        double p100 = hist.getPercentileMillis(100);
+        assertEquals("p100 capped at max", 100.0, p100, 0.001);
+    }
+
+
+    public void testBuckets() throws Exception
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(1500000L);
+        hist.record(1500000L);
+        hist.record(3000000L);
+
+        Map<String,Long> buckets = hist.getBuckets();
+        assertEquals("number of buckets",   2,              buckets.size());
+        assertEquals("first bucket",        Long.valueOf(2), buckets.get("< 2 ms"));
+        assertEquals("second bucket",       Long.valueOf(1), buckets.get("< 4 ms"));
+    }
+
+
+    public void testReset() throws Exception
+    {
+        LatencyHistogram hist = new LatencyHistogram();
+        hist.record(1 * MILLIS);
+        hist.reset();
+
+        assertEquals(0,     hist.getCount());
+        assertEquals(0.0,   hist.getMaxMillis(), 0.0);
+        assertEquals(0,     hist.getBuckets().size());
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.preview;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+public class TestPreviewCache
+extends TestCase
+{
+    private File tempDir;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = Files.createTempDirectory("TestPreviewCache").toFile();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File file : tempDir.listFiles())
+            file.delete();
+        tempDir.delete();
+    }
+
+
+    private static byte[] content(int size, int value)
+    {
+        byte[] result = new byte[size];
+        Arrays.fill(result, (byte)value);
+        return result;
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testMemoryOnly() throws Exception
+    {
+        PreviewCache cache = new PreviewCache(null, 300, 1000);
+
+        cache.put("a", content(100, 1));
+        cache.put("b", content(100, 2));
+        cache.put("c", content(100, 3));
+        assertEquals("memory size after adds", 300, cache.getMemoryBytes());
+
+        // touching "a" makes "b" the least recently used
+        assertNotNull("get a", cache.get("a"));
+        cache.put("d", content(100, 4));
+
+        assertEquals("memory size after eviction",  300, cache.getMemoryBytes());
+        assertNull("b evicted",                     cache.get("b"));
+        assertEquals("a retained",                  1, cache.get("a")[0]);
+        assertEquals("d retained",                  4, cache.get("d")[0]);
+        assertEquals("disk unused",                 0, cache.getDiskBytes());
+    }
+
+
+    public void testReplaceEntry() throws Exception
+    {
+        PreviewCache cache = new PreviewCache(tempDir, 1000, 1000);
+        cache.put("a", content(100, 1));
+        cache.put("a", content(50, 2));
+
+        assertEquals("memory size", 50, cache.getMemoryBytes());
+        assertEquals("disk size",   50, cache.getDiskBytes());
+        assertEquals("content",     2, cache.get("a")[0]);
+    }
+
+
+    public void testOversizeContent() throws Exception
+    {
+        PreviewCache cache = new PreviewCache(tempDir, 100, 200);
+        cache.put("a", content(150, 1));
+
+        assertEquals("not in memory",   0, cache.getMemoryBytes());
+        assertEquals("on disk",         150, cache.getDiskBytes());
+        assertEquals("retrieved",       150, cache.get("a").length);
+    }
+
+
+    public void testDiskCache() throws Exception
+    {
+        PreviewCache cache = new PreviewCache(tempDir, 100, 250);
+        cache.put("a", content(100, 1));
+        cache.put("b", content(100, 2));
+        cache.put("c", content(100, 3));
+
+        assertEquals("disk size after eviction",    200, cache.getDiskBytes());
+        assertEquals("files on disk",               2, tempDir.listFiles().length);
+
+        // a new instance reads the directory, and "b" comes from disk
+        PreviewCache cache2 = new PreviewCache(tempDir, 100, 250);
+        assertEquals("disk size on reload",         200, cache2.getDiskBytes());
+        assertEquals("memory empty on reload",      0, cache2.getMemoryBytes());
+        assertNull("a evicted",                     cache2.get("a"));
+        assertEquals("b from disk",                 2, cache2.get("b")[0]);
+        assertEquals("promoted to memory",          100, cache2.getMemoryBytes());
+    }
+}
@@ -0,0 +1,202 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.report;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class TestCapacityReport
+extends TestCase
+{
+    private final static long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+    private final static long NOW = 1600000000000L;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static void assertBucket(String message, CapacityReport.Bucket bucket,
+                                       long expectedLower, long expectedUpper, long expectedCount, long expectedBytes)
+    {
+        assertEquals(message + " lower",  expectedLower, bucket.getLower());
+        assertEquals(message + " upper",  expectedUpper, bucket.getUpper());
+        assertEquals(message + " count",  expectedCount, bucket.getCount());
+        assertEquals(message + " bytes",  expectedBytes, bucket.getBytes());
+    }
+
+
+    private static void assertSameReport(CapacityReport expected, CapacityReport actual)
+    throws Exception
+    {
+        StringWriter expectedCsv = new StringWriter();
+        expected.writeCsv(expectedCsv);
+        StringWriter actualCsv = new StringWriter();
+        actual.writeCsv(actualCsv);
+        assertEquals(expectedCsv.toString(), actualCsv.toString());
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testLog2Bucket() throws Exception
+    {
+        assertEquals(0,  CapacityReport.log2Bucket(-1));
+        assertEquals(0,  CapacityReport.log2Bucket(0));
+        assertEquals(1,  CapacityReport.log2Bucket(1));
+        assertEquals(2,  CapacityReport.log2Bucket(2));
+        assertEquals(2,  CapacityReport.log2Bucket(3));
+        assertEquals(3,  CapacityReport.log2Bucket(4));
+        assertEquals(11, CapacityReport.log2Bucket(1024));
+        assertEquals(63, CapacityReport.log2Bucket(Long.MAX_VALUE));
+    }
+
+
+    public void testSizeHistogram() throws Exception
+    {
+        CapacityReport report = new CapacityReport(NOW, 10);
+        report.add("empty", 0, NOW);
+        report.add("one", 1, NOW);
+        report.add("two", 2, NOW);
+        report.add("three", 3, NOW);
+        report.add("kilo", 1024, NOW);
+        report.add("almostKilo", 1023, NOW);
+
+        assertEquals("count", 6, report.getCount());
+        assertEquals("total bytes", 2053, report.getTotalBytes());
+
+        List<CapacityReport.Bucket> histogram = report.getSizeHistogram();
+        assertEquals("non-empty buckets", 5, histogram.size());
+        assertBucket("empty",   histogram.get(0), 0, 1, 1, 0);
+        assertBucket("1",       histogram.get(1), 1, 2, 1, 1);
+        assertBucket("2-3",     histogram.get(2), 2, 4, 2, 5);
+        assertBucket("512-1023", histogram.get(3), 512, 1024, 1, 1023);
+        assertBucket("1024+",   histogram.get(4), 1024, 2048, 1, 1024);
+    }
+
+
+    public void testAgeHistogram() throws Exception
+    {
+        CapacityReport report = new CapacityReport(NOW, 10);
+        report.add("new", 1, NOW - 1000);
+        report.add("future", 2, NOW + MILLIS_PER_DAY);
+        report.add("yesterday", 4, NOW - MILLIS_PER_DAY);
+        report.add("lastWeek", 8, NOW - 7 * MILLIS_PER_DAY);
+        report.add("ancient", 16, 0);
+
+        List<CapacityReport.Bucket> histogram = report.getAgeHistogram();
+        assertEquals("non-empty buckets", 4, histogram.size());
+        assertBucket("< 1 day",   histogram.get(0), 0, 1, 2, 3);
+        assertBucket("1 day",     histogram.get(1), 1, 2, 1, 4);
+        assertBucket("4-7 days",  histogram.get(2), 4, 8, 1, 8);
+        assertEquals("ancient count", 1, histogram.get(3).getCount());
+    }
+
+
+    public void testTopK() throws Exception
+    {
+        CapacityReport report = new CapacityReport(NOW, 3);
+        for (int ii = 0 ; ii < 100 ; ii++)
+        {
+            // sizes increase with key, ages decrease
+            report.add("key" + ii, ii * 10, NOW - (100 - ii) * 1000);
+        }
+
+        List<CapacityReport.Entry> largest = report.getLargest();
+        assertEquals("largest count", 3, largest.size());
+        assertEquals("largest #1", "key99", largest.get(0).getKey());
+        assertEquals("largest #2", "key98", largest.get(1).getKey());
+        assertEquals("largest #3", "key97", largest.get(2).getKey());
+
+        // re-add some small but recent objects: they displace the newest, not the largest
+        report.add("recent1", 1, NOW);
+        report.add("recent2", 1, NOW - 1);
+
+        assertEquals("largest unchanged", "key99", report.getLargest().get(0).getKey());
+
+        List<CapacityReport.Entry> newest = report.getNewest();
+        assertEquals("newest count", 3, newest.size());
+        assertEquals("newest #1", "recent1", newest.get(0).getKey());
+        assertEquals("newest #2", "recent2", newest.get(1).getKey());
+        assertEquals("newest #3", "key99", newest.get(2).getKey());
+    }
+
+
+    public void testMergeMatchesSinglePass() throws Exception
+    {
+        Random rnd = new Random(42);
+        CapacityReport single = new CapacityReport(NOW, 5);
+        CapacityReport[] partials = new CapacityReport[4];
+        for (int ii = 0 ; ii < partials.length ; ii++)
+            partials[ii] = new CapacityReport(NOW, 5);
+
+        for (int ii = 0 ; ii < 10000 ; ii++)
+        {
+            String key = "key" + ii;
+            long size = rnd.nextInt(1 << 20);
+            long lastModified = NOW - (long)rnd.nextInt(1000) * MILLIS_PER_DAY / 10;
+            single.add(key, size, lastModified);
+            partials[ii % partials.length].add(key, size, lastModified);
+        }
+
+        CapacityReport merged = new CapacityReport(NOW, 5);
+        for (CapacityReport partial : partials)
+            merged.merge(partial);
+
+        assertEquals("count", single.getCount(), merged.getCount());
+        assertEquals("bytes", single.getTotalBytes(), merged.getTotalBytes());
+        assertSameReport(single, merged);
+    }
+
+
+    public void testMergeRejectsDifferentTimestamps() throws Exception
+    {
+        try
+        {
+            new CapacityReport(NOW, 5).merge(new CapacityReport(NOW + 1, 5));
+            fail("should have thrown");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testCsv() throws Exception
+    {
+        CapacityReport report = new CapacityReport(NOW, 2);
+        report.add("simple", 3, NOW);
+        report.add("with,comma \"and quote\"", 5, NOW - 2 * MILLIS_PER_DAY);
+
+        StringWriter out = new StringWriter();
+        report.writeCsv(out);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals("header",  "section,lower,upper,count,bytes,key,lastModified", lines[0]);
+        assertEquals("total",   "total,,,2,8,,", lines[1]);
+        assertEquals("size 1",  "size,2,4,1,3,,", lines[2]);
+        assertEquals("size 2",  "size,4,8,1,5,,", lines[3]);
+        assertEquals("age 1",   "ageDays,0,1,1,3,,", lines[4]);
+        assertEquals("age 2",   "ageDays,2,4,1,5,,", lines[5]);
+        assertEquals("largest", "largest,,,1,5,\"with,comma \"\"and quote\"\"\",2020-09-11T12:26:40Z", lines[6]);
+        assertEquals("newest",  "newest,,,1,3,simple,2020-09-13T12:26:40Z", lines[8]);
+        assertEquals("line count", 10, lines.length);
+    }
+}
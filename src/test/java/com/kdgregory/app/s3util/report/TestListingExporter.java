@@ -0,0 +1,161 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.report;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+
+public class TestListingExporter
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static S3ObjectSummary obj(String key, long size, long lastModified, String etag, String storageClass)
+    {
+        S3ObjectSummary obj = new S3ObjectSummary();
+        obj.setKey(key);
+        obj.setSize(size);
+        obj.setLastModified(new Date(lastModified));
+        obj.setETag(etag);
+        obj.setStorageClass(storageClass);
+        return obj;
+    }
+
+
+    private static List<String> emptyPrefixes()
+    {
+        return Collections.<String>emptyList();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testFormatForFile() throws Exception
+    {
+        assertEquals(ListingExporter.Format.CSV,    ListingExporter.Format.forFile(new File("foo.csv")));
+        assertEquals(ListingExporter.Format.CSV,    ListingExporter.Format.forFile(new File("foo")));
+        assertEquals(ListingExporter.Format.JSONL,  ListingExporter.Format.forFile(new File("foo.jsonl")));
+        assertEquals(ListingExporter.Format.JSONL,  ListingExporter.Format.forFile(new File("FOO.JSON")));
+    }
+
+
+    public void testCsv() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ListingExporter exporter = new ListingExporter(out, ListingExporter.Format.CSV);
+        exporter.handlePage(Arrays.asList(obj("simple", 10, 1598961600000L, "abc", "STANDARD"),
+                                          obj("has,comma", 20, 1598961600123L, "def", null)),
+                            emptyPrefixes());
+        exporter.close();
+
+        assertEquals("count", 2, exporter.getCount());
+        assertEquals("key,size,lastModified,etag,storageClass\n"
+                     + "simple,10,2020-09-01T12:00:00.000Z,abc,STANDARD\n"
+                     + "\"has,comma\",20,2020-09-01T12:00:00.123Z,def,\n",
+                     out.toString());
+    }
+
+
+    public void testJsonLines() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ListingExporter exporter = new ListingExporter(out, ListingExporter.Format.JSONL);
+        exporter.handlePage(Arrays.asList(obj("simple", 10, 1598961600000L, "abc", "STANDARD"),
+                                          obj("say \"hi\"\\\n\u0001", 20, 1598961600000L, null, null)),
+                            emptyPrefixes());
+        exporter.close();
+
+        assertEquals("{\"key\":\"simple\",\"size\":10,\"lastModified\":\"2020-09-01T12:00:00.000Z\",\"etag\":\"abc\",\"storageClass\":\"STANDARD\"}\n"
+                     + "{\"key\":\"say \\\"hi\\\"\\\\\\n\\u0001\",\"size\":20,\"lastModified\":\"2020-09-01T12:00:00.000Z\",\"etag\":null,\"storageClass\":null}\n",
+                     out.toString());
+    }
+
+
+    public void testManyPagesInOrder() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        ListingExporter exporter = new ListingExporter(out, ListingExporter.Format.CSV);
+        for (int page = 0 ; page < 100 ; page++)
+        {
+            List<S3ObjectSummary> objects = new ArrayList<S3ObjectSummary>();
+            for (int ii = 0 ; ii < 100 ; ii++)
+                objects.add(obj(String.format("key%05d", page * 100 + ii), ii, 0, "x", "STANDARD"));
+            exporter.handlePage(objects, emptyPrefixes());
+        }
+        exporter.close();
+
+        assertEquals("count", 10000, exporter.getCount());
+        String[] lines = out.toString().split("\n");
+        assertEquals("lines", 10001, lines.length);
+        for (int ii = 1 ; ii < lines.length ; ii++)
+            assertTrue("line " + ii + " in order", lines[ii].startsWith(String.format("key%05d,", ii - 1)));
+    }
+
+
+    public void testWriterFailureIsReported() throws Exception
+    {
+        Writer out = new Writer()
+        {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException
+            {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() throws IOException
+            {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void close()
+            {
+                // nothing happening here
+            }
+        };
+
+        ListingExporter exporter = new ListingExporter(out, ListingExporter.Format.CSV);
+        List<S3ObjectSummary> page = Arrays.asList(obj("key", 1, 0, "x", "STANDARD"));
+        try
+        {
+            // the writer only sees the failure once it flushes its buffer, so we keep
+            // feeding it pages; the producer must not block forever
+            for (int ii = 0 ; ii < 100000 ; ii++)
+                exporter.handlePage(page, emptyPrefixes());
+            exporter.close();
+            fail("writer failure was not reported");
+        }
+        catch (IOException ex)
+        {
+            assertEquals("disk full", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.StorageClass;
+
+
+public class TestS3CopyOp
+extends TestCase
+{
+    private final static String KEY_ARN = "arn:aws:kms:us-east-1:123456789012:key/0a1b2c3d-example";
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testSingleCopyDefaults() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setContentType("text/plain");
+
+        CopyObjectRequest request = S3CopyOp.copyRequest("srcBucket", "srcKey", "dstBucket", "dstKey", src);
+        assertEquals("source bucket",       "srcBucket",    request.getSourceBucketName());
+        assertEquals("source key",          "srcKey",       request.getSourceKey());
+        assertEquals("destination bucket",  "dstBucket",    request.getDestinationBucketName());
+        assertEquals("destination key",     "dstKey",       request.getDestinationKey());
+        assertNull("metadata is copied by S3",              request.getNewObjectMetadata());
+        assertNull("no storage class",                      request.getStorageClass());
+        assertNull("no KMS params",                         request.getSSEAwsKeyManagementParams());
+        assertNull("no encryption header",                  request.getCustomRequestHeaders());
+    }
+
+
+    public void testSingleCopyStorageClassAndEncryption() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setHeader(Headers.STORAGE_CLASS, "STANDARD_IA");
+        src.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+
+        CopyObjectRequest request = S3CopyOp.copyRequest("srcBucket", "srcKey", "dstBucket", "dstKey", src);
+        assertEquals("storage class",       "STANDARD_IA",  request.getStorageClass());
+        assertEquals("algorithm",           "AES256",       request.getCustomRequestHeaders().get(Headers.SERVER_SIDE_ENCRYPTION));
+        assertNull("no KMS params",                         request.getSSEAwsKeyManagementParams());
+    }
+
+
+    public void testSingleCopyKmsKey() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setHeader(Headers.SERVER_SIDE_ENCRYPTION, "aws:kms");
+        src.setHeader(Headers.SERVER_SIDE_ENCRYPTION_AWS_KMS_KEYID, KEY_ARN);
+
+        CopyObjectRequest request = S3CopyOp.copyRequest("srcBucket", "srcKey", "dstBucket", "dstKey", src);
+        assertNotNull("KMS params",                         request.getSSEAwsKeyManagementParams());
+        assertEquals("KMS key",             KEY_ARN,        request.getSSEAwsKeyManagementParams().getAwsKmsKeyId());
+    }
+
+
+    public void testMultipartCopyHeaders() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setContentType("text/plain");
+        src.setCacheControl("max-age=300");
+        src.setUserMetadata(Collections.singletonMap("example", "value"));
+        src.setContentLength(12345);
+        src.setHeader(Headers.ETAG, "d41d8cd98f00b204e9800998ecf8427e");
+
+        InitiateMultipartUploadRequest request = S3CopyOp.initiateRequest("bucket", "key", src);
+        ObjectMetadata dst = request.getObjectMetadata();
+        assertEquals("bucket",              "bucket",       request.getBucketName());
+        assertEquals("key",                 "key",          request.getKey());
+        assertEquals("content type",        "text/plain",   dst.getContentType());
+        assertEquals("cache control",       "max-age=300",  dst.getCacheControl());
+        assertEquals("user metadata",       "value",        dst.getUserMetaDataOf("example"));
+        assertNull("content length",                        dst.getRawMetadataValue(Headers.CONTENT_LENGTH));
+        assertNull("ETag",                                  dst.getETag());
+        assertNull("no encryption",                         dst.getSSEAlgorithm());
+        assertNull("no KMS params",                         request.getSSEAwsKeyManagementParams());
+        assertNull("no storage class",                      request.getStorageClass());
+    }
+
+
+    public void testMultipartCopyStorageClass() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setHeader(Headers.STORAGE_CLASS, "STANDARD_IA");
+
+        InitiateMultipartUploadRequest request = S3CopyOp.initiateRequest("bucket", "key", src);
+        assertEquals("storage class",       StorageClass.StandardInfrequentAccess, request.getStorageClass());
+    }
+
+
+    public void testMultipartCopyS3Encryption() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+
+        InitiateMultipartUploadRequest request = S3CopyOp.initiateRequest("bucket", "key", src);
+        assertEquals("algorithm",           "AES256",       request.getObjectMetadata().getSSEAlgorithm());
+        assertNull("no KMS params",                         request.getSSEAwsKeyManagementParams());
+    }
+
+
+    public void testMultipartCopyKmsKey() throws Exception
+    {
+        ObjectMetadata src = new ObjectMetadata();
+        src.setHeader(Headers.SERVER_SIDE_ENCRYPTION, "aws:kms");
+        src.setHeader(Headers.SERVER_SIDE_ENCRYPTION_AWS_KMS_KEYID, KEY_ARN);
+
+        InitiateMultipartUploadRequest request = S3CopyOp.initiateRequest("bucket", "key", src);
+        assertEquals("algorithm",           "aws:kms",      request.getObjectMetadata().getSSEAlgorithm());
+        assertNotNull("KMS params",                         request.getSSEAwsKeyManagementParams());
+        assertEquals("KMS key",             KEY_ARN,        request.getSSEAwsKeyManagementParams().getAwsKmsKeyId());
+    }
+}
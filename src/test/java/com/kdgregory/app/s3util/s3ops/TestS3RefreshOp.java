@@ -0,0 +1,55 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.s3ops;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import com.kdgregory.app.s3util.filelist.S3File;
+
+
+public class TestS3RefreshOp
+extends TestCase
+{
+    public void testSortAndRemoveDuplicates() throws Exception
+    {
+        // two sorted pages, followed by pack members that duplicate a listed file
+
+        S3File a = new S3File("a", 1, new Date());
+        S3File b = new S3File("b/c", 2, new Date());
+        S3File c = new S3File("b/d", 3, new Date());
+        S3File d = new S3File("e", 4, new Date());
+        S3File packedB = new S3File("b/c", 5, new Date(), "pack", 0);
+        S3File packedF = new S3File("f", 6, new Date(), "pack", 5);
+
+        ArrayList<S3File> files = new ArrayList<S3File>(Arrays.asList(b, d, a, c, packedB, packedF));
+        S3RefreshOp.sortAndRemoveDuplicates(files);
+
+        // files are ordered by path, then name, so the root comes first
+        assertEquals("files",               Arrays.asList(a, d, packedF, b, c),     files);
+        assertSame("listed file wins",      b,                                      files.get(3));
+    }
+
+
+    public void testSortAndRemoveDuplicatesEmpty() throws Exception
+    {
+        ArrayList<S3File> files = new ArrayList<S3File>();
+        S3RefreshOp.sortAndRemoveDuplicates(files);
+        assertTrue("still empty", files.isEmpty());
+    }
+}
@@ -0,0 +1,340 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+
+public class TestArchiveReader
+extends TestCase
+{
+    private File tempDir;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = Files.createTempDirectory("TestArchiveReader").toFile();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File child : tempDir.listFiles())
+            child.delete();
+        tempDir.delete();
+    }
+
+
+    /**
+     *  Writes a POSIX ustar header block, followed by the content (padded
+     *  to a full block).
+     */
+    private static void writeTarEntry(OutputStream out, String prefix, String name, char type, long mtime, byte[] content)
+    throws IOException
+    {
+        byte[] header = new byte[512];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", content.length));
+        put(header, 136, String.format("%011o", mtime));
+        header[156] = (byte)type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        if (prefix != null)
+            put(header, 345, prefix);
+
+        Arrays.fill(header, 148, 156, (byte)' ');
+        int checksum = 0;
+        for (byte b : header)
+            checksum += (b & 0xFF);
+        put(header, 148, String.format("%06o", checksum));
+        header[154] = 0;
+
+        out.write(header);
+        out.write(content);
+        out.write(new byte[(512 - (content.length % 512)) % 512]);
+    }
+
+
+    private static void put(byte[] header, int offset, String value)
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+
+    private static byte[] paxRecord(String key, String value)
+    {
+        // the length is in bytes, and includes itself, so find a fixed point
+        byte[] body = bytes(" " + key + "=" + value + "\n");
+        int length = body.length;
+        while (String.valueOf(length).length() + body.length != length)
+            length = String.valueOf(length).length() + body.length;
+        return concat(bytes(String.valueOf(length)), body);
+    }
+
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[] sampleTar()
+    throws IOException
+    {
+        byte[] big = new byte[1500];
+        for (int ii = 0 ; ii < big.length ; ii++)
+            big[ii] = (byte)ii;
+
+        String longName = "deep/" + String.join("/", Collections.nCopies(30, "nested")) + "/file.txt";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTarEntry(out, null, "./data/", '5', 0, new byte[0]);
+        writeTarEntry(out, null, "./data/a.txt", '0', 1600000000L, bytes("hello"));
+        writeTarEntry(out, null, "./data/link", '2', 0, new byte[0]);
+        writeTarEntry(out, null, "data/big.bin", '0', 0, big);
+        writeTarEntry(out, "some/prefix", "b.txt", '0', 0, bytes("prefixed"));
+        writeTarEntry(out, null, "././@LongLink", 'L', 0, bytes(longName + "\0"));
+        writeTarEntry(out, null, longName.substring(0, 99), '0', 0, bytes("long"));
+        writeTarEntry(out, null, "PaxHeaders/x", 'x', 0, concat(paxRecord("path", "caf\u00e9/pax.txt"),
+                                                                  paxRecord("mtime", "1600000000.5")));
+        writeTarEntry(out, null, "caf_/pax.txt", '0', 0, bytes("pax"));
+        writeTarEntry(out, null, "empty", '0', 0, new byte[0]);
+        out.write(new byte[1024]);
+        return out.toByteArray();
+    }
+
+
+    private static byte[] concat(byte[] a, byte[] b)
+    {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+
+    private static byte[] readAll(ArchiveReader.Entry entry)
+    throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[100];
+        int count;
+        while ((count = entry.getContent().read(buf)) > 0)
+            out.write(buf, 0, count);
+        return out.toByteArray();
+    }
+
+
+    private static void assertEntry(ArchiveReader.Entry entry, String name, byte[] content)
+    throws IOException
+    {
+        assertNotNull("entry " + name, entry);
+        assertEquals("name",    name,           entry.getName());
+        assertEquals("size",    content.length, entry.getSize());
+        assertTrue("content",   Arrays.equals(content, readAll(entry)));
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testTar() throws Exception
+    {
+        byte[] tar = sampleTar();
+        try (ArchiveReader reader = new ArchiveReader.TarReader(new ByteArrayInputStream(tar)))
+        {
+            ArchiveReader.Entry entry = reader.next();
+            assertEntry(entry, "data/a.txt", bytes("hello"));
+            assertEquals("mtime", 1600000000000L, entry.getLastModified());
+
+            entry = reader.next();
+            assertEquals("name", "data/big.bin", entry.getName());
+            assertEquals("size", 1500, entry.getSize());
+            // content is abandoned after a partial read, and must be skipped
+            assertEquals("first byte", 0, entry.getContent().read());
+
+            assertEntry(reader.next(), "some/prefix/b.txt", bytes("prefixed"));
+
+            entry = reader.next();
+            assertTrue("long name", entry.getName().startsWith("deep/nested/"));
+            assertTrue("long name", entry.getName().endsWith("/nested/file.txt"));
+            assertTrue("long name", entry.getName().length() > 100);
+            assertTrue("long name content", Arrays.equals(bytes("long"), readAll(entry)));
+
+            entry = reader.next();
+            assertEntry(entry, "caf\u00e9/pax.txt", bytes("pax"));
+            assertEquals("pax mtime", 1600000000500L, entry.getLastModified());
+
+            assertEntry(reader.next(), "empty", new byte[0]);
+            assertNull("end of archive", reader.next());
+            assertNull("still at end", reader.next());
+        }
+    }
+
+
+    public void testGzippedTarFile() throws Exception
+    {
+        File file = new File(tempDir, "test.tgz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file.toPath())))
+        {
+            out.write(sampleTar());
+        }
+
+        assertTrue("recognized", ArchiveReader.isArchive(file));
+        int count = 0;
+        try (ArchiveReader reader = ArchiveReader.open(file))
+        {
+            for (ArchiveReader.Entry entry = reader.next() ; entry != null ; entry = reader.next())
+                count++;
+        }
+        assertEquals("entries", 6, count);
+    }
+
+
+    public void testZip() throws Exception
+    {
+        File file = new File(tempDir, "test.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(file.toPath())))
+        {
+            out.putNextEntry(new ZipEntry("dir/"));
+            out.closeEntry();
+            ZipEntry entry = new ZipEntry("dir/a.txt");
+            entry.setTime(1600000000000L);
+            out.putNextEntry(entry);
+            out.write(bytes("hello, hello, hello"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("/b.txt"));
+            out.write(bytes("world"));
+            out.closeEntry();
+        }
+
+        try (ArchiveReader reader = ArchiveReader.open(file))
+        {
+            // deflated entries are written with a data descriptor, but the size
+            // is still known from the central directory
+            ArchiveReader.Entry entry = reader.next();
+            assertEntry(entry, "dir/a.txt", bytes("hello, hello, hello"));
+            assertEquals("mtime", 1600000000000L, entry.getLastModified());
+
+            // entry content may be abandoned
+            entry = reader.next();
+            assertEquals("name", "b.txt", entry.getName());
+
+            assertNull("end of archive", reader.next());
+        }
+    }
+
+
+    public void testInvalidTar() throws Exception
+    {
+        byte[] tar = sampleTar();
+        tar[0] = 'X';
+        try (ArchiveReader reader = new ArchiveReader.TarReader(new ByteArrayInputStream(tar)))
+        {
+            reader.next();
+            fail("should have thrown");
+        }
+        catch (IOException ex)
+        {
+            assertTrue("message", ex.getMessage().contains("checksum"));
+        }
+    }
+
+
+    public void testTruncatedTar() throws Exception
+    {
+        byte[] tar = Arrays.copyOf(sampleTar(), 512 * 5 + 100);
+        try (ArchiveReader reader = new ArchiveReader.TarReader(new ByteArrayInputStream(tar)))
+        {
+            assertNotNull(reader.next());
+            ArchiveReader.Entry entry = reader.next();
+            readAll(entry);
+            fail("should have thrown");
+        }
+        catch (EOFException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testUnsupportedType() throws Exception
+    {
+        File file = new File(tempDir, "test.rar");
+        assertFalse("recognized", ArchiveReader.isArchive(file));
+        try
+        {
+            ArchiveReader.open(file);
+            fail("should have thrown");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue("message", ex.getMessage().contains("test.rar"));
+        }
+    }
+
+
+    public void testParseNumber() throws Exception
+    {
+        assertEquals("octal",           0644,   ArchiveReader.parseNumber(bytes("0000644\0"), 0, 8));
+        assertEquals("space padded",    0644,   ArchiveReader.parseNumber(bytes("   644 \0"), 0, 8));
+        assertEquals("empty",           0,      ArchiveReader.parseNumber(new byte[8], 0, 8));
+
+        byte[] base256 = new byte[12];
+        base256[0] = (byte)0x80;
+        base256[7] = 0x02;
+        assertEquals("base-256",        2L << 32, ArchiveReader.parseNumber(base256, 0, 12));
+
+        try
+        {
+            ArchiveReader.parseNumber(bytes("0000899\0"), 0, 8);
+            fail("should have thrown");
+        }
+        catch (IOException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testCleanName() throws Exception
+    {
+        assertEquals("a/b",     ArchiveReader.cleanName("a/b"));
+        assertEquals("a/b",     ArchiveReader.cleanName("/a/b"));
+        assertEquals("a/b",     ArchiveReader.cleanName("./a/b"));
+        assertEquals("a/b",     ArchiveReader.cleanName(".//./a/b"));
+    }
+}
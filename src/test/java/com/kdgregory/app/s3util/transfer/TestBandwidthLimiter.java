@@ -0,0 +1,139 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.time.LocalTime;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.kdgregory.app.s3util.transfer.BandwidthLimiter.Schedule;
+
+
+public class TestBandwidthLimiter
+extends TestCase
+{
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testScheduleParsing() throws Exception
+    {
+        assertEquals("empty", 0, Schedule.parse("").rateAt(LocalTime.NOON));
+        assertEquals("null", 0, Schedule.parse(null).rateAt(LocalTime.NOON));
+        assertEquals("constant", 512 * 1024, Schedule.parse(" 512 ").rateAt(LocalTime.NOON));
+
+        Schedule schedule = Schedule.parse("09:00-17:30=512, 22:00 - 06:00 = 4096, 1024");
+        assertEquals("toString", "09:00-17:30=512, 22:00 - 06:00 = 4096, 1024", schedule.toString());
+        assertEquals("start of period",     512 * 1024,  schedule.rateAt(LocalTime.of(9, 0)));
+        assertEquals("within period",       512 * 1024,  schedule.rateAt(LocalTime.of(17, 29)));
+        assertEquals("end of period",       1024 * 1024, schedule.rateAt(LocalTime.of(17, 30)));
+        assertEquals("before midnight",     4096 * 1024, schedule.rateAt(LocalTime.of(23, 0)));
+        assertEquals("after midnight",      4096 * 1024, schedule.rateAt(LocalTime.of(5, 59)));
+        assertEquals("default",             1024 * 1024, schedule.rateAt(LocalTime.of(7, 0)));
+
+        assertEquals("no default", 0, Schedule.parse("09:00-17:00=100").rateAt(LocalTime.of(18, 0)));
+        assertEquals("explicit unlimited", 0, Schedule.parse("09:00-17:00=0, 100").rateAt(LocalTime.NOON));
+    }
+
+
+    public void testInvalidSchedule() throws Exception
+    {
+        for (String spec : new String[] { "fast", "-100", "09:00=100", "9am-5pm=100", "09:00-17:00=", "100,,200" })
+        {
+            try
+            {
+                Schedule.parse(spec);
+                fail("parsed invalid schedule: " + spec);
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // success
+            }
+        }
+
+        BandwidthLimiter limiter = new BandwidthLimiter("test");
+        limiter.setSchedule("100");
+        try
+        {
+            limiter.setSchedule("bogus");
+            fail("accepted invalid schedule");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertEquals("schedule retained", "100", limiter.getSchedule());
+            assertEquals("limit retained", 100, limiter.getCurrentLimit());
+        }
+    }
+
+
+    public void testUnlimited() throws Exception
+    {
+        BandwidthLimiter limiter = new BandwidthLimiter("test");
+        assertEquals("never waits", 0, limiter.reserve(Long.MAX_VALUE / 2, System.nanoTime()));
+    }
+
+
+    public void testReservations() throws Exception
+    {
+        BandwidthLimiter limiter = new BandwidthLimiter("test");
+        limiter.setRate(1000);
+
+        // an idle limiter allows a second's worth of data without waiting
+        long now = System.nanoTime() + 10 * SECOND;
+        assertEquals("first half of burst",  0, limiter.reserve(500, now));
+        assertEquals("second half of burst", 0, limiter.reserve(500, now));
+
+        // after which callers wait in turn, at the configured rate
+        assertEquals("first wait",  SECOND / 2, limiter.reserve(500, now));
+        assertEquals("second wait", SECOND,     limiter.reserve(500, now));
+        assertEquals("later caller", SECOND / 2, limiter.reserve(500, now + SECOND));
+
+        // idle time only accumulates up to the burst
+        now += 100 * SECOND;
+        assertEquals("burst after idle", 0,          limiter.reserve(1000, now));
+        assertEquals("wait after burst", SECOND / 2, limiter.reserve(500, now));
+
+        // a rate change applies to subsequent reservations
+        limiter.setRate(100);
+        assertEquals("after slowdown", SECOND / 2 + 5 * SECOND, limiter.reserve(500, now));
+    }
+
+
+    public void testThrottledStream() throws Exception
+    {
+        BandwidthLimiter limiter = new BandwidthLimiter("test");
+        limiter.setRate(1024 * 1024);
+
+        byte[] data = new byte[100000];
+        try (ThrottledInputStream in = new ThrottledInputStream(new ByteArrayInputStream(data), limiter))
+        {
+            assertEquals("single byte", 0, in.read());
+            in.mark(data.length);
+            byte[] buf = new byte[4096];
+            while (in.read(buf) > 0)
+                ;
+            assertEquals("counted at end of stream", data.length, limiter.getTotalBytes());
+
+            in.reset();
+            while (in.read(buf) > 0)
+                ;
+            assertEquals("re-read bytes counted", 2 * data.length - 1, limiter.getTotalBytes());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+
+public class TestCrc32c
+extends TestCase
+{
+    private static long crc(byte[] data)
+    {
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testKnownValues() throws Exception
+    {
+        // from RFC 3720, appendix B.4
+        byte[] zeros = new byte[32];
+        byte[] ones = new byte[32];
+        Arrays.fill(ones, (byte)0xFF);
+        byte[] ascending = new byte[32];
+        byte[] descending = new byte[32];
+        for (int ii = 0 ; ii < 32 ; ii++)
+        {
+            ascending[ii] = (byte)ii;
+            descending[ii] = (byte)(31 - ii);
+        }
+
+        assertEquals("empty",       0x00000000L,    crc(new byte[0]));
+        assertEquals("check value", 0xE3069283L,    crc("123456789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("zeros",       0x8A9136AAL,    crc(zeros));
+        assertEquals("ones",        0x62A8AB43L,    crc(ones));
+        assertEquals("ascending",   0x46DD794EL,    crc(ascending));
+        assertEquals("descending",  0x113FDB5CL,    crc(descending));
+    }
+
+
+    public void testIncrementalUpdates() throws Exception
+    {
+        byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+        long expected = crc(data);
+
+        // odd-sized chunks exercise both the eight-byte and single-byte loops
+        Crc32c crc = new Crc32c();
+        int off = 0;
+        int len = 1;
+        while (off < data.length)
+        {
+            int count = Math.min(len, data.length - off);
+            crc.update(data, off, count);
+            off += count;
+            len = (len * 3 + 1) % 97;
+        }
+        assertEquals("chunked", expected, crc.getValue());
+
+        crc.reset();
+        for (byte b : data)
+            crc.update(b);
+        assertEquals("byte at a time", expected, crc.getValue());
+    }
+
+
+    public void testCopyAndBase64() throws Exception
+    {
+        Crc32c crc = new Crc32c();
+        crc.update("1234".getBytes(StandardCharsets.US_ASCII));
+        Crc32c copy = crc.copy();
+
+        crc.update("56789".getBytes(StandardCharsets.US_ASCII));
+        copy.update("56789".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("copy continues independently",    crc.getValue(),     copy.getValue());
+        assertEquals("base64",                          "4waSgw==",         crc.toBase64());
+
+        copy.update(0);
+        assertFalse("copy is independent",              crc.getValue() == copy.getValue());
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+
+public class TestFileRegionInputStream
+extends TestCase
+{
+    private File tempFile;
+    private byte[] content;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        content = new byte[1000];
+        for (int ii = 0 ; ii < content.length ; ii++)
+            content[ii] = (byte)(ii * 31);
+
+        tempFile = File.createTempFile("TestFileRegionInputStream", ".tmp");
+        Files.write(tempFile.toPath(), content);
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        tempFile.delete();
+    }
+
+
+    private static byte[] readAll(InputStream in, int chunkSize)
+    throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[chunkSize];
+        int count;
+        while ((count = in.read(buf)) >= 0)
+            out.write(buf, 0, count);
+        return out.toByteArray();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testBufferRegion() throws Exception
+    {
+        ByteBuffer source = ByteBuffer.wrap(content);
+        source.position(100);
+        source.limit(300);
+
+        InputStream in = new FileRegionInputStream(source);
+        assertEquals("available",           200, in.available());
+        assertEquals("single byte",         content[100] & 0xFF, in.read());
+        assertTrue("remaining content",     Arrays.equals(Arrays.copyOfRange(content, 101, 300), readAll(in, 17)));
+        assertEquals("at end",              -1, in.read());
+        assertEquals("source not moved",    100, source.position());
+    }
+
+
+    public void testChannelRegion() throws Exception
+    {
+        DirectBufferPool pool = new DirectBufferPool(64, 2);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ))
+        {
+            InputStream in = new FileRegionInputStream(channel, 10, 900, pool);
+            assertTrue("content", Arrays.equals(Arrays.copyOfRange(content, 10, 910), readAll(in, 100)));
+            in.close();
+            assertEquals("channel position unchanged", 0, channel.position());
+        }
+        assertEquals("buffer returned to pool", 1, pool.getIdleCount());
+    }
+
+
+    public void testMarkAndReset() throws Exception
+    {
+        DirectBufferPool pool = new DirectBufferPool(64, 2);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ))
+        {
+            InputStream in = new FileRegionInputStream(channel, 0, content.length, pool);
+            assertTrue("mark supported", in.markSupported());
+
+            in.mark(1);
+            byte[] first = readAll(in, 33);
+            in.reset();
+            assertEquals("skip", 500, in.skip(500));
+            byte[] second = readAll(in, 33);
+
+            assertTrue("read after mark", Arrays.equals(content, first));
+            assertTrue("read after skip", Arrays.equals(Arrays.copyOfRange(content, 500, 1000), second));
+        }
+    }
+
+
+    public void testTruncatedFile() throws Exception
+    {
+        DirectBufferPool pool = new DirectBufferPool(64, 2);
+        try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.READ))
+        {
+            InputStream in = new FileRegionInputStream(channel, 0, content.length + 10, pool);
+            try
+            {
+                readAll(in, 100);
+                fail("should have thrown");
+            }
+            catch (EOFException ex)
+            {
+                // success
+            }
+        }
+    }
+
+
+    public void testBufferPool() throws Exception
+    {
+        DirectBufferPool pool = new DirectBufferPool(64, 1);
+        ByteBuffer b1 = pool.acquire();
+        ByteBuffer b2 = pool.acquire();
+        assertTrue("direct",                    b1.isDirect());
+        assertEquals("capacity",                64, b1.capacity());
+        assertNotSame("distinct buffers",       b1, b2);
+
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(ByteBuffer.allocate(64));
+        assertEquals("idle limited",            1, pool.getIdleCount());
+        assertSame("reused",                    b1, pool.acquire());
+    }
+}
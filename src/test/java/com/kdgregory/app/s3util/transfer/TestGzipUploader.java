@@ -0,0 +1,195 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.IOUtils;
+
+import com.kdgregory.app.s3util.benchmark.S3StandIn;
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+
+
+public class TestGzipUploader
+extends TestCase
+{
+    private final static String BUCKET = "example";
+    private final static int PART_SIZE = 16 * 1024;
+
+    private File tempDir;
+    private S3StandIn s3;
+    private AmazonS3 client;
+    private RequestGovernor governor;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = Files.createTempDirectory("TestGzipUploader").toFile();
+        s3 = new S3StandIn(4);
+        s3.createBucket(BUCKET);
+        client = s3.createClient(4);
+        governor = new RequestGovernor(new S3Metrics(), 4, 16, 5, 1, 1);
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        s3.shutdown();
+        for (File file : tempDir.listFiles())
+            file.delete();
+        tempDir.delete();
+    }
+
+
+    private File createFile(String name, byte[] content)
+    throws Exception
+    {
+        File file = new File(tempDir, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+
+    /**
+     *  Uploads the passed content, verifying that the uploader reported the
+     *  size of the stored object, and returns the stored object's metadata.
+     */
+    private ObjectMetadata upload(String key, byte[] content, int partSize)
+    throws Exception
+    {
+        File file = createFile(key, content);
+        long size = new GzipUploader(client, governor, partSize)
+                    .upload(BUCKET, key, file, UploadPolicy.empty().apply(key, file));
+
+        ObjectMetadata metadata = client.getObjectMetadata(BUCKET, key);
+        assertEquals("reported size", metadata.getContentLength(), size);
+        return metadata;
+    }
+
+
+    /**
+     *  Retrieves and decompresses an object.
+     */
+    private byte[] gunzip(String key)
+    throws Exception
+    {
+        try (S3Object obj = client.getObject(BUCKET, key))
+        {
+            byte[] compressed = IOUtils.toByteArray(obj.getObjectContent());
+            return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+        }
+    }
+
+
+    /**
+     *  Returns the length of the passed content after compression; the
+     *  uploader uses the default compression level, so produces the same.
+     */
+    private static int compressedLength(byte[] content)
+    throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bos))
+        {
+            out.write(content);
+        }
+        return bos.size();
+    }
+
+
+    private static byte[] textContent(int lines)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int ii = 0 ; ii < lines ; ii++)
+            sb.append("line ").append(ii).append(": the quick brown fox jumps over the lazy dog\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[] randomContent(int size, long seed)
+    {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return content;
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testSinglePut() throws Exception
+    {
+        // compresses to well under a single part
+        byte[] content = textContent(2000);
+
+        ObjectMetadata metadata = upload("example.txt", content, PART_SIZE);
+        assertTrue("compressed",                    metadata.getContentLength() < PART_SIZE);
+        assertFalse("single PUT",                   metadata.getETag().contains("-"));
+        assertEquals("content encoding",    "gzip", metadata.getContentEncoding());
+        assertTrue("round trip",                    Arrays.equals(content, gunzip("example.txt")));
+    }
+
+
+    public void testMultipart() throws Exception
+    {
+        // random data doesn't compress, so this needs three parts
+        byte[] content = randomContent(2 * PART_SIZE + 100, 1);
+
+        ObjectMetadata metadata = upload("example.bin", content, PART_SIZE);
+        assertTrue("compressed size",               metadata.getContentLength() > 2 * PART_SIZE);
+        assertTrue("multipart",                     metadata.getETag().endsWith("-3"));
+        assertEquals("content encoding",    "gzip", metadata.getContentEncoding());
+        assertTrue("round trip",                    Arrays.equals(content, gunzip("example.bin")));
+    }
+
+
+    public void testCompressedSizeIsMultipleOfPartSize() throws Exception
+    {
+        // pick content that compresses to an even length, and use half of
+        // that as the part size, so the last write exactly fills the buffer
+
+        byte[] content = null;
+        int compressedLength = 1;
+        for (long seed = 0 ; (compressedLength % 2) != 0 ; seed++)
+        {
+            content = randomContent(2 * PART_SIZE, seed);
+            compressedLength = compressedLength(content);
+        }
+
+        ObjectMetadata metadata = upload("example.bin", content, compressedLength / 2);
+        assertEquals("compressed size",     compressedLength,   metadata.getContentLength());
+        assertTrue("two parts, no empty part",                  metadata.getETag().endsWith("-2"));
+        assertEquals("content encoding",    "gzip",             metadata.getContentEncoding());
+        assertTrue("round trip",                                Arrays.equals(content, gunzip("example.bin")));
+    }
+}
@@ -0,0 +1,184 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.util.BinaryUtils;
+
+
+public class TestHashCache
+extends TestCase
+{
+    private File tempDir;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        tempDir = Files.createTempDirectory("TestHashCache").toFile();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        for (File file : tempDir.listFiles())
+            file.delete();
+        tempDir.delete();
+    }
+
+
+    private File createFile(String name, byte[] content, long lastModified)
+    throws Exception
+    {
+        File file = new File(tempDir, name);
+        Files.write(file.toPath(), content);
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+
+    private static String md5(byte[] data, int off, int len)
+    throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(data, off, len);
+        return BinaryUtils.toHex(digest.digest());
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testSinglePart() throws Exception
+    {
+        File file = createFile("test", "hello, world".getBytes("UTF-8"), 1000000);
+        HashCache.Hashes hashes = HashCache.computeHashes(file, 1024);
+
+        assertEquals("size",            12, hashes.getSize());
+        assertEquals("last modified",   1000000, hashes.getLastModified());
+        assertEquals("md5",             "e4d7f1b4ed2e42d15898f4b27b019da4", hashes.getMD5());
+        assertEquals("content-md5",     "5NfxtO0uQtFYmPSyewGdpA==", hashes.getContentMD5());
+        assertNull("multipart",         hashes.getMultipartETag());
+
+        assertTrue("matches quoted etag",       hashes.matchesETag("\"e4d7f1b4ed2e42d15898f4b27b019da4\""));
+        assertFalse("doesn't match other etag", hashes.matchesETag("\"e4d7f1b4ed2e42d15898f4b27b019da5\""));
+        assertFalse("doesn't match null",       hashes.matchesETag(null));
+    }
+
+
+    public void testMultipart() throws Exception
+    {
+        byte[] content = new byte[2500];
+        for (int ii = 0 ; ii < content.length ; ii++)
+            content[ii] = (byte)ii;
+
+        File file = createFile("test", content, 1000000);
+        HashCache.Hashes hashes = HashCache.computeHashes(file, 1000);
+
+        MessageDigest combined = MessageDigest.getInstance("MD5");
+        combined.update(BinaryUtils.fromHex(md5(content, 0, 1000)));
+        combined.update(BinaryUtils.fromHex(md5(content, 1000, 1000)));
+        combined.update(BinaryUtils.fromHex(md5(content, 2000, 500)));
+        String expected = BinaryUtils.toHex(combined.digest()) + "-3";
+
+        assertEquals("md5",         md5(content, 0, content.length), hashes.getMD5());
+        assertEquals("multipart",   expected, hashes.getMultipartETag());
+        assertTrue("matches multipart etag", hashes.matchesETag("\"" + expected + "\""));
+    }
+
+
+    public void testExactMultipleOfPartSize() throws Exception
+    {
+        File file = createFile("test", new byte[2000], 1000000);
+        HashCache.Hashes hashes = HashCache.computeHashes(file, 1000);
+        assertTrue("part count", hashes.getMultipartETag().endsWith("-2"));
+    }
+
+
+    public void testCacheAndPersistence() throws Exception
+    {
+        File indexFile = new File(tempDir, "index.tsv");
+        File file1 = createFile("file1", "foo".getBytes("UTF-8"), 1000000);
+        File file2 = createFile("file2", "bar".getBytes("UTF-8"), 1000000);
+
+        HashCache cache = new HashCache(indexFile, 1024);
+        List<HashCache.Hashes> hashes = cache.getAll(Arrays.asList(file1, file2));
+        assertEquals("size after hashing",      2, cache.size());
+        assertEquals("first file",              HashCache.computeHashes(file1, 1024).getMD5(), hashes.get(0).getMD5());
+        assertEquals("second file",             HashCache.computeHashes(file2, 1024).getMD5(), hashes.get(1).getMD5());
+        assertSame("cached entry returned",     hashes.get(0), cache.get(file1));
+
+        cache.save();
+        assertTrue("index written", indexFile.exists());
+
+        HashCache reloaded = new HashCache(indexFile, 1024);
+        assertEquals("size after reload", 2, reloaded.size());
+
+        // an entry is only used if size and timestamp match; the old content lets us tell
+        Files.write(file1.toPath(), "baz".getBytes("UTF-8"));
+        file1.setLastModified(1000000);
+        assertEquals("stale entry used when metadata matches",
+                     hashes.get(0).getMD5(), reloaded.get(file1).getMD5());
+
+        file1.setLastModified(2000000);
+        assertEquals("entry recomputed when timestamp changes",
+                     HashCache.computeHashes(file1, 1024).getMD5(), reloaded.get(file1).getMD5());
+
+        HashCache differentPartSize = new HashCache(indexFile, 2048);
+        assertEquals("index ignored for different part size", 0, differentPartSize.size());
+    }
+
+
+    public void testRecordTransferChecksums() throws Exception
+    {
+        File indexFile = new File(tempDir, "index.tsv");
+        byte[] content = new byte[2500];
+        for (int ii = 0 ; ii < content.length ; ii++)
+            content[ii] = (byte)ii;
+        File file = createFile("test", content, 1000000);
+
+        HashCache cache = new HashCache(indexFile, 1000);
+        assertNull("not cached", cache.getIfCached(file));
+
+        StreamChecksums wrongPartSize = new StreamChecksums(2000, false);
+        wrongPartSize.update(content, 0, content.length);
+        cache.record(file, file.length(), file.lastModified(), wrongPartSize.finish());
+        assertNull("not recorded with different part size", cache.getIfCached(file));
+
+        StreamChecksums checksums = new StreamChecksums(1000, false);
+        checksums.update(content, 0, content.length);
+        cache.record(file, file.length(), file.lastModified(), checksums.finish());
+
+        HashCache.Hashes expected = HashCache.computeHashes(file, 1000);
+        HashCache.Hashes recorded = cache.getIfCached(file);
+        assertNotNull("recorded", recorded);
+        assertEquals("md5",             expected.getMD5(),              recorded.getMD5());
+        assertEquals("multipart",       expected.getMultipartETag(),    recorded.getMultipartETag());
+
+        file.setLastModified(2000000);
+        assertNull("stale after change", cache.getIfCached(file));
+    }
+}
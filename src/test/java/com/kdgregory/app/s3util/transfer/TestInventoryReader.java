@@ -0,0 +1,306 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+
+public class TestInventoryReader
+extends TestCase
+{
+    private final static String SCHEMA
+        = "Bucket, Key, VersionId, IsLatest, IsDeleteMarker, Size, LastModifiedDate, ETag, StorageClass";
+
+    private File tempDir;
+    private File manifestDir;
+    private File dataDir;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        // this mimics the layout of a delivered inventory report
+        tempDir = Files.createTempDirectory("TestInventoryReader").toFile();
+        manifestDir = new File(tempDir, "example/config/2020-09-01T00-00Z");
+        dataDir = new File(tempDir, "example/config/data");
+        manifestDir.mkdirs();
+        dataDir.mkdirs();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        delete(tempDir);
+    }
+
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+
+    private File writeManifest(String format, String schema, String... dataFiles)
+    throws Exception
+    {
+        StringBuilder sb = new StringBuilder()
+                           .append("{\n")
+                           .append("  \"sourceBucket\": \"example\",\n")
+                           .append("  \"destinationBucket\": \"arn:aws:s3:::inventory\",\n")
+                           .append("  \"version\": \"2016-11-30\",\n")
+                           .append("  \"fileFormat\": \"").append(format).append("\",\n")
+                           .append("  \"fileSchema\": \"").append(schema).append("\",\n")
+                           .append("  \"files\": [");
+        for (int ii = 0 ; ii < dataFiles.length ; ii++)
+        {
+            sb.append((ii > 0) ? ",\n" : "\n")
+              .append("    { \"key\": \"inv/example/config/data/").append(dataFiles[ii])
+              .append("\", \"size\": 1, \"MD5checksum\": \"x\" }");
+        }
+        sb.append("\n  ]\n}\n");
+
+        File manifest = new File(manifestDir, "manifest.json");
+        Files.write(manifest.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return manifest;
+    }
+
+
+    private void writeDataFile(File dir, String name, String... lines)
+    throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines)
+            sb.append(line).append("\n");
+        byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (OutputStream out = name.endsWith(".gz")
+                              ? new GZIPOutputStream(Files.newOutputStream(new File(dir, name).toPath()))
+                              : Files.newOutputStream(new File(dir, name).toPath()))
+        {
+            out.write(content);
+        }
+    }
+
+
+    private static String row(String key, String isLatest, String isDeleteMarker, String size, String lastModified)
+    {
+        return "\"example\",\"" + key + "\",\"v1\",\"" + isLatest + "\",\"" + isDeleteMarker + "\",\""
+             + size + "\",\"" + lastModified + "\",\"etag-" + key + "\",\"STANDARD\"";
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testSplitCsv() throws Exception
+    {
+        List<String> fields = new ArrayList<String>();
+
+        InventoryReader.splitCsv("\"a\",\"b,c\",\"\"", fields);
+        assertEquals("quoted fields", Arrays.asList("a", "b,c", ""), fields);
+
+        InventoryReader.splitCsv("a,,b,", fields);
+        assertEquals("unquoted fields", Arrays.asList("a", "", "b", ""), fields);
+
+        InventoryReader.splitCsv("\"say \"\"hi\"\"\",x", fields);
+        assertEquals("embedded quotes", Arrays.asList("say \"hi\"", "x"), fields);
+
+        try
+        {
+            InventoryReader.splitCsv("\"unterminated", fields);
+            fail("accepted unterminated field");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testDecodeKey() throws Exception
+    {
+        assertEquals("plain key",       "foo/bar.txt",      InventoryReader.decodeKey("foo/bar.txt"));
+        assertEquals("encoded space",   "foo bar.txt",      InventoryReader.decodeKey("foo+bar.txt"));
+        assertEquals("encoded plus",    "foo+bar.txt",      InventoryReader.decodeKey("foo%2Bbar.txt"));
+        assertEquals("encoded UTF-8",   "caf\u00e9",         InventoryReader.decodeKey("caf%C3%A9"));
+    }
+
+
+    public void testParseTimestamp() throws Exception
+    {
+        assertEquals("fixed-width format",  1598961600123L, InventoryReader.parseTimestamp("2020-09-01T12:00:00.123Z"));
+        assertEquals("leap day",            1582934400000L, InventoryReader.parseTimestamp("2020-02-29T00:00:00.000Z"));
+        assertEquals("epoch",               0L,             InventoryReader.parseTimestamp("1970-01-01T00:00:00.000Z"));
+        assertEquals("without millis",      1598961600000L, InventoryReader.parseTimestamp("2020-09-01T12:00:00Z"));
+
+        try
+        {
+            InventoryReader.parseTimestamp("2020-02-30T00:00:00.000Z");
+            fail("accepted invalid date");
+        }
+        catch (RuntimeException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testReadAll() throws Exception
+    {
+        File manifest = writeManifest("CSV", SCHEMA, "one.csv.gz", "two.csv");
+        writeDataFile(dataDir, "one.csv.gz",
+                      row("a/one.txt", "true", "false", "10", "2020-09-01T12:00:00.000Z"),
+                      row("a/old.txt", "false", "false", "20", "2020-08-01T12:00:00.000Z"),
+                      row("a/deleted.txt", "true", "true", "", "2020-08-15T12:00:00.000Z"));
+        writeDataFile(dataDir, "two.csv",
+                      row("b/with+space.txt", "true", "false", "30", "2020-09-02T00:00:00.000Z"),
+                      "",
+                      row("b/three.txt", "true", "false", "40", "2020-09-03T00:00:00.000Z"));
+
+        InventoryReader reader = new InventoryReader(manifest);
+        assertEquals("source bucket", "example", reader.getSourceBucket());
+        assertEquals("data files", 2, reader.getDataFiles().size());
+
+        final Map<String,S3ObjectSummary> objects = Collections.synchronizedMap(new TreeMap<String,S3ObjectSummary>());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        long count;
+        try
+        {
+            count = reader.readAll(executor, 2, (page, prefixes) ->
+            {
+                assertTrue("no common prefixes", prefixes.isEmpty());
+                for (S3ObjectSummary obj : page)
+                    objects.put(obj.getKey(), obj);
+            });
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertEquals("returned count", 3, count);
+        assertEquals("keys", Arrays.asList("a/one.txt", "b/three.txt", "b/with space.txt"),
+                             new ArrayList<String>(objects.keySet()));
+
+        S3ObjectSummary obj = objects.get("a/one.txt");
+        assertEquals("bucket",          "example",                  obj.getBucketName());
+        assertEquals("size",            10,                         obj.getSize());
+        assertEquals("lastModified",    1598961600000L,             obj.getLastModified().getTime());
+        assertEquals("etag",            "etag-a/one.txt",           obj.getETag());
+        assertEquals("storage class",   "STANDARD",                 obj.getStorageClass());
+    }
+
+
+    public void testDataFilesNextToManifest() throws Exception
+    {
+        File manifest = writeManifest("CSV", "Bucket, Key, Size, LastModifiedDate", "flat.csv");
+        writeDataFile(manifestDir, "flat.csv", "\"example\",\"x\",\"1\",\"2020-09-01T00:00:00.000Z\"");
+
+        InventoryReader reader = new InventoryReader(manifest);
+        assertEquals("located file", new File(manifestDir, "flat.csv").getAbsoluteFile(), reader.getDataFiles().get(0));
+    }
+
+
+    public void testMissingDataFile() throws Exception
+    {
+        File manifest = writeManifest("CSV", SCHEMA, "missing.csv.gz");
+        try
+        {
+            new InventoryReader(manifest);
+            fail("accepted manifest without data file");
+        }
+        catch (FileNotFoundException ex)
+        {
+            assertTrue("message identifies file: " + ex.getMessage(), ex.getMessage().contains("missing.csv.gz"));
+        }
+    }
+
+
+    public void testUnsupportedFormat() throws Exception
+    {
+        File manifest = writeManifest("Parquet", SCHEMA);
+        try
+        {
+            new InventoryReader(manifest);
+            fail("accepted Parquet inventory");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue("message identifies format: " + ex.getMessage(), ex.getMessage().contains("Parquet"));
+        }
+    }
+
+
+    public void testMissingRequiredColumn() throws Exception
+    {
+        File manifest = writeManifest("CSV", "Bucket, Key, Size");
+        try
+        {
+            new InventoryReader(manifest);
+            fail("accepted schema without LastModifiedDate");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testInvalidRow() throws Exception
+    {
+        File manifest = writeManifest("CSV", SCHEMA, "bad.csv");
+        writeDataFile(dataDir, "bad.csv",
+                      row("ok", "true", "false", "1", "2020-09-01T00:00:00.000Z"),
+                      row("bad", "true", "false", "not-a-number", "2020-09-01T00:00:00.000Z"));
+
+        InventoryReader reader = new InventoryReader(manifest);
+        try
+        {
+            reader.read(reader.getDataFiles().get(0), (page, prefixes) -> { /* ignored */ });
+            fail("accepted invalid row");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            assertTrue("message identifies line: " + ex.getMessage(), ex.getMessage().contains("line 2"));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class TestPackIndex
+extends TestCase
+{
+    public void testKeyClassification() throws Exception
+    {
+        String packKey = PackIndex.newPackKey("foo/bar/");
+        assertTrue("pack key in prefix: " + packKey,    packKey.startsWith("foo/bar/.s3util-packs/"));
+        assertEquals("same key without trailing slash", "foo/bar/.s3util-packs/",
+                     PackIndex.newPackKey("foo/bar").substring(0, 22));
+        assertTrue("pack key at root",                  PackIndex.newPackKey("").startsWith(".s3util-packs/"));
+        assertFalse("pack keys are unique",             packKey.equals(PackIndex.newPackKey("foo/bar/")));
+
+        String indexKey = PackIndex.indexKeyFor(packKey);
+        assertTrue("isPackKey",                         PackIndex.isPackKey(packKey));
+        assertFalse("isPackKey(index)",                 PackIndex.isPackKey(indexKey));
+        assertTrue("isIndexKey",                        PackIndex.isIndexKey(indexKey));
+        assertFalse("isIndexKey(pack)",                 PackIndex.isIndexKey(packKey));
+        assertTrue("isPackObject(pack)",                PackIndex.isPackObject(packKey));
+        assertTrue("isPackObject(index)",               PackIndex.isPackObject(indexKey));
+        assertEquals("packKeyFor",                      packKey, PackIndex.packKeyFor(indexKey));
+
+        assertFalse("not in pack directory",            PackIndex.isPackObject("foo/bar.pack"));
+        assertFalse("directory name must match",        PackIndex.isPackObject("foo/x.s3util-packs/bar.pack"));
+        assertFalse("not a pack suffix",                PackIndex.isPackObject("foo/.s3util-packs/bar.txt"));
+    }
+
+
+    public void testAddAndRoundTrip() throws Exception
+    {
+        PackIndex index = new PackIndex("foo/.s3util-packs/test.pack");
+        assertEquals("base prefix", "foo/", index.getBasePrefix());
+
+        index.add("foo/a.txt",      10, 1000L, "text/plain");
+        index.add("foo/b/c.html",   20, 2000L, "text/html");
+        index.add("foo/b/d e.png",  5,  3000L, "image/png");
+        assertEquals("pack size", 35, index.getPackSize());
+
+        PackIndex parsed = PackIndex.parse(index.getPackKey(), new ByteArrayInputStream(index.toBytes()));
+        assertEquals("parsed pack size", 35, parsed.getPackSize());
+
+        List<PackIndex.Entry> entries = parsed.getEntries();
+        assertEquals("entry count",             3,                  entries.size());
+        assertEquals("entry 0 key",             "foo/a.txt",        entries.get(0).getKey());
+        assertEquals("entry 0 offset",          0,                  entries.get(0).getOffset());
+        assertEquals("entry 1 key",             "foo/b/c.html",     entries.get(1).getKey());
+        assertEquals("entry 1 offset",          10,                 entries.get(1).getOffset());
+        assertEquals("entry 1 length",          20,                 entries.get(1).getLength());
+        assertEquals("entry 1 last modified",   2000L,              entries.get(1).getLastModified());
+        assertEquals("entry 1 content type",    "text/html",        entries.get(1).getContentType());
+        assertEquals("entry 2 key",             "foo/b/d e.png",    entries.get(2).getKey());
+        assertEquals("entry 2 offset",          30,                 entries.get(2).getOffset());
+    }
+
+
+    public void testRelocation() throws Exception
+    {
+        PackIndex index = new PackIndex("foo/.s3util-packs/test.pack");
+        index.add("foo/a.txt", 10, 1000L, "text/plain");
+
+        // member keys are relative, so copying a pack to a new prefix moves its members
+        PackIndex parsed = PackIndex.parse("bar/baz/.s3util-packs/test.pack", new ByteArrayInputStream(index.toBytes()));
+        assertEquals("relocated key", "bar/baz/a.txt", parsed.getEntries().get(0).getKey());
+    }
+
+
+    public void testInvalidAdds() throws Exception
+    {
+        try
+        {
+            new PackIndex("foo/test.pack");
+            fail("accepted a key outside pack directory");
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // success
+        }
+
+        PackIndex index = new PackIndex("foo/.s3util-packs/test.pack");
+        for (String key : new String[] { "bar/a.txt", "foo/a\tb.txt", "foo/a\nb.txt" })
+        {
+            try
+            {
+                index.add(key, 1, 1, "text/plain");
+                fail("accepted key: " + key);
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // success
+            }
+        }
+    }
+
+
+    public void testInvalidIndex() throws Exception
+    {
+        String[] invalid = new String[]
+        {
+            "not an index\n",
+            "# s3util pack index v1\n0\t10\t1000\ttext/plain\n",
+            "# s3util pack index v1\nzero\t10\t1000\ttext/plain\ta.txt\n",
+        };
+
+        for (String content : invalid)
+        {
+            try
+            {
+                PackIndex.parse("foo/.s3util-packs/test.pack",
+                                new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+                fail("accepted: " + content);
+            }
+            catch (IOException ex)
+            {
+                // success
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+
+public class TestReadAheadQueue
+extends TestCase
+{
+    private ExecutorService pool;
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        pool.shutdownNow();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testResultsInOrder() throws Exception
+    {
+        final Random rnd = new Random(42);
+        ReadAheadQueue<Integer> queue = new ReadAheadQueue<Integer>(pool, 8, 1000);
+        List<Integer> results = new ArrayList<Integer>();
+        for (int ii = 0 ; ii < 100 ; ii++)
+        {
+            while (!queue.hasRoom(10))
+                results.add(queue.next());
+
+            // random delays mean that fetches complete out of order
+            final int value = ii;
+            final long delay = rnd.nextInt(5);
+            queue.add(10, () ->
+            {
+                Thread.sleep(delay);
+                return Integer.valueOf(value);
+            });
+        }
+        while (!queue.isEmpty())
+            results.add(queue.next());
+
+        assertEquals("result count", 100, results.size());
+        for (int ii = 0 ; ii < results.size() ; ii++)
+            assertEquals("result " + ii, ii, results.get(ii).intValue());
+    }
+
+
+    public void testLimits() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ReadAheadQueue<String> queue = new ReadAheadQueue<String>(pool, 3, 100);
+
+        assertTrue("empty queue has room for anything", queue.hasRoom(1000));
+
+        queue.add(40, () -> { latch.await(); return "a"; });
+        queue.add(40, () -> "b");
+        assertEquals("pending weight", 80, queue.getPendingWeight());
+        assertTrue("room within weight limit", queue.hasRoom(20));
+        assertFalse("no room beyond weight limit", queue.hasRoom(21));
+
+        queue.add(10, () -> "c");
+        assertFalse("no room beyond count limit", queue.hasRoom(1));
+        assertEquals("size", 3, queue.size());
+
+        latch.countDown();
+        assertEquals("first result", "a", queue.next());
+        assertEquals("weight released", 50, queue.getPendingWeight());
+        assertTrue("room after taking result", queue.hasRoom(50));
+    }
+
+
+    public void testFailureIsRethrown() throws Exception
+    {
+        ReadAheadQueue<String> queue = new ReadAheadQueue<String>(pool, 4, 100);
+        queue.add(1, () -> "ok");
+        queue.add(1, () -> { throw new IllegalStateException("fetch failed"); });
+
+        assertEquals("ok", queue.next());
+        try
+        {
+            queue.next();
+            fail("didn't rethrow failure");
+        }
+        catch (IllegalStateException ex)
+        {
+            assertEquals("fetch failed", ex.getMessage());
+        }
+    }
+
+
+    public void testCancel() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        ReadAheadQueue<String> queue = new ReadAheadQueue<String>(pool, 4, 100);
+        queue.add(1, () ->
+        {
+            started.countDown();
+            try
+            {
+                Thread.sleep(10000);
+            }
+            catch (InterruptedException ex)
+            {
+                interrupted.countDown();
+            }
+            return "never";
+        });
+
+        assertTrue("fetch started", started.await(1, TimeUnit.SECONDS));
+        queue.cancel();
+        assertTrue("queue empty after cancel", queue.isEmpty());
+        assertEquals("weight cleared", 0, queue.getPendingWeight());
+        assertTrue("running fetch interrupted", interrupted.await(1, TimeUnit.SECONDS));
+
+        try
+        {
+            queue.next();
+            fail("next() on empty queue");
+        }
+        catch (IllegalStateException ex)
+        {
+            // success
+        }
+    }
+}
@@ -0,0 +1,215 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.AmazonServiceException;
+
+import com.kdgregory.app.s3util.metrics.OperationType;
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+
+
+public class TestRequestGovernor
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static AmazonServiceException serviceException(int status, String code)
+    {
+        AmazonServiceException ex = new AmazonServiceException("test");
+        ex.setStatusCode(status);
+        ex.setErrorCode(code);
+        return ex;
+    }
+
+
+    /**
+     *  A request that fails a specified number of times before succeeding.
+     */
+    private static class FailingRequest
+    implements Callable<String>
+    {
+        private int failures;
+        private Exception exception;
+        public int calls;
+
+        public FailingRequest(int failures, Exception exception)
+        {
+            this.failures = failures;
+            this.exception = exception;
+        }
+
+        @Override
+        public String call() throws Exception
+        {
+            calls++;
+            if (calls <= failures)
+                throw exception;
+            return "success";
+        }
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testPrefixOf() throws Exception
+    {
+        assertEquals("",            RequestGovernor.prefixOf("foo.txt"));
+        assertEquals("foo/",        RequestGovernor.prefixOf("foo/bar.txt"));
+        assertEquals("foo/bar/",    RequestGovernor.prefixOf("foo/bar/baz.txt"));
+        assertEquals("",            RequestGovernor.prefixOf(null));
+    }
+
+
+    public void testSuccessWithoutRetry() throws Exception
+    {
+        S3Metrics metrics = new S3Metrics();
+        RequestGovernor governor = new RequestGovernor(metrics, 4, 16, 5, 1, 1);
+
+        FailingRequest request = new FailingRequest(0, null);
+        assertEquals("success", governor.execute(OperationType.GET, "foo/bar", request));
+        assertEquals("calls",   1, request.calls);
+        assertEquals("retries", 0, metrics.forType(OperationType.GET).getRetryCount());
+    }
+
+
+    public void testRetryOnThrottle() throws Exception
+    {
+        S3Metrics metrics = new S3Metrics();
+        RequestGovernor governor = new RequestGovernor(metrics, 4, 16, 5, 1, 1);
+
+        FailingRequest request = new FailingRequest(2, serviceException(503, "SlowDown"));
+        assertEquals("success", governor.execute(OperationType.PUT, "foo/bar", request));
+        assertEquals("calls",   3, request.calls);
+        assertEquals("retries", 2, metrics.forType(OperationType.PUT).getRetryCount());
+    }
+
+
+    public void testRetryOnServerError() throws Exception
+    {
+        RequestGovernor governor = new RequestGovernor(new S3Metrics(), 4, 16, 5, 1, 1);
+
+        FailingRequest request = new FailingRequest(1, serviceException(500, "InternalError"));
+        assertEquals("success", governor.execute(OperationType.PUT, "foo/bar", request));
+        assertEquals("calls",   2, request.calls);
+    }
+
+
+    public void testNoRetryOnClientError() throws Exception
+    {
+        RequestGovernor governor = new RequestGovernor(new S3Metrics(), 4, 16, 5, 1, 1);
+
+        AmazonServiceException expected = serviceException(404, "NoSuchKey");
+        FailingRequest request = new FailingRequest(1, expected);
+        try
+        {
+            governor.execute(OperationType.GET, "foo/bar", request);
+            fail("should have thrown");
+        }
+        catch (AmazonServiceException ex)
+        {
+            assertSame(expected, ex);
+        }
+        assertEquals("calls", 1, request.calls);
+    }
+
+
+    public void testGivesUpAfterMaxAttempts() throws Exception
+    {
+        RequestGovernor governor = new RequestGovernor(new S3Metrics(), 4, 16, 3, 1, 1);
+
+        FailingRequest request = new FailingRequest(10, serviceException(503, "SlowDown"));
+        try
+        {
+            governor.execute(OperationType.GET, "foo/bar", request);
+            fail("should have thrown");
+        }
+        catch (AmazonServiceException ex)
+        {
+            assertEquals("SlowDown", ex.getErrorCode());
+        }
+        assertEquals("calls", 3, request.calls);
+    }
+
+
+    public void testLimitAdjustment() throws Exception
+    {
+        RequestGovernor governor = new RequestGovernor(new S3Metrics(), 8, 16, 5, 1, 1);
+        final String key = "foo/bar";
+
+        // a limiter only sticks around while in use, or if it's been throttled
+        assertEquals("initial limit", 8, governor.getLimit(key));
+
+        governor.execute(OperationType.GET, key, new FailingRequest(1, serviceException(503, "SlowDown")));
+        assertEquals("after throttle", 4, governor.getLimit(key));
+        assertEquals("other prefix unaffected", 8, governor.getLimit("baz/bar"));
+
+        // additive increase: one full window of successes adds one
+        for (int ii = 0 ; ii < 5 ; ii++)
+            governor.execute(OperationType.GET, key, new FailingRequest(0, null));
+        assertEquals("after successes", 5, governor.getLimit(key));
+    }
+
+
+    public void testConcurrencyIsLimited() throws Exception
+    {
+        final RequestGovernor governor = new RequestGovernor(new S3Metrics(), 2, 2, 5, 1, 1);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int ii = 0 ; ii < 8 ; ii++)
+        {
+            pool.execute(() ->
+            {
+                try
+                {
+                    governor.execute(OperationType.GET, "foo/bar", () ->
+                    {
+                        int current = active.incrementAndGet();
+                        maxActive.accumulateAndGet(current, Math::max);
+                        Thread.sleep(20);
+                        active.decrementAndGet();
+                        return null;
+                    });
+                }
+                catch (Exception ex)
+                {
+                    throw new RuntimeException(ex);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue("all requests completed", done.await(5, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertEquals("maximum concurrent requests", 2, maxActive.get());
+    }
+}
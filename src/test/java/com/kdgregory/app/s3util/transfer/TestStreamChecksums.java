@@ -0,0 +1,181 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.util.BinaryUtils;
+
+
+public class TestStreamChecksums
+extends TestCase
+{
+    private static byte[] content(int size)
+    {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+
+    private static String md5(byte[] data, int off, int len)
+    throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(data, off, len);
+        return BinaryUtils.toHex(digest.digest());
+    }
+
+
+    private static StreamChecksums checksums(byte[] content, long partSize, boolean withCRC32C)
+    {
+        StreamChecksums checksums = new StreamChecksums(partSize, withCRC32C);
+        checksums.update(content, 0, content.length);
+        return checksums.finish();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testChecksums() throws Exception
+    {
+        byte[] content = content(2500);
+        StreamChecksums checksums = new StreamChecksums(1000, true);
+
+        // updates that span part boundaries
+        checksums.update(content, 0, 700);
+        checksums.update(content, 700, 1700);
+        assertEquals("first complete part", md5(content, 1000, 1000), checksums.getLastPartMD5());
+        checksums.update(content, 2400, 100);
+        checksums.finish();
+
+        MessageDigest combined = MessageDigest.getInstance("MD5");
+        combined.update(BinaryUtils.fromHex(md5(content, 0, 1000)));
+        combined.update(BinaryUtils.fromHex(md5(content, 1000, 1000)));
+        combined.update(BinaryUtils.fromHex(md5(content, 2000, 500)));
+
+        Crc32c crc = new Crc32c();
+        crc.update(content);
+
+        assertEquals("size",        2500,                                       checksums.getSize());
+        assertEquals("part count",  3,                                          checksums.getPartCount());
+        assertEquals("md5",         md5(content, 0, content.length),            checksums.getMD5());
+        assertEquals("multipart",   BinaryUtils.toHex(combined.digest()) + "-3", checksums.getMultipartETag());
+        assertEquals("last part",   md5(content, 2000, 500),                    checksums.getLastPartMD5());
+        assertEquals("crc32c",      crc.toBase64(),                             checksums.getCRC32C());
+
+        assertNull("crc32c not computed", checksums(content, 1000, false).getCRC32C());
+    }
+
+
+    public void testCopy() throws Exception
+    {
+        byte[] content = content(2500);
+        StreamChecksums original = new StreamChecksums(1000, true);
+        original.update(content, 0, 1500);
+
+        // a retry starts from a copy, and the failed attempt's content is discarded
+        StreamChecksums copy = original.copy();
+        copy.update(new byte[500], 0, 500);
+        original.update(content, 1500, 1000);
+        original.finish();
+
+        StreamChecksums expected = checksums(content, 1000, true);
+        assertEquals("md5",         expected.getMD5(),              original.getMD5());
+        assertEquals("multipart",   expected.getMultipartETag(),    original.getMultipartETag());
+        assertEquals("crc32c",      expected.getCRC32C(),           original.getCRC32C());
+    }
+
+
+    public void testVerification() throws Exception
+    {
+        byte[] content = content(2500);
+        StreamChecksums checksums = checksums(content, 1000, true);
+
+        checksums.verifyETag("test", "\"" + checksums.getMD5() + "\"");
+        checksums.verifyETag("test", checksums.getMultipartETag());
+        checksums.verifyETag("test", null);
+        checksums.verifyPartETag("test", 3, "\"" + md5(content, 2000, 500) + "\"");
+        checksums.verifyCRC32C("test", checksums.getCRC32C());
+        checksums.verifyCRC32C("test", "AAAAAA==-3");
+
+        StreamChecksums other = checksums(content(2501), 1000, true);
+        String[][] mismatches = new String[][]
+        {
+            { "etag",       other.getMD5() },
+            { "multipart",  other.getMultipartETag() },
+            { "part",       other.getLastPartMD5() },
+            { "crc32c",     other.getCRC32C() },
+        };
+        for (String[] mismatch : mismatches)
+        {
+            try
+            {
+                if (mismatch[0].equals("part"))
+                    checksums.verifyPartETag("test", 3, mismatch[1]);
+                else if (mismatch[0].equals("crc32c"))
+                    checksums.verifyCRC32C("test", mismatch[1]);
+                else
+                    checksums.verifyETag("test", mismatch[1]);
+                fail("should have thrown: " + mismatch[0]);
+            }
+            catch (ChecksumMismatchException ex)
+            {
+                assertTrue(mismatch[0] + " message", ex.getMessage().contains(mismatch[1]));
+                assertTrue(mismatch[0] + " retryable", ex.isRetryable());
+            }
+        }
+    }
+
+
+    public void testContentETag() throws Exception
+    {
+        assertTrue("unencrypted",       StreamChecksums.isContentETag(null, null));
+        assertTrue("SSE-S3",            StreamChecksums.isContentETag("AES256", null));
+        assertFalse("SSE-KMS",          StreamChecksums.isContentETag("aws:kms", null));
+        assertFalse("SSE-C",            StreamChecksums.isContentETag(null, "AES256"));
+    }
+
+
+    public void testInputStreamResets() throws Exception
+    {
+        byte[] content = content(2500);
+        ChecksumInputStream in = new ChecksumInputStream(new ByteArrayInputStream(content),
+                                                         new StreamChecksums(1000, true));
+        in.mark(Integer.MAX_VALUE);
+        assertEquals("partial read", 1200, in.read(new byte[1200]));
+        in.reset();
+
+        assertEquals("first byte", content[0] & 0xFF, in.read());
+        assertEquals("skipped", 99, in.skip(99));
+        byte[] buf = new byte[4096];
+        int total = 100;
+        int count;
+        while ((count = in.read(buf)) > 0)
+            total += count;
+        assertEquals("total", 2500, total);
+
+        StreamChecksums expected = checksums(content, 1000, true);
+        StreamChecksums actual = in.getChecksums().finish();
+        assertEquals("md5",         expected.getMD5(),              actual.getMD5());
+        assertEquals("multipart",   expected.getMultipartETag(),    actual.getMultipartETag());
+        assertEquals("crc32c",      expected.getCRC32C(),           actual.getCRC32C());
+    }
+}
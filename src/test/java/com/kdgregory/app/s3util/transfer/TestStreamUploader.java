@@ -0,0 +1,258 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.IOUtils;
+import com.amazonaws.util.Md5Utils;
+
+import com.kdgregory.app.s3util.metrics.S3Metrics;
+
+
+public class TestStreamUploader
+extends TestCase
+{
+    private final static int PART_SIZE = 4096;
+
+    private ExecutorService pool;
+    private RequestGovernor governor;
+
+    // populated by the mock client
+    private Map<Integer,byte[]> parts = new TreeMap<Integer,byte[]>();
+    private Map<Integer,String> partMD5s = new TreeMap<Integer,String>();
+    private byte[] completed;
+    private int putCount;
+    private int partCount;
+
+    // if set, the mock client reports a bad ETag for the first upload of this part
+    private int corruptPart;
+
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        pool = Executors.newFixedThreadPool(4);
+        governor = new RequestGovernor(new S3Metrics(), 4, 16, 5, 1, 1);
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        pool.shutdownNow();
+    }
+
+
+    /**
+     *  Creates a client that implements just the operations used for uploads,
+     *  assembling the uploaded content.
+     */
+    private AmazonS3 createClient()
+    {
+        return (AmazonS3)Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] { AmazonS3.class },
+            (proxy, method, args) ->
+            {
+                synchronized (this)
+                {
+                    switch (method.getName())
+                    {
+                        case "putObject" :
+                            putCount++;
+                            completed = IOUtils.toByteArray(((PutObjectRequest)args[0]).getInputStream());
+                            return new PutObjectResult();
+                        case "initiateMultipartUpload" :
+                            InitiateMultipartUploadResult initResult = new InitiateMultipartUploadResult();
+                            initResult.setUploadId("example");
+                            return initResult;
+                        case "uploadPart" :
+                            partCount++;
+                            UploadPartRequest partRequest = (UploadPartRequest)args[0];
+                            int partNumber = partRequest.getPartNumber();
+                            byte[] part = IOUtils.toByteArray(partRequest.getInputStream());
+                            parts.put(partNumber, part);
+                            partMD5s.put(partNumber, partRequest.getMd5Digest());
+                            UploadPartResult partResult = new UploadPartResult();
+                            partResult.setPartNumber(partNumber);
+                            partResult.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(part)));
+                            if (partNumber == corruptPart)
+                            {
+                                corruptPart = 0;
+                                partResult.setETag("d41d8cd98f00b204e9800998ecf8427e");
+                            }
+                            return partResult;
+                        case "completeMultipartUpload" :
+                            ByteArrayOutputStream content = new ByteArrayOutputStream();
+                            for (int ii = 1 ; ii <= ((CompleteMultipartUploadRequest)args[0]).getPartETags().size() ; ii++)
+                                content.write(parts.get(ii));
+                            completed = content.toByteArray();
+                            return new CompleteMultipartUploadResult();
+                        default :
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+            });
+    }
+
+
+    /**
+     *  Uploads the passed content, failing if the upload doesn't complete in a
+     *  reasonable time (which indicates a deadlock). Returns the size reported
+     *  to the callback.
+     */
+    private long upload(byte[] content, long size, long memoryLimit)
+    throws Exception
+    {
+        final WorkQueue workQueue = new WorkQueue(pool, 4);
+        final StreamUploader uploader = new StreamUploader(createClient(), governor, workQueue, memoryLimit, PART_SIZE);
+        final AtomicLong reportedSize = new AtomicLong(-1);
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<?> future = reader.submit(() ->
+            {
+                uploader.upload("bucket", "key", new ByteArrayInputStream(content), size,
+                                UploadPolicy.empty().apply("key", new File("key")),
+                                (key, uploadedSize) -> reportedSize.set(uploadedSize));
+                workQueue.await();
+                return null;
+            });
+            future.get(10, TimeUnit.SECONDS);
+            return reportedSize.get();
+        }
+        finally
+        {
+            reader.shutdownNow();
+        }
+    }
+
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testSinglePut() throws Exception
+    {
+        byte[] content = randomBytes(PART_SIZE);
+
+        assertEquals("reported size", PART_SIZE, upload(content, -1, 64 * 1024));
+        assertEquals("used PUT", 1, putCount);
+        assertEquals("no parts", 0, parts.size());
+        assertTrue("content", Arrays.equals(content, completed));
+    }
+
+
+    public void testMultipartKnownSize() throws Exception
+    {
+        byte[] content = randomBytes(2 * PART_SIZE + 100);
+
+        assertEquals("reported size", content.length, upload(content, content.length, 64 * 1024));
+        assertEquals("no PUT", 0, putCount);
+        assertEquals("parts", 3, parts.size());
+        assertTrue("content", Arrays.equals(content, completed));
+    }
+
+
+    public void testMultipartSmallMemoryLimit() throws Exception
+    {
+        // the limit only allows one chunk at a time, for known and unknown sizes
+
+        byte[] content = randomBytes(2 * PART_SIZE + 100);
+
+        assertEquals("known size", content.length, upload(content, content.length, PART_SIZE + 1024));
+        assertEquals("known size, parts", 3, parts.size());
+        assertTrue("known size, content", Arrays.equals(content, completed));
+
+        parts.clear();
+        completed = null;
+
+        assertEquals("unknown size", content.length, upload(content, -1, PART_SIZE + 1024));
+        assertEquals("unknown size, parts", 3, parts.size());
+        assertTrue("unknown size, content", Arrays.equals(content, completed));
+    }
+
+
+    public void testChunkLargerThanMemoryLimit() throws Exception
+    {
+        byte[] content = randomBytes(3 * PART_SIZE);
+
+        assertEquals("reported size", content.length, upload(content, content.length, 1024));
+        assertEquals("parts", 3, parts.size());
+        assertTrue("content", Arrays.equals(content, completed));
+    }
+
+
+    public void testPartChecksums() throws Exception
+    {
+        byte[] content = randomBytes(2 * PART_SIZE + 100);
+
+        assertEquals("reported size", content.length, upload(content, content.length, 64 * 1024));
+        assertEquals("parts", 3, parts.size());
+        for (int partNumber : parts.keySet())
+        {
+            assertEquals("Content-MD5 of part " + partNumber,
+                         BinaryUtils.toBase64(Md5Utils.computeMD5Hash(parts.get(partNumber))),
+                         partMD5s.get(partNumber));
+        }
+    }
+
+
+    public void testPartETagMismatchIsRetried() throws Exception
+    {
+        byte[] content = randomBytes(2 * PART_SIZE + 100);
+        corruptPart = 2;
+
+        assertEquals("reported size", content.length, upload(content, content.length, 64 * 1024));
+        assertEquals("part requests", 4, partCount);
+        assertEquals("parts", 3, parts.size());
+        assertTrue("content", Arrays.equals(content, completed));
+    }
+}
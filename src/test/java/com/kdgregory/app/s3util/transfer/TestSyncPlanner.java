@@ -0,0 +1,220 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+
+public class TestSyncPlanner
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static SyncEntry remote(String key, long size, long lastModified)
+    {
+        return SyncEntry.forRemote(key, size, lastModified, "\"etag\"");
+    }
+
+
+    /**
+     *  Records the join as a list of strings: "S:key", "D:key", or "B:key".
+     */
+    private static class RecordingHandler
+    implements SyncPlanner.Handler
+    {
+        public List<String> events = new ArrayList<>();
+
+        @Override
+        public void sourceOnly(SyncEntry src)
+        {
+            events.add("S:" + src.getKey());
+        }
+
+        @Override
+        public void destOnly(SyncEntry dst)
+        {
+            events.add("D:" + dst.getKey());
+        }
+
+        @Override
+        public void both(SyncEntry src, SyncEntry dst)
+        {
+            assertEquals("keys match", src.getKey(), dst.getKey());
+            events.add("B:" + src.getKey());
+        }
+    }
+
+
+    private static Iterator<SyncEntry> localEntries(String... keys)
+    {
+        List<SyncEntry> entries = new ArrayList<>();
+        for (String key : keys)
+            entries.add(SyncEntry.forLocal(key, new File(key)));
+        return entries.iterator();
+    }
+
+
+    private static void touch(File file)
+    throws Exception
+    {
+        file.getParentFile().mkdirs();
+        new FileOutputStream(file).close();
+    }
+
+
+    private static void deleteRecursively(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+                deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testCompareKeys() throws Exception
+    {
+        assertEquals("equal",               0,  SyncPlanner.compareKeys("abc", "abc"));
+        assertEquals("less",                -1, SyncPlanner.compareKeys("abc", "abd"));
+        assertEquals("greater",             1,  SyncPlanner.compareKeys("abd", "abc"));
+        assertEquals("prefix",              -1, SyncPlanner.compareKeys("ab", "abc"));
+        assertEquals("dash before slash",   -1, SyncPlanner.compareKeys("a-b", "a/b"));
+
+        // U+FFFD is a single UTF-16 char, U+1F600 is a surrogate pair; UTF-8 puts the latter after
+        assertTrue("String.compareTo differs",  "\uFFFD".compareTo("\uD83D\uDE00") > 0);
+        assertEquals("code point order",        -1, SyncPlanner.compareKeys("\uFFFD", "\uD83D\uDE00"));
+    }
+
+
+    public void testMergeJoinUpload() throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler();
+        SyncPlanner planner = new SyncPlanner(localEntries("a", "c", "d", "f"), true, handler);
+
+        planner.remote(remote("b", 1, 0));
+        planner.remote(remote("c", 1, 0));
+        planner.remote(remote("e", 1, 0));
+        planner.finish();
+
+        assertEquals(Arrays.asList("S:a", "D:b", "B:c", "S:d", "D:e", "S:f"), handler.events);
+    }
+
+
+    public void testMergeJoinDownload() throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler();
+        SyncPlanner planner = new SyncPlanner(localEntries("b"), false, handler);
+
+        planner.remote(remote("a", 1, 0));
+        planner.remote(remote("b", 1, 0));
+        planner.remote(remote("c", 1, 0));
+        planner.finish();
+
+        assertEquals(Arrays.asList("S:a", "B:b", "S:c"), handler.events);
+    }
+
+
+    public void testEmptySides() throws Exception
+    {
+        RecordingHandler h1 = new RecordingHandler();
+        SyncPlanner p1 = new SyncPlanner(localEntries(), true, h1);
+        p1.remote(remote("a", 1, 0));
+        p1.finish();
+        assertEquals(Arrays.asList("D:a"), h1.events);
+
+        RecordingHandler h2 = new RecordingHandler();
+        SyncPlanner p2 = new SyncPlanner(localEntries("a"), true, h2);
+        p2.finish();
+        assertEquals(Arrays.asList("S:a"), h2.events);
+    }
+
+
+    public void testRemoteOutOfOrder() throws Exception
+    {
+        SyncPlanner planner = new SyncPlanner(localEntries(), true, new RecordingHandler());
+        planner.remote(remote("b", 1, 0));
+        try
+        {
+            planner.remote(remote("a", 1, 0));
+            fail("accepted out-of-order entry");
+        }
+        catch (IllegalStateException ex)
+        {
+            // success
+        }
+    }
+
+
+    public void testCompareMetadata() throws Exception
+    {
+        assertEquals("different size",
+                     SyncPlanner.Verdict.DIFFERENT,
+                     SyncPlanner.compare(remote("a", 10, 5000), remote("a", 11, 5000)));
+        assertEquals("same size, dest newer",
+                     SyncPlanner.Verdict.SAME,
+                     SyncPlanner.compare(remote("a", 10, 5000), remote("a", 10, 9000)));
+        assertEquals("same size, same second",
+                     SyncPlanner.Verdict.SAME,
+                     SyncPlanner.compare(remote("a", 10, 5999), remote("a", 10, 5000)));
+        assertEquals("same size, source newer",
+                     SyncPlanner.Verdict.CHECK_CONTENT,
+                     SyncPlanner.compare(remote("a", 10, 7000), remote("a", 10, 5000)));
+    }
+
+
+    public void testLocalTreeWalkerOrder() throws Exception
+    {
+        File root = Files.createTempDirectory("TestSyncPlanner").toFile();
+        try
+        {
+            touch(new File(root, "b"));
+            touch(new File(root, "a/z"));
+            touch(new File(root, "a/b/c"));
+            touch(new File(root, "a-b"));
+            touch(new File(root, "a.b"));
+            new File(root, "empty").mkdir();
+
+            List<String> keys = new ArrayList<>();
+            for (Iterator<SyncEntry> itx = new LocalTreeWalker(root) ; itx.hasNext() ; )
+                keys.add(itx.next().getKey());
+
+            assertEquals(Arrays.asList("a-b", "a.b", "a/b/c", "a/z", "b"), keys);
+
+            // and verify that this is the order that the planner requires
+            List<String> sorted = new ArrayList<>(keys);
+            sorted.sort(SyncPlanner::compareKeys);
+            assertEquals(sorted, keys);
+        }
+        finally
+        {
+            deleteRecursively(root);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.io.File;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.StorageClass;
+
+
+public class TestUploadPolicy
+extends TestCase
+{
+//----------------------------------------------------------------------------
+//  Support Code
+//----------------------------------------------------------------------------
+
+    private static UploadPolicy parse(String... lines)
+    throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines)
+            sb.append(line).append("\n");
+        return UploadPolicy.parse(new StringReader(sb.toString()));
+    }
+
+
+    private static UploadPolicy.Settings apply(UploadPolicy policy, String key)
+    {
+        return policy.apply(key, new File(key));
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testEmptyPolicy() throws Exception
+    {
+        UploadPolicy.Settings settings = apply(UploadPolicy.empty(), "foo/index.html");
+        assertEquals("content type",    "text/html", settings.getMetadata().getContentType());
+        assertNull("cache control",     settings.getMetadata().getCacheControl());
+        assertNull("acl",               settings.getCannedAcl());
+        assertNull("storage class",     settings.getStorageClass());
+    }
+
+
+    public void testFilenameGlob() throws Exception
+    {
+        UploadPolicy policy = parse("*.html   Cache-Control: max-age=300");
+
+        assertEquals("top level",   "max-age=300",  apply(policy, "index.html").getMetadata().getCacheControl());
+        assertEquals("nested",      "max-age=300",  apply(policy, "a/b/index.html").getMetadata().getCacheControl());
+        assertNull("no match",                      apply(policy, "a/b/index.htm").getMetadata().getCacheControl());
+    }
+
+
+    public void testPathGlob() throws Exception
+    {
+        UploadPolicy policy = parse("assets/*.css       Cache-Control: one",
+                                    "static/**          Cache-Control: two",
+                                    "a/**/b.txt         Cache-Control: three",
+                                    "x/?.txt            Cache-Control: four");
+
+        assertEquals("single star",             "one",  apply(policy, "assets/site.css").getMetadata().getCacheControl());
+        assertNull("single star not nested",            apply(policy, "assets/x/site.css").getMetadata().getCacheControl());
+        assertEquals("double star",             "two",  apply(policy, "static/x/y/z.png").getMetadata().getCacheControl());
+        assertEquals("double star, no dirs",    "three", apply(policy, "a/b.txt").getMetadata().getCacheControl());
+        assertEquals("double star, dirs",       "three", apply(policy, "a/x/y/b.txt").getMetadata().getCacheControl());
+        assertEquals("question mark",           "four", apply(policy, "x/1.txt").getMetadata().getCacheControl());
+        assertNull("question mark, two chars",          apply(policy, "x/12.txt").getMetadata().getCacheControl());
+        assertNull("regex chars are literal",           apply(policy, "assetsXsite.css").getMetadata().getCacheControl());
+    }
+
+
+    public void testMimeMatcher() throws Exception
+    {
+        UploadPolicy policy = parse("mime:image/*       Cache-Control: images",
+                                    "mime:text/css      Cache-Control: css");
+
+        assertEquals("wildcard",    "images",   apply(policy, "logo.png").getMetadata().getCacheControl());
+        assertEquals("exact",       "css",      apply(policy, "site.css").getMetadata().getCacheControl());
+        assertNull("no match",                  apply(policy, "index.html").getMetadata().getCacheControl());
+    }
+
+
+    public void testLaterRulesOverride() throws Exception
+    {
+        UploadPolicy policy = parse("# comment",
+                                    "",
+                                    "**                 Cache-Control: default",
+                                    "**                 x-amz-acl: private",
+                                    "public/**          x-amz-acl: public-read",
+                                    "*.html             Cache-Control: html",
+                                    "*.html             Content-Type: text/html; charset=utf-8");
+
+        UploadPolicy.Settings s1 = apply(policy, "public/index.html");
+        assertEquals("cache control",   "html",                         s1.getMetadata().getCacheControl());
+        assertEquals("content type",    "text/html; charset=utf-8",     s1.getMetadata().getContentType());
+        assertEquals("acl",             CannedAccessControlList.PublicRead, s1.getCannedAcl());
+
+        UploadPolicy.Settings s2 = apply(policy, "private/data.bin");
+        assertEquals("cache control",   "default",                      s2.getMetadata().getCacheControl());
+        assertEquals("content type",    "application/octet-stream",     s2.getMetadata().getContentType());
+        assertEquals("acl",             CannedAccessControlList.Private, s2.getCannedAcl());
+    }
+
+
+    public void testOtherHeaders() throws Exception
+    {
+        UploadPolicy policy = parse("**     Content-Disposition: attachment",
+                                    "**     content-language: en",
+                                    "**     x-amz-storage-class: STANDARD_IA",
+                                    "**     x-amz-meta-Team: web");
+
+        UploadPolicy.Settings settings = apply(policy, "foo.txt");
+        assertEquals("disposition",     "attachment",               settings.getMetadata().getContentDisposition());
+        assertEquals("language",        "en",                       settings.getMetadata().getContentLanguage());
+        assertEquals("storage class",   StorageClass.StandardInfrequentAccess, settings.getStorageClass());
+        assertEquals("user metadata",   "web",                      settings.getMetadata().getUserMetaDataOf("team"));
+    }
+
+
+    public void testInvalidRules() throws Exception
+    {
+        String[] invalid = new String[]
+        {
+            "*.html",
+            "*.html Cache-Control",
+            "*.html X-Unknown: foo",
+            "*.html x-amz-meta-: foo",
+            "*.html x-amz-acl: everyone",
+            "*.html x-amz-storage-class: CHEAP",
+        };
+
+        for (String line : invalid)
+        {
+            try
+            {
+                parse("# first line", line);
+                fail("accepted: " + line);
+            }
+            catch (IllegalArgumentException ex)
+            {
+                assertTrue("message identifies line: " + ex.getMessage(), ex.getMessage().startsWith("line 2:"));
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+// Copyright Keith D Gregory
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.kdgregory.app.s3util.transfer;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+
+public class TestWorkQueue
+extends TestCase
+{
+    private ExecutorService pool;
+
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        pool.shutdownNow();
+    }
+
+//----------------------------------------------------------------------------
+//  Test Cases
+//----------------------------------------------------------------------------
+
+    public void testRunsAllTasks() throws Exception
+    {
+        final AtomicInteger counter = new AtomicInteger();
+        WorkQueue queue = new WorkQueue(pool, 2);
+        for (int ii = 0 ; ii < 100 ; ii++)
+            queue.submit(() -> counter.incrementAndGet());
+        queue.await();
+
+        assertEquals(100, counter.get());
+    }
+
+
+    public void testLimitsPendingTasks() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final WorkQueue queue = new WorkQueue(pool, 2);
+        queue.submit(() -> release.await());
+        queue.submit(() -> release.await());
+
+        final CountDownLatch thirdSubmitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() ->
+        {
+            try
+            {
+                queue.submit(() -> { /* nothing */ });
+                thirdSubmitted.countDown();
+            }
+            catch (Exception ignored)
+            {
+                // will cause assertion failure
+            }
+        });
+        submitter.start();
+
+        assertFalse("blocked while queue is full", thirdSubmitted.await(100, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue("proceeded after tasks completed", thirdSubmitted.await(1, TimeUnit.SECONDS));
+        queue.await();
+    }
+
+
+    public void testFailure() throws Exception
+    {
+        final AtomicInteger counter = new AtomicInteger();
+        WorkQueue queue = new WorkQueue(pool, 1);
+        queue.submit(() ->
+        {
+            throw new IllegalStateException("test");
+        });
+
+        try
+        {
+            for (int ii = 0 ; ii < 10 ; ii++)
+                queue.submit(() -> counter.incrementAndGet());
+            queue.await();
+            fail("did not rethrow failure");
+        }
+        catch (IllegalStateException ex)
+        {
+            assertEquals("test", ex.getMessage());
+        }
+
+        assertTrue("failure flag", queue.hasFailed());
+
+        // with a single permit, the failed task completes before the next is submitted
+        assertEquals("tasks after failure not run", 0, counter.get());
+    }
+}
@@ -33,4 +33,15 @@ extends TestCase
         assertEquals(notText,   MimeHelper.lookup(new File("fo.otxt")));
         assertEquals(notText,   MimeHelper.lookup(new File("footxt.")));
     }
+
+
+    public void testIsCompressible() throws Exception
+    {
+        assertTrue("html",          MimeHelper.isCompressible(MimeHelper.lookup(new File("index.html"))));
+        assertTrue("css",           MimeHelper.isCompressible(MimeHelper.lookup(new File("site.css"))));
+        assertTrue("javascript",    MimeHelper.isCompressible(MimeHelper.lookup(new File("app.js"))));
+        assertTrue("xml",           MimeHelper.isCompressible(MimeHelper.lookup(new File("feed.xml"))));
+        assertFalse("png",          MimeHelper.isCompressible(MimeHelper.lookup(new File("logo.png"))));
+        assertFalse("unknown",      MimeHelper.isCompressible(MimeHelper.lookup(new File("data.bin"))));
+    }
 }